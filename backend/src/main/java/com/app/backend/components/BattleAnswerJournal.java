@@ -0,0 +1,235 @@
+package com.app.backend.components;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Nhật ký câu trả lời ghi sau (write-behind) cho trận đấu.
+ * <p>
+ * submitAnswer chỉ chấm điểm trên BattleState rồi {@link #append(Entry)} vào {@link BattleJournalBuffer}
+ * (RAM khi 1 node, list Redis khi battle.state-store=redis → node nào cũng ghi / kết thúc trận được, không mất khi node chết).
+ * Writer nền flush định kỳ bằng JDBC batch:
+ * - INSERT IGNORE vào tra_loi_tran_dau (idempotent nhờ uq_traloi_unique → retry an toàn)
+ * - UPDATE nguoi_choi_tran_dau cộng dồn điểm / số câu đúng theo từng người, CHỈ từ các dòng INSERT thật sự chèn
+ *   (update count = 1) → retry sau commit mơ hồ không cộng điểm 2 lần. Cần giữ rewriteBatchedStatements tắt
+ *   (mặc định) để driver trả count từng dòng; count không rõ (SUCCESS_NO_INFO) được tính là đã chèn.
+ * <p>
+ * Dòng chỉ gỡ khỏi hàng đợi sau khi batch commit; lỗi / rollback → trả lại để ghi lại.
+ * finishBattle gọi {@link #drain(Long)} trước khi đọc log để tính kết quả.
+ */
+@Slf4j
+@Component
+public class BattleAnswerJournal {
+
+    private static final String INSERT_ANSWER_SQL = """
+            INSERT IGNORE INTO tra_loi_tran_dau
+                (tran_dau_id, nguoi_dung_id, cau_hoi_id, lua_chon, dung_hay_sai, thoi_gian_ms, tra_loi_luc)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String UPDATE_PLAYER_SQL = """
+            UPDATE nguoi_choi_tran_dau
+            SET diem = COALESCE(diem, 0) + ?, so_cau_dung = COALESCE(so_cau_dung, 0) + ?
+            WHERE tran_dau_id = ? AND nguoi_dung_id = ?
+            """;
+
+    /**
+     * 1 dòng trả lời đã chấm điểm (bất biến)
+     */
+    public record Entry(Long tranDauId,
+                        Long userId,
+                        Long cauHoiId,
+                        char luaChon,
+                        boolean correct,
+                        int thoiGianMs,
+                        int gained,
+                        Instant traLoiLuc) {
+    }
+
+    private final BattleJournalBuffer buffer;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor taskExecutor;
+
+    @Value("${battle.journal.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    /**
+     * Chỉ 1 luồng ghi tại 1 thời điểm → drain() chờ batch nền đang chạy commit xong
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public BattleAnswerJournal(BattleJournalBuffer buffer,
+                               JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                               @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.buffer = buffer;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.scheduler = scheduler;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Timer chỉ kích hoạt; việc ghi DB chạy trên taskExecutor để không chặn thread timer của trận
+     */
+    @PostConstruct
+    public void startWriter() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (hasPending()) taskExecutor.execute(this::flushAll);
+        }, Duration.ofMillis(flushIntervalMs));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushAll();
+    }
+
+    public void append(Entry entry) {
+        buffer.append(entry);
+    }
+
+    /**
+     * Ghi ngay toàn bộ dòng còn chờ của 1 trận (gọi đồng bộ trong finishBattle).
+     * Chạy trong transaction hiện tại nếu có → kết quả thấy được ngay khi đọc lại log.
+     * Dòng chỉ gỡ khỏi hàng đợi khi transaction ngoài commit; rollback → trả lại để writer nền ghi lại.
+     */
+    public void drain(Long tranDauId) {
+        flushLock.lock();
+        try {
+            BattleJournalBuffer.Batch batch = buffer.takeAll(tranDauId);
+            if (batch.entries().isEmpty()) {
+                batch.complete(true);
+                return;
+            }
+            try {
+                write(batch.entries());
+            } catch (RuntimeException e) {
+                batch.complete(false);
+                throw e;
+            }
+            completeAfterTransaction(batch);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void completeAfterTransaction(BattleJournalBuffer.Batch batch) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            batch.complete(true);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    log.warn("⚠️ Transaction kết thúc trận rollback → trả {} dòng về answer journal",
+                            batch.entries().size());
+                }
+                batch.complete(status == STATUS_COMMITTED);
+            }
+        });
+    }
+
+    /**
+     * Writer nền: gom mọi trận vào 1 batch
+     */
+    public void flushAll() {
+        if (!hasPending()) return;
+        if (!flushLock.tryLock()) return; // drain đang chạy → lần sau
+        List<BattleJournalBuffer.Batch> batches = new ArrayList<>();
+        try {
+            List<Entry> entries = new ArrayList<>();
+            for (Long tranDauId : buffer.pendingBattles()) {
+                BattleJournalBuffer.Batch batch = buffer.take(tranDauId);
+                batches.add(batch);
+                entries.addAll(batch.entries());
+            }
+            boolean written = false;
+            try {
+                if (!entries.isEmpty()) write(entries);
+                written = true;
+            } catch (Exception e) {
+                // Trả lại hàng đợi → lần flush sau thử lại (INSERT IGNORE nên không bị nhân đôi)
+                log.error("❌ Flush answer journal thất bại ({} dòng): {}", entries.size(), e.getMessage());
+            }
+            for (BattleJournalBuffer.Batch batch : batches) {
+                batch.complete(written);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private boolean hasPending() {
+        try {
+            return !buffer.pendingBattles().isEmpty();
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được hàng đợi answer journal: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    public int pendingCount() {
+        return buffer.pendingCount();
+    }
+
+    private void write(List<Entry> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            int[][] counts = jdbcTemplate.batchUpdate(INSERT_ANSWER_SQL, batch, batch.size(), (ps, e) -> {
+                ps.setLong(1, e.tranDauId());
+                ps.setLong(2, e.userId());
+                ps.setLong(3, e.cauHoiId());
+                ps.setString(4, String.valueOf(e.luaChon()));
+                ps.setBoolean(5, e.correct());
+                ps.setInt(6, e.thoiGianMs());
+                ps.setTimestamp(7, Timestamp.from(e.traLoiLuc()));
+            });
+            Map<List<Long>, int[]> deltas = insertedDeltas(batch, counts);
+            if (deltas.isEmpty()) return;
+            List<Map.Entry<List<Long>, int[]>> rows = new ArrayList<>(deltas.entrySet());
+            jdbcTemplate.batchUpdate(UPDATE_PLAYER_SQL, rows, rows.size(), (ps, row) -> {
+                ps.setInt(1, row.getValue()[0]);
+                ps.setInt(2, row.getValue()[1]);
+                ps.setLong(3, row.getKey().get(0));
+                ps.setLong(4, row.getKey().get(1));
+            });
+        });
+    }
+
+    /**
+     * (tranDauId, userId) -> [tổng điểm, số câu đúng] của các dòng INSERT IGNORE đã chèn (bỏ dòng trùng = count 0)
+     */
+    static Map<List<Long>, int[]> insertedDeltas(List<Entry> batch, int[][] counts) {
+        Map<List<Long>, int[]> deltas = new LinkedHashMap<>();
+        int i = 0;
+        for (int[] chunk : counts) {
+            for (int count : chunk) {
+                Entry e = batch.get(i++);
+                if (count == 0) continue;
+                int[] d = deltas.computeIfAbsent(List.of(e.tranDauId(), e.userId()), k -> new int[2]);
+                d[0] += e.gained();
+                if (e.correct()) d[1]++;
+            }
+        }
+        return deltas;
+    }
+}
@@ -0,0 +1,155 @@
+package com.app.backend.components;
+
+import com.app.backend.responses.websocket.LeaderboardUpdateEvent;
+import com.app.backend.responses.websocket.NewQuestionEvent;
+import com.app.backend.responses.websocket.ScoreBatchEvent;
+import com.app.backend.responses.websocket.ScoreUpdateEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mã hoá gọn (compact) cho sự kiện trận đấu – dành cho client đăng ký {@code x-encoding: compact} lúc CONNECT.
+ * <p>
+ * Endpoint /ws dùng SockJS (chỉ truyền text) nên không gửi CBOR/Smile được; thay vào đó là schema
+ * viết tay theo vị trí (không lặp key), thời gian dạng epoch millis:
+ * <pre>
+ *   SCORE_UPDATE       {"t":"SU","d":[tranDauId,userId,hoTen,correct(0/1),gained,total,questionIndex,
+ *                                     comboStreak,comboBonus,comboMultiplier,timestampMs]}
+ *   SCORE_BATCH        {"t":"SB","d":[tranDauId],"r":[[userId,hoTen,correct,gained,total,questionIndex,
+ *                                     comboStreak,comboBonus,comboMultiplier,timestampMs],...]}
+ *   NEW_QUESTION       {"t":"NQ","d":[tranDauId,questionIndex,thoiGianCauGiay,timestampMs,
+ *                                     [id,noiDung,loaiNoiDung,duongDanTep,luaChonA,luaChonB,luaChonC,luaChonD]]}
+ *   LEADERBOARD_UPDATE {"t":"LB","d":[tranDauId,tongNguoiChoi],"r":[[userId,hoTen,diem,xepHang],...]}
+ *   LEADERBOARD_DELTA  {"t":"LD", ... như LB, chỉ các dòng thay đổi}
+ * </pre>
+ * Sự kiện khác giữ nguyên JSON nhưng bỏ field null và mảng object được chuyển sang dạng cột
+ * {@code {"c":[tên cột...],"r":[[giá trị...],...]}} (vd leaderboard của FINISHED).
+ */
+@Component
+@RequiredArgsConstructor
+public class BattleCompactCodec {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private final ObjectMapper objectMapper;
+
+    public Object encode(Object payload) {
+        if (payload instanceof ScoreUpdateEvent e) return scoreUpdate(e);
+        if (payload instanceof ScoreBatchEvent e) return scoreBatch(e);
+        if (payload instanceof NewQuestionEvent e) return newQuestion(e);
+        if (payload instanceof LeaderboardUpdateEvent e) return leaderboard(e);
+        return columnar(objectMapper.valueToTree(payload));
+    }
+
+    private Object scoreUpdate(ScoreUpdateEvent e) {
+        return Map.of("t", "SU", "d", listOf(
+                e.getTranDauId(), e.getUserId(), e.getHoTen(), e.isCorrect() ? 1 : 0,
+                e.getGainedPoints(), e.getTotalPoints(), e.getQuestionIndex(),
+                e.getComboStreak(), e.getComboBonus(), e.getComboMultiplier(), epochMs(e.getTimestamp())));
+    }
+
+    private Object scoreBatch(ScoreBatchEvent e) {
+        List<List<Object>> rows = new ArrayList<>();
+        if (e.getUpdates() != null) {
+            for (ScoreUpdateEvent u : e.getUpdates()) {
+                rows.add(listOf(u.getUserId(), u.getHoTen(), u.isCorrect() ? 1 : 0,
+                        u.getGainedPoints(), u.getTotalPoints(), u.getQuestionIndex(),
+                        u.getComboStreak(), u.getComboBonus(), u.getComboMultiplier(), epochMs(u.getTimestamp())));
+            }
+        }
+        return Map.of("t", "SB", "d", listOf(e.getTranDauId()), "r", rows);
+    }
+
+    private Object newQuestion(NewQuestionEvent e) {
+        NewQuestionEvent.QuestionView q = e.getQuestion();
+        List<Object> question = q == null ? null : listOf(
+                q.getId(), q.getNoiDung(), q.getLoaiNoiDung(), q.getDuongDanTep(),
+                q.getLuaChonA(), q.getLuaChonB(), q.getLuaChonC(), q.getLuaChonD());
+        return Map.of("t", "NQ", "d", listOf(
+                e.getTranDauId(), e.getQuestionIndex(), e.getThoiGianCauGiay(), epochMs(e.getTimestamp()), question));
+    }
+
+    private Object leaderboard(LeaderboardUpdateEvent e) {
+        List<List<Object>> rows = new ArrayList<>();
+        if (e.getPlayers() != null) {
+            for (LeaderboardUpdateEvent.Row r : e.getPlayers()) {
+                rows.add(listOf(r.getUserId(), r.getHoTen(), r.getDiem(), r.getXepHang()));
+            }
+        }
+        String type = "LEADERBOARD_DELTA".equals(e.getType()) ? "LD" : "LB";
+        return Map.of("t", type, "d", listOf(e.getTranDauId(), e.getTongNguoiChoi()), "r", rows);
+    }
+
+    /**
+     * Bỏ null + chuyển mảng object đồng dạng sang dạng cột (đệ quy)
+     */
+    private JsonNode columnar(JsonNode node) {
+        if (node.isObject()) {
+            ObjectNode out = NODES.objectNode();
+            Iterator<Map.Entry<String, JsonNode>> it = node.fields();
+            while (it.hasNext()) {
+                Map.Entry<String, JsonNode> f = it.next();
+                if (f.getValue().isNull()) continue;
+                out.set(f.getKey(), columnar(f.getValue()));
+            }
+            return out;
+        }
+        if (node.isArray() && node.size() > 1 && allObjects(node)) {
+            List<String> cols = new ArrayList<>();
+            for (JsonNode row : node) {
+                row.fieldNames().forEachRemaining(name -> {
+                    if (!cols.contains(name)) cols.add(name);
+                });
+            }
+            ObjectNode out = NODES.objectNode();
+            ArrayNode c = out.putArray("c");
+            cols.forEach(c::add);
+            ArrayNode r = out.putArray("r");
+            for (JsonNode row : node) {
+                ArrayNode values = r.addArray();
+                for (String col : cols) {
+                    JsonNode v = row.get(col);
+                    values.add(v == null ? NODES.nullNode() : columnar(v));
+                }
+            }
+            return out;
+        }
+        if (node.isArray()) {
+            ArrayNode out = NODES.arrayNode();
+            node.forEach(v -> out.add(columnar(v)));
+            return out;
+        }
+        return node;
+    }
+
+    private boolean allObjects(JsonNode array) {
+        for (JsonNode n : array) {
+            if (!n.isObject()) return false;
+        }
+        return true;
+    }
+
+    private Long epochMs(Instant instant) {
+        return instant != null ? instant.toEpochMilli() : null;
+    }
+
+    /**
+     * List.of không nhận null → dùng ArrayList
+     */
+    private List<Object> listOf(Object... values) {
+        List<Object> list = new ArrayList<>(values.length);
+        for (Object v : values) list.add(v);
+        return list;
+    }
+}
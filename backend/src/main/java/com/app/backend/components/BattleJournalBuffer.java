@@ -0,0 +1,45 @@
+package com.app.backend.components;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hàng đợi các dòng trả lời chờ BattleAnswerJournal ghi xuống DB (SPI).
+ * <p>
+ * - {@link InMemoryBattleJournalBuffer}: hàng đợi trong RAM (battle.state-store=memory)
+ * - {@link RedisBattleJournalBuffer}: list Redis theo trận – node nào cũng ghi được, dòng không mất khi node chết
+ * <p>
+ * Lấy ra theo kiểu "mượn": {@link #take} trả về các dòng nhưng chỉ gỡ hẳn khi {@link Batch#complete}(true)
+ * (đã commit xuống DB); complete(false) trả các dòng về hàng đợi để lần sau ghi lại (INSERT IGNORE nên an toàn).
+ */
+public interface BattleJournalBuffer {
+
+    void append(BattleAnswerJournal.Entry entry);
+
+    /**
+     * ID các trận đang có dòng chờ ghi
+     */
+    Set<Long> pendingBattles();
+
+    int pendingCount();
+
+    /**
+     * Các dòng chờ của 1 trận cho writer nền; rỗng nếu nơi khác đang ghi trận này
+     */
+    Batch take(Long tranDauId);
+
+    /**
+     * Toàn bộ dòng chờ của trận vừa kết thúc: chờ nơi khác ghi xong rồi mới lấy
+     */
+    Batch takeAll(Long tranDauId);
+
+    interface Batch {
+
+        List<BattleAnswerJournal.Entry> entries();
+
+        /**
+         * @param written true = đã commit xuống DB → gỡ khỏi hàng đợi; false = trả lại để ghi lại sau
+         */
+        void complete(boolean written);
+    }
+}
@@ -14,6 +14,10 @@ import org.springframework.stereotype.Component;
 import java.time.Instant;
 import java.util.List;
 
+/**
+ * Vòng lặp trận kiểu cũ (battle.engine=loop): giữ 1 task @Async suốt trận và Thread.sleep giữa các bước.
+ * Với async.executor.mode=virtual, task chạy trên virtual thread nên sleep không giữ platform thread.
+ */
 @Component
 @RequiredArgsConstructor
 public class BattleLoopTask {
@@ -95,8 +99,12 @@ public class BattleLoopTask {
 //            System.err.println("❌ Lỗi trong BattleLoopTask: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            state.setAutoLoopRunning(false);
-            battleStateManager.save(state);
+            // Lấy lại bản mới nhất: trận đã bị remove (finish) thì không ghi lại state cũ
+            BattleState latest = battleStateManager.get(tranDauId);
+            if (latest != null) {
+                latest.setAutoLoopRunning(false);
+                battleStateManager.save(latest);
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.app.backend.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Giữ lease các trận node này đang điều phối và tiếp quản trận "mồ côi" (lease hết hạn)
+ * khi chạy nhiều node với battle.state-store=redis.
+ * <p>
+ * - Gia hạn lease mỗi lease-ms / 3; mất lease → dừng timer local (node khác đã nhận).
+ * - Node vừa khởi động cũng quét ngay → trận đang dở được chạy tiếp thay vì chết theo restart.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "battle.state-store", havingValue = "redis")
+public class BattleRecoveryTask {
+
+    private final BattleStateStore store;
+    private final BattleScheduler battleScheduler;
+    private final ThreadPoolTaskScheduler scheduler;
+
+    @Value("${battle.redis.lease-ms:15000}")
+    private long leaseMs;
+
+    public BattleRecoveryTask(BattleStateStore store,
+                              BattleScheduler battleScheduler,
+                              @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler) {
+        this.store = store;
+        this.battleScheduler = battleScheduler;
+        this.scheduler = scheduler;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleAtFixedRate(this::tick, Duration.ofMillis(Math.max(1000L, leaseMs / 3)));
+        log.info("✅ BattleRecoveryTask started: lease={}ms", leaseMs);
+    }
+
+    private void tick() {
+        try {
+            for (Long lost : store.renewOwnership()) {
+                battleScheduler.abandon(lost);
+            }
+            Set<Long> orphans = store.findOrphans();
+            for (Long id : orphans) {
+                battleScheduler.resume(id);
+            }
+        } catch (Exception e) {
+            log.error("❌ Lỗi gia hạn / tiếp quản trận: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.app.backend.components;
+
+import com.app.backend.models.BattleRoster;
+import com.app.backend.models.NguoiChoiTranDau;
+import com.app.backend.models.NguoiDung;
+import com.app.backend.models.constant.TrangThaiTranDau;
+import com.app.backend.repositories.IBattleRosterHeaderProjection;
+import com.app.backend.repositories.INguoiChoiTranDauRepository;
+import com.app.backend.repositories.ITranDauRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * Cache danh sách người trong phòng (BattleRoster) theo tranDauId.
+ * <p>
+ * - Dựng từ DB khi truy cập lần đầu (1 query JOIN FETCH), dựng lại lúc startBattle.
+ * - Chỉ giữ phòng còn sống (CHO / DANG_CHOI); trận đã xong / lịch sử đọc thẳng DB, không chiếm cache.
+ * - Caffeine giới hạn số phòng + hết hạn khi lâu không truy cập (lưới an toàn nếu quên evict).
+ * - join / leave / kick cập nhật bản mới SAU KHI transaction commit → không lệch DB khi rollback.
+ * - Load chạy ngoài khoá; mỗi thay đổi tăng "stamp" của phòng → bản load đọc trước thay đổi không được ghi đè vào cache.
+ * - Cache theo node: mỗi thay đổi (sau commit) PUBLISH tranDauId → node khác bỏ bản của mình, lần sau dựng lại từ DB.
+ *   TTL chỉ là lưới an toàn khi mất tin pub/sub.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BattleRosterManager implements MessageListener {
+
+    private static final int STAMP_STRIPES = 1024;
+
+    private final INguoiChoiTranDauRepository nguoiChoiTranDauRepository;
+    private final ITranDauRepository tranDauRepository;
+    private final StringRedisTemplate redis;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    @Value("${battle.roster.invalidation-channel:cache:battle_roster:invalidate}")
+    private String invalidationChannel;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Value("${battle.roster.max-size:10000}")
+    private long maxSize;
+
+    @Value("${battle.roster.expire-after-access-ms:1800000}")
+    private long expireAfterAccessMs;
+
+    private Cache<Long, BattleRoster> rosters;
+
+    /**
+     * Số lần thay đổi theo nhóm phòng (tranDauId % STAMP_STRIPES)
+     */
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+
+    @PostConstruct
+    public void init() {
+        rosters = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(Duration.ofMillis(expireAfterAccessMs))
+                .build();
+        listenerContainer.addMessageListener(this, new ChannelTopic(invalidationChannel));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        listenerContainer.removeMessageListener(this);
+    }
+
+    /**
+     * Roster hiện tại của phòng (load từ DB nếu chưa có).
+     *
+     * @return null nếu trận không tồn tại
+     */
+    public BattleRoster get(Long tranDauId) {
+        BattleRoster cached = rosters.getIfPresent(tranDauId);
+        if (cached != null) return cached;
+
+        int stripe = stripe(tranDauId);
+        long stamp = stamps.get(stripe);
+        Loaded loaded = load(tranDauId);
+        if (loaded == null) return null;
+        if (!loaded.live()) return loaded.roster();
+
+        // Có thay đổi commit trong lúc load → trả bản vừa đọc nhưng không cache
+        BattleRoster current = rosters.asMap().compute(tranDauId, (k, cur) -> {
+            if (cur != null) return cur;
+            return stamps.get(stripe) == stamp ? loaded.roster() : null;
+        });
+        return current != null ? current : loaded.roster();
+    }
+
+    /**
+     * Dựng lại roster từ DB (dùng lúc startBattle để chốt danh sách)
+     */
+    public BattleRoster reload(Long tranDauId) {
+        stamps.incrementAndGet(stripe(tranDauId));
+        Loaded loaded = load(tranDauId);
+        if (loaded == null) return null;
+        if (loaded.live()) {
+            rosters.put(tranDauId, loaded.roster());
+        } else {
+            rosters.invalidate(tranDauId);
+        }
+        TransactionCallbacks.afterCommit(() -> publish(tranDauId));
+        return loaded.roster();
+    }
+
+    public void addPlayer(Long tranDauId, NguoiDung user, Instant thamGiaLuc) {
+        BattleRoster.Player player = BattleRoster.Player.builder()
+                .userId(user.getId())
+                .hoTen(user.getHoTen())
+                .avatarUrl(user.getAvatarUrl())
+                .thamGiaLuc(thamGiaLuc)
+                .build();
+        TransactionCallbacks.afterCommit(() -> update(tranDauId, r -> r.withPlayer(player)));
+    }
+
+    public void removePlayer(Long tranDauId, Long userId) {
+        TransactionCallbacks.afterCommit(() -> update(tranDauId, r -> r.withoutPlayer(userId)));
+    }
+
+    public void changeChuPhong(Long tranDauId, Long newChuPhongId) {
+        TransactionCallbacks.afterCommit(() -> update(tranDauId, r -> r.withChuPhong(newChuPhongId)));
+    }
+
+    public void evict(Long tranDauId) {
+        TransactionCallbacks.afterCommit(() -> {
+            invalidate(tranDauId);
+            publish(tranDauId);
+        });
+    }
+
+    /**
+     * Tăng stamp TRƯỚC khi sửa → load đang chạy song song sẽ thấy và bỏ qua bản cũ
+     */
+    private void update(Long tranDauId, UnaryOperator<BattleRoster> change) {
+        stamps.incrementAndGet(stripe(tranDauId));
+        rosters.asMap().computeIfPresent(tranDauId, (k, r) -> change.apply(r));
+        publish(tranDauId);
+    }
+
+    private void invalidate(Long tranDauId) {
+        stamps.incrementAndGet(stripe(tranDauId));
+        rosters.invalidate(tranDauId);
+    }
+
+    /**
+     * node|tranDauId – node gửi bỏ qua tin của chính mình (bản local đã cập nhật)
+     */
+    private void publish(Long tranDauId) {
+        try {
+            redis.convertAndSend(invalidationChannel, nodeId + "|" + tranDauId);
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể phát invalidation roster trận {}: {}", tranDauId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 2);
+        if (parts.length < 2 || parts[0].equals(nodeId)) return;
+        try {
+            invalidate(Long.valueOf(parts[1]));
+        } catch (NumberFormatException e) {
+            log.warn("⚠️ Invalidation roster không hợp lệ: {}", parts[1]);
+        }
+    }
+
+    private record Loaded(BattleRoster roster, boolean live) {
+    }
+
+    private Loaded load(Long tranDauId) {
+        IBattleRosterHeaderProjection header = tranDauRepository.findRosterHeaderById(tranDauId).orElse(null);
+        if (header == null) return null;
+
+        List<NguoiChoiTranDau> rows = nguoiChoiTranDauRepository.findAllWithNguoiDungByTranDauId(tranDauId);
+        List<BattleRoster.Player> players = rows.stream()
+                .map(n -> BattleRoster.Player.builder()
+                        .userId(n.getNguoiDung().getId())
+                        .hoTen(n.getNguoiDung().getHoTen())
+                        .avatarUrl(n.getNguoiDung().getAvatarUrl())
+                        .thamGiaLuc(n.getThamGiaLuc())
+                        .build())
+                .toList();
+        boolean live = TrangThaiTranDau.CHO.equals(header.getTrangThai())
+                || TrangThaiTranDau.DANG_CHOI.equals(header.getTrangThai());
+        return new Loaded(new BattleRoster(tranDauId, header.getChuPhongId(), players), live);
+    }
+
+    private static int stripe(Long tranDauId) {
+        return (int) Math.floorMod(tranDauId, (long) STAMP_STRIPES);
+    }
+}
@@ -0,0 +1,274 @@
+package com.app.backend.components;
+
+import com.app.backend.dtos.cache.CauHoiCacheDTO;
+import com.app.backend.models.BattleState;
+import com.app.backend.services.trandau.ITranDauService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Điều phối vòng đời trận đấu bằng các sự kiện hẹn giờ (deadline-driven).
+ * <p>
+ * Thay vì giữ 1 thread ngủ suốt trận (Thread.sleep), mỗi trận chỉ có đúng 1 sự kiện
+ * kế tiếp nằm trong {@code battleTaskScheduler}:
+ * <pre>
+ *   start ──(đếm ngược)──▶ openQuestion(0) ──(hết giờ)──▶ closeQuestion(0)
+ *         ──(nghỉ xem BXH)──▶ openQuestion(1) ... ──▶ finish
+ * </pre>
+ * Hàng nghìn trận dùng chung vài thread timer. {@link #cancel(Long)} gỡ sự kiện đang chờ
+ * (dùng khi admin đóng phòng hoặc chủ phòng kết thúc sớm).
+ * <p>
+ * Mỗi sự kiện là 1 {@link Step} được đăng ký vào {@code pending} TRƯỚC khi giao cho timer; sự kiện kế tiếp chỉ được
+ * đăng ký nếu sự kiện sinh ra nó vẫn là sự kiện hiện tại (replace nguyên tử) → cancel giữa chừng luôn cắt được chuỗi.
+ * Việc chạm DB (đóng câu, kết thúc trận) chạy trên battleStepExecutor (đầy → hẹn lại trên timer, không chạy
+ * trên thread timer), thread timer chỉ hẹn giờ.
+ */
+@Slf4j
+@Component
+public class BattleScheduler {
+
+    public static final int PRE_COUNTDOWN_SECONDS = 10;
+    private static final long LEADERBOARD_BREAK_MS = 5000L;
+
+    private final BattleStateManager battleStateManager;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor stepExecutor;
+    private final BattleWsPublisher wsPublisher;
+
+    @Lazy
+    @Autowired
+    private ITranDauService tranDauService;
+
+    /**
+     * 1 sự kiện đã hẹn; future gán sau khi giao cho timer (có thể null trong khoảnh khắc đó)
+     */
+    private static final class Step {
+        private volatile ScheduledFuture<?> future;
+
+        private void cancel() {
+            ScheduledFuture<?> f = future;
+            if (f != null) f.cancel(false);
+        }
+    }
+
+    @FunctionalInterface
+    private interface StepAction {
+        void run(Step self);
+    }
+
+    /**
+     * tranDauId -> sự kiện kế tiếp đang chờ chạy (hoặc đang chạy)
+     */
+    private final Map<Long, Step> pending = new ConcurrentHashMap<>();
+
+    public BattleScheduler(BattleStateManager battleStateManager,
+                           @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                           @Qualifier("battleStepExecutor") Executor stepExecutor,
+                           BattleWsPublisher wsPublisher) {
+        this.battleStateManager = battleStateManager;
+        this.scheduler = scheduler;
+        this.stepExecutor = stepExecutor;
+        this.wsPublisher = wsPublisher;
+    }
+
+    /**
+     * Bắt đầu chuỗi sự kiện cho trận (gọi sau khi BattleState đã được lưu).
+     * Câu đầu tiên được bật sau {@link #PRE_COUNTDOWN_SECONDS} giây đếm ngược.
+     */
+    public void start(Long tranDauId, int secondsPerQuestion) {
+        BattleState state = battleStateManager.get(tranDauId);
+        if (state == null) return;
+        if (state.isAutoLoopRunning()) return;
+
+        if (!battleStateManager.acquireOwnership(tranDauId)) return; // node khác đang điều phối
+
+        state.setAutoLoopRunning(true);
+        if (state.getSecondsPerQuestion() <= 0) state.setSecondsPerQuestion(secondsPerQuestion);
+        if (state.getStartTime() == null) state.setStartTime(Instant.now());
+        battleStateManager.save(state);
+
+        schedule(tranDauId, null, self -> openQuestion(tranDauId, 0, self), PRE_COUNTDOWN_SECONDS * 1000L);
+    }
+
+    /**
+     * Tiếp quản trận đang dở (node chủ cũ chết / restart) – dựng lại sự kiện kế tiếp từ BattleState.
+     * Nếu câu hiện tại đã hết giờ thì đóng câu ngay (có thể gửi lại ANSWER_REVEAL/BXH – vô hại).
+     */
+    public void resume(Long tranDauId) {
+        if (pending.containsKey(tranDauId)) return;
+        BattleState state = battleStateManager.get(tranDauId);
+        if (state == null || state.isMarkedFinished()) return;
+        if (!battleStateManager.acquireOwnership(tranDauId)) return;
+
+        state.setAutoLoopRunning(true);
+        battleStateManager.save(state);
+
+        int idx = state.getCurrentQuestionIndex();
+        long now = System.currentTimeMillis();
+        if (idx < 0) {
+            long firstQuestionAt = state.getStartTime() != null
+                    ? state.getStartTime().toEpochMilli() + PRE_COUNTDOWN_SECONDS * 1000L : now;
+            schedule(tranDauId, null, self -> openQuestion(tranDauId, 0, self), firstQuestionAt - now);
+        } else {
+            long deadline = state.getCurrentQuestionStart() != null
+                    ? state.getCurrentQuestionStart().toEpochMilli() + state.getSecondsPerQuestion() * 1000L : now;
+            schedule(tranDauId, null, self -> closeQuestion(tranDauId, idx, self), deadline - now);
+        }
+        log.info("🔁 Tiếp quản trận #{} tại câu {}", tranDauId, idx);
+    }
+
+    /**
+     * Bỏ sự kiện đang chờ mà KHÔNG đụng tới state (node khác đã giữ lease của trận)
+     */
+    public void abandon(Long tranDauId) {
+        Step step = pending.remove(tranDauId);
+        if (step != null) {
+            step.cancel();
+            log.warn("⚠️ Mất lease trận #{} → dừng timer tại node này", tranDauId);
+        }
+    }
+
+    /**
+     * Hủy sự kiện đang chờ của trận (nếu có) và dừng vòng lặp.
+     */
+    public void cancel(Long tranDauId) {
+        Step step = pending.remove(tranDauId);
+        if (step != null) {
+            step.cancel();
+        }
+        BattleState state = battleStateManager.get(tranDauId);
+        if (state != null) {
+            state.setAutoLoopRunning(false);
+            battleStateManager.save(state);
+        }
+    }
+
+    public boolean isScheduled(Long tranDauId) {
+        return pending.containsKey(tranDauId);
+    }
+
+    /**
+     * Số trận đang có sự kiện chờ (debug / metrics)
+     */
+    public int activeCount() {
+        return pending.size();
+    }
+
+    /* ===================== TRANSITIONS ===================== */
+
+    private void openQuestion(Long tranDauId, int idx, Step self) {
+        BattleState state = runningState(tranDauId);
+        if (state == null) return;
+
+        List<CauHoiCacheDTO> cauHoiList = state.getDanhSachCauHoi();
+        if (cauHoiList == null || idx >= cauHoiList.size()) {
+            finish(tranDauId);
+            return;
+        }
+
+        Instant openedAt = Instant.now();
+        state.setCurrentQuestionIndex(idx);
+        state.setCurrentQuestionStart(openedAt);
+        battleStateManager.save(state);
+        wsPublisher.publishNewQuestion(tranDauId, idx, cauHoiList.get(idx), state.getSecondsPerQuestion());
+
+        // Deadline tính từ lúc mở câu → không bị trôi theo thời gian gửi WS
+        long deadline = openedAt.toEpochMilli() + state.getSecondsPerQuestion() * 1000L;
+        schedule(tranDauId, self, s -> closeQuestion(tranDauId, idx, s), deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * processQuestionTimeout (@Transactional, chạm DB) chạy trên battleStepExecutor; câu kế tiếp hẹn từ đó
+     */
+    private void closeQuestion(Long tranDauId, int idx, Step self) {
+        BattleState state = runningState(tranDauId);
+        if (state == null) return;
+        int total = state.getDanhSachCauHoi().size();
+
+        stepExecutor.execute(() -> {
+            try {
+                tranDauService.processQuestionTimeout(tranDauId);
+            } catch (Exception e) {
+                log.error("❌ Lỗi đóng câu {} trận #{}: {}", idx, tranDauId, e.getMessage(), e);
+                finish(tranDauId);
+                return;
+            }
+            if (pending.get(tranDauId) != self) return; // đã bị huỷ trong lúc đóng câu
+
+            int next = idx + 1;
+            if (next >= total) {
+                finish(tranDauId);
+            } else {
+                schedule(tranDauId, self, s -> openQuestion(tranDauId, next, s), LEADERBOARD_BREAK_MS);
+            }
+        });
+    }
+
+    /**
+     * finishBattle chạm DB nhiều → đẩy sang battleStepExecutor để không giữ thread timer
+     */
+    private void finish(Long tranDauId) {
+        pending.remove(tranDauId);
+        stepExecutor.execute(() -> {
+            try {
+                tranDauService.finishBattle(tranDauId, null, true);
+            } catch (Exception e) {
+                log.error("❌ Lỗi kết thúc trận #{}: {}", tranDauId, e.getMessage(), e);
+            } finally {
+                BattleState state = battleStateManager.get(tranDauId);
+                if (state != null) {
+                    state.setAutoLoopRunning(false);
+                    battleStateManager.save(state);
+                }
+            }
+        });
+    }
+
+    /* ===================== HELPERS ===================== */
+
+    private BattleState runningState(Long tranDauId) {
+        BattleState state = battleStateManager.get(tranDauId);
+        if (state == null || !state.isAutoLoopRunning() || state.isMarkedFinished()) {
+            pending.remove(tranDauId);
+            return null;
+        }
+        return state;
+    }
+
+    /**
+     * Đăng ký sự kiện mới rồi mới giao cho timer (delay 0 cũng không thể chạy trước khi được đăng ký).
+     *
+     * @param from sự kiện sinh ra sự kiện này (null = bắt đầu chuỗi mới); đã bị huỷ / thay thế → không hẹn nữa
+     */
+    private void schedule(Long tranDauId, Step from, StepAction action, long delayMs) {
+        Step step = new Step();
+        if (from == null) {
+            Step previous = pending.put(tranDauId, step);
+            if (previous != null) previous.cancel();
+        } else if (!pending.replace(tranDauId, from, step)) {
+            return;
+        }
+
+        Runnable guarded = () -> {
+            if (pending.get(tranDauId) != step) return; // bị huỷ trước khi future kịp gán
+            try {
+                action.run(step);
+            } catch (Exception e) {
+                log.error("❌ Lỗi trong BattleScheduler (trận #{}): {}", tranDauId, e.getMessage(), e);
+                finish(tranDauId);
+            }
+        };
+        step.future = scheduler.schedule(guarded, Instant.now().plusMillis(Math.max(0L, delayMs)));
+    }
+}
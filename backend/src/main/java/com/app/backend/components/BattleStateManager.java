@@ -2,38 +2,67 @@ package com.app.backend.components;
 
 
 import com.app.backend.models.BattleState;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Điểm truy cập BattleState cho service / controller.
+ * Lưu trữ thật nằm ở {@link BattleStateStore} (RAM hoặc Redis, chọn qua battle.state-store).
+ */
 @Component
+@RequiredArgsConstructor
 public class BattleStateManager {
-    private final Map<Long, BattleState> activeBattles = new ConcurrentHashMap<>();
+    private final BattleStateStore store;
 
     public void save(BattleState state) {
-        activeBattles.put(state.getTranDauId(), state);
+        store.save(state);
     }
 
     public BattleState get(Long tranDauId) {
-        return activeBattles.get(tranDauId);
+        return store.get(tranDauId);
     }
 
     public void remove(Long tranDauId) {
-        activeBattles.remove(tranDauId);
+        store.remove(tranDauId);
     }
 
     public boolean exists(Long tranDauId) {
-        return activeBattles.containsKey(tranDauId);
+        return store.exists(tranDauId);
     }
 
     public void cleanupFinishedBattles() {
-        activeBattles.entrySet().removeIf(e -> e.getValue().isFinished());
+        for (Long id : Set.copyOf(store.listActive())) {
+            BattleState state = store.get(id);
+            if (state != null && state.isFinished()) store.remove(id);
+        }
     }
 
     // ✅ Thêm: xem danh sách trận đang chạy (debug)
     public Set<Long> listActive() {
-        return activeBattles.keySet();
+        return store.listActive();
+    }
+
+    /* ===================== Thao tác nguyên tử (ủy quyền cho store) ===================== */
+
+    public boolean recordAnswer(BattleState state, int questionIndex, Long userId, String answer) {
+        return store.recordAnswer(state, questionIndex, userId, answer);
+    }
+
+    public int addScore(BattleState state, Long userId, int gained) {
+        return store.addScore(state, userId, gained);
+    }
+
+    public int updateCombo(BattleState state, Long userId, int questionIndex, boolean correct) {
+        return store.updateCombo(state, userId, questionIndex, correct);
+    }
+
+    public boolean markFinishedOnce(BattleState state) {
+        return store.markFinishedOnce(state);
+    }
+
+    public boolean acquireOwnership(Long tranDauId) {
+        return store.acquireOwnership(tranDauId);
     }
 }
@@ -0,0 +1,72 @@
+package com.app.backend.components;
+
+import com.app.backend.models.BattleState;
+
+import java.util.Set;
+
+/**
+ * Nơi lưu BattleState của các trận đang chạy (SPI).
+ * <p>
+ * - {@link InMemoryBattleStateStore}: ConcurrentHashMap trong 1 JVM (mặc định, battle.state-store=memory)
+ * - {@link RedisBattleStateStore}: Redis hash theo trận, cho phép chạy nhiều node và khôi phục sau khi restart
+ * <p>
+ * Các thao tác nóng (ghi đáp án / cộng điểm / combo) đi qua store để bản Redis thực hiện nguyên tử
+ * ở phía server; kết quả luôn được phản chiếu lại vào object {@code state} truyền vào.
+ */
+public interface BattleStateStore {
+
+    void save(BattleState state);
+
+    BattleState get(Long tranDauId);
+
+    void remove(Long tranDauId);
+
+    boolean exists(Long tranDauId);
+
+    Set<Long> listActive();
+
+    /**
+     * @return true nếu là lần nộp đầu tiên của user cho câu này
+     */
+    boolean recordAnswer(BattleState state, int questionIndex, Long userId, String answer);
+
+    /**
+     * @return tổng điểm mới
+     */
+    int addScore(BattleState state, Long userId, int gained);
+
+    /**
+     * @return combo mới
+     */
+    int updateCombo(BattleState state, Long userId, int questionIndex, boolean correct);
+
+    /**
+     * @return true nếu lời gọi này là lần đánh dấu kết thúc đầu tiên (trên mọi node)
+     */
+    boolean markFinishedOnce(BattleState state);
+
+    /* ===================== Owner lease (chỉ có ý nghĩa khi nhiều node) ===================== */
+
+    /**
+     * Nhận quyền điều phối (timer) trận cho node hiện tại
+     */
+    default boolean acquireOwnership(Long tranDauId) {
+        return true;
+    }
+
+    /**
+     * Gia hạn lease các trận node này đang điều phối
+     *
+     * @return các trận đã mất lease (node khác đã tiếp quản)
+     */
+    default Set<Long> renewOwnership() {
+        return Set.of();
+    }
+
+    /**
+     * Các trận còn chạy nhưng lease của node chủ đã hết hạn (node chết / restart)
+     */
+    default Set<Long> findOrphans() {
+        return Set.of();
+    }
+}
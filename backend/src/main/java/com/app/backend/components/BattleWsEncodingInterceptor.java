@@ -0,0 +1,108 @@
+package com.app.backend.components;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Thương lượng encoding sự kiện trận đấu ở tầng STOMP.
+ * <p>
+ * - CONNECT có header {@code x-encoding: compact} → session được đánh dấu compact.
+ * - SUBSCRIBE /topic/battle.{id} từ session compact → đổi đích thành /topic/battle.{id}.compact
+ * (client giữ nguyên code subscribe, chỉ thêm header lúc CONNECT).
+ * - Đếm số subscriber compact theo phòng → BattleWsPublisher chỉ mã hoá bản compact khi có người nghe.
+ */
+@Component
+public class BattleWsEncodingInterceptor implements ChannelInterceptor {
+
+    public static final String ENCODING_HEADER = "x-encoding";
+    public static final String COMPACT = "compact";
+    public static final String COMPACT_SUFFIX = ".compact";
+
+    private static final Pattern BATTLE_TOPIC = Pattern.compile("^/topic/battle\\.(\\d+)(\\.compact)?$");
+
+    @Value("${battle.ws.compact-enabled:true}")
+    private boolean compactEnabled;
+
+    private final Set<String> compactSessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * sessionId:subscriptionId -> tranDauId (chỉ subscription compact)
+     */
+    private final Map<String, Long> compactSubscriptions = new ConcurrentHashMap<>();
+
+    private final Map<Long, AtomicInteger> compactSubscribers = new ConcurrentHashMap<>();
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) return message;
+
+        String sessionId = accessor.getSessionId();
+        StompCommand command = accessor.getCommand();
+        switch (command) {
+            case CONNECT, STOMP -> {
+                if (compactEnabled && COMPACT.equalsIgnoreCase(accessor.getFirstNativeHeader(ENCODING_HEADER))) {
+                    compactSessions.add(sessionId);
+                }
+            }
+            case SUBSCRIBE -> onSubscribe(accessor, sessionId);
+            case UNSUBSCRIBE -> release(sessionId + ":" + accessor.getSubscriptionId());
+            case DISCONNECT -> {
+                compactSessions.remove(sessionId);
+                compactSubscriptions.keySet().stream()
+                        .filter(k -> k.startsWith(sessionId + ":"))
+                        .toList()
+                        .forEach(this::release);
+            }
+            default -> {
+            }
+        }
+        return message;
+    }
+
+    public boolean isCompactEnabled() {
+        return compactEnabled;
+    }
+
+    public boolean hasCompactSubscribers(Long tranDauId) {
+        AtomicInteger count = compactSubscribers.get(tranDauId);
+        return count != null && count.get() > 0;
+    }
+
+    private void onSubscribe(StompHeaderAccessor accessor, String sessionId) {
+        String destination = accessor.getDestination();
+        if (destination == null) return;
+        Matcher m = BATTLE_TOPIC.matcher(destination);
+        if (!m.matches()) return;
+
+        boolean compact = m.group(2) != null;
+        if (!compact && compactSessions.contains(sessionId)) {
+            accessor.setDestination(destination + COMPACT_SUFFIX);
+            compact = true;
+        }
+        if (compact) {
+            Long tranDauId = Long.valueOf(m.group(1));
+            compactSubscriptions.put(sessionId + ":" + accessor.getSubscriptionId(), tranDauId);
+            compactSubscribers.computeIfAbsent(tranDauId, k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    private void release(String subscriptionKey) {
+        Long tranDauId = compactSubscriptions.remove(subscriptionKey);
+        if (tranDauId == null) return;
+        compactSubscribers.computeIfPresent(tranDauId, (k, c) -> c.decrementAndGet() <= 0 ? null : c);
+    }
+}
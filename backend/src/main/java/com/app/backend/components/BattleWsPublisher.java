@@ -1,9 +1,11 @@
 package com.app.backend.components;
 
 import com.app.backend.dtos.cache.CauHoiCacheDTO;
+import com.app.backend.responses.achievement.AchievementResponse;
+import com.app.backend.responses.trandau.MatchRewardResponse;
 import com.app.backend.responses.websocket.*;
 import lombok.RequiredArgsConstructor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
@@ -14,12 +16,20 @@ import java.util.Map;
 /**
  * Component phụ trách broadcast toàn bộ sự kiện trận đấu qua WebSocket.
  * Tất cả client đang subscribe /topic/battle.{tranDauId} sẽ nhận thông báo realtime.
+ * Client CONNECT với {@code x-encoding: compact} nhận bản gọn qua /topic/battle.{tranDauId}.compact
+ * (xem {@link BattleCompactCodec}).
+ * Sự kiện riêng từng người (PLAYER_SETTLED) đi qua /user/queue/battle.
  */
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class BattleWsPublisher {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private static final String USER_QUEUE = "/queue/battle";
+
+    private final WsBroadcaster wsBroadcaster;
+    private final BattleWsEncodingInterceptor encodingInterceptor;
+    private final BattleCompactCodec compactCodec;
 
     /**
      * Tạo topic WS theo ID trận
@@ -33,7 +43,14 @@ public class BattleWsPublisher {
      */
     private void safeSend(Long tranDauId, Object payload) {
         try {
-            messagingTemplate.convertAndSend(topic(tranDauId), payload);
+            wsBroadcaster.convertAndSend(topic(tranDauId), payload);
+            // Bản compact chỉ mã hoá khi phòng có client đăng ký x-encoding: compact
+            // (chạy nhiều node qua Redis thì node gửi không biết subscriber ở node khác → luôn gửi kèm)
+            if (encodingInterceptor.hasCompactSubscribers(tranDauId)
+                    || (wsBroadcaster.isDistributed() && encodingInterceptor.isCompactEnabled())) {
+                wsBroadcaster.convertAndSend(
+                        topic(tranDauId) + BattleWsEncodingInterceptor.COMPACT_SUFFIX, compactCodec.encode(payload));
+            }
         } catch (Exception e) {
 //            System.err.println("⚠️ [WS ERROR] Không thể gửi sự kiện WS: " + e.getMessage());
         }
@@ -126,6 +143,29 @@ public class BattleWsPublisher {
         safeSend(tranDauId, payload);
     }
 
+    /**
+     * Kết quả hậu trận (XP/vàng/thành tích) của 1 người chơi – gửi sau FINISHED, khi bước settlement xong.
+     * Chỉ gửi riêng người chơi đó (/user/queue/battle), không phát cả phòng
+     *
+     * @param username tên principal của phiên STOMP (NguoiDung.getUsername())
+     */
+    public void publishPlayerSettled(Long tranDauId, Long userId, String username,
+                                     MatchRewardResponse reward,
+                                     List<AchievementResponse> newAchievements) {
+        var payload = PlayerSettledEvent.builder()
+                .type("PLAYER_SETTLED")
+                .tranDauId(tranDauId)
+                .userId(userId)
+                .reward(reward)
+                .newAchievements(newAchievements)
+                .build();
+        try {
+            wsBroadcaster.convertAndSendToUser(username, USER_QUEUE, payload);
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể gửi PLAYER_SETTLED cho user {}: {}", userId, e.getMessage());
+        }
+    }
+
     /* ==================== SCORE & LEADERBOARD ==================== */
 
     public void publishScoreUpdate(Long tranDauId, Long userId, String hoTen,
@@ -148,13 +188,37 @@ public class BattleWsPublisher {
         safeSend(tranDauId, payload);
     }
 
-
+    /**
+     * 1 frame cho nhiều SCORE_UPDATE trong cùng cửa sổ gom (xem ScoreBatchAggregator)
+     */
+    public void publishScoreBatch(Long tranDauId, List<ScoreUpdateEvent> updates) {
+        var payload = ScoreBatchEvent.builder()
+                .type("SCORE_BATCH")
+                .tranDauId(tranDauId)
+                .updates(updates)
+                .build();
+        safeSend(tranDauId, payload);
+    }
 
     public void publishLeaderboard(Long tranDauId, List<LeaderboardUpdateEvent.Row> allPlayers) {
         var payload = LeaderboardUpdateEvent.builder()
                 .type("LEADERBOARD_UPDATE")
                 .tranDauId(tranDauId)
                 .players(allPlayers)
+                .tongNguoiChoi(allPlayers.size())
+                .build();
+        safeSend(tranDauId, payload);
+    }
+
+    /**
+     * Chỉ gửi các dòng đổi điểm / đổi hạng kể từ lần trước (client vá vào bảng đang giữ)
+     */
+    public void publishLeaderboardDelta(Long tranDauId, List<LeaderboardUpdateEvent.Row> changed, int tongNguoiChoi) {
+        var payload = LeaderboardUpdateEvent.builder()
+                .type("LEADERBOARD_DELTA")
+                .tranDauId(tranDauId)
+                .players(changed)
+                .tongNguoiChoi(tongNguoiChoi)
                 .build();
         safeSend(tranDauId, payload);
     }
@@ -187,7 +251,7 @@ public class BattleWsPublisher {
         payload.put("dap_an_dung", dapAnDung);   // "A" | "B" | "C" | "D"
         payload.put("giai_thich", giaiThich);    // có thể null
 
-        messagingTemplate.convertAndSend("/topic/battle." + tranDauId, payload);
+        safeSend(tranDauId, payload);
     }
 
     /* ==================== ADMIN EVENTS ==================== */
@@ -0,0 +1,135 @@
+package com.app.backend.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Namespace cache có đánh số thế hệ, thay cho redisTemplate.keys(prefix + "*") khi xoá cache.
+ * <p>
+ * - Key thật = {namespace}:v{thế hệ}:{phần còn lại}; thế hệ hiện tại nằm ở cache:gen:{namespace}.
+ * - Xoá cả namespace = 1 lệnh INCR: key thế hệ cũ không còn được đọc tới và tự hết hạn theo TTL lúc ghi.
+ * - Reaper (tuỳ chọn) dọn sớm key thế hệ cũ bằng SCAN từng lô, không chặn Redis như KEYS.
+ */
+@Slf4j
+@Component
+public class CacheNamespaces {
+
+    private static final String GEN_PREFIX = "cache:gen:";
+    private static final int SCAN_COUNT = 500;
+
+    private final StringRedisTemplate redis;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor taskExecutor;
+
+    /**
+     * Các namespace đã dùng trên node này → reaper biết phải quét gì
+     */
+    private final Map<String, Boolean> known = new ConcurrentHashMap<>();
+
+    @Value("${cache.namespace.reaper.enabled:false}")
+    private boolean reaperEnabled;
+
+    @Value("${cache.namespace.reaper.interval-ms:600000}")
+    private long reaperIntervalMs;
+
+    public CacheNamespaces(StringRedisTemplate redis,
+                           @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                           @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.redis = redis;
+        this.scheduler = scheduler;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!reaperEnabled) return;
+        scheduler.scheduleWithFixedDelay(() -> taskExecutor.execute(this::reapAll), Duration.ofMillis(reaperIntervalMs));
+        log.info("✅ CacheNamespaces reaper started: interval={}ms", reaperIntervalMs);
+    }
+
+    /**
+     * Key trong thế hệ hiện tại của namespace
+     */
+    public String key(String namespace, String suffix) {
+        return namespace + ":v" + generation(namespace) + ":" + suffix;
+    }
+
+    /**
+     * Bỏ toàn bộ cache của namespace (O(1))
+     */
+    public void invalidate(String namespace) {
+        known.put(namespace, Boolean.TRUE);
+        Long gen = redis.opsForValue().increment(GEN_PREFIX + namespace);
+        log.info("🗑️ Cache namespace {} → v{}", namespace, gen);
+    }
+
+    public long generation(String namespace) {
+        known.put(namespace, Boolean.TRUE);
+        String value = redis.opsForValue().get(GEN_PREFIX + namespace);
+        return value != null ? Long.parseLong(value) : 0L;
+    }
+
+    private void reapAll() {
+        for (String namespace : known.keySet()) {
+            try {
+                reap(namespace);
+            } catch (Exception e) {
+                log.warn("⚠️ Cache reaper lỗi với namespace {}: {}", namespace, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Xoá key của các thế hệ cũ hơn thế hệ hiện tại
+     */
+    private void reap(String namespace) {
+        long current = generation(namespace);
+        if (current == 0) return;
+
+        String prefix = namespace + ":v";
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(SCAN_COUNT).build();
+        List<String> stale = new ArrayList<>();
+        int deleted = 0;
+        try (Cursor<String> cursor = redis.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                int end = key.indexOf(':', prefix.length());
+                if (end < 0) continue;
+                long gen;
+                try {
+                    gen = Long.parseLong(key.substring(prefix.length(), end));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (gen < current) stale.add(key);
+                if (stale.size() >= SCAN_COUNT) {
+                    deleted += unlink(stale);
+                }
+            }
+        }
+        deleted += unlink(stale);
+        if (deleted > 0) log.info("🧹 Cache reaper: xoá {} key cũ của {}", deleted, namespace);
+    }
+
+    private int unlink(List<String> keys) {
+        if (keys.isEmpty()) return 0;
+        Long n = redis.unlink(keys);
+        keys.clear();
+        return n != null ? n.intValue() : 0;
+    }
+}
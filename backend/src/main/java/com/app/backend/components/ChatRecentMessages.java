@@ -0,0 +1,208 @@
+package com.app.backend.components;
+
+import com.app.backend.responses.chat.TinNhanResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Bộ đệm vòng các tin nhắn mới nhất của phòng chat đang "nóng" (mặc định 100 tin / phòng), mới nhất trước.
+ * <p>
+ * - Mở phòng / cuộn trong phạm vi bộ đệm không chạm MySQL; ngoài phạm vi → caller seek DB.
+ * - Tin mới: chèn vào bộ đệm sau commit (nếu phòng đang có bộ đệm), tin cũ nhất bị đẩy ra.
+ * - Sửa / xoá / ghim: bỏ bộ đệm của phòng (hiếm) → lần mở sau nạp lại.
+ * - Nhiều node: mọi thay đổi được PUBLISH, node khác bỏ bộ đệm của phòng đó (node gửi bỏ qua tin của chính mình).
+ * - Phần tử lưu không phụ thuộc người xem (laToi = null), caller tự điền.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatRecentMessages implements MessageListener {
+
+    public record Window(List<TinNhanResponse> items, boolean hasMore) {
+    }
+
+    /**
+     * Mới nhất trước; complete = phòng không còn tin nào cũ hơn phần tử cuối
+     */
+    private static final class Ring {
+        private final List<TinNhanResponse> items;
+        private boolean complete;
+
+        private Ring(List<TinNhanResponse> items, boolean complete) {
+            this.items = items;
+            this.complete = complete;
+        }
+    }
+
+    private final StringRedisTemplate redis;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    @Value("${chat.recent.capacity:100}")
+    private int capacity;
+
+    @Value("${chat.recent.max-rooms:2000}")
+    private long maxRooms;
+
+    @Value("${chat.recent.expire-after-access-ms:1800000}")
+    private long expireAfterAccessMs;
+
+    @Value("${chat.recent.invalidation-channel:cache:chat_recent:invalidate}")
+    private String invalidationChannel;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private Cache<Long, Ring> rings;
+
+    @PostConstruct
+    public void init() {
+        rings = Caffeine.newBuilder()
+                .maximumSize(maxRooms)
+                .expireAfterAccess(Duration.ofMillis(expireAfterAccessMs))
+                .build();
+        listenerContainer.addMessageListener(this, new ChannelTopic(invalidationChannel));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        listenerContainer.removeMessageListener(this);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Đoạn mới nhất của phòng; chưa có bộ đệm → nạp bằng loader (tối đa capacity tin, mới nhất trước)
+     */
+    public Window latest(Long phongChatId, int limit, Supplier<List<TinNhanResponse>> loader) {
+        Ring ring = rings.get(phongChatId, id -> {
+            List<TinNhanResponse> loaded = loader.get();
+            return new Ring(new ArrayList<>(loaded), loaded.size() < capacity);
+        });
+        return slice(ring, null, null, limit);
+    }
+
+    /**
+     * Đoạn cũ hơn (guiLuc, id) nếu bộ đệm trả lời đủ được, ngược lại null
+     */
+    public Window before(Long phongChatId, Instant guiLuc, Long id, int limit) {
+        Ring ring = rings.getIfPresent(phongChatId);
+        return ring != null ? slice(ring, guiLuc, id, limit) : null;
+    }
+
+    /**
+     * Tin mới đã lưu trong transaction hiện tại → chèn vào bộ đệm sau commit
+     */
+    public void append(TinNhanResponse message) {
+        TransactionCallbacks.afterCommit(() -> {
+            // computeIfPresent chờ lượt nạp đang chạy của phòng → tin không bị lọt giữa nạp và chèn
+            rings.asMap().computeIfPresent(message.getPhongChatId(), (id, ring) -> {
+                synchronized (ring) {
+                    insert(ring, message);
+                }
+                return ring;
+            });
+            publish(message.getPhongChatId());
+        });
+    }
+
+    /**
+     * Tin trong phòng bị sửa / xoá / ghim → bỏ bộ đệm (ngay và sau commit)
+     */
+    public void invalidate(Long phongChatId) {
+        rings.invalidate(phongChatId);
+        TransactionCallbacks.afterCommit(() -> {
+            rings.invalidate(phongChatId);
+            publish(phongChatId);
+        });
+    }
+
+    private Window slice(Ring ring, Instant guiLuc, Long id, int limit) {
+        synchronized (ring) {
+            List<TinNhanResponse> items = ring.items;
+            int start = 0;
+            if (id != null) {
+                while (start < items.size() && !isOlder(items.get(start), guiLuc, id)) {
+                    start++;
+                }
+            }
+            int available = items.size() - start;
+            if (available >= limit) {
+                return new Window(List.copyOf(items.subList(start, start + limit)),
+                        available > limit || !ring.complete);
+            }
+            if (ring.complete) {
+                return new Window(List.copyOf(items.subList(start, items.size())), false);
+            }
+            return null;
+        }
+    }
+
+    private void insert(Ring ring, TinNhanResponse message) {
+        List<TinNhanResponse> items = ring.items;
+        int pos = 0;
+        while (pos < items.size()) {
+            TinNhanResponse cur = items.get(pos);
+            if (cur.getId().equals(message.getId())) return; // đã có (nạp sau commit)
+            if (isOlder(cur, message.getGuiLuc(), message.getId())) break;
+            pos++;
+        }
+        items.add(pos, message);
+        while (items.size() > capacity) {
+            items.remove(items.size() - 1);
+            ring.complete = false;
+        }
+    }
+
+    /**
+     * m đứng sau (guiLuc, id) trong thứ tự (gui_luc DESC, id DESC); gui_luc NULL đứng cuối như MySQL
+     */
+    static boolean isOlder(TinNhanResponse m, Instant guiLuc, Long id) {
+        Instant t = m.getGuiLuc();
+        if (t == null || guiLuc == null) {
+            if (t != null) return false;
+            return guiLuc != null || m.getId() < id;
+        }
+        int cmp = t.compareTo(guiLuc);
+        return cmp < 0 || (cmp == 0 && m.getId() < id);
+    }
+
+    private void publish(Long phongChatId) {
+        try {
+            redis.convertAndSend(invalidationChannel, nodeId + ":" + phongChatId);
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể phát invalidation bộ đệm tin nhắn phòng {}: {}", phongChatId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        int sep = payload.lastIndexOf(':');
+        if (sep < 0 || payload.substring(0, sep).equals(nodeId)) return;
+        try {
+            rings.invalidate(Long.valueOf(payload.substring(sep + 1)));
+        } catch (NumberFormatException e) {
+            log.warn("⚠️ Invalidation bộ đệm tin nhắn không hợp lệ: {}", payload);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.app.backend.components;
+
+import com.app.backend.repositories.IThanhVienPhongChatRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Cache tập thành viên đang còn trong phòng chat (phongChatId → userId), thay cho truy vấn thành viên mỗi tin nhắn.
+ * <p>
+ * - Caffeine trong JVM, tập bất biến; miss → 1 truy vấn lấy ID thành viên.
+ * - Thêm / xoá / rời / xoá phòng gọi {@link #invalidate}: bỏ ngay + sau commit, và PUBLISH để node khác bỏ theo.
+ * - TTL chỉ là lưới an toàn khi mất tin pub/sub.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatRoomMembers implements MessageListener {
+
+    private final IThanhVienPhongChatRepository thanhVienRepository;
+    private final StringRedisTemplate redis;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    @Value("${chat.members.max-size:10000}")
+    private long maxSize;
+
+    @Value("${chat.members.expire-after-write-ms:600000}")
+    private long expireAfterWriteMs;
+
+    @Value("${chat.members.invalidation-channel:cache:chat_members:invalidate}")
+    private String invalidationChannel;
+
+    private Cache<Long, Set<Long>> members;
+
+    @PostConstruct
+    public void init() {
+        members = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(expireAfterWriteMs))
+                .build();
+        listenerContainer.addMessageListener(this, new ChannelTopic(invalidationChannel));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        listenerContainer.removeMessageListener(this);
+    }
+
+    public Set<Long> of(Long phongChatId) {
+        return members.get(phongChatId, id -> Set.copyOf(thanhVienRepository.findActiveUserIdsByPhongChatId(id)));
+    }
+
+    public boolean isMember(Long phongChatId, Long userId) {
+        return of(phongChatId).contains(userId);
+    }
+
+    /**
+     * Gọi trong transaction đổi thành viên: bỏ ngay, bỏ lại sau commit (tránh request chen giữa nạp dữ liệu cũ)
+     */
+    public void invalidate(Long phongChatId) {
+        evict(phongChatId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(phongChatId);
+                }
+            });
+        }
+    }
+
+    private void evict(Long phongChatId) {
+        members.invalidate(phongChatId);
+        try {
+            redis.convertAndSend(invalidationChannel, phongChatId.toString());
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể phát invalidation thành viên phòng chat {}: {}", phongChatId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            members.invalidate(Long.valueOf(payload));
+        } catch (NumberFormatException e) {
+            log.warn("⚠️ Invalidation thành viên phòng chat không hợp lệ: {}", payload);
+        }
+    }
+}
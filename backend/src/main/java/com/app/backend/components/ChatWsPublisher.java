@@ -4,14 +4,13 @@ package com.app.backend.components;
 import com.app.backend.models.TinNhan;
 import com.app.backend.responses.chat.ChatMessageResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
 @Component
 @RequiredArgsConstructor
 public class ChatWsPublisher {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final WsBroadcaster wsBroadcaster;
 
     public void publishNewMessage(TinNhan tinNhan) {
         Long senderId = tinNhan.getGuiBoi().getId();
@@ -22,13 +21,13 @@ public class ChatWsPublisher {
         ChatMessageResponse msgForReceiver = ChatMessageResponse.fromEntity(tinNhan, receiverId);
 
         // Gửi cho người gửi
-        messagingTemplate.convertAndSend(
+        wsBroadcaster.convertAndSend(
                 "/topic/chat/user/" + senderId,
                 msgForSender
         );
 
         // Gửi cho người nhận
-        messagingTemplate.convertAndSend(
+        wsBroadcaster.convertAndSend(
                 "/topic/chat/user/" + receiverId,
                 msgForReceiver
         );
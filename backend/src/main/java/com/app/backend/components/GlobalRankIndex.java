@@ -0,0 +1,359 @@
+package com.app.backend.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * Chỉ mục xếp hạng toàn cục (bang_xep_hang.xep_hang) trên Redis sorted set, thay cho
+ * UPDATE ... RANK() OVER (...) viết lại toàn bộ bảng sau mỗi trận RANKED.
+ * <p>
+ * - Thứ tự giữ nguyên như cũ: tong_diem DESC, so_tran_thang DESC, tong_tran ASC (hoà → cùng hạng).
+ * Ba tiêu chí được ghép thành 1 score nguyên (xem {@link #score}) → hạng = số người có score lớn hơn + 1.
+ * - Sau mỗi trận chỉ ZADD những người chơi vừa đổi thống kê – O(log n).
+ * - Đọc hạng lấy thẳng từ chỉ mục ({@link #rankOf}, {@link #ranksOf}).
+ * - Cột xep_hang chỉ còn là bản chụp: writer nền ghi lại theo batch (JDBC), tối đa 1 lần / flush-interval
+ * và chỉ khi có thay đổi; nhiều node thì chỉ 1 node flush (khoá Redis). Mỗi update ghi lại khoảng score
+ * [min(cũ, mới), max(cũ, mới)] vào rank:global:dirty (người mới → tới đáy) – chỉ hạng trong khoảng đó đổi,
+ * flush chỉ duyệt khoảng gộp của các update kể từ lần trước.
+ * - Khởi động mà chưa có chỉ mục → nạp từ bảng (1 node, khoá Redis). Trong lúc nạp, update ghi vào cả chỉ mục
+ * đang dựng (rank:global:rebuilding trỏ tới key tạm) còn dữ liệu từ bảng chỉ ZADD NX → giá trị mới hơn không bị
+ * bản chụp ghi đè, không mất update nào giữa SELECT và RENAME.
+ */
+@Slf4j
+@Component
+public class GlobalRankIndex {
+
+    private static final String KEY = "rank:global";
+    private static final String DIRTY_KEY = "rank:global:dirty";
+    private static final String REBUILDING_KEY = "rank:global:rebuilding";
+    private static final String SEED_LOCK_KEY = "rank:global:seed-lock";
+    private static final String FLUSH_LOCK_KEY = "rank:global:flush-lock";
+
+    private static final int CHUNK = 1000;
+
+    /**
+     * tong_diem 25 bit | so_tran_thang 14 bit | (COUNT_MAX - tong_tran) 14 bit → < 2^53, double biểu diễn chính xác
+     */
+    private static final long DIEM_MAX = (1L << 25) - 1;
+    private static final long COUNT_MAX = (1L << 14) - 1;
+
+    /**
+     * Khoảng score "toàn bộ" (mọi score thật nằm trong [0, 2^53))
+     */
+    static final double FULL_LO = -1;
+    static final double FULL_HI = (double) (1L << 53);
+
+    /**
+     * KEYS = chỉ mục, con trỏ chỉ mục đang dựng, dirty; ARGV = score, userId.
+     * ZADD vào chỉ mục (và chỉ mục đang dựng nếu có), gộp khoảng score bị ảnh hưởng vào dirty.
+     */
+    private static final RedisScript<Long> UPDATE = new DefaultRedisScript<>("""
+            local old = redis.call('ZSCORE', KEYS[1], ARGV[2])
+            redis.call('ZADD', KEYS[1], ARGV[1], ARGV[2])
+            local tmp = redis.call('GET', KEYS[2])
+            if tmp then redis.call('ZADD', tmp, ARGV[1], ARGV[2]) end
+            local s = tonumber(ARGV[1])
+            local lo, hi = s, s
+            if old then
+              lo = math.min(lo, tonumber(old))
+              hi = math.max(hi, tonumber(old))
+            else
+              lo = -1
+            end
+            local cur = redis.call('HMGET', KEYS[3], 'lo', 'hi')
+            if cur[1] then lo = math.min(lo, tonumber(cur[1])) end
+            if cur[2] then hi = math.max(hi, tonumber(cur[2])) end
+            redis.call('HSET', KEYS[3], 'lo', lo, 'hi', hi)
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1] = dirty; ARGV = lo, hi → gộp khoảng (trả lại khi flush không chạy được)
+     */
+    private static final RedisScript<Long> MARK = new DefaultRedisScript<>("""
+            local lo, hi = tonumber(ARGV[1]), tonumber(ARGV[2])
+            local cur = redis.call('HMGET', KEYS[1], 'lo', 'hi')
+            if cur[1] then lo = math.min(lo, tonumber(cur[1])) end
+            if cur[2] then hi = math.max(hi, tonumber(cur[2])) end
+            redis.call('HSET', KEYS[1], 'lo', lo, 'hi', hi)
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1] = dirty → lấy và xoá khoảng (nguyên tử)
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> TAKE = new DefaultRedisScript<>("""
+            local cur = redis.call('HMGET', KEYS[1], 'lo', 'hi')
+            redis.call('DEL', KEYS[1])
+            if not cur[1] then return {} end
+            return cur
+            """, List.class);
+
+    private static final String SELECT_ALL_SQL =
+            "SELECT nguoi_dung_id, tong_diem, so_tran_thang, tong_tran FROM bang_xep_hang";
+
+    private static final String UPDATE_RANK_SQL =
+            "UPDATE bang_xep_hang SET xep_hang = ? WHERE nguoi_dung_id = ? AND NOT (xep_hang <=> ?)";
+
+    private final StringRedisTemplate redis;
+    private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor taskExecutor;
+
+    @Value("${ranking.global.flush-interval-ms:60000}")
+    private long flushIntervalMs;
+
+    public GlobalRankIndex(StringRedisTemplate redis,
+                           JdbcTemplate jdbcTemplate,
+                           @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                           @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.redis = redis;
+        this.jdbcTemplate = jdbcTemplate;
+        this.scheduler = scheduler;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        taskExecutor.execute(() -> {
+            try {
+                if (!Boolean.TRUE.equals(redis.hasKey(KEY))) seed();
+            } catch (Exception e) {
+                log.error("❌ Không thể nạp chỉ mục xếp hạng toàn cục: {}", e.getMessage());
+            }
+        });
+        scheduler.scheduleWithFixedDelay(() -> taskExecutor.execute(this::flushIfDirty),
+                Duration.ofMillis(flushIntervalMs));
+        log.info("✅ GlobalRankIndex started: flush-interval={}ms", flushIntervalMs);
+    }
+
+    /**
+     * Ghép 3 tiêu chí xếp hạng thành 1 score (lớn hơn = hạng cao hơn)
+     */
+    static double score(Integer tongDiem, Integer soTranThang, Integer tongTran) {
+        long diem = clamp(tongDiem, DIEM_MAX);
+        long thang = clamp(soTranThang, COUNT_MAX);
+        long tran = COUNT_MAX - clamp(tongTran, COUNT_MAX);
+        return (double) ((diem << 28) | (thang << 14) | tran);
+    }
+
+    /**
+     * Cập nhật thống kê của 1 người chơi (giá trị tuyệt đối → gọi lại nhiều lần vẫn đúng)
+     */
+    public void update(Long userId, Integer tongDiem, Integer soTranThang, Integer tongTran) {
+        redis.execute(UPDATE, List.of(KEY, REBUILDING_KEY, DIRTY_KEY),
+                String.valueOf((long) score(tongDiem, soTranThang, tongTran)), userId.toString());
+    }
+
+    /**
+     * Hạng hiện tại của 1 người (chưa có trong chỉ mục → hạng của người 0 điểm)
+     */
+    public int rankOf(Long userId) {
+        return ranksOf(List.of(userId)).get(userId);
+    }
+
+    /**
+     * Hạng của nhiều người trong 2 round-trip (ZMSCORE + pipeline ZCOUNT)
+     */
+    public Map<Long, Integer> ranksOf(Collection<Long> userIds) {
+        Map<Long, Integer> out = new HashMap<>();
+        if (userIds.isEmpty()) return out;
+
+        List<Long> ids = new ArrayList<>(userIds);
+        List<Double> scores = redis.opsForZSet().score(KEY, ids.stream().map(String::valueOf).toArray());
+        double zero = score(0, 0, 0);
+        Set<Double> unique = new LinkedHashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+            unique.add(scoreAt(scores, i, zero));
+        }
+        List<Double> distinct = new ArrayList<>(unique);
+
+        List<Object> counts = redis.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            // score là số nguyên → "lớn hơn hẳn" = từ score + 1
+            distinct.forEach(s -> conn.zCount(KEY, s + 1, Double.POSITIVE_INFINITY));
+            return null;
+        });
+
+        Map<Double, Integer> rankByScore = new HashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            rankByScore.put(distinct.get(i), ((Number) counts.get(i)).intValue() + 1);
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            out.put(ids.get(i), rankByScore.get(scoreAt(scores, i, zero)));
+        }
+        return out;
+    }
+
+    /**
+     * Số người chơi trong chỉ mục
+     */
+    public long size() {
+        Long n = redis.opsForZSet().zCard(KEY);
+        return n != null ? n : 0;
+    }
+
+    /**
+     * Số người chơi có tong_diem nhỏ hơn hẳn tongDiem – 1 ZCOUNT, O(log n)
+     */
+    public long countBelowPoints(int tongDiem) {
+        long base = clamp(tongDiem, DIEM_MAX) << 28;
+        if (base == 0) return 0;
+        Long n = redis.opsForZSet().count(KEY, Double.NEGATIVE_INFINITY, base - 1);
+        return n != null ? n : 0;
+    }
+
+    /**
+     * Nạp lại toàn bộ chỉ mục từ bảng bang_xep_hang rồi ghi lại xep_hang (admin recalc)
+     */
+    public void rebuild() {
+        String tmp = KEY + ":rebuild:" + UUID.randomUUID();
+        // Từ đây update() ghi vào cả tmp → không mất thay đổi giữa SELECT và RENAME
+        redis.opsForValue().set(REBUILDING_KEY, tmp, Duration.ofMinutes(10));
+        List<ZSetOperations.TypedTuple<String>> chunk = new ArrayList<>(CHUNK);
+        int[] total = {0};
+        try {
+            jdbcTemplate.query(SELECT_ALL_SQL, rs -> {
+                chunk.add(new DefaultTypedTuple<>(
+                        String.valueOf(rs.getLong(1)),
+                        score(rs.getInt(2), rs.getInt(3), rs.getInt(4))));
+                if (chunk.size() >= CHUNK) {
+                    addSnapshot(tmp, chunk, total);
+                }
+            });
+            if (!chunk.isEmpty()) {
+                addSnapshot(tmp, chunk, total);
+            }
+            if (Boolean.TRUE.equals(redis.hasKey(tmp))) {
+                // Đổi tên nguyên tử → đọc không bao giờ thấy chỉ mục dở dang
+                redis.rename(tmp, KEY);
+            } else {
+                redis.delete(KEY);
+            }
+        } finally {
+            if (tmp.equals(redis.opsForValue().get(REBUILDING_KEY))) redis.delete(REBUILDING_KEY);
+            redis.delete(tmp);
+        }
+        log.info("✅ Đã nạp chỉ mục xếp hạng toàn cục: {} người chơi", total[0]);
+        markDirty(FULL_LO, FULL_HI);
+        flushIfDirty();
+    }
+
+    /**
+     * ZADD NX: người đã được update() ghi trong lúc dựng giữ giá trị mới hơn của họ
+     */
+    private void addSnapshot(String tmp, List<ZSetOperations.TypedTuple<String>> chunk, int[] total) {
+        redis.opsForZSet().addIfAbsent(tmp, new HashSet<>(chunk));
+        total[0] += chunk.size();
+        chunk.clear();
+    }
+
+    /**
+     * Ghi xep_hang xuống DB theo batch cho khoảng score đã đổi kể từ lần flush trước
+     */
+    public void flushIfDirty() {
+        @SuppressWarnings("unchecked")
+        List<Object> range = redis.execute(TAKE, List.of(DIRTY_KEY));
+        if (range == null || range.size() < 2) return;
+        double lo = Double.parseDouble(range.get(0).toString());
+        double hi = Double.parseDouble(range.get(1).toString());
+        String token = UUID.randomUUID().toString();
+        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(FLUSH_LOCK_KEY, token, Duration.ofMinutes(5)))) {
+            markDirty(lo, hi); // node khác đang flush → lần sau
+            return;
+        }
+        try {
+            int written = flush(lo, hi);
+            log.debug("🔄 Flush xep_hang [{}, {}]: {} dòng thay đổi", lo, hi, written);
+        } catch (Exception e) {
+            markDirty(lo, hi);
+            log.error("❌ Flush xep_hang thất bại: {}", e.getMessage());
+        } finally {
+            if (token.equals(redis.opsForValue().get(FLUSH_LOCK_KEY))) redis.delete(FLUSH_LOCK_KEY);
+        }
+    }
+
+    private void seed() {
+        String token = UUID.randomUUID().toString();
+        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(SEED_LOCK_KEY, token, Duration.ofMinutes(5)))) {
+            return; // node khác đang nạp
+        }
+        try {
+            rebuild();
+        } finally {
+            if (token.equals(redis.opsForValue().get(SEED_LOCK_KEY))) redis.delete(SEED_LOCK_KEY);
+        }
+    }
+
+    private void markDirty(double lo, double hi) {
+        redis.execute(MARK, List.of(DIRTY_KEY), String.valueOf((long) lo), String.valueOf((long) hi));
+    }
+
+    /**
+     * Duyệt các người có score trong [lo, hi] theo trang, tính RANK() (hoà → cùng hạng) và chỉ UPDATE dòng
+     * có hạng khác. Hạng bên ngoài khoảng không đổi nên không đụng tới.
+     */
+    private int flush(double lo, double hi) {
+        int written = 0;
+        long offset = 0;
+        // score nguyên → người xếp trên khoảng = score ≥ hi + 1
+        Long above = redis.opsForZSet().count(KEY, hi + 1, Double.POSITIVE_INFINITY);
+        int position = above != null ? above.intValue() : 0;
+        int rank = 0;
+        double prevScore = Double.NaN;
+        while (true) {
+            Set<ZSetOperations.TypedTuple<String>> page =
+                    redis.opsForZSet().reverseRangeByScoreWithScores(KEY, lo, hi, offset, CHUNK);
+            if (page == null || page.isEmpty()) break;
+
+            List<long[]> rows = new ArrayList<>(page.size());
+            for (ZSetOperations.TypedTuple<String> t : page) {
+                position++;
+                double s = t.getScore() != null ? t.getScore() : 0;
+                if (s != prevScore) {
+                    rank = position;
+                    prevScore = s;
+                }
+                rows.add(new long[]{Long.parseLong(t.getValue()), rank});
+            }
+            int[][] counts = jdbcTemplate.batchUpdate(UPDATE_RANK_SQL, rows, rows.size(), (ps, row) -> {
+                ps.setLong(1, row[1]);
+                ps.setLong(2, row[0]);
+                ps.setLong(3, row[1]);
+            });
+            for (int[] batch : counts) {
+                for (int c : batch) written += Math.max(c, 0);
+            }
+            offset += CHUNK;
+        }
+        return written;
+    }
+
+    private static double scoreAt(List<Double> scores, int i, double fallback) {
+        Double s = scores != null && i < scores.size() ? scores.get(i) : null;
+        return s != null ? s : fallback;
+    }
+
+    private static long clamp(Integer value, long max) {
+        if (value == null || value < 0) return 0;
+        return Math.min(value, max);
+    }
+}
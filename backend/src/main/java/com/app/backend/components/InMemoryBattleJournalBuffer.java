@@ -0,0 +1,77 @@
+package com.app.backend.components;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hàng đợi answer journal trong RAM (1 node). Dòng chưa ghi mất khi node chết.
+ */
+@Component
+@ConditionalOnProperty(name = "battle.state-store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryBattleJournalBuffer implements BattleJournalBuffer {
+
+    /**
+     * tranDauId -> các dòng chờ ghi
+     */
+    private final Map<Long, Queue<BattleAnswerJournal.Entry>> pending = new ConcurrentHashMap<>();
+
+    @Override
+    public void append(BattleAnswerJournal.Entry entry) {
+        pending.computeIfAbsent(entry.tranDauId(), k -> new ConcurrentLinkedQueue<>()).add(entry);
+    }
+
+    @Override
+    public Set<Long> pendingBattles() {
+        Set<Long> ids = new HashSet<>();
+        pending.forEach((id, queue) -> {
+            if (!queue.isEmpty()) ids.add(id);
+        });
+        return ids;
+    }
+
+    @Override
+    public int pendingCount() {
+        return pending.values().stream().mapToInt(Queue::size).sum();
+    }
+
+    /**
+     * Không gỡ queue rỗng ở đây (tránh mất dòng vừa append) → takeAll() gỡ khi trận kết thúc
+     */
+    @Override
+    public Batch take(Long tranDauId) {
+        return batch(pollAll(pending.get(tranDauId)));
+    }
+
+    @Override
+    public Batch takeAll(Long tranDauId) {
+        return batch(pollAll(pending.remove(tranDauId)));
+    }
+
+    private Batch batch(List<BattleAnswerJournal.Entry> entries) {
+        return new Batch() {
+            @Override
+            public List<BattleAnswerJournal.Entry> entries() {
+                return entries;
+            }
+
+            @Override
+            public void complete(boolean written) {
+                if (!written) entries.forEach(InMemoryBattleJournalBuffer.this::append);
+            }
+        };
+    }
+
+    private static List<BattleAnswerJournal.Entry> pollAll(Queue<BattleAnswerJournal.Entry> queue) {
+        if (queue == null) return List.of();
+        List<BattleAnswerJournal.Entry> out = new ArrayList<>();
+        BattleAnswerJournal.Entry e;
+        while ((e = queue.poll()) != null) {
+            out.add(e);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,64 @@
+package com.app.backend.components;
+
+import com.app.backend.models.BattleState;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BattleStateStore trong RAM (1 node). Trận mất khi restart.
+ */
+@Component
+@ConditionalOnProperty(name = "battle.state-store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryBattleStateStore implements BattleStateStore {
+
+    private final Map<Long, BattleState> activeBattles = new ConcurrentHashMap<>();
+
+    @Override
+    public void save(BattleState state) {
+        activeBattles.put(state.getTranDauId(), state);
+    }
+
+    @Override
+    public BattleState get(Long tranDauId) {
+        return activeBattles.get(tranDauId);
+    }
+
+    @Override
+    public void remove(Long tranDauId) {
+        activeBattles.remove(tranDauId);
+    }
+
+    @Override
+    public boolean exists(Long tranDauId) {
+        return activeBattles.containsKey(tranDauId);
+    }
+
+    @Override
+    public Set<Long> listActive() {
+        return activeBattles.keySet();
+    }
+
+    @Override
+    public boolean recordAnswer(BattleState state, int questionIndex, Long userId, String answer) {
+        return state.recordAnswer(questionIndex, userId, answer);
+    }
+
+    @Override
+    public int addScore(BattleState state, Long userId, int gained) {
+        return state.addScore(userId, gained);
+    }
+
+    @Override
+    public int updateCombo(BattleState state, Long userId, int questionIndex, boolean correct) {
+        return state.updateCombo(userId, questionIndex, correct);
+    }
+
+    @Override
+    public boolean markFinishedOnce(BattleState state) {
+        return state.markFinishedOnce();
+    }
+}
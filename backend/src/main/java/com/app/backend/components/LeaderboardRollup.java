@@ -0,0 +1,277 @@
+package com.app.backend.components;
+
+import com.app.backend.repositories.ILeaderboardAggregateProjection;
+import com.app.backend.utils.LeaderboardPeriod;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Tổng hợp sẵn lich_su_tran_dau theo (ngày, bộ câu hỏi, người chơi) trong bộ nhớ, để BXH tuần / tháng
+ * dự phòng bằng DB không phải GROUP BY toàn bảng lịch sử mỗi lần đọc.
+ * <p>
+ * - Mỗi ngày (giờ Việt Nam) 1 bucket: (userId, boCauHoiId, chuDeId) → [tổng điểm, số trận, số trận thắng].
+ * BXH tuần / tháng = cộng ≤ 31 bucket → độ trễ không tăng theo số dòng lịch sử.
+ * - Cập nhật tăng dần bằng cách đọc tiếp lich_su_tran_dau theo id (finishBattle báo sau commit + định kỳ)
+ * → thấy cả dòng do node khác ghi, không cần bảng / migration mới.
+ * - Transaction commit không theo thứ tự id: mốc "chắc chắn" chỉ tiến qua những dòng cũ hơn settle-lag,
+ * các dòng mới hơn được đọc lại lần sau và bỏ qua nếu đã cộng.
+ * - Chỉ giữ retention-days ngày gần nhất; khoảng không có trong bộ nhớ → trả null, caller dùng GROUP BY cũ.
+ */
+@Slf4j
+@Component
+public class LeaderboardRollup {
+
+    private static final int FETCH_LIMIT = 5000;
+
+    /**
+     * Id ngay trước dòng đầu tiên trong khoảng giữ lại (không có → id lớn nhất hiện tại)
+     */
+    private static final String FIRST_ID_SQL = """
+            SELECT COALESCE(
+                (SELECT MIN(id) FROM lich_su_tran_dau WHERE hoan_thanh_luc >= ?) - 1,
+                (SELECT MAX(id) FROM lich_su_tran_dau),
+                0)
+            """;
+
+    private static final String TAIL_SQL = """
+            SELECT l.id, l.nguoi_dung_id, b.id, b.chu_de_id, l.tong_diem, l.xep_hang, l.hoan_thanh_luc
+            FROM lich_su_tran_dau l
+            JOIN tran_dau td ON td.id = l.tran_dau_id
+            JOIN bo_cau_hoi b ON b.id = td.bo_cau_hoi_id
+            WHERE l.id > ?
+            ORDER BY l.id
+            LIMIT ?
+            """;
+
+    private record Key(Long userId, Long boCauHoiId, Long chuDeId) {
+    }
+
+    private record Row(long id, Key key, long diem, boolean win, Instant at) {
+    }
+
+    /**
+     * Kết quả tổng hợp 1 người chơi – cùng hình dạng với truy vấn GROUP BY
+     */
+    private record Aggregate(Long userId, Long tongDiem, Long tongTran, Long soTranThang)
+            implements ILeaderboardAggregateProjection {
+        @Override
+        public Long getUserId() {
+            return userId;
+        }
+
+        @Override
+        public Long getTongDiem() {
+            return tongDiem;
+        }
+
+        @Override
+        public Long getTongTran() {
+            return tongTran;
+        }
+
+        @Override
+        public Long getSoTranThang() {
+            return soTranThang;
+        }
+    }
+
+    private static final Comparator<Aggregate> ORDER = Comparator
+            .comparing(Aggregate::tongDiem, Comparator.reverseOrder())
+            .thenComparing(Aggregate::userId);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor taskExecutor;
+
+    private final TreeMap<LocalDate, Map<Key, long[]>> days = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean catchUpQueued = new AtomicBoolean();
+
+    /**
+     * Mọi dòng có id ≤ watermark đã được cộng; id > watermark đã cộng nằm trong appliedAbove
+     */
+    private long watermark = -1;
+    private final Set<Long> appliedAbove = new HashSet<>();
+    private volatile boolean ready;
+
+    @Value("${ranking.rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ranking.rollup.retention-days:40}")
+    private int retentionDays;
+
+    @Value("${ranking.rollup.settle-lag-ms:60000}")
+    private long settleLagMs;
+
+    @Value("${ranking.rollup.refresh-interval-ms:30000}")
+    private long refreshIntervalMs;
+
+    public LeaderboardRollup(JdbcTemplate jdbcTemplate,
+                             @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                             @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.scheduler = scheduler;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        taskExecutor.execute(this::catchUpQuietly);
+        scheduler.scheduleWithFixedDelay(this::requestCatchUp, Duration.ofMillis(refreshIntervalMs));
+        log.info("✅ LeaderboardRollup started: retention={} ngày, refresh-interval={}ms", retentionDays, refreshIntervalMs);
+    }
+
+    /**
+     * Gọi sau khi ghi lich_su_tran_dau: đọc tiếp các dòng mới khi transaction commit
+     */
+    public void onHistoryWritten() {
+        if (!enabled) return;
+        TransactionCallbacks.afterCommit(this::requestCatchUp);
+    }
+
+    /**
+     * BXH tổng hợp từ các bucket ngày [from, hôm nay]
+     *
+     * @return null nếu chưa sẵn sàng hoặc from nằm ngoài khoảng đang giữ → caller query DB
+     */
+    public Page<ILeaderboardAggregateProjection> aggregate(Instant from, Long chuDeId, Long boCauHoiId, Pageable pageable) {
+        if (!enabled || !ready || from == null) return null;
+        LocalDate fromDay = LeaderboardPeriod.localDate(from);
+        if (fromDay.isBefore(oldestRetainedDay())) return null;
+
+        Map<Long, long[]> totals = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map<Key, long[]> bucket : days.tailMap(fromDay, true).values()) {
+                for (Map.Entry<Key, long[]> e : bucket.entrySet()) {
+                    Key k = e.getKey();
+                    if (chuDeId != null && !chuDeId.equals(k.chuDeId())) continue;
+                    if (boCauHoiId != null && !boCauHoiId.equals(k.boCauHoiId())) continue;
+                    long[] acc = totals.computeIfAbsent(k.userId(), id -> new long[3]);
+                    acc[0] += e.getValue()[0];
+                    acc[1] += e.getValue()[1];
+                    acc[2] += e.getValue()[2];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Aggregate> all = new ArrayList<>(totals.size());
+        totals.forEach((userId, v) -> all.add(new Aggregate(userId, v[0], v[1], v[2])));
+        all.sort(ORDER);
+
+        int start = (int) Math.min(pageable.getOffset(), all.size());
+        int end = Math.min(start + pageable.getPageSize(), all.size());
+        return new PageImpl<>(new ArrayList<>(all.subList(start, end)), pageable, all.size());
+    }
+
+    /**
+     * Gộp nhiều yêu cầu đọc tiếp thành 1 lần chạy trên taskExecutor
+     */
+    private void requestCatchUp() {
+        if (catchUpQueued.compareAndSet(false, true)) {
+            taskExecutor.execute(() -> {
+                catchUpQueued.set(false);
+                catchUpQuietly();
+            });
+        }
+    }
+
+    private void catchUpQuietly() {
+        try {
+            catchUp();
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể cập nhật rollup BXH: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void catchUp() {
+        LocalDate oldest = oldestRetainedDay();
+        if (watermark < 0) {
+            Long first = jdbcTemplate.queryForObject(FIRST_ID_SQL, Long.class,
+                    Timestamp.from(oldest.atStartOfDay(LeaderboardPeriod.ZONE).toInstant()));
+            watermark = first != null ? Math.max(first, 0) : 0;
+        }
+
+        Instant settledBefore = Instant.now().minusMillis(settleLagMs);
+        long cursor = watermark;
+        boolean contiguous = true;
+        int applied = 0;
+        while (true) {
+            List<Row> rows = jdbcTemplate.query(TAIL_SQL, (rs, i) -> {
+                long chuDe = rs.getLong(4);
+                Long chuDeId = rs.wasNull() ? null : chuDe;
+                Timestamp ts = rs.getTimestamp(7);
+                return new Row(
+                        rs.getLong(1),
+                        new Key(rs.getLong(2), rs.getLong(3), chuDeId),
+                        rs.getLong(5),
+                        rs.getInt(6) == 1,
+                        ts != null ? ts.toInstant() : Instant.now());
+            }, cursor, FETCH_LIMIT);
+            if (rows.isEmpty()) break;
+
+            lock.writeLock().lock();
+            try {
+                for (Row r : rows) {
+                    if (!appliedAbove.contains(r.id())) {
+                        LocalDate day = LeaderboardPeriod.localDate(r.at());
+                        if (!day.isBefore(oldest)) {
+                            long[] acc = days.computeIfAbsent(day, d -> new HashMap<>())
+                                    .computeIfAbsent(r.key(), k -> new long[3]);
+                            acc[0] += r.diem();
+                            acc[1] += 1;
+                            if (r.win()) acc[2] += 1;
+                            applied++;
+                        }
+                        appliedAbove.add(r.id());
+                    }
+                    // Mốc chỉ tiến qua dòng liên tiếp đủ cũ (transaction id nhỏ hơn không thể còn chưa commit)
+                    if (contiguous && r.at().isBefore(settledBefore)) {
+                        watermark = r.id();
+                    } else {
+                        contiguous = false;
+                    }
+                }
+                appliedAbove.removeIf(id -> id <= watermark);
+                days.headMap(oldest, false).clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            cursor = rows.get(rows.size() - 1).id();
+            if (rows.size() < FETCH_LIMIT) break;
+        }
+
+        if (!ready) {
+            ready = true;
+            log.info("✅ Đã nạp rollup BXH: {} ngày", days.size());
+        } else if (applied > 0) {
+            log.debug("🔄 Rollup BXH: +{} kết quả", applied);
+        }
+    }
+
+    private LocalDate oldestRetainedDay() {
+        return LeaderboardPeriod.localDate(Instant.now()).minusDays(retentionDays - 1L);
+    }
+}
@@ -2,18 +2,17 @@ package com.app.backend.components;
 
 import com.app.backend.responses.notification.NotificationResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
 @Component
 @RequiredArgsConstructor
 public class NotificationWsPublisher {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final WsBroadcaster wsBroadcaster;
 
     public void publishToUser(Long userId, NotificationResponse payload) {
         if (userId == null) return;
         String dest = "/topic/notifications/" + userId;
-        messagingTemplate.convertAndSend(dest, payload);
+        wsBroadcaster.convertAndSend(dest, payload);
     }
 }
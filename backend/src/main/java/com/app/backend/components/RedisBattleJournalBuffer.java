@@ -0,0 +1,207 @@
+package com.app.backend.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Hàng đợi answer journal trên Redis – đi cùng RedisBattleStateStore khi chạy nhiều node.
+ * <p>
+ * Layout key:
+ * <pre>
+ *   battle:journal:active         SET    id các trận còn dòng chờ ghi (writer nền của mọi node quét)
+ *   battle:{id}:journal           LIST   dòng trả lời đã chấm "userId|cauHoiId|luaChon|dung|ms|diem|epochMs"
+ *   battle:{id}:journal:lock      STRING token của node đang ghi trận (PX lock-ms)
+ * </pre>
+ * Ghi theo kiểu đọc – ghi DB – cắt: giữ lock, LRANGE, commit DB, rồi LTRIM đúng số dòng đã đọc (chỉ khi còn giữ lock).
+ * Node chết giữa chừng → lock hết hạn, dòng vẫn trong list, node khác ghi lại; INSERT IGNORE + chỉ cộng điểm
+ * từ dòng chèn thật nên ghi lại không nhân đôi.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "battle.state-store", havingValue = "redis")
+public class RedisBattleJournalBuffer implements BattleJournalBuffer {
+
+    private static final String ACTIVE_KEY = "battle:journal:active";
+    private static final long LOCK_RETRY_MS = 20;
+
+    /**
+     * Cắt các dòng đã ghi nếu còn giữ lock; trả về số dòng còn lại, -1 nếu lock đã mất
+     */
+    private static final RedisScript<Long> COMPLETE = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[2]) ~= ARGV[1] then return -1 end
+            redis.call('LTRIM', KEYS[1], ARGV[2], -1)
+            redis.call('DEL', KEYS[2])
+            return redis.call('LLEN', KEYS[1])
+            """, Long.class);
+
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+
+    @Value("${battle.redis.ttl-ms:7200000}")
+    private long ttlMs;
+
+    @Value("${battle.journal.lock-ms:30000}")
+    private long lockMs;
+
+    public RedisBattleJournalBuffer(StringRedisTemplate redis) {
+        this.redis = redis;
+    }
+
+    @Override
+    public void append(BattleAnswerJournal.Entry entry) {
+        Long id = entry.tranDauId();
+        redis.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.opsForList().rightPush(journalKey(id), encode(entry));
+                operations.expire(journalKey(id), Duration.ofMillis(ttlMs));
+                operations.opsForSet().add(ACTIVE_KEY, id.toString());
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Set<Long> pendingBattles() {
+        Set<String> members = redis.opsForSet().members(ACTIVE_KEY);
+        if (members == null) return Set.of();
+        Set<Long> ids = new HashSet<>();
+        for (String m : members) ids.add(Long.valueOf(m));
+        return ids;
+    }
+
+    @Override
+    public int pendingCount() {
+        int count = 0;
+        for (Long id : pendingBattles()) {
+            Long size = redis.opsForList().size(journalKey(id));
+            if (size != null) count += size.intValue();
+        }
+        return count;
+    }
+
+    @Override
+    public Batch take(Long tranDauId) {
+        String token = UUID.randomUUID().toString();
+        if (!lock(tranDauId, token)) return new RedisBatch(tranDauId, null, List.of(), 0);
+        return read(tranDauId, token);
+    }
+
+    @Override
+    public Batch takeAll(Long tranDauId) {
+        String token = UUID.randomUUID().toString();
+        // Lock của node chết hết hạn sau lock-ms → chờ quá mốc này là có lỗi thật
+        long deadline = System.currentTimeMillis() + lockMs + 1000;
+        while (!lock(tranDauId, token)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Không lấy được lock answer journal của trận " + tranDauId);
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Bị ngắt khi chờ lock answer journal của trận " + tranDauId, e);
+            }
+        }
+        return read(tranDauId, token);
+    }
+
+    private boolean lock(Long tranDauId, String token) {
+        return Boolean.TRUE.equals(redis.opsForValue()
+                .setIfAbsent(lockKey(tranDauId), token, Duration.ofMillis(lockMs)));
+    }
+
+    private Batch read(Long tranDauId, String token) {
+        List<String> raw = redis.opsForList().range(journalKey(tranDauId), 0, -1);
+        List<BattleAnswerJournal.Entry> entries = new ArrayList<>();
+        if (raw != null) {
+            for (String line : raw) {
+                try {
+                    entries.add(decode(tranDauId, line));
+                } catch (RuntimeException e) {
+                    // Dòng hỏng vẫn được tính vào số dòng cắt → không kẹt list mãi
+                    log.warn("⚠️ Bỏ dòng answer journal không hợp lệ của trận {}: {}", tranDauId, line);
+                }
+            }
+        }
+        return new RedisBatch(tranDauId, token, entries, raw != null ? raw.size() : 0);
+    }
+
+    private final class RedisBatch implements Batch {
+
+        private final Long tranDauId;
+        private final String token;
+        private final List<BattleAnswerJournal.Entry> entries;
+        private final int read;
+
+        RedisBatch(Long tranDauId, String token, List<BattleAnswerJournal.Entry> entries, int read) {
+            this.tranDauId = tranDauId;
+            this.token = token;
+            this.entries = entries;
+            this.read = read;
+        }
+
+        @Override
+        public List<BattleAnswerJournal.Entry> entries() {
+            return entries;
+        }
+
+        @Override
+        public void complete(boolean written) {
+            if (token == null) return;
+            if (!written) {
+                redis.execute(RELEASE, List.of(lockKey(tranDauId)), token);
+                return;
+            }
+            Long left = redis.execute(COMPLETE, List.of(journalKey(tranDauId), lockKey(tranDauId)),
+                    token, String.valueOf(read));
+            if (left == null || left < 0) {
+                log.warn("⚠️ Mất lock answer journal trận {} trước khi cắt → dòng sẽ được ghi lại (idempotent)",
+                        tranDauId);
+            } else if (left == 0) {
+                // Dòng append sau thời điểm này vẫn được takeAll() lúc kết thúc trận lấy theo id
+                redis.opsForSet().remove(ACTIVE_KEY, tranDauId.toString());
+            }
+        }
+    }
+
+    static String encode(BattleAnswerJournal.Entry e) {
+        return String.join("|", e.userId().toString(), e.cauHoiId().toString(), String.valueOf(e.luaChon()),
+                e.correct() ? "1" : "0", String.valueOf(e.thoiGianMs()), String.valueOf(e.gained()),
+                String.valueOf(e.traLoiLuc().toEpochMilli()));
+    }
+
+    static BattleAnswerJournal.Entry decode(Long tranDauId, String line) {
+        String[] p = line.split("\\|");
+        return new BattleAnswerJournal.Entry(tranDauId, Long.valueOf(p[0]), Long.valueOf(p[1]), p[2].charAt(0),
+                "1".equals(p[3]), Integer.parseInt(p[4]), Integer.parseInt(p[5]),
+                Instant.ofEpochMilli(Long.parseLong(p[6])));
+    }
+
+    private static String journalKey(Long id) {
+        return "battle:{" + id + "}:journal";
+    }
+
+    private static String lockKey(Long id) {
+        return "battle:{" + id + "}:journal:lock";
+    }
+}
@@ -0,0 +1,531 @@
+package com.app.backend.components;
+
+import com.app.backend.dtos.cache.CauHoiCacheDTO;
+import com.app.backend.models.BattleRanking;
+import com.app.backend.models.BattleState;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BattleStateStore trên Redis – cho phép nhiều node backend sau load balancer
+ * và khôi phục trận đang chạy khi 1 node restart / chết.
+ * <p>
+ * Layout key (hash tag {id} → mọi key của 1 trận nằm cùng slot khi dùng Redis Cluster):
+ * <pre>
+ *   battle:active                 SET    id các trận đang chạy
+ *   battle:{id}:meta              HASH   phần "meta": 1 field / thuộc tính (index câu, mốc giờ...),
+ *                                        thuộc tính dạng map theo người chơi tách thành field "ten.userId" (vật phẩm...)
+ *   battle:{id}:questions         STRING JSON danh sách câu hỏi (ghi 1 lần)
+ *   battle:{id}:scores            HASH   userId -> tổng điểm
+ *   battle:{id}:first             HASH   userId -> epoch ms lần trả lời đầu tiên (tiêu chí phụ khi bằng điểm)
+ *   battle:{id}:combo             HASH   userId:s / userId:m / userId:l -> combo / max combo / index câu cuối
+ *   battle:{id}:ans:{idx}         HASH   userId -> đáp án
+ *   battle:{id}:finished          STRING cờ kết thúc (SET NX)
+ *   battle:{id}:owner             STRING nodeId đang giữ timer của trận (lease, PX)
+ * </pre>
+ * Điểm / combo / đáp án cập nhật bằng Lua nên nguyên tử dù request rơi vào node nào.
+ * Phần meta: {@link #save} chỉ HSET các field mà bản state của người gọi đã đổi so với lúc đọc ({@link #get})
+ * → node chủ ghi index câu, node nhận request ghi vật phẩm của người chơi đó, bản cũ không ghi đè field của người khác.
+ * <p>
+ * Hàng đợi câu trả lời chờ ghi DB nằm cùng Redis ({@link RedisBattleJournalBuffer}); cache roster theo node,
+ * đồng bộ qua pub/sub ({@link BattleRosterManager}) → request của 1 trận rơi vào node nào cũng được.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "battle.state-store", havingValue = "redis")
+public class RedisBattleStateStore implements BattleStateStore {
+
+    private static final String ACTIVE_KEY = "battle:active";
+    private static final String QUESTION_START_MS = "cau_hien_tai_bat_dau_ms";
+
+    /**
+     * Các field nóng nằm trong hash riêng, không ghi vào JSON meta
+     */
+    private static final List<String> HOT_FIELDS = List.of(
+            "danh_sach_cau_hoi", "diem_nguoi_choi", "combo_streaks", "max_combo_streaks",
+            "answers", "last_answered_index",
+            // getter tính toán, không phải state
+            "currentQuestion", "totalPlayers", "finished");
+
+    private static final RedisScript<Long> RECORD_ANSWER = new DefaultRedisScript<>("""
+            local ok = redis.call('HSETNX', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            return ok
+            """, Long.class);
+
+    /**
+     * Cộng điểm + giữ lần trả lời đầu tiên (HSETNX) → node nào dựng lại ranking cũng xếp bằng điểm như nhau;
+     * trả về {tổng điểm, epoch ms lần trả lời đầu}
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ADD_SCORE = new DefaultRedisScript<>("""
+            local total = redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('HSETNX', KEYS[2], ARGV[1], ARGV[4])
+            local first = redis.call('HGET', KEYS[2], ARGV[1])
+            redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            redis.call('PEXPIRE', KEYS[2], ARGV[3])
+            return {total, first}
+            """, List.class);
+
+    /**
+     * Cùng luật với BattleState.updateCombo; trả về {combo, max combo}
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> UPDATE_COMBO = new DefaultRedisScript<>("""
+            local uid = ARGV[1]
+            local idx = tonumber(ARGV[2])
+            local streak = tonumber(redis.call('HGET', KEYS[1], uid .. ':s') or '0')
+            local maxStreak = tonumber(redis.call('HGET', KEYS[1], uid .. ':m') or '0')
+            local last = redis.call('HGET', KEYS[1], uid .. ':l')
+            if ARGV[3] == '1' then
+                if last and tonumber(last) == idx - 1 then
+                    streak = streak + 1
+                else
+                    streak = 1
+                end
+            else
+                streak = 0
+            end
+            if streak > maxStreak then maxStreak = streak end
+            redis.call('HSET', KEYS[1], uid .. ':s', streak, uid .. ':m', maxStreak, uid .. ':l', idx)
+            redis.call('PEXPIRE', KEYS[1], ARGV[4])
+            return {streak, maxStreak}
+            """, List.class);
+
+    private static final RedisScript<Long> RENEW_LEASE = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper mapper;
+
+    @Value("${battle.redis.ttl-ms:7200000}")
+    private long ttlMs;
+
+    @Value("${battle.redis.lease-ms:15000}")
+    private long leaseMs;
+
+    private final String nodeId;
+
+    /**
+     * Danh sách câu hỏi không đổi trong trận → giữ bản local, không đọc lại mỗi lần get()
+     */
+    private final Map<Long, List<CauHoiCacheDTO>> questionCache = new ConcurrentHashMap<>();
+
+    /**
+     * Ranking trong trận chỉ sống trong RAM của node đang broadcast; đồng bộ lại từ hash điểm mỗi lần get()
+     */
+    private final Map<Long, BattleRanking> rankings = new ConcurrentHashMap<>();
+
+    /**
+     * Field meta đã đọc / ghi gần nhất của từng object state (khoá theo identity, weak) → save() chỉ ghi phần đã đổi
+     */
+    private final Cache<BattleState, Map<String, String>> baselines = Caffeine.newBuilder().weakKeys().build();
+
+    /**
+     * Các trận node này đang giữ lease
+     */
+    private final Set<Long> owned = ConcurrentHashMap.newKeySet();
+
+    public RedisBattleStateStore(StringRedisTemplate redis,
+                                 @Qualifier("redisObjectMapper") ObjectMapper redisObjectMapper,
+                                 @Value("${battle.node-id:}") String nodeId) {
+        this.redis = redis;
+        this.mapper = redisObjectMapper.copy()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.nodeId = StringUtils.hasText(nodeId) ? nodeId : defaultNodeId();
+        log.info("✅ RedisBattleStateStore: nodeId={}", this.nodeId);
+    }
+
+    /* ===================== CRUD ===================== */
+
+    @Override
+    public void save(BattleState state) {
+        Long id = state.getTranDauId();
+        Duration ttl = Duration.ofMillis(ttlMs);
+
+        if (state.getDanhSachCauHoi() != null && !questionCache.containsKey(id)) {
+            redis.opsForValue().set(questionsKey(id), write(state.getDanhSachCauHoi()), ttl);
+            questionCache.put(id, state.getDanhSachCauHoi());
+            // Lần lưu đầu (startBattle): khởi tạo điểm 0, không đè điểm đã cộng ở node khác
+            if (!state.getDiemNguoiChoi().isEmpty()) {
+                redis.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object execute(RedisOperations operations) throws DataAccessException {
+                        state.getDiemNguoiChoi().forEach((uid, diem) ->
+                                operations.opsForHash().putIfAbsent(scoresKey(id), uid.toString(), diem.toString()));
+                        operations.expire(scoresKey(id), ttl);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        Map<String, String> fields = metaFields(state);
+        Map<String, String> baseline = baselines.getIfPresent(state);
+        Map<String, String> changed = new HashMap<>();
+        fields.forEach((field, value) -> {
+            if (baseline == null || !value.equals(baseline.get(field))) changed.put(field, value);
+        });
+        // Chỉ xoá entry mà chính bản này đã đọc được rồi bỏ đi (vd hết hiệu lực x2 của 1 người chơi)
+        List<Object> removed = new ArrayList<>();
+        if (baseline != null) {
+            baseline.keySet().forEach(field -> {
+                if (!fields.containsKey(field)) removed.add(field);
+            });
+        }
+
+        redis.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                if (!changed.isEmpty()) operations.opsForHash().putAll(metaKey(id), changed);
+                if (!removed.isEmpty()) operations.opsForHash().delete(metaKey(id), removed.toArray());
+                operations.expire(metaKey(id), ttl);
+                operations.opsForSet().add(ACTIVE_KEY, id.toString());
+                return null;
+            }
+        });
+        baselines.put(state, fields);
+    }
+
+    @Override
+    public BattleState get(Long tranDauId) {
+        Map<String, String> fields = hash(redis.opsForHash().entries(metaKey(tranDauId)));
+        if (fields.isEmpty()) return null;
+
+        ObjectNode meta = mapper.createObjectNode();
+        fields.forEach((field, value) -> {
+            int dot = field.indexOf('.');
+            if (dot < 0) {
+                meta.set(field, readTree(value));
+            } else {
+                String name = field.substring(0, dot);
+                JsonNode parent = meta.get(name);
+                ObjectNode entries = parent instanceof ObjectNode o ? o : meta.putObject(name);
+                entries.set(field.substring(dot + 1), readTree(value));
+            }
+        });
+
+        BattleState state = read(meta);
+        long questionStartMs = meta.path(QUESTION_START_MS).asLong(0L);
+        if (questionStartMs > 0) state.setCurrentQuestionStart(Instant.ofEpochMilli(questionStartMs));
+        state.setDanhSachCauHoi(questions(tranDauId));
+        state.setRanking(rankings.computeIfAbsent(tranDauId, k -> new BattleRanking()));
+        overlayHotFields(state);
+        baselines.put(state, fields);
+        return state;
+    }
+
+    @Override
+    public void remove(Long tranDauId) {
+        List<String> keys = new ArrayList<>(List.of(
+                metaKey(tranDauId), questionsKey(tranDauId), scoresKey(tranDauId), firstKey(tranDauId), comboKey(tranDauId),
+                finishedKey(tranDauId), ownerKey(tranDauId)));
+        List<CauHoiCacheDTO> questions = questions(tranDauId);
+        for (int i = 0; i < questions.size(); i++) {
+            keys.add(answersKey(tranDauId, i));
+        }
+        redis.delete(keys);
+        redis.opsForSet().remove(ACTIVE_KEY, tranDauId.toString());
+
+        questionCache.remove(tranDauId);
+        rankings.remove(tranDauId);
+        owned.remove(tranDauId);
+    }
+
+    @Override
+    public boolean exists(Long tranDauId) {
+        return Boolean.TRUE.equals(redis.hasKey(metaKey(tranDauId)));
+    }
+
+    @Override
+    public Set<Long> listActive() {
+        Set<String> members = redis.opsForSet().members(ACTIVE_KEY);
+        if (members == null) return Set.of();
+        Set<Long> ids = new HashSet<>();
+        for (String m : members) ids.add(Long.valueOf(m));
+        return ids;
+    }
+
+    /* ===================== Thao tác nguyên tử (Lua) ===================== */
+
+    @Override
+    public boolean recordAnswer(BattleState state, int questionIndex, Long userId, String answer) {
+        Long ok = redis.execute(RECORD_ANSWER, List.of(answersKey(state.getTranDauId(), questionIndex)),
+                userId.toString(), answer, String.valueOf(ttlMs));
+        if (ok == null || ok == 0L) return false;
+        state.recordAnswer(questionIndex, userId, answer);
+        return true;
+    }
+
+    @Override
+    public int addScore(BattleState state, Long userId, int gained) {
+        Long id = state.getTranDauId();
+        List<?> result = redis.execute(ADD_SCORE, List.of(scoresKey(id), firstKey(id)),
+                userId.toString(), String.valueOf(gained), String.valueOf(ttlMs),
+                String.valueOf(System.currentTimeMillis()));
+        int value = result != null && !result.isEmpty() ? ((Number) result.get(0)).intValue() : 0;
+        Instant first = result != null && result.size() > 1 ? epochMillis(result.get(1)) : Instant.now();
+        state.syncScore(userId, value, first);
+        return value;
+    }
+
+    @Override
+    public int updateCombo(BattleState state, Long userId, int questionIndex, boolean correct) {
+        List<?> result = redis.execute(UPDATE_COMBO, List.of(comboKey(state.getTranDauId())),
+                userId.toString(), String.valueOf(questionIndex), correct ? "1" : "0", String.valueOf(ttlMs));
+        int streak = result != null && !result.isEmpty() ? ((Number) result.get(0)).intValue() : 0;
+        int maxStreak = result != null && result.size() > 1 ? ((Number) result.get(1)).intValue() : streak;
+        state.syncCombo(userId, questionIndex, streak, maxStreak);
+        return streak;
+    }
+
+    @Override
+    public boolean markFinishedOnce(BattleState state) {
+        Boolean first = redis.opsForValue()
+                .setIfAbsent(finishedKey(state.getTranDauId()), nodeId, Duration.ofMillis(ttlMs));
+        if (!Boolean.TRUE.equals(first)) {
+            state.setMarkedFinished(true);
+            return false;
+        }
+        state.markFinishedOnce();
+        save(state);
+        return true;
+    }
+
+    /* ===================== Owner lease ===================== */
+
+    @Override
+    public boolean acquireOwnership(Long tranDauId) {
+        String key = ownerKey(tranDauId);
+        boolean ok = Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(key, nodeId, Duration.ofMillis(leaseMs)))
+                || Long.valueOf(1L).equals(redis.execute(RENEW_LEASE, List.of(key), nodeId, String.valueOf(leaseMs)));
+        if (ok) owned.add(tranDauId);
+        return ok;
+    }
+
+    @Override
+    public Set<Long> renewOwnership() {
+        Set<Long> lost = new HashSet<>();
+        for (Long id : owned) {
+            Long ok = redis.execute(RENEW_LEASE, List.of(ownerKey(id)), nodeId, String.valueOf(leaseMs));
+            if (!Long.valueOf(1L).equals(ok)) {
+                owned.remove(id);
+                lost.add(id);
+            }
+        }
+        return lost;
+    }
+
+    @Override
+    public Set<Long> findOrphans() {
+        Set<Long> orphans = new HashSet<>();
+        for (Long id : listActive()) {
+            if (owned.contains(id)) continue;
+            if (!Boolean.TRUE.equals(redis.hasKey(ownerKey(id)))) orphans.add(id);
+        }
+        return orphans;
+    }
+
+    /* ===================== HELPERS ===================== */
+
+    /**
+     * Meta của state → field hash: thuộc tính thường 1 field (JSON), thuộc tính dạng map tách "ten.key" theo entry
+     */
+    private Map<String, String> metaFields(BattleState state) {
+        ObjectNode meta = mapper.valueToTree(state);
+        meta.remove(HOT_FIELDS);
+        // @JsonFormat của BattleState chỉ giữ tới giây → lưu thêm epoch millis để tính thời gian trả lời chính xác
+        if (state.getCurrentQuestionStart() != null) {
+            meta.put(QUESTION_START_MS, state.getCurrentQuestionStart().toEpochMilli());
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        meta.fields().forEachRemaining(property -> {
+            JsonNode value = property.getValue();
+            if (value.isObject()) {
+                value.fields().forEachRemaining(entry ->
+                        fields.put(property.getKey() + "." + entry.getKey(), entry.getValue().toString()));
+            } else {
+                fields.put(property.getKey(), value.toString());
+            }
+        });
+        return fields;
+    }
+
+    /**
+     * Đọc điểm / combo / đáp án câu hiện tại trong 1 round-trip (pipeline).
+     * Đáp án các câu đã đóng không nạp lại (chỉ Lua HSETNX của câu đang mở cần tới) → O(người chơi), không O(câu × người).
+     */
+    private void overlayHotFields(BattleState state) {
+        Long id = state.getTranDauId();
+        int currentIdx = state.getCurrentQuestionIndex();
+        boolean open = currentIdx >= 0 && currentIdx < state.getDanhSachCauHoi().size();
+
+        List<Object> results = redis.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                operations.opsForHash().entries(scoresKey(id));
+                operations.opsForHash().entries(comboKey(id));
+                operations.opsForHash().entries(firstKey(id));
+                if (open) operations.opsForHash().entries(answersKey(id, currentIdx));
+                return null;
+            }
+        });
+
+        Map<String, String> first = hash(results.get(2));
+        hash(results.get(0)).forEach((uid, diem) ->
+                state.syncScore(Long.valueOf(uid), Integer.parseInt(diem), epochMillis(first.get(uid))));
+
+        Map<String, String> combo = hash(results.get(1));
+        combo.forEach((field, value) -> {
+            int sep = field.lastIndexOf(':');
+            Long uid = Long.valueOf(field.substring(0, sep));
+            int v = Integer.parseInt(value);
+            switch (field.substring(sep + 1)) {
+                case "s" -> state.getComboStreaks().put(uid, v);
+                case "m" -> state.getMaxComboStreaks().put(uid, v);
+                case "l" -> state.getLastAnsweredQuestionIndex().put(uid, v);
+                default -> {
+                }
+            }
+        });
+
+        if (open) {
+            Map<String, String> answers = hash(results.get(3));
+            if (!answers.isEmpty()) {
+                ConcurrentHashMap<Long, String> bucket = new ConcurrentHashMap<>();
+                answers.forEach((uid, ans) -> bucket.put(Long.valueOf(uid), ans));
+                state.getAnswers().put(currentIdx, bucket);
+            }
+        }
+    }
+
+    private List<CauHoiCacheDTO> questions(Long tranDauId) {
+        List<CauHoiCacheDTO> cached = questionCache.get(tranDauId);
+        if (cached != null) return cached;
+        String json = redis.opsForValue().get(questionsKey(tranDauId));
+        if (json == null) return List.of();
+        List<CauHoiCacheDTO> questions = read(json, new TypeReference<>() {
+        });
+        questionCache.put(tranDauId, questions);
+        return questions;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(Object result) {
+        return result instanceof Map<?, ?> map ? (Map<String, String>) map : Map.of();
+    }
+
+    private static Instant epochMillis(Object value) {
+        return value != null ? Instant.ofEpochMilli(Long.parseLong(value.toString())) : null;
+    }
+
+    private String write(Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Không thể serialize BattleState", e);
+        }
+    }
+
+    private JsonNode readTree(String json) {
+        try {
+            return mapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Không thể đọc BattleState từ Redis", e);
+        }
+    }
+
+    private BattleState read(ObjectNode meta) {
+        try {
+            return mapper.treeToValue(meta, BattleState.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Không thể đọc BattleState từ Redis", e);
+        }
+    }
+
+    private <T> T read(String json, TypeReference<T> type) {
+        try {
+            return mapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Không thể đọc BattleState từ Redis", e);
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static String prefix(Long tranDauId) {
+        return "battle:{" + tranDauId + "}:";
+    }
+
+    private static String metaKey(Long id) {
+        return prefix(id) + "meta";
+    }
+
+    private static String questionsKey(Long id) {
+        return prefix(id) + "questions";
+    }
+
+    private static String scoresKey(Long id) {
+        return prefix(id) + "scores";
+    }
+
+    private static String firstKey(Long id) {
+        return prefix(id) + "first";
+    }
+
+    private static String comboKey(Long id) {
+        return prefix(id) + "combo";
+    }
+
+    private static String answersKey(Long id, int questionIndex) {
+        return prefix(id) + "ans:" + questionIndex;
+    }
+
+    private static String finishedKey(Long id) {
+        return prefix(id) + "finished";
+    }
+
+    private static String ownerKey(Long id) {
+        return prefix(id) + "owner";
+    }
+}
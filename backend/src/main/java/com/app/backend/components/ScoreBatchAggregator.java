@@ -0,0 +1,135 @@
+package com.app.backend.components;
+
+import com.app.backend.responses.websocket.ScoreUpdateEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gom SCORE_UPDATE theo phòng trong 1 cửa sổ ngắn rồi phát 1 frame SCORE_BATCH.
+ * <p>
+ * N người trả lời trong 1 câu → trước đây N message × N subscriber; giờ mỗi cửa sổ chỉ 1 message.
+ * Backpressure: trong cùng cửa sổ, bản cập nhật mới của 1 người chơi thay thế bản cũ (bản cũ bị bỏ).
+ * <p>
+ * Timer chỉ hẹn giờ; việc encode + gửi WS + PUBLISH Redis chạy trên wsExecutor. Mỗi phòng gửi tuần tự (lock theo
+ * stripe): {@link #flush} gọi trước ANSWER_REVEAL / FINISHED chờ lượt gửi đang dở của timer xong rồi mới gửi phần
+ * còn lại → SCORE_BATCH luôn tới trước các sự kiện đó.
+ * <p>
+ * window-ms = 0 → tắt gom, gửi SCORE_UPDATE ngay như cũ.
+ */
+@Slf4j
+@Component
+public class ScoreBatchAggregator {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final BattleWsPublisher wsPublisher;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor wsExecutor;
+    private final Counter batchCounter;
+    private final Counter supersededCounter;
+
+    @Value("${battle.ws.score-batch-window-ms:150}")
+    private long windowMs;
+
+    /**
+     * tranDauId -> (userId -> bản cập nhật mới nhất) đang chờ phát
+     */
+    private final Map<Long, Map<Long, ScoreUpdateEvent>> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * Lock gửi theo phòng (chia stripe, không cần dọn khi phòng kết thúc)
+     */
+    private final ReentrantLock[] sendLocks = new ReentrantLock[LOCK_STRIPES];
+
+    public ScoreBatchAggregator(BattleWsPublisher wsPublisher,
+                                @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                                @Qualifier("wsExecutor") Executor wsExecutor,
+                                MeterRegistry registry) {
+        this.wsPublisher = wsPublisher;
+        this.scheduler = scheduler;
+        this.wsExecutor = wsExecutor;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            sendLocks[i] = new ReentrantLock();
+        }
+        this.batchCounter = Counter.builder("battle.ws.score.batches")
+                .description("Số frame SCORE_BATCH đã phát")
+                .register(registry);
+        this.supersededCounter = Counter.builder("battle.ws.score.superseded")
+                .description("Số SCORE_UPDATE bị bỏ vì có bản mới hơn của cùng người chơi")
+                .register(registry);
+    }
+
+    public void offer(Long tranDauId, Long userId, String hoTen,
+                      boolean correct, int gained, int total, int questionIndex,
+                      int comboStreak, int comboBonus, double comboMultiplier) {
+        if (windowMs <= 0) {
+            wsPublisher.publishScoreUpdate(tranDauId, userId, hoTen, correct, gained, total,
+                    questionIndex, comboStreak, comboBonus, comboMultiplier);
+            return;
+        }
+
+        ScoreUpdateEvent event = ScoreUpdateEvent.builder()
+                .type("SCORE_UPDATE")
+                .tranDauId(tranDauId)
+                .userId(userId)
+                .hoTen(hoTen)
+                .correct(correct)
+                .timestamp(Instant.now())
+                .gainedPoints(gained)
+                .totalPoints(total)
+                .questionIndex(questionIndex)
+                .comboStreak(comboStreak)
+                .comboBonus(comboBonus)
+                .comboMultiplier(comboMultiplier)
+                .build();
+
+        // Người tạo buffer mới của phòng là người hẹn giờ flush → mỗi cửa sổ đúng 1 lần hẹn
+        boolean[] opened = {false};
+        buffers.compute(tranDauId, (k, buffer) -> {
+            if (buffer == null) {
+                buffer = new ConcurrentHashMap<>();
+                opened[0] = true;
+            }
+            if (buffer.put(userId, event) != null) supersededCounter.increment();
+            return buffer;
+        });
+        if (opened[0]) {
+            scheduler.schedule(() -> wsExecutor.execute(() -> flush(tranDauId)), Instant.now().plusMillis(windowMs));
+        }
+    }
+
+    /**
+     * Phát ngay phần đang gom của phòng (vd trước ANSWER_REVEAL / FINISHED để thứ tự sự kiện đúng).
+     * Trả về khi mọi SCORE_BATCH của phòng gom trước lúc gọi đã được gửi.
+     */
+    public void flush(Long tranDauId) {
+        ReentrantLock lock = sendLocks[(int) Math.floorMod(tranDauId, (long) LOCK_STRIPES)];
+        lock.lock();
+        try {
+            Map<Long, ScoreUpdateEvent> buffer = buffers.remove(tranDauId);
+            if (buffer == null || buffer.isEmpty()) return;
+            wsPublisher.publishScoreBatch(tranDauId, new ArrayList<>(buffer.values()));
+            batchCounter.increment();
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể phát SCORE_BATCH trận #{}: {}", tranDauId, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pendingRooms() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,203 @@
+package com.app.backend.components;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Gộp request khi cache miss (chống cache stampede) cho các *RedisService.
+ * <p>
+ * - Trong 1 node: chỉ 1 luồng chạy loader cho mỗi key, các luồng khác chờ cùng 1 future.
+ * - Giữa các node: luồng dẫn đầu giữ khoá Redis ngắn sf:lock:{key}; node không có khoá chờ cache được ghi
+ * (đọc lại định kỳ), quá wait-ms thì tự nạp – khoá chỉ để giảm tải, không bao giờ chặn hẳn.
+ * - Làm mới sớm theo xác suất (XFetch): càng gần hết TTL, càng dễ có 1 request nạp lại nền trước khi key hết hạn,
+ * tỉ lệ theo thời gian nạp lần trước → key nóng không bao giờ miss đồng loạt. Lượt làm mới nền có map riêng:
+ * nó kết thúc bằng null khi node khác giữ khoá, nên {@link #load} không bao giờ chờ chung future với nó.
+ */
+@Slf4j
+@Component
+public class SingleFlight {
+
+    private static final String LOCK_PREFIX = "sf:lock:";
+
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final Executor taskExecutor;
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Key đang được làm mới nền (XFetch) – tách khỏi inFlight, chỉ để không chạy 2 lượt làm mới cùng lúc
+     */
+    private final Map<String, Boolean> refreshing = new ConcurrentHashMap<>();
+
+    /**
+     * Thời gian nạp gần nhất theo key (ms) – "delta" của XFetch
+     */
+    private final Map<String, Long> loadMillis = new ConcurrentHashMap<>();
+
+    @Value("${cache.single-flight.lock-ttl-ms:10000}")
+    private long lockTtlMs;
+
+    @Value("${cache.single-flight.wait-ms:3000}")
+    private long waitMs;
+
+    @Value("${cache.single-flight.poll-ms:50}")
+    private long pollMs;
+
+    @Value("${cache.single-flight.early-refresh-beta:1.0}")
+    private double beta;
+
+    public SingleFlight(StringRedisTemplate redis,
+                        @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.redis = redis;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Đọc cache; miss → đúng 1 loader chạy cho mỗi key (cục bộ + giữa các node)
+     *
+     * @param cached đọc cache, null = miss
+     * @param loader nạp từ nguồn và ghi cache
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(String key, Supplier<T> cached, Supplier<T> loader) {
+        T value = cached.get();
+        if (value != null) {
+            return value;
+        }
+
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            try {
+                return (T) leader.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            T result = loadAcrossNodes(key, cached, loader);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Gọi sau 1 cache hit: nếu đến lượt theo XFetch thì nạp lại nền (không chặn request hiện tại)
+     *
+     * @param ttlRemainingMs TTL còn lại của key cache (≤ 0 / không rõ → bỏ qua)
+     */
+    public void refreshEarlyIfDue(String key, long ttlRemainingMs, Supplier<?> loader) {
+        if (ttlRemainingMs <= 0 || inFlight.containsKey(key) || refreshing.containsKey(key)) {
+            return;
+        }
+        long delta = loadMillis.getOrDefault(key, 50L);
+        double gap = -delta * beta * Math.log(ThreadLocalRandom.current().nextDouble());
+        if (gap < ttlRemainingMs) {
+            return;
+        }
+
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    // Node khác đang giữ khoá → nó làm mới rồi, bỏ lượt này
+                    withLock(key, loader, () -> null);
+                    log.debug("🔄 Làm mới sớm cache {}", key);
+                } catch (Exception e) {
+                    log.warn("⚠️ Làm mới sớm cache {} lỗi: {}", key, e.getMessage());
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    private <T> T loadAcrossNodes(String key, Supplier<T> cached, Supplier<T> loader) {
+        // Luồng dẫn đầu trước có thể vừa ghi xong
+        T value = cached.get();
+        if (value != null) {
+            return value;
+        }
+        T loaded = withLock(key, loader, () -> {
+            // Node khác đang nạp → chờ cache được ghi
+            long deadline = System.currentTimeMillis() + waitMs;
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(pollMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                T v = cached.get();
+                if (v != null) return v;
+            }
+            return null;
+        });
+        return loaded != null ? loaded : timed(key, loader);
+    }
+
+    /**
+     * Có khoá → chạy loader; không có → chạy fallback (null = tự nạp)
+     */
+    private <T> T withLock(String key, Supplier<T> loader, Supplier<T> whenLocked) {
+        String lockKey = LOCK_PREFIX + key;
+        String token = UUID.randomUUID().toString();
+        boolean locked;
+        try {
+            locked = Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(lockKey, token, Duration.ofMillis(lockTtlMs)));
+        } catch (Exception e) {
+            log.debug("Redis lock unavailable for {}: {}", key, e.getMessage());
+            return timed(key, loader);
+        }
+        if (!locked) {
+            return whenLocked.get();
+        }
+        try {
+            return timed(key, loader);
+        } finally {
+            try {
+                redis.execute(RELEASE, List.of(lockKey), token);
+            } catch (Exception e) {
+                log.debug("Redis unlock failed for {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    private <T> T timed(String key, Supplier<T> loader) {
+        long start = System.nanoTime();
+        T value = loader.get();
+        loadMillis.put(key, Math.max(1L, (System.nanoTime() - start) / 1_000_000));
+        return value;
+    }
+}
@@ -0,0 +1,62 @@
+package com.app.backend.components;
+
+import com.app.backend.models.NguoiDung;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Xác thực phiên STOMP bằng header {@code Authorization: Bearer <jwt>} của frame CONNECT.
+ * <p>
+ * Handshake SockJS không mang được header → phiên không có principal (trừ khi gửi ?token=).
+ * Interceptor gắn principal cho phiên → /user/queue/** tới đúng người và presence chỉ tin principal.
+ * Token thiếu / sai → phiên vẫn kết nối như ẩn danh (giữ hành vi cũ của topic công khai).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StompAuthInterceptor implements ChannelInterceptor {
+
+    private static final String BEARER = "Bearer ";
+
+    private final JwtTokenUtils jwtTokenUtils;
+    private final UserDetailsService userDetailsService;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getUser() != null) return message;
+        if (accessor.getCommand() != StompCommand.CONNECT && accessor.getCommand() != StompCommand.STOMP) {
+            return message;
+        }
+
+        String header = accessor.getFirstNativeHeader("Authorization");
+        if (header == null || !header.startsWith(BEARER)) return message;
+        String token = header.substring(BEARER.length());
+        try {
+            String subject = jwtTokenUtils.getSubject(token);
+            if (subject == null) return message;
+            NguoiDung user = (NguoiDung) userDetailsService.loadUserByUsername(subject);
+            if (!jwtTokenUtils.validateToken(token, user)) return message;
+
+            List<SimpleGrantedAuthority> authorities = jwtTokenUtils.extractRoles(token).stream()
+                    .map(SimpleGrantedAuthority::new)
+                    .toList();
+            accessor.setUser(new UsernamePasswordAuthenticationToken(user, null, authorities));
+        } catch (Exception e) {
+            log.debug("Token STOMP không hợp lệ (session {}): {}", accessor.getSessionId(), e.getMessage());
+        }
+        return message;
+    }
+}
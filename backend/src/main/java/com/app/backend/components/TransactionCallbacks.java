@@ -0,0 +1,30 @@
+package com.app.backend.components;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hẹn việc phụ (cache, Redis, index, WS) chạy sau khi transaction DB hiện tại commit,
+ * để không phát ra thay đổi mà transaction sau đó rollback.
+ */
+public final class TransactionCallbacks {
+
+    private TransactionCallbacks() {
+    }
+
+    /**
+     * Chạy sau khi transaction hiện tại commit (hoặc ngay nếu không có transaction)
+     */
+    public static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.app.backend.components;
+
+import com.app.backend.models.VatPham;
+import com.app.backend.models.enums.LoaiVatPham;
+import com.app.backend.repositories.IVatPhamRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Danh mục vật phẩm (bảng vat_pham – vài dòng, gần như không đổi) giữ trong bộ nhớ.
+ * <p>
+ * - Phần thưởng mốc cấp độ tra theo loại ở đây thay vì findByLoai mỗi lần lên cấp.
+ * - Nạp lại toàn bộ khi hết TTL hoặc sau {@link #invalidate()} (seed vật phẩm mặc định).
+ * - Entity trả ra đã detached: chỉ dùng để đọc id / tên / icon.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VatPhamCatalog {
+
+    private record Snapshot(Map<LoaiVatPham, VatPham> byLoai, long loadedAt) {
+    }
+
+    private final IVatPhamRepository vatPhamRepository;
+
+    @Value("${cache.item-catalog.ttl-ms:600000}")
+    private long ttlMs;
+
+    private volatile Snapshot snapshot;
+
+    public Optional<VatPham> findByLoai(LoaiVatPham loai) {
+        if (loai == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(current().byLoai().get(loai));
+    }
+
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s != null && System.currentTimeMillis() - s.loadedAt() < ttlMs) {
+            return s;
+        }
+        synchronized (this) {
+            s = snapshot;
+            if (s != null && System.currentTimeMillis() - s.loadedAt() < ttlMs) {
+                return s;
+            }
+            Map<LoaiVatPham, VatPham> byLoai = new EnumMap<>(LoaiVatPham.class);
+            for (VatPham vp : vatPhamRepository.findAll()) {
+                if (vp.getLoai() != null) {
+                    byLoai.putIfAbsent(vp.getLoai(), vp);
+                }
+            }
+            s = new Snapshot(byLoai, System.currentTimeMillis());
+            snapshot = s;
+            log.debug("📦 Nạp danh mục vật phẩm: {} loại", byLoai.size());
+            return s;
+        }
+    }
+}
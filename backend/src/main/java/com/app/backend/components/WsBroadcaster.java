@@ -0,0 +1,156 @@
+package com.app.backend.components;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Điểm gửi WebSocket chung cho BattleWsPublisher / ChatWsPublisher / NotificationWsPublisher / ChatWebSocketHandler.
+ * <p>
+ * websocket.broker.mode:
+ * - simple : broker trong JVM, gửi thẳng qua SimpMessagingTemplate (1 node)
+ * - relay  : broker ngoài (RabbitMQ/ActiveMQ STOMP) tự fan-out giữa các node → gửi thẳng
+ * - redis  : broker trong JVM + cầu Redis pub/sub: node gửi phát ngay cho subscriber của mình rồi PUBLISH
+ * lên kênh chung (kèm id node); node khác nhận và phát lại, node gửi bỏ qua bản của chính nó
+ */
+@Slf4j
+@Component
+public class WsBroadcaster implements MessageListener {
+
+    public static final String MODE_REDIS = "redis";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+
+    @Value("${websocket.broker.mode:simple}")
+    private String mode;
+
+    @Value("${websocket.broker.redis-channel:ws:broadcast}")
+    private String channel;
+
+    /**
+     * Id của node này trong envelope ("n") → onMessage bỏ qua sự kiện do chính node phát
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public WsBroadcaster(SimpMessagingTemplate messagingTemplate,
+                         StringRedisTemplate redisTemplate,
+                         RedisMessageListenerContainer listenerContainer,
+                         ObjectMapper objectMapper) {
+        this.messagingTemplate = messagingTemplate;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (isDistributed()) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+            log.info("✅ WsBroadcaster: cầu Redis pub/sub trên kênh '{}'", channel);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (isDistributed()) {
+            listenerContainer.removeMessageListener(this);
+        }
+    }
+
+    /**
+     * Sự kiện có phải đi qua Redis để tới node khác không
+     */
+    public boolean isDistributed() {
+        return MODE_REDIS.equalsIgnoreCase(mode);
+    }
+
+    public void convertAndSend(String destination, Object payload) {
+        messagingTemplate.convertAndSend(destination, payload);
+        if (isDistributed()) publish(null, destination, payload);
+    }
+
+    public void convertAndSendToUser(String user, String destination, Object payload) {
+        messagingTemplate.convertAndSendToUser(user, destination, payload);
+        if (isDistributed()) publish(user, destination, payload);
+    }
+
+    /**
+     * Cùng 1 payload cho nhiều user – chế độ redis chỉ PUBLISH 1 lần cho cả nhóm
+     */
+    public void convertAndSendToUsers(Collection<String> users, String destination, Object payload) {
+        if (users.isEmpty()) return;
+        users.forEach(user -> messagingTemplate.convertAndSendToUser(user, destination, payload));
+        if (!isDistributed()) return;
+
+        ObjectNode envelope = envelope(destination, payload);
+        ArrayNode us = envelope.putArray("us");
+        users.forEach(us::add);
+        send(envelope);
+    }
+
+    /**
+     * Nhận sự kiện từ Redis → phát cho subscriber trên node này
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            JsonNode envelope = objectMapper.readTree(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (nodeId.equals(envelope.path("n").asText(null))) return; // đã phát local lúc gửi
+            String destination = envelope.path("d").asText();
+            JsonNode payload = envelope.get("p");
+            if (envelope.has("us")) {
+                for (JsonNode user : envelope.get("us")) {
+                    messagingTemplate.convertAndSendToUser(user.asText(), destination, payload);
+                }
+            } else if (envelope.hasNonNull("u")) {
+                messagingTemplate.convertAndSendToUser(envelope.get("u").asText(), destination, payload);
+            } else {
+                messagingTemplate.convertAndSend(destination, payload);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể phát sự kiện WS từ Redis: {}", e.getMessage());
+        }
+    }
+
+    private void publish(String user, String destination, Object payload) {
+        ObjectNode envelope = envelope(destination, payload);
+        if (user != null) envelope.put("u", user);
+        send(envelope);
+    }
+
+    private ObjectNode envelope(String destination, Object payload) {
+        ObjectNode envelope = objectMapper.createObjectNode();
+        envelope.put("n", nodeId);
+        envelope.put("d", destination);
+        envelope.set("p", objectMapper.valueToTree(payload));
+        return envelope;
+    }
+
+    private void send(ObjectNode envelope) {
+        try {
+            redisTemplate.convertAndSend(channel, envelope.toString());
+        } catch (Exception e) {
+            // Redis lỗi → subscriber trên node này vẫn đã nhận (phát local trước khi PUBLISH)
+            log.warn("⚠️ Không thể PUBLISH sự kiện WS lên Redis: {}", e.getMessage());
+        }
+    }
+}
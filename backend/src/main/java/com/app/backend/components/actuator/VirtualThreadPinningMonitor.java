@@ -0,0 +1,91 @@
+package com.app.backend.components.actuator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Theo dõi sự kiện virtual thread bị "ghim" (pinned) vào carrier thread
+ * qua JFR event {@code jdk.VirtualThreadPinned}.
+ * Chỉ bật khi async.executor.mode=virtual.
+ * <p>
+ * Metrics (xem tại /actuator/metrics):
+ * - async.virtual.pinned        : số lần bị pin quá ngưỡng
+ * - async.virtual.pinned.time   : thời gian bị pin
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "async.executor.mode", havingValue = "virtual")
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final Counter pinnedCounter;
+    private final Timer pinnedTimer;
+
+    @Value("${async.executor.virtual.pinned-threshold-ms:20}")
+    private long thresholdMs;
+
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry registry) {
+        this.pinnedCounter = Counter.builder("async.virtual.pinned")
+                .description("Số lần virtual thread bị pin vào carrier thread")
+                .register(registry);
+        this.pinnedTimer = Timer.builder("async.virtual.pinned.time")
+                .description("Thời gian virtual thread bị pin")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT)
+                    .withThreshold(Duration.ofMillis(thresholdMs))
+                    .withStackTrace();
+            stream.onEvent(PINNED_EVENT, event -> {
+                pinnedCounter.increment();
+                pinnedTimer.record(event.getDuration());
+                log.warn("⚠️ Virtual thread pinned {}ms tại {}", event.getDuration().toMillis(),
+                        topFrame(event.getStackTrace()));
+            });
+            stream.startAsync();
+            log.info("✅ VirtualThreadPinningMonitor started: threshold={}ms", thresholdMs);
+        } catch (Exception e) {
+            // JFR không khả dụng (JVM tuỳ biến) → vẫn chạy app, chỉ mất metric
+            log.warn("⚠️ Không thể bật theo dõi pinning: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /**
+     * Ưu tiên frame đầu tiên thuộc code của app (com.app.backend) để biết chỗ gây pin
+     */
+    private String topFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) return "unknown";
+        RecordedFrame frame = stackTrace.getFrames().stream()
+                .filter(f -> f.isJavaFrame() && f.getMethod().getType().getName().startsWith("com.app.backend"))
+                .findFirst()
+                .orElse(stackTrace.getFrames().get(0));
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                + ":" + frame.getLineNumber();
+    }
+}
@@ -1,12 +1,16 @@
 package com.app.backend.configurations;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import java.time.Instant;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -23,6 +27,13 @@ import java.util.concurrent.ThreadPoolExecutor;
  * 1. taskExecutor (default) - General async tasks
  * 2. wsExecutor - WebSocket message broadcasting  
  * 3. notificationExecutor - Push notifications
+ * 4. battleTaskScheduler - Timer chung cho vòng đời trận đấu (BattleScheduler)
+ * 5. battleStepExecutor - Đóng câu / kết thúc trận do timer kích hoạt (chạm DB)
+ *
+ * Chế độ (async.executor.mode):
+ * - platform (mặc định): ThreadPoolTaskExecutor như trên
+ * - virtual: taskExecutor / wsExecutor / notificationExecutor / battleStepExecutor chạy trên Java 21 virtual threads
+ *   → BattleLoopTask / WS / DB blocking không còn bị giới hạn bởi max-pool-size. battleTaskScheduler luôn là platform.
  */
 @Slf4j
 @Configuration
@@ -43,6 +54,41 @@ public class AsyncConfig {
     @Value("${async.executor.keep-alive-seconds:60}")
     private int keepAliveSeconds;
 
+    /**
+     * platform | virtual
+     */
+    @Value("${async.executor.mode:platform}")
+    private String executorMode;
+
+    /**
+     * Giới hạn số task chạy đồng thời ở chế độ virtual, theo từng executor (-1 = không giới hạn).
+     * Chạm giới hạn → SimpleAsyncTaskExecutor CHẶN luồng gọi cho tới khi có chỗ.
+     * - concurrency-limit: notificationExecutor (ghi DB) – nên đặt ~ Hikari maximum-pool-size
+     * - ws-concurrency-limit: wsExecutor (gửi WS)
+     * - task-concurrency-limit: taskExecutor – chứa BattleLoopTask (1 task sống suốt trận) và việc nền của trận,
+     *   giới hạn ở đây giới hạn luôn số trận chạy song song → mặc định không giới hạn
+     */
+    @Value("${async.executor.virtual.concurrency-limit:-1}")
+    private int virtualConcurrencyLimit;
+
+    @Value("${async.executor.virtual.ws-concurrency-limit:-1}")
+    private int virtualWsConcurrencyLimit;
+
+    @Value("${async.executor.virtual.task-concurrency-limit:-1}")
+    private int virtualTaskConcurrencyLimit;
+
+    @Value("${async.battle-scheduler.pool-size:2}")
+    private int battleSchedulerPoolSize;
+
+    @Value("${async.battle-step.pool-size:4}")
+    private int battleStepPoolSize;
+
+    @Value("${async.battle-step.queue-capacity:500}")
+    private int battleStepQueueCapacity;
+
+    @Value("${async.battle-step.requeue-delay-ms:200}")
+    private long battleStepRequeueDelayMs;
+
     // ==================== DEFAULT TASK EXECUTOR ====================
     
     /**
@@ -51,6 +97,9 @@ public class AsyncConfig {
      */
     @Bean(name = "taskExecutor")
     public Executor taskExecutor() {
+        if (isVirtualMode()) {
+            return virtualExecutor("async-task-", virtualTaskConcurrencyLimit, 30);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         
         // Core threads luôn active (2 vCPU → 4 core threads)
@@ -95,6 +144,9 @@ public class AsyncConfig {
      */
     @Bean(name = "wsExecutor")
     public Executor wsExecutor() {
+        if (isVirtualMode()) {
+            return virtualExecutor("ws-broadcast-", virtualWsConcurrencyLimit, 10);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         
         // WebSocket cần phản hồi nhanh → nhiều core threads hơn
@@ -130,6 +182,9 @@ public class AsyncConfig {
      */
     @Bean(name = "notificationExecutor")
     public Executor notificationExecutor() {
+        if (isVirtualMode()) {
+            return virtualExecutor("notification-", virtualConcurrencyLimit, 60);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         
         // Notification có thể chờ → ít core threads
@@ -154,7 +209,118 @@ public class AsyncConfig {
         return executor;
     }
 
+    // ==================== VIRTUAL THREAD MODE ====================
+
+    private boolean isVirtualMode() {
+        return "virtual".equalsIgnoreCase(executorMode);
+    }
+
+    /**
+     * Executor tạo 1 virtual thread cho mỗi task.
+     * Thread.sleep / chờ IO sẽ nhả carrier thread thay vì giữ platform thread.
+     * Pinning (synchronized + blocking) được theo dõi bởi VirtualThreadPinningMonitor.
+     */
+    private Executor virtualExecutor(String threadNamePrefix, int concurrencyLimit, int terminationSeconds) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        // Giới hạn đồng thời → không dồn quá nhiều virtual thread vào Hikari pool
+        if (concurrencyLimit > 0) {
+            executor.setConcurrencyLimit(concurrencyLimit);
+        }
+        executor.setTaskTerminationTimeout(terminationSeconds * 1000L);
+        log.info("✅ Virtual thread executor initialized: prefix={}, limit={}",
+                threadNamePrefix, concurrencyLimit > 0 ? concurrencyLimit : "unbounded");
+        return executor;
+    }
+
+    // ==================== BATTLE SCHEDULER ====================
+
+    /**
+     * Timer dùng chung cho toàn bộ trận đấu đang chạy.
+     * Mỗi trận chỉ giữ 1 ScheduledFuture (sự kiện kế tiếp) thay vì 1 thread ngủ,
+     * nên vài thread là đủ cho hàng nghìn phòng.
+     *
+     * Dùng bởi: BattleScheduler
+     */
+    @Bean(name = "battleTaskScheduler")
+    public ThreadPoolTaskScheduler battleTaskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(battleSchedulerPoolSize);
+        scheduler.setThreadNamePrefix("battle-timer-");
+        // Hủy future → gỡ khỏi queue ngay (tránh giữ task chết khi đóng phòng)
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        scheduler.setErrorHandler(t -> log.error("❌ Lỗi trong battle timer: {}", t.getMessage(), t));
+        scheduler.initialize();
+        log.info("✅ Battle TaskScheduler initialized: pool={}", battleSchedulerPoolSize);
+        return scheduler;
+    }
+
+    // ==================== BATTLE STEP EXECUTOR ====================
+
+    /**
+     * Executor riêng cho việc timer trận kích hoạt (processQuestionTimeout / finishBattle – @Transactional).
+     * Tách khỏi taskExecutor để việc chung không chiếm chỗ; khi đầy KHÔNG chạy trên caller (thread timer)
+     * mà hẹn lại trên battleTaskScheduler sau requeue-delay-ms.
+     *
+     * Dùng bởi: BattleScheduler
+     */
+    @Bean(name = "battleStepExecutor")
+    public Executor battleStepExecutor(@Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler battleTaskScheduler) {
+        if (isVirtualMode()) {
+            // Không đặt concurrency-limit: SimpleAsyncTaskExecutor chặn luồng gọi khi chạm giới hạn
+            return virtualExecutor("battle-step-", -1, 30);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(battleStepPoolSize);
+        executor.setMaxPoolSize(battleStepPoolSize);
+        executor.setQueueCapacity(battleStepQueueCapacity);
+        executor.setThreadNamePrefix("battle-step-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.setRejectedExecutionHandler(
+                new RequeueOnTimerHandler("battleStepExecutor", battleTaskScheduler, battleStepRequeueDelayMs));
+        executor.initialize();
+        log.info("✅ Battle step Executor initialized: pool={}, queue={}", battleStepPoolSize, battleStepQueueCapacity);
+        return executor;
+    }
+
     // ==================== CUSTOM REJECTION HANDLER ====================
+
+    /**
+     * Queue đầy → hẹn đưa lại task vào executor sau 1 khoảng trên timer (timer chỉ hẹn, không chạy task).
+     * Executor đã shutdown → bỏ task và log.
+     */
+    static class RequeueOnTimerHandler implements RejectedExecutionHandler {
+        private final String executorName;
+        private final ThreadPoolTaskScheduler scheduler;
+        private final long delayMs;
+
+        RequeueOnTimerHandler(String executorName, ThreadPoolTaskScheduler scheduler, long delayMs) {
+            this.executorName = executorName;
+            this.scheduler = scheduler;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                log.warn("⚠️ Bỏ task của {}: executor đã shutdown", executorName);
+                return;
+            }
+            log.warn("⚠️ {} đầy (pool={}/{}, queue={}) → hẹn lại task sau {}ms",
+                    executorName,
+                    executor.getActiveCount(),
+                    executor.getMaximumPoolSize(),
+                    executor.getQueue().size(),
+                    delayMs);
+            try {
+                scheduler.schedule(() -> executor.execute(r), Instant.now().plusMillis(delayMs));
+            } catch (RuntimeException e) {
+                log.error("❌ Bỏ task của {}: không hẹn lại được ({})", executorName, e.getMessage());
+            }
+        }
+    }
     
     /**
      * Custom handler để log khi task bị reject
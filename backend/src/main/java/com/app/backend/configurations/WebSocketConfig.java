@@ -1,7 +1,11 @@
 package com.app.backend.configurations;
 
+import com.app.backend.components.BattleWsEncodingInterceptor;
+import com.app.backend.components.StompAuthInterceptor;
+import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.*;
 
@@ -10,8 +14,12 @@ import java.util.List;
 
 @Configuration
 @EnableWebSocketMessageBroker
+@RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final BattleWsEncodingInterceptor battleWsEncodingInterceptor;
+    private final StompAuthInterceptor stompAuthInterceptor;
+
     @Value("${app.cors.allowed-origins:http://localhost:4200,http://103.200.21.203}")
     private String allowedOrigins;
 
@@ -42,15 +50,60 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .withSockJS();
     }
 
+    /**
+     * simple | redis: broker trong JVM (redis = thêm cầu pub/sub ở WsBroadcaster)
+     * relay: chuyển tiếp sang broker STOMP ngoài (RabbitMQ / ActiveMQ) – fan-out giữa mọi node
+     */
+    @Value("${websocket.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${websocket.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${websocket.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${websocket.broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${websocket.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    @Value("${websocket.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         // Client gửi tin → /app/**
         registry.setApplicationDestinationPrefixes("/app");
 
-        // Server gửi broadcast → /topic/**
-        registry.enableSimpleBroker("/topic", "/topic/notifications", "/topic/chat/**");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            // Server gửi broadcast → /topic/** qua broker ngoài
+            var relay = registry.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    // /user/** của session ở node khác
+                    .setUserDestinationBroadcast("/topic/unresolved-user")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+            if (!relayVirtualHost.isBlank()) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            // Server gửi broadcast → /topic/**; /queue/** cho đích riêng từng user (/user/queue/...)
+            registry.enableSimpleBroker("/topic", "/topic/notifications", "/topic/chat/**", "/queue");
+        }
 
         // Nếu gửi riêng user
         registry.setUserDestinationPrefix("/user");
     }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Gắn principal từ JWT của CONNECT, rồi thương lượng encoding (JSON / compact) cho topic trận đấu
+        registration.interceptors(stompAuthInterceptor, battleWsEncodingInterceptor);
+    }
 }
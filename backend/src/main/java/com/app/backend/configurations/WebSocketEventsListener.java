@@ -1,100 +1,114 @@
 package com.app.backend.configurations;
 
+import com.app.backend.components.BattleRosterManager;
 import com.app.backend.components.BattleWsPublisher;
+import com.app.backend.models.BattleRoster;
 import com.app.backend.models.NguoiDung;
-import com.app.backend.repositories.INguoiChoiTranDauRepository;
-import com.app.backend.repositories.INguoiDungRepository;
+import com.app.backend.services.presence.IPresenceService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.messaging.SessionConnectEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
 
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.security.Principal;
 
 /**
- * Lắng nghe sự kiện connect/disconnect từ STOMP WebSocket.
- * Dùng để phát event join/leave và giữ mapping sessionId → userId/tranDauId.
+ * Lắng nghe sự kiện connect/disconnect/subscribe từ STOMP WebSocket.
+ * Ghi nhận phiên vào IPresenceService (trực tuyến, phòng chat đang mở) và phát event join/leave phòng đấu.
+ * Trực tuyến chỉ tính theo principal đã xác thực (StompAuthInterceptor / handshake); header x-user-id do client tự khai
+ * nên chỉ dùng cho join/leave phòng đấu (người đó còn phải có trong roster).
+ * Không truy vấn DB: tên người chơi lấy từ roster trong RAM.
  */
 @Component
 @RequiredArgsConstructor
 public class WebSocketEventsListener {
 
-    private final INguoiDungRepository nguoiDungRepo;
-    private final INguoiChoiTranDauRepository nctdRepo;
-    private final BattleWsPublisher wsPublisher;
+    private static final String CHAT_TOPIC_PREFIX = "/topic/chat/";
 
-    // sessionId → userId / tranDauId
-    private final Map<String, Long> sessionToUser = new ConcurrentHashMap<>();
-    private final Map<String, Long> sessionToTranDau = new ConcurrentHashMap<>();
+    private final IPresenceService presenceService;
+    private final BattleRosterManager battleRosterManager;
+    private final BattleWsPublisher wsPublisher;
 
     @EventListener
     public void onConnect(SessionConnectEvent event) {
         var accessor = StompHeaderAccessor.wrap(event.getMessage());
         String sessionId = accessor.getSessionId();
 
-//        System.out.println("📡 New WS CONNECT from sessionId=" + sessionId);
-//        System.out.println("📡 Headers = " + accessor.toNativeHeaderMap());
+        // Principal do StompAuthInterceptor / handshake gắn; phiên phòng đấu gửi kèm x-user-id / x-trandau-id
+        Long userId = userId(event.getUser());
+        Long playerId = userId != null ? userId : parseLong(accessor.getFirstNativeHeader("x-user-id"));
+        Long tranDauId = parseLong(accessor.getFirstNativeHeader("x-trandau-id"));
 
-        String uidStr = accessor.getFirstNativeHeader("x-user-id");
-        String tdStr = accessor.getFirstNativeHeader("x-trandau-id");
+        presenceService.connect(sessionId, userId, tranDauId, playerId);
+        if (playerId == null || tranDauId == null) return;
 
         try {
-            Long userId = Long.parseLong(uidStr);
-            Long tranDauId = Long.parseLong(tdStr);
-
-            sessionToUser.put(sessionId, userId);
-            sessionToTranDau.put(sessionId, tranDauId);
-
-            Optional<NguoiDung> userOpt = nguoiDungRepo.findById(userId);
-            if (userOpt.isEmpty()) return;
-
-            int soNguoi = (int) nctdRepo.countByTranDau_Id(tranDauId);
-
-            wsPublisher.publishPlayerJoined(tranDauId, userId, userOpt.get().getHoTen(), soNguoi);
+            BattleRoster roster = battleRosterManager.get(tranDauId);
+            if (roster == null || !roster.contains(playerId)) return;
 
-//            System.out.printf("✅ [%s] User #%d joined room #%d (%d người hiện tại)%n",
-//                    sessionId, userId, tranDauId, soNguoi);
+            wsPublisher.publishPlayerJoined(tranDauId, playerId, roster.hoTen(playerId), roster.size());
         } catch (Exception e) {
             System.err.printf("❌ Lỗi onConnect (sessionId=%s): %s%n", sessionId, e.getMessage());
         }
     }
 
-
     @EventListener
     public void onDisconnect(SessionDisconnectEvent event) {
-        String sessionId = StompHeaderAccessor.wrap(event.getMessage()).getSessionId();
-        Long userId = sessionToUser.remove(sessionId);
-        Long tranDauId = sessionToTranDau.remove(sessionId);
+        presenceService.disconnect(event.getSessionId()).ifPresent(session -> {
+            Long playerId = session.playerId();
+            Long tranDauId = session.tranDauId();
+            if (playerId == null || tranDauId == null) return;
+
+            try {
+                BattleRoster roster = battleRosterManager.get(tranDauId);
+                // Không còn trong roster = đã rời qua API (PLAYER_LEFT đã phát lúc rời)
+                if (roster == null || !roster.contains(playerId)) return;
+
+                // Số người hiện tại còn trong phòng (roster trong RAM)
+                wsPublisher.publishPlayerLeft(tranDauId, playerId, roster.hoTen(playerId), roster.size());
+            } catch (Exception e) {
+//            System.err.printf("❌ Lỗi onDisconnect: %s%n", e.getMessage());
+            }
+        });
+    }
 
-        if (userId == null || tranDauId == null) {
-//            System.out.printf("⚠️ Bỏ qua disconnect không có mapping (sessionId=%s)%n", sessionId);
-            return;
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        if (destination == null || !destination.startsWith(CHAT_TOPIC_PREFIX)) return;
+
+        Long phongChatId = parseLong(destination.substring(CHAT_TOPIC_PREFIX.length()));
+        if (phongChatId != null) {
+            presenceService.subscribeChat(accessor.getSessionId(), accessor.getSubscriptionId(), phongChatId);
         }
+    }
 
-        try {
-            Optional<NguoiDung> userOpt = nguoiDungRepo.findById(userId);
-            if (userOpt.isEmpty()) return;
-
-            // Đếm số người hiện tại còn trong phòng
-            int soNguoi = (int) nctdRepo.countByTranDau_Id(tranDauId);
-
-            // Phát event "PLAYER_LEFT"
-            wsPublisher.publishPlayerLeft(
-                    tranDauId,
-                    userId,
-                    userOpt.get().getHoTen(),
-                    soNguoi
-            );
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        presenceService.unsubscribe(accessor.getSessionId(), accessor.getSubscriptionId());
+    }
 
-//            System.out.printf("👋 [%s] User #%d left room #%d (%d người còn lại)%n",
-//                    sessionId, userId, tranDauId, soNguoi);
+    private static Long userId(Principal principal) {
+        if (principal instanceof UsernamePasswordAuthenticationToken token
+                && token.getPrincipal() instanceof NguoiDung user) {
+            return user.getId();
+        }
+        return null;
+    }
 
-        } catch (Exception e) {
-//            System.err.printf("❌ Lỗi onDisconnect: %s%n", e.getMessage());
+    private static Long parseLong(String value) {
+        if (value == null) return null;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 }
@@ -1,13 +1,19 @@
 package com.app.backend.controllers;
 
 import com.app.backend.components.SecurityUtils;
+import com.app.backend.exceptions.DataNotFoundException;
+import com.app.backend.models.BangXepHang;
+import com.app.backend.repositories.IBangXepHangRepository;
 import com.app.backend.responses.PageResponse;
 import com.app.backend.responses.ResponseObject;
+import com.app.backend.responses.bangxephang.LeaderboardCursorResponse;
 import com.app.backend.responses.bangxephang.LeaderboardEntryResponse;
+import com.app.backend.responses.bangxephang.RankLookupResponse;
 import com.app.backend.responses.bangxephang.WeeklyRankRewardResponse;
 import com.app.backend.responses.user.UserSummaryResponse;
 import com.app.backend.services.bangxephang.IBangXepHangService;
 import com.app.backend.services.bangxephang.ILeaderboardRedisService;
+import com.app.backend.services.bangxephang.IRankLookupService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -23,6 +29,8 @@ import org.springframework.web.bind.annotation.*;
 public class BangXepHangController {
     private final IBangXepHangService bangXepHangService;
     private final ILeaderboardRedisService leaderboardRedisService;
+    private final IRankLookupService rankLookupService;
+    private final IBangXepHangRepository bangXepHangRepository;
     private final SecurityUtils securityUtils;
 
     @GetMapping("/global")
@@ -35,12 +43,12 @@ public class BangXepHangController {
             @RequestParam(required = false) Long bo_cau_hoi_id,
             @RequestParam(defaultValue = "false") boolean friend_only
     ) {
-        // 1. Check Redis cache first
+        // 1. Bảng lọc (tuần / tháng / chủ đề / bộ câu hỏi) đọc thẳng từ sorted set Redis
         Page<LeaderboardEntryResponse> result = leaderboardRedisService.getLeaderboard(
                 time_range, chu_de_id, bo_cau_hoi_id, page, limit);
         
         if (result == null) {
-            // 2. Cache miss -> Query DB
+            // 2. ALL không lọc, hoặc Redis chưa sẵn sàng -> Query DB
             PageRequest pageRequest = PageRequest.of(page, limit);
             result = bangXepHangService.getGlobalLeaderboard(
                     pageRequest,
@@ -48,8 +56,6 @@ public class BangXepHangController {
                     chu_de_id,
                     bo_cau_hoi_id
             );
-            // 3. Save to cache
-            leaderboardRedisService.saveLeaderboard(time_range, chu_de_id, bo_cau_hoi_id, page, limit, result);
         }
         
         PageResponse<LeaderboardEntryResponse> data = PageResponse.fromPage(result);
@@ -63,6 +69,97 @@ public class BangXepHangController {
         );
     }
 
+    /**
+     * 🔹 BXH toàn cục phân trang bằng con trỏ (dùng cho cuộn vô hạn / trang sâu)
+     * - Không truyền con trỏ → đầu bảng
+     * - after = next_cursor của lần trước → trang tiếp theo; before = prev_cursor → trang phía trên
+     */
+    @GetMapping("/global/cursor")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ResponseObject> getGlobalLeaderboardByCursor(
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "20") int limit
+    ) {
+        LeaderboardCursorResponse data = bangXepHangService.getGlobalLeaderboardByCursor(after, before, limit);
+
+        return ResponseEntity.ok(
+                ResponseObject.builder()
+                        .message("Lấy bảng xếp hạng toàn cầu thành công")
+                        .status(HttpStatus.OK)
+                        .data(data)
+                        .build()
+        );
+    }
+
+    /**
+     * 🔹 Nhảy tới hạng của tôi: window người phía trên + tôi + window người phía dưới
+     */
+    @GetMapping("/global/around-me")
+    @PreAuthorize("hasAnyRole('ROLE_USER','ROLE_ADMIN')")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ResponseObject> getGlobalLeaderboardAroundMe(
+            @RequestParam(defaultValue = "10") int window
+    ) throws Exception {
+        Long userId = securityUtils.getLoggedInUserId();
+        LeaderboardCursorResponse data = bangXepHangService.getGlobalLeaderboardAroundUser(userId, window);
+
+        return ResponseEntity.ok(
+                ResponseObject.builder()
+                        .message("Lấy vị trí trên bảng xếp hạng thành công")
+                        .status(HttpStatus.OK)
+                        .data(data)
+                        .build()
+        );
+    }
+
+    /**
+     * 🔹 Hạng + phần trăm của 1 user (profile / màn hình kết thúc trận)
+     */
+    @GetMapping("/rank/{userId}")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ResponseObject> getUserRank(@PathVariable Long userId) throws Exception {
+        BangXepHang bxh = bangXepHangRepository.findByNguoiDung_Id(userId)
+                .orElseThrow(() -> new DataNotFoundException("Người dùng chưa có trên bảng xếp hạng"));
+        int tongDiem = bxh.getTongDiem() != null ? bxh.getTongDiem() : 0;
+
+        RankLookupResponse data = RankLookupResponse.builder()
+                .userId(userId)
+                .tongDiem(tongDiem)
+                .xepHang(rankLookupService.rankOf(userId, bxh.getXepHang()))
+                .percentile(rankLookupService.percentileOfScore(tongDiem))
+                .totalPlayers(rankLookupService.totalPlayers())
+                .build();
+
+        return ResponseEntity.ok(
+                ResponseObject.builder()
+                        .message("Lấy hạng người dùng thành công")
+                        .status(HttpStatus.OK)
+                        .data(data)
+                        .build()
+        );
+    }
+
+    /**
+     * 🔹 Phần trăm người chơi có điểm thấp hơn 1 mức điểm
+     */
+    @GetMapping("/percentile")
+    public ResponseEntity<ResponseObject> getScorePercentile(@RequestParam int score) {
+        RankLookupResponse data = RankLookupResponse.builder()
+                .tongDiem(score)
+                .percentile(rankLookupService.percentileOfScore(score))
+                .totalPlayers(rankLookupService.totalPlayers())
+                .build();
+
+        return ResponseEntity.ok(
+                ResponseObject.builder()
+                        .message("Lấy phần trăm theo điểm thành công")
+                        .status(HttpStatus.OK)
+                        .data(data)
+                        .build()
+        );
+    }
+
     /**
      * 🔹 Lấy thông tin tổng quan của 1 user trên BXH
      * Dùng cho:
@@ -92,8 +189,8 @@ public class BangXepHangController {
     @PreAuthorize("hasRole('ROLE_ADMIN')")
     public ResponseEntity<ResponseObject> recalcRankings() {
         bangXepHangService.recalcAllRankings();
-        // Clear cache sau khi recalc
-        leaderboardRedisService.clearLeaderboardCache();
+        // Nạp lại các bảng lọc trên Redis từ lich_su_tran_dau
+        leaderboardRedisService.rebuild();
 
         return ResponseEntity.ok(
                 ResponseObject.builder()
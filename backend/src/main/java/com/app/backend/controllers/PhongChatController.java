@@ -7,6 +7,7 @@ import com.app.backend.models.NguoiDung;
 import com.app.backend.responses.PageResponse;
 import com.app.backend.responses.ResponseObject;
 import com.app.backend.responses.chat.PhongChatResponse;
+import com.app.backend.responses.chat.TinNhanCursorResponse;
 import com.app.backend.responses.chat.TinNhanResponse;
 import com.app.backend.services.chat.IPhongChatService;
 import jakarta.validation.Valid;
@@ -389,6 +390,35 @@ public class PhongChatController {
         }
     }
 
+    /**
+     * Lịch sử tin nhắn theo con trỏ (cuộn lên vô hạn, không đếm tổng)
+     * - Không truyền before → đoạn mới nhất; before = nextCursor của lần trước → đoạn cũ hơn
+     */
+    @GetMapping("/rooms/{roomId}/messages/cursor")
+    @PreAuthorize("hasAnyRole('USER', 'ADMIN')")
+    @Transactional(readOnly = true)
+    public ResponseEntity<ResponseObject> getMessagesByCursor(
+            @AuthenticationPrincipal NguoiDung user,
+            @PathVariable Long roomId,
+            @RequestParam(required = false) String before,
+            @RequestParam(defaultValue = "30") int limit) {
+        try {
+            TinNhanCursorResponse messages = phongChatService.getMessagesByCursor(user.getId(), roomId, before, limit);
+
+            return ResponseEntity.ok(ResponseObject.builder()
+                    .status(HttpStatus.OK)
+                    .message("Lấy tin nhắn thành công")
+                    .data(messages)
+                    .build());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                    .body(ResponseObject.builder()
+                            .status(HttpStatus.BAD_REQUEST)
+                            .message(e.getMessage())
+                            .build());
+        }
+    }
+
     /**
      * Tìm kiếm tin nhắn
      */
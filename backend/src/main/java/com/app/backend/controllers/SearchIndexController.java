@@ -0,0 +1,37 @@
+package com.app.backend.controllers;
+
+import com.app.backend.responses.ResponseObject;
+import com.app.backend.services.search.ISearchIndexService;
+import com.app.backend.services.search.SearchType;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("${api.prefix}/admin/search")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('ADMIN')")
+public class SearchIndexController {
+
+    private final ISearchIndexService searchIndexService;
+
+    /**
+     * Dựng lại chỉ mục tìm kiếm từ DB (chạy nền). Không truyền types → dựng lại tất cả.
+     */
+    @PostMapping("/rebuild")
+    public ResponseEntity<ResponseObject> rebuild(
+            @RequestParam(value = "types", required = false) List<SearchType> types
+    ) {
+        List<SearchType> targets = types == null || types.isEmpty() ? List.of(SearchType.values()) : types;
+        searchIndexService.rebuild(targets);
+        return ResponseEntity.ok(
+                ResponseObject.builder()
+                        .message("Đã bắt đầu dựng lại chỉ mục tìm kiếm")
+                        .data(targets)
+                        .build()
+        );
+    }
+}
@@ -29,15 +29,8 @@ public class TagController {
     @GetMapping("")
     @Transactional(readOnly = true)
     public ResponseEntity<ResponseObject> getAllTags() {
-        // 1. Check Redis cache first
-        List<TagResponse> tags = tagRedisService.getAllTags();
-        
-        if (tags == null) {
-            // 2. Cache miss -> Query DB
-            tags = tagService.getAllTags();
-            // 3. Save to cache
-            tagRedisService.saveAllTags(tags);
-        }
+        // Redis cache trước; miss -> Query DB + save cache (chỉ 1 request nạp, các request khác chờ)
+        List<TagResponse> tags = tagRedisService.getOrLoadAllTags(tagService::getAllTags);
         
         return ResponseEntity.ok(ResponseObject.builder()
                 .status(HttpStatus.OK)
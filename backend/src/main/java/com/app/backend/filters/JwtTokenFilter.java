@@ -176,6 +176,11 @@ public class JwtTokenFilter extends OncePerRequestFilter {
         String requestPath = request.getServletPath();
         String requestMethod = request.getMethod();
 
+        // Nằm dưới leaderboard/** (công khai) nhưng cần biết người gọi
+        if (requestPath.equals(String.format("%s/leaderboard/global/around-me", apiPrefix))) {
+            return false;
+        }
+
         for (Pair<String, String> token : bypassTokens) {
             String path = token.getFirst();
             String method = token.getSecond();
@@ -1,35 +1,46 @@
 package com.app.backend.handlers;
 
+import com.app.backend.components.ChatRoomMembers;
+import com.app.backend.components.WsBroadcaster;
 import com.app.backend.dtos.chat.GuiTinNhanDTO;
 import com.app.backend.models.NguoiDung;
-import com.app.backend.repositories.IThanhVienPhongChatRepository;
 import com.app.backend.responses.chat.TinNhanResponse;
 import com.app.backend.services.chat.IPhongChatService;
-import lombok.RequiredArgsConstructor;
+import com.app.backend.services.presence.IPresenceService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 
 import java.security.Principal;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 @Controller
-@RequiredArgsConstructor
 @Slf4j
 public class ChatWebSocketHandler {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final WsBroadcaster wsBroadcaster;
     private final IPhongChatService phongChatService;
-    private final IThanhVienPhongChatRepository thanhVienRepository;
-
-    // Lưu trạng thái online của users: userId -> sessionId
-    private static final Map<Long, String> onlineUsers = new ConcurrentHashMap<>();
+    private final ChatRoomMembers chatRoomMembers;
+    private final IPresenceService presenceService;
+    private final Executor wsExecutor;
+
+    public ChatWebSocketHandler(WsBroadcaster wsBroadcaster,
+                                IPhongChatService phongChatService,
+                                ChatRoomMembers chatRoomMembers,
+                                IPresenceService presenceService,
+                                @Qualifier("wsExecutor") Executor wsExecutor) {
+        this.wsBroadcaster = wsBroadcaster;
+        this.phongChatService = phongChatService;
+        this.chatRoomMembers = chatRoomMembers;
+        this.presenceService = presenceService;
+        this.wsExecutor = wsExecutor;
+    }
 
     /**
      * Gửi tin nhắn qua WebSocket
@@ -49,7 +60,7 @@ public class ChatWebSocketHandler {
             TinNhanResponse message = phongChatService.sendMessage(user.getId(), dto);
 
             // Broadcast đến tất cả thành viên trong phòng chat
-            messagingTemplate.convertAndSend(
+            wsBroadcaster.convertAndSend(
                     "/topic/chat/" + dto.getPhongChatId(),
                     WebSocketMessage.builder()
                             .type("NEW_MESSAGE")
@@ -57,22 +68,18 @@ public class ChatWebSocketHandler {
                             .build()
             );
 
-            // Gửi notification cho những người không online trong phòng chat
-            List<Long> memberIds = thanhVienRepository.findUserIdsExcluding(dto.getPhongChatId(), user.getId());
-            for (Long memberId : memberIds) {
-                messagingTemplate.convertAndSendToUser(
-                        memberId.toString(),
-                        "/queue/notifications",
-                        WebSocketMessage.builder()
-                                .type("NEW_CHAT_MESSAGE")
-                                .data(Map.of(
-                                        "phongChatId", dto.getPhongChatId(),
-                                        "nguoiGui", user.getHoTen(),
-                                        "noiDung", truncate(dto.getNoiDung(), 50)
-                                ))
-                                .build()
-                );
-            }
+            // Thông báo cho thành viên không mở phòng – 1 lượt trên wsExecutor, không giữ luồng STOMP inbound
+            Long roomId = dto.getPhongChatId();
+            Long senderId = user.getId();
+            WebSocketMessage notification = WebSocketMessage.builder()
+                    .type("NEW_CHAT_MESSAGE")
+                    .data(Map.of(
+                            "phongChatId", roomId,
+                            "nguoiGui", user.getHoTen(),
+                            "noiDung", truncate(dto.getNoiDung(), 50)
+                    ))
+                    .build();
+            wsExecutor.execute(() -> notifyMembers(roomId, senderId, notification));
 
         } catch (Exception e) {
             log.error("Error sending message: ", e);
@@ -93,7 +100,7 @@ public class ChatWebSocketHandler {
             phongChatService.markAsRead(user.getId(), roomId);
 
             // Thông báo cho các thành viên khác
-            messagingTemplate.convertAndSend(
+            wsBroadcaster.convertAndSend(
                     "/topic/chat/" + roomId,
                     WebSocketMessage.builder()
                             .type("USER_READ")
@@ -116,7 +123,7 @@ public class ChatWebSocketHandler {
 
         NguoiDung user = (NguoiDung) ((org.springframework.security.authentication.UsernamePasswordAuthenticationToken) principal).getPrincipal();
 
-        messagingTemplate.convertAndSend(
+        wsBroadcaster.convertAndSend(
                 "/topic/chat/" + roomId,
                 WebSocketMessage.builder()
                         .type("USER_TYPING")
@@ -138,7 +145,7 @@ public class ChatWebSocketHandler {
 
         NguoiDung user = (NguoiDung) ((org.springframework.security.authentication.UsernamePasswordAuthenticationToken) principal).getPrincipal();
 
-        messagingTemplate.convertAndSend(
+        wsBroadcaster.convertAndSend(
                 "/topic/chat/" + roomId,
                 WebSocketMessage.builder()
                         .type("USER_STOP_TYPING")
@@ -147,40 +154,27 @@ public class ChatWebSocketHandler {
         );
     }
 
-    /**
-     * User online
-     */
-    public void userOnline(Long userId, String sessionId) {
-        onlineUsers.put(userId, sessionId);
-        broadcastUserStatus(userId, true);
-    }
-
-    /**
-     * User offline
-     */
-    public void userOffline(Long userId) {
-        onlineUsers.remove(userId);
-        broadcastUserStatus(userId, false);
-    }
-
     /**
      * Kiểm tra user online
      */
     public boolean isUserOnline(Long userId) {
-        return onlineUsers.containsKey(userId);
+        return presenceService.isOnline(userId);
     }
 
-    private void broadcastUserStatus(Long userId, boolean online) {
-        messagingTemplate.convertAndSend(
-                "/topic/user-status",
-                WebSocketMessage.builder()
-                        .type("USER_STATUS")
-                        .data(Map.of(
-                                "userId", userId,
-                                "online", online
-                        ))
-                        .build()
-        );
+    private void notifyMembers(Long roomId, Long senderId, WebSocketMessage notification) {
+        try {
+            // Chỉ người đang trực tuyến và không mở phòng (1 lượt đọc presence cho cả phòng)
+            List<Long> candidates = chatRoomMembers.of(roomId).stream()
+                    .filter(id -> !id.equals(senderId))
+                    .filter(id -> !presenceService.isViewingChat(roomId, id))
+                    .toList();
+            List<String> recipients = presenceService.onlineOf(candidates).stream()
+                    .map(String::valueOf)
+                    .toList();
+            wsBroadcaster.convertAndSendToUsers(recipients, "/queue/notifications", notification);
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể gửi thông báo tin nhắn phòng {}: {}", roomId, e.getMessage());
+        }
     }
 
     private String truncate(String text, int maxLength) {
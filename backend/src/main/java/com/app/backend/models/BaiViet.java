@@ -17,6 +17,7 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@EntityListeners(SearchIndexListener.class)
 public class BaiViet {
 
     @Id
@@ -10,7 +10,11 @@ import java.time.Instant;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "bang_xep_hang")
+@Table(name = "bang_xep_hang",
+        indexes = {
+                // Chỉ mục phủ cho BXH toàn cục phân trang keyset
+                @Index(name = "idx_bxh_leaderboard_seek", columnList = "tong_diem DESC, cap_nhat_luc, id")
+        })
 @Data
 @Getter
 @Setter
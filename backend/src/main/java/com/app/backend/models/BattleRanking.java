@@ -0,0 +1,165 @@
+package com.app.backend.models;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bảng xếp hạng trong trận, duy trì tăng dần (không sort lại mỗi lần broadcast).
+ * <p>
+ * - Thứ tự: điểm giảm dần → ai trả lời câu đầu tiên sớm hơn xếp trên → userId.
+ * - {@link #update} O(log n) (TreeSet), gọi mỗi lần cộng điểm – SAU khi tổng đã chốt, kèm số thứ tự
+ * để tổng cũ đến muộn không ghi đè tổng mới.
+ * - {@link #diff()} chỉ trả các dòng đổi hạng / đổi điểm so với lần broadcast trước.
+ * <p>
+ * Dùng ReentrantLock thay vì synchronized để không ghim virtual thread.
+ */
+public final class BattleRanking {
+
+    /**
+     * 1 dòng xếp hạng (bất biến)
+     */
+    public record Row(Long userId, int diem, int xepHang) {
+    }
+
+    private record Key(Long userId, int diem, Instant firstAnswerAt, long seq) {
+    }
+
+    private static final Comparator<Key> ORDER = Comparator
+            .comparingInt(Key::diem).reversed()
+            .thenComparing(Key::firstAnswerAt, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(Key::userId);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeSet<Key> sorted = new TreeSet<>(ORDER);
+    private final Map<Long, Key> byUser = new HashMap<>();
+
+    /**
+     * userId -> (điểm, hạng) đã gửi ở lần broadcast trước
+     */
+    private final Map<Long, Row> lastSent = new HashMap<>();
+
+    /**
+     * Số lần diff() kể từ snapshot() gần nhất → service quyết định khi nào gửi lại toàn bộ
+     */
+    private int diffsSinceSnapshot;
+
+    /**
+     * Thêm người chơi với điểm ban đầu (không đổi nếu đã có)
+     */
+    public void add(Long userId, int diem) {
+        lock.lock();
+        try {
+            if (byUser.containsKey(userId)) return;
+            Key key = new Key(userId, diem, null, 0);
+            byUser.put(userId, key);
+            sorted.add(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cập nhật điểm mới của 1 người chơi – O(log n).
+     * Lần trả lời đầu tiên được ghi nhận làm tiêu chí phụ khi bằng điểm.
+     */
+    public void update(Long userId, int diem, Instant answeredAt) {
+        lock.lock();
+        try {
+            Key old = byUser.get(userId);
+            put(old, userId, diem, answeredAt, old != null ? old.seq() + 1 : 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Như {@link #update(Long, int, Instant)} nhưng bỏ qua nếu đã nhận tổng có seq lớn hơn
+     * (seq cấp tăng dần theo người chơi tại nơi chốt tổng điểm)
+     */
+    public void update(Long userId, int diem, Instant answeredAt, long seq) {
+        lock.lock();
+        try {
+            Key old = byUser.get(userId);
+            if (old != null && seq < old.seq()) return;
+            put(old, userId, diem, answeredAt, seq);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(Key old, Long userId, int diem, Instant answeredAt, long seq) {
+        Instant firstAnswerAt = old != null && old.firstAnswerAt() != null ? old.firstAnswerAt() : answeredAt;
+        if (old != null) {
+            if (old.diem() == diem && Objects.equals(old.firstAnswerAt(), firstAnswerAt)) {
+                if (seq > old.seq()) byUser.put(userId, new Key(userId, diem, firstAnswerAt, seq));
+                return;
+            }
+            sorted.remove(old);
+        }
+        Key key = new Key(userId, diem, firstAnswerAt, seq);
+        byUser.put(userId, key);
+        sorted.add(key);
+    }
+
+    public int diffsSinceSnapshot() {
+        lock.lock();
+        try {
+            return diffsSinceSnapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return sorted.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Toàn bộ bảng xếp hạng theo thứ tự; đồng thời chốt làm mốc cho {@link #diff()} kế tiếp
+     */
+    public List<Row> snapshot() {
+        lock.lock();
+        try {
+            List<Row> rows = new ArrayList<>(sorted.size());
+            lastSent.clear();
+            diffsSinceSnapshot = 0;
+            int rank = 1;
+            for (Key k : sorted) {
+                Row row = new Row(k.userId(), k.diem(), rank++);
+                rows.add(row);
+                lastSent.put(k.userId(), row);
+            }
+            return rows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Chỉ các dòng đổi điểm / đổi hạng kể từ lần snapshot() / diff() trước
+     */
+    public List<Row> diff() {
+        lock.lock();
+        try {
+            List<Row> changed = new ArrayList<>();
+            diffsSinceSnapshot++;
+            int rank = 1;
+            for (Key k : sorted) {
+                Row row = new Row(k.userId(), k.diem(), rank++);
+                if (!row.equals(lastSent.get(k.userId()))) {
+                    changed.add(row);
+                    lastSent.put(k.userId(), row);
+                }
+            }
+            return changed;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.app.backend.models;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Ảnh chụp BẤT BIẾN danh sách người trong phòng đấu.
+ * Mỗi lần join/leave/kick tạo bản mới (copy-on-write) → đọc không cần khoá,
+ * kiểm tra thành viên / tra tên đều O(1) trên RAM.
+ */
+@Getter
+public final class BattleRoster {
+
+    @Value
+    @Builder
+    public static class Player {
+        Long userId;
+        String hoTen;
+        String avatarUrl;
+        Instant thamGiaLuc;
+    }
+
+    private final Long tranDauId;
+    private final Long chuPhongId;
+
+    /**
+     * userId -> Player, giữ thứ tự vào phòng (dùng khi chuyển chủ phòng)
+     */
+    private final Map<Long, Player> players;
+
+    public BattleRoster(Long tranDauId, Long chuPhongId, Collection<Player> players) {
+        this.tranDauId = tranDauId;
+        this.chuPhongId = chuPhongId;
+        Map<Long, Player> map = new LinkedHashMap<>();
+        for (Player p : players) {
+            map.put(p.getUserId(), p);
+        }
+        this.players = Collections.unmodifiableMap(map);
+    }
+
+    public boolean contains(Long userId) {
+        return players.containsKey(userId);
+    }
+
+    public int size() {
+        return players.size();
+    }
+
+    public Player get(Long userId) {
+        return players.get(userId);
+    }
+
+    public String hoTen(Long userId) {
+        Player p = players.get(userId);
+        return p != null && p.getHoTen() != null ? p.getHoTen() : "Người chơi";
+    }
+
+    public Set<Long> userIds() {
+        return players.keySet();
+    }
+
+    public List<Player> list() {
+        return List.copyOf(players.values());
+    }
+
+    /**
+     * Người vào phòng sớm nhất (khác userId cho trước) – ứng viên chủ phòng mới
+     */
+    public Optional<Player> firstExcept(Long userId) {
+        return players.values().stream()
+                .filter(p -> !p.getUserId().equals(userId))
+                .findFirst();
+    }
+
+    /* ===================== Copy-on-write ===================== */
+
+    public BattleRoster withPlayer(Player player) {
+        if (contains(player.getUserId())) return this;
+        List<Player> next = new ArrayList<>(players.values());
+        next.add(player);
+        return new BattleRoster(tranDauId, chuPhongId, next);
+    }
+
+    public BattleRoster withoutPlayer(Long userId) {
+        if (!contains(userId)) return this;
+        List<Player> next = new ArrayList<>(players.values());
+        next.removeIf(p -> p.getUserId().equals(userId));
+        return new BattleRoster(tranDauId, chuPhongId, next);
+    }
+
+    public BattleRoster withChuPhong(Long newChuPhongId) {
+        return new BattleRoster(tranDauId, newChuPhongId, players.values());
+    }
+}
@@ -2,6 +2,7 @@ package com.app.backend.models;
 
 import com.app.backend.dtos.cache.CauHoiCacheDTO;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 
@@ -9,7 +10,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Data
 @NoArgsConstructor
@@ -63,6 +64,15 @@ public class BattleState {
     @JsonProperty("seconds_per_question")
     private int secondsPerQuestion = 15;
 
+    /**
+     * Cấu hình trận (snapshot lúc start) → submitAnswer chấm điểm không cần đọc lại tran_dau
+     */
+    @JsonProperty("luat_tinh_diem")
+    private String luatTinhDiem;
+
+    @JsonProperty("loai_tran_dau")
+    private String loaiTranDau;
+
     /**
      * userId -> tổng điểm hiện tại
      */
@@ -70,6 +80,24 @@ public class BattleState {
     @JsonProperty("diem_nguoi_choi")
     private Map<Long, Integer> diemNguoiChoi = new ConcurrentHashMap<>();
 
+    /**
+     * Bảng xếp hạng duy trì tăng dần theo diemNguoiChoi (chỉ sống trong RAM)
+     */
+    @Builder.Default
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private BattleRanking ranking = new BattleRanking();
+
+    /**
+     * Số thứ tự các lần đổi điểm, cấp trong compute theo key → ranking nhận tổng mới nhất dù cập nhật ngoài compute
+     */
+    @Builder.Default
+    @JsonIgnore
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private AtomicLong scoreSeq = new AtomicLong();
+
     /**
      * userId -> chuỗi đúng liên tiếp (combo)
      */
@@ -173,13 +201,43 @@ public class BattleState {
      * @return tổng điểm mới của người chơi
      */
     public int addScore(Long userId, int gained) {
-        AtomicInteger newScore = new AtomicInteger();
-        diemNguoiChoi.merge(userId, gained, (oldVal, add) -> {
-            int total = (oldVal != null ? oldVal : 0) + add;
-            newScore.set(total);
+        AtomicLong seq = new AtomicLong();
+        Instant now = Instant.now();
+        // compute chỉ cộng + cấp seq; ranking (có lock riêng) cập nhật sau khi compute trả về,
+        // không giữ khoá bin của map trong lúc chờ lock ranking (ghim virtual thread, lock lồng nhau)
+        int total = diemNguoiChoi.compute(userId, (k, oldVal) -> {
+            seq.set(scoreSeq.incrementAndGet());
+            return (oldVal != null ? oldVal : 0) + gained;
+        });
+        ranking.update(userId, total, now, seq.get());
+        return total;
+    }
+
+    /**
+     * Ghi đè tổng điểm đã tính ở nơi khác (Redis) vào state + ranking
+     *
+     * @param firstAnswerAt lần trả lời đầu tiên đã lưu cùng điểm (tiêu chí phụ khi bằng điểm), null nếu chưa trả lời
+     */
+    public void syncScore(Long userId, int total, Instant firstAnswerAt) {
+        AtomicLong seq = new AtomicLong();
+        diemNguoiChoi.compute(userId, (k, oldVal) -> {
+            seq.set(scoreSeq.incrementAndGet());
             return total;
         });
-        return newScore.get();
+        if (firstAnswerAt == null) {
+            ranking.add(userId, total);
+        } else {
+            ranking.update(userId, total, firstAnswerAt, seq.get());
+        }
+    }
+
+    /**
+     * Ghi đè combo đã tính ở nơi khác (Redis) vào state
+     */
+    public void syncCombo(Long userId, int questionIndex, int streak, int maxStreak) {
+        lastAnsweredQuestionIndex.put(userId, questionIndex);
+        comboStreaks.put(userId, streak);
+        maxComboStreaks.put(userId, maxStreak);
     }
 
     /**
@@ -253,6 +311,7 @@ public class BattleState {
         if (userIds == null) return;
         for (Long uid : userIds) {
             diemNguoiChoi.putIfAbsent(uid, 0);
+            ranking.add(uid, diemNguoiChoi.get(uid));
         }
     }
 
@@ -267,16 +326,13 @@ public class BattleState {
 
     /**
      * Ghi đáp án cho câu idx của user (atomic).
+     * Lock-free (putIfAbsent) → không ghim virtual thread vào carrier khi nhiều người nộp cùng lúc.
      *
      * @return true nếu ghi thành công; false nếu đã có đáp án trước đó.
      */
-    public synchronized boolean recordAnswer(int questionIndex, Long userId, String answer) {
+    public boolean recordAnswer(int questionIndex, Long userId, String answer) {
         Map<Long, String> map = answers.computeIfAbsent(questionIndex, k -> new ConcurrentHashMap<>());
-        if (map.containsKey(userId)) {
-            return false; // đã nộp
-        }
-        map.put(userId, answer);
-        return true;
+        return map.putIfAbsent(userId, answer) == null;
     }
 
     /**
@@ -15,7 +15,7 @@ import org.hibernate.annotations.Where;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
-@EntityListeners(QuestionSetListener.class)
+@EntityListeners({QuestionSetListener.class, SearchIndexListener.class})
 public class BoCauHoi extends BaseEntity {
 
     @Id
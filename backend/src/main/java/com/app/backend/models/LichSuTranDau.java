@@ -10,6 +10,8 @@ import java.time.Instant;
 @Entity
 @Table(name = "lich_su_tran_dau", uniqueConstraints = {
         @UniqueConstraint(columnNames = {"tran_dau_id", "nguoi_dung_id"})
+}, indexes = {
+        @Index(name = "idx_lstd_chua_quyet_toan", columnList = "quyet_toan_luc, hoan_thanh_luc")
 })
 @Data
 @Getter
@@ -52,6 +54,15 @@ public class LichSuTranDau {
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'", timezone = "UTC")
     private Instant hoanThanhLuc;
 
+    /**
+     * Lúc settlement hậu trận (XP / vàng / nhiệm vụ...) của người chơi này commit; null = chưa settle.
+     * Ghi trong cùng transaction cộng thưởng → nguồn chống cộng 2 lần duy nhất.
+     * Dòng có trước cột này đã settle theo cơ chế cũ → backfill quyet_toan_luc = hoan_thanh_luc khi thêm cột.
+     */
+    @Column(name = "quyet_toan_luc")
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'", timezone = "UTC")
+    private Instant quyetToanLuc;
+
     @PrePersist
     protected void onCreate() {
         hoanThanhLuc = Instant.now();
@@ -21,6 +21,7 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@EntityListeners(SearchIndexListener.class)
 public class NguoiDung implements UserDetails {
 
     @Id
@@ -18,6 +18,7 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@EntityListeners(SearchIndexListener.class)
 public class PhongChat {
 
     @Id
@@ -0,0 +1,50 @@
+package com.app.backend.models;
+
+import com.app.backend.services.search.ISearchIndexService;
+import com.app.backend.services.search.SearchDocument;
+import jakarta.persistence.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Entity Listener đưa mọi lần lưu / xoá của entity có trong chỉ mục tìm kiếm vào ISearchIndexService
+ * → không phải sửa từng chỗ save trong service (áp dụng sau commit).
+ * Câu UPDATE hàng loạt (JPQL/SQL) không qua listener: DB vẫn lọc lại kết quả, dựng lại chỉ mục nếu cần.
+ * Sử dụng static ApplicationContext vì JPA không hỗ trợ DI trực tiếp.
+ */
+@Component
+public class SearchIndexListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexListener.class);
+
+    private static ApplicationContext applicationContext;
+
+    @Autowired
+    public void setApplicationContext(ApplicationContext ctx) {
+        SearchIndexListener.applicationContext = ctx;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void postSave(Object entity) {
+        apply(SearchDocument.of(entity, false));
+    }
+
+    @PostRemove
+    public void postRemove(Object entity) {
+        apply(SearchDocument.of(entity, true));
+    }
+
+    private void apply(SearchDocument document) {
+        if (document == null || applicationContext == null) return;
+        try {
+            applicationContext.getBean(ISearchIndexService.class).apply(document);
+        } catch (Exception e) {
+            logger.warn("⚠️ Không thể cập nhật chỉ mục tìm kiếm {} #{}: {}",
+                    document.type(), document.id(), e.getMessage());
+        }
+    }
+}
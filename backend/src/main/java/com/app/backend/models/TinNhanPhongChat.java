@@ -11,6 +11,7 @@ import java.time.Instant;
 @Entity
 @Table(name = "tin_nhan_phong_chat", indexes = {
     @Index(name = "idx_tin_nhan_phong_chat", columnList = "phong_chat_id, gui_luc DESC"),
+    @Index(name = "idx_tin_nhan_phong_chat_seek", columnList = "phong_chat_id, gui_luc, id"),
     @Index(name = "idx_tin_nhan_gui_boi", columnList = "gui_boi_id")
 })
 @Data
@@ -19,6 +20,7 @@ import java.time.Instant;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@EntityListeners(SearchIndexListener.class)
 public class TinNhanPhongChat {
 
     @Id
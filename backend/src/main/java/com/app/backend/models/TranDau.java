@@ -19,6 +19,7 @@ import java.time.Instant;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@EntityListeners(SearchIndexListener.class)
 public class TranDau {
 
     @Id
@@ -46,17 +46,31 @@ public enum PhanThuongCapDo {
         this.moTa = moTa;
     }
 
+    /**
+     * Tra milestone theo cấp, dựng 1 lần khi nạp enum
+     */
+    private static final PhanThuongCapDo[] BY_LEVEL = buildByLevel();
+
     /**
      * Tìm phần thưởng cho cấp độ cụ thể
      * @return null nếu không phải milestone
      */
     public static PhanThuongCapDo findByLevel(int level) {
+        return level >= 0 && level < BY_LEVEL.length ? BY_LEVEL[level] : null;
+    }
+
+    private static PhanThuongCapDo[] buildByLevel() {
+        int max = 0;
+        for (PhanThuongCapDo pt : values()) {
+            max = Math.max(max, pt.getCapDo());
+        }
+        PhanThuongCapDo[] table = new PhanThuongCapDo[max + 1];
         for (PhanThuongCapDo pt : values()) {
-            if (pt.getCapDo() == level) {
-                return pt;
+            if (table[pt.getCapDo()] == null) {
+                table[pt.getCapDo()] = pt;
             }
         }
-        return null;
+        return table;
     }
 
     /**
@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.Optional;
 
 @Repository
@@ -29,6 +30,10 @@ public interface IBaiVietRepository extends JpaRepository<BaiViet, Long> {
     @Query("SELECT b FROM BaiViet b WHERE b.trangThai = :trangThai AND (LOWER(b.tieuDe) LIKE LOWER(CONCAT('%', :keyword, '%')) OR LOWER(b.noiDung) LIKE LOWER(CONCAT('%', :keyword, '%'))) ORDER BY b.ghim DESC, b.taoLuc DESC")
     Page<BaiViet> searchByKeyword(@Param("keyword") String keyword, @Param("trangThai") TrangThaiBaiViet trangThai, Pageable pageable);
 
+    // Tìm kiếm bài viết theo ID khớp từ chỉ mục tìm kiếm
+    @Query("SELECT b FROM BaiViet b WHERE b.id IN :ids AND b.trangThai = :trangThai ORDER BY b.ghim DESC, b.taoLuc DESC")
+    Page<BaiViet> findSearchHits(@Param("ids") Collection<Long> ids, @Param("trangThai") TrangThaiBaiViet trangThai, Pageable pageable);
+
     // Admin: lấy tất cả bài viết
     Page<BaiViet> findAllByOrderByTaoLucDesc(Pageable pageable);
 
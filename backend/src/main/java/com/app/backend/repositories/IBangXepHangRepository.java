@@ -3,11 +3,15 @@ package com.app.backend.repositories;
 import com.app.backend.models.BangXepHang;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface IBangXepHangRepository extends JpaRepository<BangXepHang, Long> {
@@ -18,22 +22,86 @@ public interface IBangXepHangRepository extends JpaRepository<BangXepHang, Long>
         return findByNguoiDung_Id(nguoiDungId);
     }
 
+    // Nạp BXH của nhiều người chơi cùng lúc (settlement cả đội hình trận)
+    List<BangXepHang> findByNguoiDung_IdIn(Collection<Long> nguoiDungIds);
+
+    /**
+     * Khoá (FOR UPDATE) dòng BXH trước khi đọc–sửa–ghi tien_vang / điểm / XP → settlement, shop, nhiệm vụ...
+     * chạy chồng nhau sẽ chờ nhau thay vì ghi đè mất cập nhật của nhau
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM BangXepHang b WHERE b.nguoiDung.id = :nguoiDungId")
+    Optional<BangXepHang> lockByNguoiDungId(@Param("nguoiDungId") Long nguoiDungId);
+
+    /**
+     * Như {@link #lockByNguoiDungId} cho cả đội hình; khoá theo thứ tự nguoi_dung_id cố định
+     * để hai settlement có chung người chơi không deadlock
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM BangXepHang b WHERE b.nguoiDung.id IN :nguoiDungIds ORDER BY b.nguoiDung.id")
+    List<BangXepHang> lockByNguoiDungIdIn(@Param("nguoiDungIds") Collection<Long> nguoiDungIds);
+
     Page<BangXepHang> findAllByOrderByTongDiemDescCapNhatLucAsc(Pageable pageable);
 
+    // ============================================================
+    // Keyset (seek) theo (tong_diem DESC, cap_nhat_luc ASC, id ASC) – không OFFSET, không COUNT.
+    // cap_nhat_luc có thể NULL (chưa cập nhật lần nào); MySQL xếp NULL trước khi ASC, sau khi DESC.
+    // ============================================================
+
+    @Query("""
+            SELECT b FROM BangXepHang b JOIN FETCH b.nguoiDung
+            ORDER BY b.tongDiem DESC, b.capNhatLuc ASC, b.id ASC
+            """)
+    List<BangXepHang> findLeaderboardFirst(Pageable pageable);
+
+    @Query("""
+            SELECT b FROM BangXepHang b JOIN FETCH b.nguoiDung
+            WHERE b.tongDiem < :tongDiem
+               OR (b.tongDiem = :tongDiem AND b.capNhatLuc > :capNhatLuc)
+               OR (b.tongDiem = :tongDiem AND b.capNhatLuc = :capNhatLuc AND b.id > :id)
+            ORDER BY b.tongDiem DESC, b.capNhatLuc ASC, b.id ASC
+            """)
+    List<BangXepHang> findLeaderboardAfter(@Param("tongDiem") Integer tongDiem,
+                                           @Param("capNhatLuc") Instant capNhatLuc,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
+
+    @Query("""
+            SELECT b FROM BangXepHang b JOIN FETCH b.nguoiDung
+            WHERE b.tongDiem < :tongDiem
+               OR (b.tongDiem = :tongDiem AND b.capNhatLuc IS NOT NULL)
+               OR (b.tongDiem = :tongDiem AND b.capNhatLuc IS NULL AND b.id > :id)
+            ORDER BY b.tongDiem DESC, b.capNhatLuc ASC, b.id ASC
+            """)
+    List<BangXepHang> findLeaderboardAfterNullTime(@Param("tongDiem") Integer tongDiem,
+                                                   @Param("id") Long id,
+                                                   Pageable pageable);
+
+    /**
+     * Các dòng đứng trước con trỏ, gần nhất trước (thứ tự đảo – caller đảo lại)
+     */
+    @Query("""
+            SELECT b FROM BangXepHang b JOIN FETCH b.nguoiDung
+            WHERE b.tongDiem > :tongDiem
+               OR (b.tongDiem = :tongDiem AND (b.capNhatLuc < :capNhatLuc OR b.capNhatLuc IS NULL))
+               OR (b.tongDiem = :tongDiem AND b.capNhatLuc = :capNhatLuc AND b.id < :id)
+            ORDER BY b.tongDiem ASC, b.capNhatLuc DESC, b.id DESC
+            """)
+    List<BangXepHang> findLeaderboardBefore(@Param("tongDiem") Integer tongDiem,
+                                            @Param("capNhatLuc") Instant capNhatLuc,
+                                            @Param("id") Long id,
+                                            Pageable pageable);
+
+    @Query("""
+            SELECT b FROM BangXepHang b JOIN FETCH b.nguoiDung
+            WHERE b.tongDiem > :tongDiem
+               OR (b.tongDiem = :tongDiem AND b.capNhatLuc IS NULL AND b.id < :id)
+            ORDER BY b.tongDiem ASC, b.capNhatLuc DESC, b.id DESC
+            """)
+    List<BangXepHang> findLeaderboardBeforeNullTime(@Param("tongDiem") Integer tongDiem,
+                                                    @Param("id") Long id,
+                                                    Pageable pageable);
+
 
-    // Native Query để update lại toàn bộ bảng xếp hạng
-    @Modifying
-    @Transactional
-    @Query(value = """
-            UPDATE bang_xep_hang b
-            JOIN (
-                SELECT id, 
-                RANK() OVER (ORDER BY tong_diem DESC, so_tran_thang DESC, tong_tran ASC) as new_rank
-                FROM bang_xep_hang
-            ) r ON b.id = r.id
-            SET b.xep_hang = r.new_rank
-            """, nativeQuery = true)
-    void updateAllRankings();
-
-    long countByTongDiemGreaterThanAndNguoiDung_IdNot(Integer tongDiem, Long userId);
+    long countByTongDiemLessThan(Integer tongDiem);
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.app.backend.repositories;
+
+/**
+ * Projection dựng BattleRoster: chủ phòng + trạng thái trận (tránh load cả entity)
+ */
+public interface IBattleRosterHeaderProjection {
+
+    Long getChuPhongId();
+
+    String getTrangThai();
+}
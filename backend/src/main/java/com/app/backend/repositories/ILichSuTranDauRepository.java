@@ -3,11 +3,14 @@ package com.app.backend.repositories;
 import com.app.backend.models.LichSuTranDau;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,6 +26,26 @@ public interface ILichSuTranDauRepository extends JpaRepository<LichSuTranDau, L
 
     List<LichSuTranDau> findByTranDau_IdOrderByXepHangAsc(Long tranDauId);
 
+    /**
+     * Khoá (FOR UPDATE) các dòng chưa settle của những người chơi cần settle → settlement song song
+     * chờ nhau và chỉ 1 lượt thấy quyet_toan_luc còn null
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+            SELECT ls FROM LichSuTranDau ls
+            WHERE ls.tranDau.id = :tranDauId AND ls.nguoiDung.id IN :userIds AND ls.quyetToanLuc IS NULL
+            """)
+    List<LichSuTranDau> lockUnsettled(@Param("tranDauId") Long tranDauId, @Param("userIds") Collection<Long> userIds);
+
+    /**
+     * Trận đã xong trong khoảng [from, to) còn người chơi chưa settle (mất hàng đợi Redis / lỗi ghi hàng đợi)
+     */
+    @Query("""
+            SELECT DISTINCT ls.tranDau.id FROM LichSuTranDau ls
+            WHERE ls.quyetToanLuc IS NULL AND ls.hoanThanhLuc >= :from AND ls.hoanThanhLuc < :to
+            """)
+    List<Long> findUnsettledTranDauIds(@Param("from") Instant from, @Param("to") Instant to, Pageable pageable);
+
     Page<LichSuTranDau> findAllByOrderByHoanThanhLucDesc(Pageable pageable);
 
     @Query("""
@@ -103,4 +126,52 @@ public interface ILichSuTranDauRepository extends JpaRepository<LichSuTranDau, L
             @Param("from") Instant from,
             @Param("to") Instant to
     );
+
+    /**
+     * Như findAllFiltered, nhưng từ khoá đã được chỉ mục tìm kiếm đổi thành ID trận / bộ câu hỏi / người chơi khớp
+     */
+    @Query("""
+            SELECT l FROM LichSuTranDau l
+            JOIN l.tranDau td
+            JOIN td.boCauHoi b
+            JOIN l.nguoiDung nd
+            WHERE (td.id IN :tranDauIds OR b.id IN :boCauHoiIds OR nd.id IN :nguoiDungIds)
+              AND (:loaiTranDau IS NULL OR :loaiTranDau = '' OR td.loaiTranDau = :loaiTranDau)
+              AND (:boCauHoiId IS NULL OR b.id = :boCauHoiId)
+              AND (:from IS NULL OR l.hoanThanhLuc >= :from)
+              AND (:to IS NULL OR l.hoanThanhLuc <= :to)
+            ORDER BY l.hoanThanhLuc DESC
+            """)
+    Page<LichSuTranDau> findAllFilteredByHits(
+            @Param("tranDauIds") Collection<Long> tranDauIds,
+            @Param("boCauHoiIds") Collection<Long> boCauHoiIds,
+            @Param("nguoiDungIds") Collection<Long> nguoiDungIds,
+            @Param("loaiTranDau") String loaiTranDau,
+            @Param("boCauHoiId") Long boCauHoiId,
+            @Param("from") Instant from,
+            @Param("to") Instant to,
+            Pageable pageable
+    );
+
+    @Query("""
+            SELECT l FROM LichSuTranDau l
+            JOIN l.tranDau td
+            JOIN td.boCauHoi b
+            JOIN l.nguoiDung nd
+            WHERE (td.id IN :tranDauIds OR b.id IN :boCauHoiIds OR nd.id IN :nguoiDungIds)
+              AND (:loaiTranDau IS NULL OR :loaiTranDau = '' OR td.loaiTranDau = :loaiTranDau)
+              AND (:boCauHoiId IS NULL OR b.id = :boCauHoiId)
+              AND (:from IS NULL OR l.hoanThanhLuc >= :from)
+              AND (:to IS NULL OR l.hoanThanhLuc <= :to)
+            ORDER BY l.hoanThanhLuc DESC
+            """)
+    List<LichSuTranDau> findAllFilteredByHitsList(
+            @Param("tranDauIds") Collection<Long> tranDauIds,
+            @Param("boCauHoiIds") Collection<Long> boCauHoiIds,
+            @Param("nguoiDungIds") Collection<Long> nguoiDungIds,
+            @Param("loaiTranDau") String loaiTranDau,
+            @Param("boCauHoiId") Long boCauHoiId,
+            @Param("from") Instant from,
+            @Param("to") Instant to
+    );
 }
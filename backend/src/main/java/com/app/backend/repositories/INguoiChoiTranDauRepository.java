@@ -4,6 +4,8 @@ import com.app.backend.models.NguoiChoiTranDau;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.time.Instant;
 import java.util.List;
@@ -22,6 +24,17 @@ public interface INguoiChoiTranDauRepository extends JpaRepository<NguoiChoiTran
 
     boolean existsByTranDauIdAndNguoiDungId(Long tranDauId, Long nguoiDungId);
 
+    /**
+     * Người chơi kèm NguoiDung trong 1 query (dựng BattleRoster, dùng được ngoài transaction)
+     */
+    @Query("""
+            SELECT n FROM NguoiChoiTranDau n
+            JOIN FETCH n.nguoiDung
+            WHERE n.tranDau.id = :tranDauId
+            ORDER BY n.id ASC
+            """)
+    List<NguoiChoiTranDau> findAllWithNguoiDungByTranDauId(@Param("tranDauId") Long tranDauId);
+
     /**
      * Lấy danh sách trận đấu của user sau một thời điểm nhất định (cho friend suggestions)
      */
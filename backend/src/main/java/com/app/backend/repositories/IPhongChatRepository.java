@@ -9,6 +9,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -78,6 +79,28 @@ public interface IPhongChatRepository extends JpaRepository<PhongChat, Long> {
            "AND tn.daXoa = false")
     long countTotalUnreadMessages(@Param("nguoiDungId") Long nguoiDungId);
 
+    /**
+     * Số tin chưa đọc theo từng phòng của người dùng – [phongChatId, count], chỉ phòng có tin chưa đọc,
+     * chỉ tính tin có id ≤ maxId (mốc nạp). Dùng để nạp bộ đếm unread trên Redis
+     */
+    @Query("SELECT tn.phongChat.id, COUNT(tn) FROM TinNhanPhongChat tn " +
+           "JOIN ThanhVienPhongChat tv ON tv.phongChat.id = tn.phongChat.id " +
+           "WHERE tv.nguoiDung.id = :nguoiDungId " +
+           "AND tv.daRoi = false " +
+           "AND tn.guiLuc > tv.docCuoiLuc " +
+           "AND tn.guiBoi.id != :nguoiDungId " +
+           "AND tn.daXoa = false " +
+           "AND tn.id <= :maxId " +
+           "GROUP BY tn.phongChat.id")
+    List<Object[]> countUnreadGroupByPhongChat(@Param("nguoiDungId") Long nguoiDungId,
+                                               @Param("maxId") Long maxId);
+
+    /**
+     * Id tin nhắn lớn nhất hiện có (mốc nạp bộ đếm unread) – đọc đầu chỉ mục khoá chính
+     */
+    @Query("SELECT COALESCE(MAX(tn.id), 0) FROM TinNhanPhongChat tn")
+    Long findMaxMessageId();
+
     /**
      * Tìm các phòng chat theo loại
      */
@@ -108,4 +131,22 @@ public interface IPhongChatRepository extends JpaRepository<PhongChat, Long> {
     Page<PhongChat> searchByKeyword(@Param("nguoiDungId") Long nguoiDungId,
                                     @Param("keyword") String keyword,
                                     Pageable pageable);
+
+    /**
+     * Tìm kiếm phòng chat theo ID phòng / ID thành viên khớp từ chỉ mục tìm kiếm
+     */
+    @Query("SELECT DISTINCT pc FROM PhongChat pc " +
+           "JOIN pc.thanhVien tv " +
+           "WHERE tv.nguoiDung.id = :nguoiDungId " +
+           "AND tv.daRoi = false " +
+           "AND pc.daXoa = false " +
+           "AND (pc.id IN :phongChatIds " +
+           "    OR EXISTS (SELECT 1 FROM ThanhVienPhongChat tv2 " +
+           "               WHERE tv2.phongChat.id = pc.id " +
+           "               AND tv2.nguoiDung.id != :nguoiDungId " +
+           "               AND tv2.nguoiDung.id IN :thanhVienIds))")
+    Page<PhongChat> findSearchHits(@Param("nguoiDungId") Long nguoiDungId,
+                                   @Param("phongChatIds") Collection<Long> phongChatIds,
+                                   @Param("thanhVienIds") Collection<Long> thanhVienIds,
+                                   Pageable pageable);
 }
@@ -3,6 +3,8 @@ package com.app.backend.repositories;
 import com.app.backend.models.ThanhTichBoCauHoi;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface IThanhTichBoCauHoiRepository extends JpaRepository<ThanhTichBoCauHoi, Long> {
@@ -11,4 +13,9 @@ public interface IThanhTichBoCauHoiRepository extends JpaRepository<ThanhTichBoC
             Long nguoiDungId,
             Long boCauHoiId
     );
+
+    /**
+     * Thành tích của cả đội hình 1 trận trên cùng bộ câu hỏi (1 truy vấn IN)
+     */
+    List<ThanhTichBoCauHoi> findByBoCauHoi_IdAndNguoiDung_IdIn(Long boCauHoiId, Collection<Long> nguoiDungIds);
 }
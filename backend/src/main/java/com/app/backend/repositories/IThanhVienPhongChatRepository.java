@@ -28,6 +28,34 @@ public interface IThanhVienPhongChatRepository extends JpaRepository<ThanhVienPh
            "AND tv.daRoi = false")
     List<ThanhVienPhongChat> findActiveByPhongChatId(@Param("phongChatId") Long phongChatId);
 
+    /**
+     * ID các thành viên còn trong phòng (nạp cache thành viên phòng chat)
+     */
+    @Query("SELECT tv.nguoiDung.id FROM ThanhVienPhongChat tv " +
+           "WHERE tv.phongChat.id = :phongChatId " +
+           "AND tv.daRoi = false")
+    List<Long> findActiveUserIdsByPhongChatId(@Param("phongChatId") Long phongChatId);
+
+    /**
+     * ID các phòng chat (chưa xoá) người dùng còn là thành viên
+     */
+    @Query("SELECT tv.phongChat.id FROM ThanhVienPhongChat tv " +
+           "WHERE tv.nguoiDung.id = :nguoiDungId " +
+           "AND tv.daRoi = false " +
+           "AND tv.phongChat.daXoa = false")
+    List<Long> findActivePhongChatIdsByNguoiDungId(@Param("nguoiDungId") Long nguoiDungId);
+
+    /**
+     * ID những người khác có trong các phòng chat (chưa xoá) của người dùng – phạm vi tìm phòng theo tên thành viên
+     */
+    @Query("SELECT DISTINCT tv2.nguoiDung.id FROM ThanhVienPhongChat tv, ThanhVienPhongChat tv2 " +
+           "WHERE tv.nguoiDung.id = :nguoiDungId " +
+           "AND tv.daRoi = false " +
+           "AND tv.phongChat.daXoa = false " +
+           "AND tv2.phongChat.id = tv.phongChat.id " +
+           "AND tv2.nguoiDung.id != :nguoiDungId")
+    List<Long> findCoMemberIds(@Param("nguoiDungId") Long nguoiDungId);
+
     /**
      * Kiểm tra người dùng có trong phòng chat không
      */
@@ -113,4 +141,16 @@ public interface IThanhVienPhongChatRepository extends JpaRepository<ThanhVienPh
            "AND tv.daRoi = false")
     List<Long> findUserIdsExcluding(@Param("phongChatId") Long phongChatId,
                                     @Param("excludeUserId") Long excludeUserId);
+
+    /**
+     * ID thành viên còn trong phòng chưa đọc tới thời điểm guiLuc (không gồm người gửi)
+     */
+    @Query("SELECT tv.nguoiDung.id FROM ThanhVienPhongChat tv " +
+           "WHERE tv.phongChat.id = :phongChatId " +
+           "AND tv.nguoiDung.id != :excludeUserId " +
+           "AND tv.daRoi = false " +
+           "AND tv.docCuoiLuc < :guiLuc")
+    List<Long> findUserIdsUnreadSince(@Param("phongChatId") Long phongChatId,
+                                      @Param("excludeUserId") Long excludeUserId,
+                                      @Param("guiLuc") Instant guiLuc);
 }
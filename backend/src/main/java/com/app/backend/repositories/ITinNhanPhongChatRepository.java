@@ -11,6 +11,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -58,6 +59,57 @@ public interface ITinNhanPhongChatRepository extends JpaRepository<TinNhanPhongC
                                                             @Param("before") Instant before,
                                                             Pageable pageable);
 
+    // ============================================================
+    // Keyset (seek) theo (gui_luc DESC, id DESC) trên idx_tin_nhan_phong_chat_seek – không OFFSET, không COUNT.
+    // Fetch luôn người gửi + tin được trả lời (TinNhanResponse đọc cả hai).
+    // ============================================================
+
+    @Query("""
+            SELECT tn FROM TinNhanPhongChat tn
+            JOIN FETCH tn.guiBoi
+            LEFT JOIN FETCH tn.traLoiCho tl
+            LEFT JOIN FETCH tl.guiBoi
+            WHERE tn.phongChat.id = :phongChatId
+              AND tn.daXoa = false
+            ORDER BY tn.guiLuc DESC, tn.id DESC
+            """)
+    List<TinNhanPhongChat> findLatest(@Param("phongChatId") Long phongChatId, Pageable pageable);
+
+    /**
+     * Tin cũ hơn vị trí (guiLuc, id), mới nhất trước (tin gui_luc NULL đứng sau mọi tin có thời gian)
+     */
+    @Query("""
+            SELECT tn FROM TinNhanPhongChat tn
+            JOIN FETCH tn.guiBoi
+            LEFT JOIN FETCH tn.traLoiCho tl
+            LEFT JOIN FETCH tl.guiBoi
+            WHERE tn.phongChat.id = :phongChatId
+              AND tn.daXoa = false
+              AND (tn.guiLuc < :guiLuc OR tn.guiLuc IS NULL OR (tn.guiLuc = :guiLuc AND tn.id < :id))
+            ORDER BY tn.guiLuc DESC, tn.id DESC
+            """)
+    List<TinNhanPhongChat> findOlderThan(@Param("phongChatId") Long phongChatId,
+                                         @Param("guiLuc") Instant guiLuc,
+                                         @Param("id") Long id,
+                                         Pageable pageable);
+
+    /**
+     * Tin cũ hơn vị trí (NULL, id): chỉ còn các tin gui_luc NULL có id nhỏ hơn
+     */
+    @Query("""
+            SELECT tn FROM TinNhanPhongChat tn
+            JOIN FETCH tn.guiBoi
+            LEFT JOIN FETCH tn.traLoiCho tl
+            LEFT JOIN FETCH tl.guiBoi
+            WHERE tn.phongChat.id = :phongChatId
+              AND tn.daXoa = false
+              AND tn.guiLuc IS NULL AND tn.id < :id
+            ORDER BY tn.id DESC
+            """)
+    List<TinNhanPhongChat> findOlderThanNullTime(@Param("phongChatId") Long phongChatId,
+                                                 @Param("id") Long id,
+                                                 Pageable pageable);
+
     /**
      * Tìm tin nhắn được ghim
      */
@@ -81,6 +133,19 @@ public interface ITinNhanPhongChatRepository extends JpaRepository<TinNhanPhongC
                                            @Param("keyword") String keyword,
                                            Pageable pageable);
 
+    /**
+     * Tìm kiếm tin nhắn theo ID khớp từ chỉ mục tìm kiếm (lọc lại điều kiện hiển thị trên DB)
+     */
+    @Query("SELECT tn FROM TinNhanPhongChat tn " +
+           "WHERE tn.phongChat.id = :phongChatId " +
+           "AND tn.id IN :ids " +
+           "AND tn.loai = 'VAN_BAN' " +
+           "AND tn.daXoa = false " +
+           "ORDER BY tn.guiLuc DESC")
+    Page<TinNhanPhongChat> findSearchHits(@Param("phongChatId") Long phongChatId,
+                                          @Param("ids") Collection<Long> ids,
+                                          Pageable pageable);
+
     /**
      * Lấy tin nhắn theo loại
      */
@@ -10,6 +10,7 @@ import org.springframework.data.repository.query.Param;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 public interface ITranDauRepository extends JpaRepository<TranDau, Long> {
     Page<TranDau> findByTrangThai(String trangThai, Pageable pageable);
@@ -23,6 +24,12 @@ public interface ITranDauRepository extends JpaRepository<TranDau, Long> {
     @Override
     long count();
 
+    /**
+     * Chỉ lấy id chủ phòng + trạng thái (dựng BattleRoster, tránh load cả entity)
+     */
+    @Query("SELECT td.chuPhong.id AS chuPhongId, td.trangThai AS trangThai FROM TranDau td WHERE td.id = :tranDauId")
+    Optional<IBattleRosterHeaderProjection> findRosterHeaderById(@Param("tranDauId") Long tranDauId);
+
     long countByTrangThai(String trangThai);
     
     /**
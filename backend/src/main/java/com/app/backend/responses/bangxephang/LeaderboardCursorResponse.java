@@ -0,0 +1,40 @@
+package com.app.backend.responses.bangxephang;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * 1 cửa sổ BXH toàn cục phân trang bằng con trỏ (keyset)
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LeaderboardCursorResponse {
+
+    @JsonProperty("items")
+    private List<LeaderboardEntryResponse> items;
+
+    /**
+     * Con trỏ để lấy trang tiếp theo (null = hết)
+     */
+    @JsonProperty("next_cursor")
+    private String nextCursor;
+
+    /**
+     * Con trỏ để lấy trang phía trên (null = đang ở đầu bảng)
+     */
+    @JsonProperty("prev_cursor")
+    private String prevCursor;
+
+    @JsonProperty("total_items")
+    private long totalItems;
+
+    /**
+     * Hạng của người gọi (chỉ có ở around-me)
+     */
+    @JsonProperty("my_rank")
+    private Integer myRank;
+}
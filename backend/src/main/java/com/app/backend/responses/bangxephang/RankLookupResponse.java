@@ -0,0 +1,30 @@
+package com.app.backend.responses.bangxephang;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+/**
+ * Hạng / phần trăm của 1 người chơi hoặc 1 mức điểm
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RankLookupResponse {
+
+    @JsonProperty("user_id")
+    private Long userId;
+
+    @JsonProperty("tong_diem")
+    private Integer tongDiem;
+
+    @JsonProperty("xep_hang")
+    private Integer xepHang;
+
+    // % người chơi có tổng điểm thấp hơn
+    @JsonProperty("percentile")
+    private Double percentile;
+
+    @JsonProperty("total_players")
+    private Long totalPlayers;
+}
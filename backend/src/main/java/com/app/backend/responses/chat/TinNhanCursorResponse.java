@@ -0,0 +1,27 @@
+package com.app.backend.responses.chat;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 1 đoạn lịch sử tin nhắn phân trang bằng con trỏ (mới nhất trước, không đếm tổng)
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TinNhanCursorResponse {
+
+    private List<TinNhanResponse> items;
+
+    /**
+     * Truyền vào before để lấy đoạn cũ hơn (null = đã hết)
+     */
+    private String nextCursor;
+
+    private boolean hasMore;
+}
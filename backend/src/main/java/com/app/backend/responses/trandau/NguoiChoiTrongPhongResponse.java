@@ -32,4 +32,7 @@ public class NguoiChoiTrongPhongResponse {
 
     @JsonProperty("tham_gia_luc")
     private String thamGiaLuc;
+
+    @JsonProperty("truc_tuyen")
+    private boolean trucTuyen;
 }
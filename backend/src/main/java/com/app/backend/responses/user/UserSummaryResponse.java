@@ -46,6 +46,10 @@ public class UserSummaryResponse {
     @JsonProperty("xep_hang")
     private Integer xepHang;
 
+    // % người chơi có tổng điểm thấp hơn
+    @JsonProperty("percentile")
+    private Double percentile;
+
     @JsonProperty("tong_xp")
     private Long tongXp;
 
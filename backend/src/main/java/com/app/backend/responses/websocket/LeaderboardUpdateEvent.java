@@ -16,7 +16,9 @@ public class LeaderboardUpdateEvent {
     @JsonProperty("tran_dau_id")
     private Long tranDauId;
     @JsonProperty("players")
-    private List<Row> players;  // danh sách toàn bộ người chơi xếp hạng
+    private List<Row> players;  // LEADERBOARD_UPDATE: toàn bộ người chơi; LEADERBOARD_DELTA: chỉ dòng thay đổi
+    @JsonProperty("tong_nguoi_choi")
+    private Integer tongNguoiChoi;
 
     @Data
     @Builder
@@ -0,0 +1,28 @@
+package com.app.backend.responses.websocket;
+
+import com.app.backend.responses.achievement.AchievementResponse;
+import com.app.backend.responses.trandau.MatchRewardResponse;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class PlayerSettledEvent {
+    @JsonProperty("type")
+    private String type;       // "PLAYER_SETTLED"
+
+    @JsonProperty("tran_dau_id")
+    private Long tranDauId;
+
+    @JsonProperty("user_id")
+    private Long userId;
+
+    @JsonProperty("reward")
+    private MatchRewardResponse reward;     // null nếu trận thường (không có thưởng)
+
+    @JsonProperty("new_achievements")
+    private List<AchievementResponse> newAchievements;
+}
@@ -0,0 +1,20 @@
+package com.app.backend.responses.websocket;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class ScoreBatchEvent {
+    @JsonProperty("type")
+    private String type;       // "SCORE_BATCH"
+
+    @JsonProperty("tran_dau_id")
+    private Long tranDauId;
+
+    @JsonProperty("updates")
+    private List<ScoreUpdateEvent> updates;  // mỗi người chơi tối đa 1 dòng (bản mới nhất trong cửa sổ gom)
+}
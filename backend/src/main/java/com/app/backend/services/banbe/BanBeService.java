@@ -5,12 +5,14 @@ import com.app.backend.dtos.FriendRequestDTO;
 import com.app.backend.exceptions.DataNotFoundException;
 import com.app.backend.models.*;
 import com.app.backend.models.constant.TrangThaiKetBan;
+import com.app.backend.models.constant.TrangThaiNguoiDung;
 import com.app.backend.repositories.*;
 import com.app.backend.responses.banbe.BlockedUserResponse;
 import com.app.backend.responses.banbe.FriendRequestItemResponse;
 import com.app.backend.responses.banbe.FriendSuggestionResponse;
 import com.app.backend.responses.banbe.FriendSummaryResponse;
 import com.app.backend.services.notification.ThongBaoService;
+import com.app.backend.services.presence.IPresenceService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -30,6 +32,7 @@ public class BanBeService implements IBanBeService {
     private final INguoiChoiTranDauRepository nguoiChoiTranDauRepository;
     private final ThongBaoService thongBaoService;
     private final IBangXepHangRepository bangXepHangRepository;
+    private final IPresenceService presenceService;
 
     @Override
     @Transactional
@@ -170,22 +173,34 @@ public class BanBeService implements IBanBeService {
     @Override
     @Transactional(readOnly = true)
     public List<FriendSummaryResponse> getFriends(Long currentUserId) {
-        return ketBanRepository.findFriends(currentUserId)
+        List<NguoiDung> friends = ketBanRepository.findFriends(currentUserId)
                 .stream()
-                .map(k -> {
-                    NguoiDung friend = k.getNguoiGui().getId().equals(currentUserId)
-                            ? k.getNguoiNhan()
-                            : k.getNguoiGui();
-                    return FriendSummaryResponse.builder()
-                            .userId(friend.getId())
-                            .hoTen(friend.getHoTen())
-                            .avatarUrl(friend.getAvatarUrl())
-                            .trangThai(friend.getTrangThai() != null ? friend.getTrangThai() : "NGOAI_TUYEN")
-                            .build();
-                })
+                .map(k -> k.getNguoiGui().getId().equals(currentUserId)
+                        ? k.getNguoiNhan()
+                        : k.getNguoiGui())
+                .toList();
+        Set<Long> online = presenceService.onlineOf(friends.stream().map(NguoiDung::getId).toList());
+
+        return friends.stream()
+                .map(friend -> FriendSummaryResponse.builder()
+                        .userId(friend.getId())
+                        .hoTen(friend.getHoTen())
+                        .avatarUrl(friend.getAvatarUrl())
+                        .trangThai(trangThai(friend, online))
+                        .build())
                 .toList();
     }
 
+    /**
+     * Trạng thái hiển thị: bị cấm giữ nguyên, còn lại theo presence (không theo cột trang_thai lúc đăng nhập)
+     */
+    private static String trangThai(NguoiDung user, Set<Long> online) {
+        if (TrangThaiNguoiDung.BI_CAM.equals(user.getTrangThai())) {
+            return TrangThaiNguoiDung.BI_CAM;
+        }
+        return online.contains(user.getId()) ? TrangThaiNguoiDung.TRUC_TUYEN : TrangThaiNguoiDung.NGOAI_TUYEN;
+    }
+
     // ============== BLOCK ==============
 
     @Override
@@ -411,7 +426,7 @@ public class BanBeService implements IBanBeService {
         blockedIds.addAll(chanNguoiDungRepository.findBlockedUserIds(currentUserId));
         blockedIds.addAll(chanNguoiDungRepository.findBlockerUserIds(currentUserId));
 
-        return nguoiDungRepository.findAll().stream()
+        List<NguoiDung> users = nguoiDungRepository.findAll().stream()
                 .filter(u -> !u.isXoa() && u.isActive())
                 .filter(u -> !u.getId().equals(currentUserId))
                 .filter(u -> !blockedIds.contains(u.getId()))
@@ -421,11 +436,15 @@ public class BanBeService implements IBanBeService {
                     return name.contains(searchTerm) || username.contains(searchTerm);
                 })
                 .limit(limit)
+                .toList();
+        Set<Long> online = presenceService.onlineOf(users.stream().map(NguoiDung::getId).toList());
+
+        return users.stream()
                 .map(u -> FriendSummaryResponse.builder()
                         .userId(u.getId())
                         .hoTen(u.getHoTen())
                         .avatarUrl(u.getAvatarUrl())
-                        .trangThai(u.getTrangThai() != null ? u.getTrangThai() : "NGOAI_TUYEN")
+                        .trangThai(trangThai(u, online))
                         .build())
                 .toList();
     }
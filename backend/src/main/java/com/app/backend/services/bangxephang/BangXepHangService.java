@@ -1,5 +1,8 @@
 package com.app.backend.services.bangxephang;
 
+import com.app.backend.components.GlobalRankIndex;
+import com.app.backend.components.LeaderboardRollup;
+import com.app.backend.components.SingleFlight;
 import com.app.backend.exceptions.DataNotFoundException;
 import com.app.backend.models.BangXepHang;
 import com.app.backend.models.LichSuTranDau;
@@ -9,28 +12,39 @@ import com.app.backend.repositories.IBangXepHangRepository;
 import com.app.backend.repositories.ILichSuTranDauRepository;
 import com.app.backend.repositories.INguoiDungRepository;
 import com.app.backend.repositories.ILeaderboardAggregateProjection;
+import com.app.backend.responses.bangxephang.LeaderboardCursorResponse;
 import com.app.backend.responses.bangxephang.LeaderboardEntryResponse;
 import com.app.backend.responses.bangxephang.WeeklyRankRewardResponse;
 import com.app.backend.responses.lichsutrandau.LichSuTranDauResponse;
 import com.app.backend.responses.user.UserSummaryResponse;
+import com.app.backend.utils.LeaderboardPeriod;
 import com.app.backend.utils.XpCalculator;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.WeekFields;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class BangXepHangService implements IBangXepHangService {
@@ -38,6 +52,16 @@ public class BangXepHangService implements IBangXepHangService {
     private final IBangXepHangRepository bangXepHangRepository;
     private final ILichSuTranDauRepository lichSuTranDauRepository;
     private final INguoiDungRepository nguoiDungRepository;
+    private final GlobalRankIndex globalRankIndex;
+    private final IRankLookupService rankLookupService;
+    private final LeaderboardRollup leaderboardRollup;
+    private final SingleFlight singleFlight;
+    private final StringRedisTemplate redis;
+
+    private static final int MAX_CURSOR_LIMIT = 100;
+    private static final int MAX_AROUND_WINDOW = 50;
+    private static final String TOTAL_KEY = "lb:global:total";
+    private static final Duration TOTAL_TTL = Duration.ofSeconds(60);
 
     @Override
     public Page<LeaderboardEntryResponse> getGlobalLeaderboard(
@@ -71,10 +95,17 @@ public class BangXepHangService implements IBangXepHangService {
         Page<BangXepHang> page = bangXepHangRepository
                 .findAllByOrderByTongDiemDescCapNhatLucAsc(pageRequest);
 
-        AtomicInteger rankCounter =
-                new AtomicInteger(pageRequest.getPageNumber() * pageRequest.getPageSize() + 1);
+        List<LeaderboardEntryResponse> entries = toEntries(page.getContent());
+        return new PageImpl<>(entries, pageRequest, page.getTotalElements());
+    }
 
-        return page.map(bxh -> {
+    private List<LeaderboardEntryResponse> toEntries(List<BangXepHang> rows) {
+        // Hạng toàn cục đọc từ chỉ mục (cột xep_hang chỉ được ghi lại theo batch)
+        Map<Long, Integer> ranks = globalRanks(rows.stream()
+                .map(bxh -> bxh.getNguoiDung().getId())
+                .toList());
+
+        return rows.stream().map(bxh -> {
             NguoiDung user = bxh.getNguoiDung();
             int tongTran = bxh.getTongTran() != null ? bxh.getTongTran() : 0;
             int soThang = bxh.getSoTranThang() != null ? bxh.getSoTranThang() : 0;
@@ -85,7 +116,6 @@ public class BangXepHangService implements IBangXepHangService {
                 winRate = soThang * 100.0 / tongTran;
             }
 
-            int rank = rankCounter.getAndIncrement();
             int tongDiem = bxh.getTongDiem() != null ? bxh.getTongDiem() : 0;
             RankTier tier = calculateRankTier(tongDiem);
 
@@ -98,11 +128,135 @@ public class BangXepHangService implements IBangXepHangService {
                     .soTranThang(soThang)
                     .soTranThua(soThua)
                     .tiLeThang(winRate)
-                    .xepHang(bxh.getXepHang())
+                    .xepHang(ranks.getOrDefault(user.getId(), bxh.getXepHang()))
                     .rankTier(tier)
                     .level(bxh.getLevel())
                     .build();
-        });
+        }).toList();
+    }
+
+    // ============================================================
+    // 1b. Mode ALL phân trang keyset (trang sâu không chậm dần, không COUNT mỗi request)
+    // ============================================================
+    @Override
+    @Transactional(readOnly = true)
+    public LeaderboardCursorResponse getGlobalLeaderboardByCursor(String after, String before, int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_CURSOR_LIMIT));
+
+        if (before != null && !before.isBlank()) {
+            // Lấy size dòng ngay phía trên con trỏ
+            List<BangXepHang> rows = seekBefore(decodeCursor(before), size + 1);
+            boolean moreAbove = rows.size() > size;
+            List<BangXepHang> page = new ArrayList<>(rows.subList(0, Math.min(size, rows.size())));
+            Collections.reverse(page);
+            return cursorPage(page, moreAbove, true);
+        }
+
+        List<BangXepHang> rows = (after == null || after.isBlank())
+                ? bangXepHangRepository.findLeaderboardFirst(PageRequest.of(0, size + 1))
+                : seekAfter(decodeCursor(after), size + 1);
+        boolean moreBelow = rows.size() > size;
+        List<BangXepHang> page = rows.subList(0, Math.min(size, rows.size()));
+        return cursorPage(page, after != null && !after.isBlank(), moreBelow);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public LeaderboardCursorResponse getGlobalLeaderboardAroundUser(Long userId, int window) throws DataNotFoundException {
+        int size = Math.max(1, Math.min(window, MAX_AROUND_WINDOW));
+        BangXepHang me = bangXepHangRepository.findByNguoiDung_Id(userId)
+                .orElseThrow(() -> new DataNotFoundException("Người dùng chưa có trên bảng xếp hạng"));
+        Cursor at = cursorOf(me);
+
+        // Seek 2 phía từ vị trí của người gọi – không quét từ đầu bảng
+        List<BangXepHang> above = seekBefore(at, size + 1);
+        List<BangXepHang> below = seekAfter(at, size + 1);
+
+        List<BangXepHang> rows = new ArrayList<>(above.subList(0, Math.min(size, above.size())));
+        Collections.reverse(rows);
+        rows.add(me);
+        rows.addAll(below.subList(0, Math.min(size, below.size())));
+
+        LeaderboardCursorResponse res = cursorPage(rows, above.size() > size, below.size() > size);
+        res.setMyRank(globalRank(userId, me.getXepHang()));
+        return res;
+    }
+
+    private LeaderboardCursorResponse cursorPage(List<BangXepHang> rows, boolean hasPrev, boolean hasNext) {
+        return LeaderboardCursorResponse.builder()
+                .items(toEntries(rows))
+                .prevCursor(hasPrev && !rows.isEmpty() ? encodeCursor(cursorOf(rows.get(0))) : null)
+                .nextCursor(hasNext && !rows.isEmpty() ? encodeCursor(cursorOf(rows.get(rows.size() - 1))) : null)
+                .totalItems(globalTotal())
+                .build();
+    }
+
+    private List<BangXepHang> seekAfter(Cursor c, int n) {
+        PageRequest first = PageRequest.of(0, n);
+        return c.capNhatLuc() != null
+                ? bangXepHangRepository.findLeaderboardAfter(c.tongDiem(), c.capNhatLuc(), c.id(), first)
+                : bangXepHangRepository.findLeaderboardAfterNullTime(c.tongDiem(), c.id(), first);
+    }
+
+    /**
+     * Gần con trỏ nhất trước
+     */
+    private List<BangXepHang> seekBefore(Cursor c, int n) {
+        PageRequest first = PageRequest.of(0, n);
+        return c.capNhatLuc() != null
+                ? bangXepHangRepository.findLeaderboardBefore(c.tongDiem(), c.capNhatLuc(), c.id(), first)
+                : bangXepHangRepository.findLeaderboardBeforeNullTime(c.tongDiem(), c.id(), first);
+    }
+
+    /**
+     * Tổng số dòng BXH – đếm lại tối đa 1 lần / TOTAL_TTL (1 request nạp, các request khác chờ)
+     */
+    private long globalTotal() {
+        try {
+            return singleFlight.load(TOTAL_KEY,
+                    () -> {
+                        String v = redis.opsForValue().get(TOTAL_KEY);
+                        return v != null ? Long.valueOf(v) : null;
+                    },
+                    () -> {
+                        long n = bangXepHangRepository.count();
+                        redis.opsForValue().set(TOTAL_KEY, String.valueOf(n), TOTAL_TTL);
+                        return n;
+                    });
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được tổng BXH từ Redis: {}", e.getMessage());
+            return bangXepHangRepository.count();
+        }
+    }
+
+    /**
+     * Vị trí trong thứ tự (tong_diem DESC, cap_nhat_luc ASC, id ASC); giữ nguyên độ chính xác của cap_nhat_luc
+     */
+    record Cursor(Integer tongDiem, Instant capNhatLuc, Long id) {
+    }
+
+    private static Cursor cursorOf(BangXepHang bxh) {
+        return new Cursor(bxh.getTongDiem() != null ? bxh.getTongDiem() : 0, bxh.getCapNhatLuc(), bxh.getId());
+    }
+
+    static String encodeCursor(Cursor c) {
+        String t = c.capNhatLuc() != null ? c.capNhatLuc().getEpochSecond() + "." + c.capNhatLuc().getNano() : "-";
+        String raw = c.tongDiem() + ":" + t + ":" + c.id();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Cursor decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            Instant t = null;
+            if (!"-".equals(parts[1])) {
+                String[] secNano = parts[1].split("\\.");
+                t = Instant.ofEpochSecond(Long.parseLong(secNano[0]), Long.parseLong(secNano[1]));
+            }
+            return new Cursor(Integer.valueOf(parts[0]), t, Long.valueOf(parts[2]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Con trỏ phân trang không hợp lệ");
+        }
     }
 
     // ============================================================
@@ -121,12 +275,11 @@ public class BangXepHangService implements IBangXepHangService {
         Instant from = null;
         Instant to = null;
 
+        // Cùng khung tuần ISO / tháng dương lịch với leaderboard Redis
         if ("WEEK".equalsIgnoreCase(timeRange)) {
-            from = now.minus(Duration.ofDays(7));
-            to = now;
+            from = LeaderboardPeriod.weekStart(now);
         } else if ("MONTH".equalsIgnoreCase(timeRange)) {
-            from = now.minus(Duration.ofDays(30));
-            to = now;
+            from = LeaderboardPeriod.monthStart(now);
         } else {
             // ALL hoặc null → không giới hạn thời gian
             from = null;
@@ -136,14 +289,18 @@ public class BangXepHangService implements IBangXepHangService {
         // Hiện tại friendOnly chưa có bảng bạn bè → tạm thời bỏ qua
         // Sau này có FriendRepository thì filter ở tầng service sau.
 
+        // Tuần / tháng: cộng các bucket ngày đã tổng hợp sẵn; ngoài khoảng rollup giữ → GROUP BY lịch sử
         Page<ILeaderboardAggregateProjection> pageAgg =
-                lichSuTranDauRepository.aggregateLeaderboard(
-                        from,
-                        to,
-                        chuDeId,
-                        boCauHoiId,
-                        pageRequest
-                );
+                leaderboardRollup.aggregate(from, chuDeId, boCauHoiId, pageRequest);
+        if (pageAgg == null) {
+            pageAgg = lichSuTranDauRepository.aggregateLeaderboard(
+                    from,
+                    to,
+                    chuDeId,
+                    boCauHoiId,
+                    pageRequest
+            );
+        }
 
         AtomicInteger rankCounter =
                 new AtomicInteger(pageRequest.getPageNumber() * pageRequest.getPageSize() + 1);
@@ -219,28 +376,32 @@ public class BangXepHangService implements IBangXepHangService {
 
 
         // 3️⃣ Build response
-        return UserSummaryResponse.from(
+        UserSummaryResponse summary = UserSummaryResponse.from(
                 bxh != null ? bxh : BangXepHang.builder().build(),
                 user,
                 listLichSu,
                 this
         );
+        summary.setXepHang(globalRank(userId, summary.getXepHang()));
+        summary.setPercentile(rankLookupService.percentileOfScore(
+                summary.getTongDiem() != null ? summary.getTongDiem() : 0));
+        return summary;
     }
 
     @Override
-    @Transactional
     public void recalcAllRankings() {
-        bangXepHangRepository.updateAllRankings();
+        globalRankIndex.rebuild();
     }
 
     @Override
     @Transactional
     public WeeklyRankRewardResponse claimWeeklyReward(Long userId) throws Exception {
-        BangXepHang bxh = bangXepHangRepository.findByNguoiDung_Id(userId)
+        BangXepHang bxh = bangXepHangRepository.lockByNguoiDungId(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy bảng xếp hạng của bạn"));
 
         String currentWeekId = getCurrentWeekId();
         String lastWeekId = bxh.getLastRankRewardWeek();
+        int globalRank = globalRank(userId, bxh.getXepHang());
 
         long goldBefore = bxh.getTienVang() != null ? bxh.getTienVang() : 0L;
 
@@ -250,7 +411,7 @@ public class BangXepHangService implements IBangXepHangService {
                     .claimedBefore(true)
                     .goldReward(0L)
                     .rankTier(bxh.getRankTier())
-                    .globalRank(bxh.getXepHang())
+                    .globalRank(globalRank)
                     .weekId(currentWeekId)
                     .goldBefore(goldBefore)
                     .goldAfter(goldBefore)
@@ -258,7 +419,7 @@ public class BangXepHangService implements IBangXepHangService {
         }
 
         // tính thưởng
-        long reward = computeWeeklyGoldReward(bxh);
+        long reward = computeWeeklyGoldReward(bxh, globalRank);
         long goldAfter = goldBefore + reward;
 
         bxh.setTienVang(goldAfter);
@@ -269,7 +430,7 @@ public class BangXepHangService implements IBangXepHangService {
                 .claimedBefore(false)
                 .goldReward(reward)
                 .rankTier(bxh.getRankTier())
-                .globalRank(bxh.getXepHang())
+                .globalRank(globalRank)
                 .weekId(currentWeekId)
                 .goldBefore(goldBefore)
                 .goldAfter(goldAfter)
@@ -277,6 +438,17 @@ public class BangXepHangService implements IBangXepHangService {
     }
 
 
+    /**
+     * Hạng toàn cục từ chỉ mục; Redis lỗi → dùng cột xep_hang (bản chụp gần nhất)
+     */
+    private int globalRank(Long userId, Integer fallback) {
+        return rankLookupService.rankOf(userId, fallback);
+    }
+
+    private Map<Long, Integer> globalRanks(List<Long> userIds) {
+        return rankLookupService.ranksOf(userIds);
+    }
+
     private int safeToInt(Long value) {
         return value != null ? value.intValue() : 0;
     }
@@ -399,9 +571,8 @@ public class BangXepHangService implements IBangXepHangService {
         return String.format("%d-%02d", year, week);
     }
 
-    private long computeWeeklyGoldReward(BangXepHang bxh) {
+    private long computeWeeklyGoldReward(BangXepHang bxh, int globalRank) {
         RankTier tier = bxh.getRankTier() != null ? bxh.getRankTier() : RankTier.DONG;
-        int globalRank = bxh.getXepHang() != null ? bxh.getXepHang() : Integer.MAX_VALUE;
 
         long base;
         switch (tier) {
@@ -3,6 +3,7 @@ package com.app.backend.services.bangxephang;
 import com.app.backend.exceptions.DataNotFoundException;
 import com.app.backend.models.BangXepHang;
 import com.app.backend.models.enums.RankTier;
+import com.app.backend.responses.bangxephang.LeaderboardCursorResponse;
 import com.app.backend.responses.bangxephang.LeaderboardEntryResponse;
 import com.app.backend.responses.bangxephang.WeeklyRankRewardResponse;
 import com.app.backend.responses.user.UserSummaryResponse;
@@ -20,6 +21,16 @@ public interface IBangXepHangService {
 //            boolean friendOnly
     );
 
+    /**
+     * BXH toàn cục phân trang keyset: after = trang dưới con trỏ, before = trang trên con trỏ, cả 2 trống = đầu bảng
+     */
+    LeaderboardCursorResponse getGlobalLeaderboardByCursor(String after, String before, int limit);
+
+    /**
+     * window dòng phía trên + người gọi + window dòng phía dưới
+     */
+    LeaderboardCursorResponse getGlobalLeaderboardAroundUser(Long userId, int window) throws DataNotFoundException;
+
     UserSummaryResponse getUserSummary(Long userId) throws DataNotFoundException;
 
     void recalcAllRankings();
@@ -3,30 +3,29 @@ package com.app.backend.services.bangxephang;
 import com.app.backend.responses.bangxephang.LeaderboardEntryResponse;
 import org.springframework.data.domain.Page;
 
+import java.time.Instant;
+
 public interface ILeaderboardRedisService {
     /**
-     * Get cached leaderboard
-     * @param timeRange ALL, WEEK, MONTH
+     * Get live leaderboard page from Redis sorted sets
+     * @param timeRange ALL, WEEK (tuần ISO hiện tại), MONTH (tháng hiện tại)
      * @param chuDeId optional topic ID
      * @param boCauHoiId optional question set ID
      * @param page page number
      * @param limit items per page
-     * @return cached Page or null if miss
+     * @return Page, or null if not served from Redis (ALL without filter → bang_xep_hang, engine off / not seeded / Redis error)
      */
     Page<LeaderboardEntryResponse> getLeaderboard(String timeRange, Long chuDeId, Long boCauHoiId, int page, int limit);
 
     /**
-     * Cache leaderboard result
-     */
-    void saveLeaderboard(String timeRange, Long chuDeId, Long boCauHoiId, int page, int limit, Page<LeaderboardEntryResponse> data);
-
-    /**
-     * Clear all leaderboard cache (call after match ends)
+     * Add one player's match result to every affected leaderboard (call after settlement).
+     * Idempotent per (tranDauId, userId).
      */
-    void clearLeaderboardCache();
+    void recordResult(Long tranDauId, Long userId, String hoTen, String avatarUrl,
+                      Long chuDeId, Long boCauHoiId, int diem, boolean win, Instant hoanThanhLuc);
 
     /**
-     * Clear specific leaderboard cache
+     * Drop and reload every leaderboard from lich_su_tran_dau (admin / first start)
      */
-    void clearLeaderboardCache(String timeRange, Long chuDeId, Long boCauHoiId);
+    void rebuild();
 }
@@ -0,0 +1,35 @@
+package com.app.backend.services.bangxephang;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Tra cứu hạng toàn cục / phần trăm (O(log n), không COUNT trên bang_xep_hang)
+ */
+public interface IRankLookupService {
+    /**
+     * Hạng toàn cục của 1 người chơi
+     * @param fallback giá trị dùng khi chỉ mục không đọc được (thường là cột xep_hang)
+     */
+    int rankOf(Long userId, Integer fallback);
+
+    /**
+     * Hạng của nhiều người chơi; chỉ mục lỗi → map rỗng (caller tự fallback)
+     */
+    Map<Long, Integer> ranksOf(Collection<Long> userIds);
+
+    /**
+     * % người chơi có tổng điểm thấp hơn hẳn tongDiem (0 – 100)
+     */
+    double percentileOfScore(int tongDiem);
+
+    /**
+     * Tổng số người chơi đang được xếp hạng
+     */
+    long totalPlayers();
+
+    /**
+     * Thống kê BXH của người chơi vừa đổi (sau settlement)
+     */
+    void onStatsChanged(Long userId, Integer tongDiem, Integer soTranThang, Integer tongTran);
+}
@@ -1,49 +1,166 @@
 package com.app.backend.services.bangxephang;
 
+import com.app.backend.models.enums.RankTier;
 import com.app.backend.responses.bangxephang.LeaderboardEntryResponse;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
+import com.app.backend.utils.LeaderboardPeriod;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executor;
 
+/**
+ * Bảng xếp hạng lọc (WEEK / MONTH / chủ đề / bộ câu hỏi) sống trên Redis sorted set,
+ * thay cho cache JSON từng trang + xoá bằng KEYS sau mỗi trận.
+ * <p>
+ * Key (period = all | w:{2026-W42} | m:{2026-10}, scope = all | cd:{chuDeId} | bo:{boCauHoiId}):
+ * - lb:z:{period}:{scope} ZSET userId → tổng điểm
+ * - lb:s:{period}:{scope} HASH {userId}:t → số trận, {userId}:w → số trận thắng
+ * - lb:u:{userId}         HASH ho_ten, avatar_url
+ * - lb:keys               SET mọi key z/s đã tạo (rebuild xoá theo danh sách, không cần KEYS)
+ * <p>
+ * Ghi: settlement gọi {@link #recordResult} → 1 script Lua ZINCRBY/HINCRBY vào 8 bảng liên quan,
+ * có marker lb:applied:{tranDauId}:{userId} (giá trị = mốc cutoff của lần nạp) nên retry không cộng 2 lần.
+ * Đọc: ZREVRANGE + 1 pipeline HMGET (thống kê + hồ sơ) → O(log n + k), không bao giờ cũ.
+ * ALL không lọc vẫn đọc bang_xep_hang (hạng từ GlobalRankIndex).
+ * <p>
+ * Nạp lần đầu: lb:seeded = mốc cutoff = now - settle-lag (transaction commit không theo thứ tự hoan_thanh_luc).
+ * Trận kết thúc trước cutoff cộng gộp bằng GROUP BY; từ cutoff trở đi đi qua cùng script với recordResult,
+ * từng dòng một → seed và settlement song song chống trùng bằng marker, không sót dòng commit muộn.
+ * lb:ready bật khi nạp xong mới cho đọc.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class LeaderboardRedisService implements ILeaderboardRedisService {
 
-    private final RedisTemplate<String, Object> redisTemplate;
-    private final ObjectMapper objectMapper;
+    private static final String PREFIX = "lb:";
+    private static final String SEEDED_KEY = PREFIX + "seeded";
+    private static final String READY_KEY = PREFIX + "ready";
+    private static final String SEED_LOCK_KEY = PREFIX + "seed-lock";
+    private static final String REGISTRY_KEY = PREFIX + "keys";
 
-    @Value("${spring.data.redis.use-redis-cache:false}")
-    private boolean useRedisCache;
+    private static final String ALL = "all";
+
+    private static final long WEEK_TTL_MS = Duration.ofDays(35).toMillis();
+    private static final long MONTH_TTL_MS = Duration.ofDays(95).toMillis();
+    private static final long APPLIED_TTL_MS = Duration.ofDays(7).toMillis();
 
-    private static final String KEY_PREFIX = "leaderboard:";
-    private static final long TTL_MINUTES = 2; // 2 phút - leaderboard update thường xuyên
+    private static final int PIPELINE_CHUNK = 1000;
+
+    /**
+     * KEYS: applied, seeded, profile, registry, (zset, stats)...
+     * ARGV: appliedTtl, userId, diem, win(0/1), hoTen, avatarUrl, hoanThanhLucMs, ttl từng cặp (0 = không hết hạn)
+     * Trước cutoff: đã nằm trong phần GROUP BY của seed. Marker mang giá trị cutoff → marker của lần nạp cũ
+     * không chặn việc cộng lại vào bảng vừa dựng lại.
+     */
+    private static final RedisScript<Long> RECORD_RESULT = new DefaultRedisScript<>("""
+            local cutoff = redis.call('GET', KEYS[2])
+            if not cutoff or tonumber(ARGV[7]) < tonumber(cutoff) then return 0 end
+            if redis.call('GET', KEYS[1]) == cutoff then return 0 end
+            redis.call('SET', KEYS[1], cutoff, 'PX', ARGV[1])
+            redis.call('HSET', KEYS[3], 'ho_ten', ARGV[5], 'avatar_url', ARGV[6])
+            local s = 0
+            for i = 5, #KEYS, 2 do
+              s = s + 1
+              redis.call('ZINCRBY', KEYS[i], ARGV[3], ARGV[2])
+              redis.call('HINCRBY', KEYS[i + 1], ARGV[2] .. ':t', 1)
+              if ARGV[4] == '1' then redis.call('HINCRBY', KEYS[i + 1], ARGV[2] .. ':w', 1) end
+              local ttl = tonumber(ARGV[7 + s])
+              if ttl > 0 then
+                redis.call('PEXPIRE', KEYS[i], ttl)
+                redis.call('PEXPIRE', KEYS[i + 1], ttl)
+              end
+              redis.call('SADD', KEYS[4], KEYS[i], KEYS[i + 1])
+            end
+            return 1
+            """, Long.class);
 
     /**
-     * Generate cache key from params
-     * Format: leaderboard:{timeRange}:{chuDeId}:{boCauHoiId}:{page}:{limit}
+     * Tổng theo (user, bộ câu hỏi) trong 1 khoảng thời gian → gộp lên chủ đề / toàn bộ ở Java
      */
-    private String generateKey(String timeRange, Long chuDeId, Long boCauHoiId, int page, int limit) {
-        return String.format("%s%s:%s:%s:%d:%d",
-                KEY_PREFIX,
-                timeRange != null ? timeRange : "ALL",
-                chuDeId != null ? chuDeId : "0",
-                boCauHoiId != null ? boCauHoiId : "0",
-                page,
-                limit
-        );
+    private static final String AGGREGATE_SQL = """
+            SELECT l.nguoi_dung_id, b.id, b.chu_de_id,
+                   SUM(l.tong_diem), COUNT(*), SUM(CASE WHEN l.xep_hang = 1 THEN 1 ELSE 0 END)
+            FROM lich_su_tran_dau l
+            JOIN tran_dau td ON td.id = l.tran_dau_id
+            JOIN bo_cau_hoi b ON b.id = td.bo_cau_hoi_id
+            WHERE l.hoan_thanh_luc >= ? AND l.hoan_thanh_luc < ?
+            GROUP BY l.nguoi_dung_id, b.id, b.chu_de_id
+            """;
+
+    /**
+     * Từng kết quả từ cutoff trở đi (chỉ cửa sổ settle-lag → ít dòng)
+     */
+    private static final String TAIL_SQL = """
+            SELECT l.tran_dau_id, l.nguoi_dung_id, nd.ho_ten, nd.avatar_url, b.chu_de_id, b.id,
+                   l.tong_diem, l.xep_hang, l.hoan_thanh_luc
+            FROM lich_su_tran_dau l
+            JOIN nguoi_dung nd ON nd.id = l.nguoi_dung_id
+            JOIN tran_dau td ON td.id = l.tran_dau_id
+            JOIN bo_cau_hoi b ON b.id = td.bo_cau_hoi_id
+            WHERE l.hoan_thanh_luc >= ?
+            """;
+
+    private static final String PROFILE_SQL = """
+            SELECT nd.id, nd.ho_ten, nd.avatar_url
+            FROM nguoi_dung nd
+            WHERE nd.id IN (SELECT DISTINCT l.nguoi_dung_id FROM lich_su_tran_dau l)
+            """;
+
+    /**
+     * 1 bảng xếp hạng cần cộng khi có kết quả mới
+     */
+    private record Board(String period, String scope, long ttlMs) {
+    }
+
+    private final StringRedisTemplate redis;
+    private final JdbcTemplate jdbcTemplate;
+    private final IBangXepHangService bangXepHangService;
+    private final Executor taskExecutor;
+
+    @Value("${spring.data.redis.use-redis-cache:false}")
+    private boolean useRedisCache;
+
+    @Value("${ranking.rollup.settle-lag-ms:60000}")
+    private long settleLagMs;
+
+    public LeaderboardRedisService(StringRedisTemplate redis,
+                                   JdbcTemplate jdbcTemplate,
+                                   IBangXepHangService bangXepHangService,
+                                   @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.redis = redis;
+        this.jdbcTemplate = jdbcTemplate;
+        this.bangXepHangService = bangXepHangService;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!useRedisCache) return;
+        taskExecutor.execute(() -> {
+            try {
+                if (!Boolean.TRUE.equals(redis.hasKey(READY_KEY))) seed();
+            } catch (Exception e) {
+                log.error("❌ Không thể nạp leaderboard Redis: {}", e.getMessage());
+            }
+        });
     }
 
     @Override
@@ -51,26 +168,71 @@ public class LeaderboardRedisService implements ILeaderboardRedisService {
         if (!useRedisCache) {
             return null;
         }
+        String period = period(timeRange, Instant.now());
+        String scope = scope(chuDeId, boCauHoiId);
+        if (ALL.equals(period) && ALL.equals(scope)) {
+            return null;
+        }
 
         try {
-            String key = generateKey(timeRange, chuDeId, boCauHoiId, page, limit);
-            String json = (String) redisTemplate.opsForValue().get(key);
+            if (!Boolean.TRUE.equals(redis.hasKey(READY_KEY))) {
+                return null;
+            }
+            String zKey = zKey(period, scope);
+            long offset = (long) page * limit;
+            Long total = redis.opsForZSet().zCard(zKey);
+            Set<ZSetOperations.TypedTuple<String>> range =
+                    redis.opsForZSet().reverseRangeWithScores(zKey, offset, offset + limit - 1);
+            List<ZSetOperations.TypedTuple<String>> rows = range != null ? new ArrayList<>(range) : List.of();
+            if (rows.isEmpty()) {
+                return new PageImpl<>(List.of(), PageRequest.of(page, limit), total != null ? total : 0);
+            }
 
-            if (json.isEmpty()) {
-                log.debug("🔴 Redis cache MISS for leaderboard: {}", key);
+            String sKey = sKey(period, scope);
+            String[] fields = new String[rows.size() * 2];
+            for (int i = 0; i < rows.size(); i++) {
+                fields[2 * i] = rows.get(i).getValue() + ":t";
+                fields[2 * i + 1] = rows.get(i).getValue() + ":w";
+            }
+            List<Object> piped = redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.hMGet(sKey, fields);
+                for (ZSetOperations.TypedTuple<String> row : rows) {
+                    conn.hMGet(profileKey(row.getValue()), "ho_ten", "avatar_url");
+                }
                 return null;
+            });
+
+            @SuppressWarnings("unchecked")
+            List<String> stats = (List<String>) piped.get(0);
+            List<LeaderboardEntryResponse> content = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                ZSetOperations.TypedTuple<String> row = rows.get(i);
+                @SuppressWarnings("unchecked")
+                List<String> profile = (List<String>) piped.get(i + 1);
+
+                int tongDiem = row.getScore() != null ? row.getScore().intValue() : 0;
+                int tongTran = parseInt(stats.get(2 * i));
+                int soThang = parseInt(stats.get(2 * i + 1));
+                double winRate = tongTran > 0 ? soThang * 100.0 / tongTran : 0.0;
+                RankTier tier = bangXepHangService.calculateRankTier(tongDiem);
+
+                content.add(LeaderboardEntryResponse.builder()
+                        .userId(Long.valueOf(row.getValue()))
+                        .hoTen(profile.get(0))
+                        .anhDaiDien(emptyToNull(profile.get(1)))
+                        .tongDiem(tongDiem)
+                        .tongTran(tongTran)
+                        .soTranThang(soThang)
+                        .soTranThua(Math.max(0, tongTran - soThang))
+                        .tiLeThang(winRate)
+                        .xepHang((int) offset + i + 1)
+                        .rankTier(tier)
+                        .build());
             }
 
-            // Parse cached data
-            CachedLeaderboardPage cached = objectMapper.readValue(json, CachedLeaderboardPage.class);
-            Page<LeaderboardEntryResponse> result = new PageImpl<>(
-                    cached.content,
-                    PageRequest.of(page, limit),
-                    cached.totalElements
-            );
-            
-            log.debug("🟢 Redis cache HIT for leaderboard: {} ({} entries)", key, cached.content.size());
-            return result;
+            log.debug("🟢 Redis leaderboard {} ({} / {} entries)", zKey, content.size(), total);
+            return new PageImpl<>(content, PageRequest.of(page, limit), total != null ? total : content.size());
         } catch (Exception e) {
             log.warn("⚠️ Redis read error for leaderboard: {}", e.getMessage());
             return null;
@@ -78,76 +240,230 @@ public class LeaderboardRedisService implements ILeaderboardRedisService {
     }
 
     @Override
-    public void saveLeaderboard(String timeRange, Long chuDeId, Long boCauHoiId, int page, int limit, Page<LeaderboardEntryResponse> data) {
+    public void recordResult(Long tranDauId, Long userId, String hoTen, String avatarUrl,
+                             Long chuDeId, Long boCauHoiId, int diem, boolean win, Instant hoanThanhLuc) {
         if (!useRedisCache) {
             return;
         }
+        apply(tranDauId, userId, hoTen, avatarUrl, chuDeId, boCauHoiId, diem, win, hoanThanhLuc);
+    }
 
-        try {
-            String key = generateKey(timeRange, chuDeId, boCauHoiId, page, limit);
-            
-            // Wrap in cacheable format
-            CachedLeaderboardPage cached = new CachedLeaderboardPage();
-            cached.content = data.getContent();
-            cached.totalElements = data.getTotalElements();
-            
-            String json = objectMapper.writeValueAsString(cached);
-            redisTemplate.opsForValue().set(key, json, TTL_MINUTES, TimeUnit.MINUTES);
-            
-            log.info("✅ Redis cache SAVED for leaderboard: {} ({} entries), TTL={}min", 
-                    key, data.getContent().size(), TTL_MINUTES);
-        } catch (JsonProcessingException e) {
-            log.warn("⚠️ Redis save error for leaderboard: {}", e.getMessage());
+    /**
+     * @return true nếu kết quả được cộng (false: trước cutoff / chưa nạp / đã cộng)
+     */
+    private boolean apply(Long tranDauId, Long userId, String hoTen, String avatarUrl,
+                          Long chuDeId, Long boCauHoiId, int diem, boolean win, Instant hoanThanhLuc) {
+        List<Board> boards = boards(chuDeId, boCauHoiId, hoanThanhLuc);
+        List<String> keys = new ArrayList<>(4 + boards.size() * 2);
+        keys.add(PREFIX + "applied:" + tranDauId + ":" + userId);
+        keys.add(SEEDED_KEY);
+        keys.add(profileKey(userId.toString()));
+        keys.add(REGISTRY_KEY);
+        List<String> args = new ArrayList<>(List.of(
+                String.valueOf(APPLIED_TTL_MS),
+                userId.toString(),
+                String.valueOf(diem),
+                win ? "1" : "0",
+                hoTen != null ? hoTen : "",
+                avatarUrl != null ? avatarUrl : "",
+                String.valueOf(hoanThanhLuc.toEpochMilli())));
+        for (Board b : boards) {
+            keys.add(zKey(b.period(), b.scope()));
+            keys.add(sKey(b.period(), b.scope()));
+            args.add(String.valueOf(b.ttlMs()));
         }
+        Long applied = redis.execute(RECORD_RESULT, keys, args.toArray());
+        return applied != null && applied == 1L;
     }
 
     @Override
-    public void clearLeaderboardCache() {
+    public void rebuild() {
         if (!useRedisCache) {
             return;
         }
+        seed();
+    }
 
+    /**
+     * Nạp toàn bộ từ DB (1 node, khoá Redis). Phần từ cutoff trở đi cộng từng dòng qua script,
+     * song song với recordResult của settlement.
+     */
+    private void seed() {
+        String token = UUID.randomUUID().toString();
+        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(SEED_LOCK_KEY, token, Duration.ofMinutes(10)))) {
+            log.info("ℹ️ Leaderboard Redis đang được nạp ở node khác");
+            return;
+        }
         try {
-            Set<String> keys = redisTemplate.keys(KEY_PREFIX + "*");
-            if (keys != null && !keys.isEmpty()) {
-                redisTemplate.delete(keys);
-                log.info("🗑️ Redis cache CLEARED for all leaderboards ({} keys)", keys.size());
+            clearAll();
+            // Dòng kết thúc trước cutoff chắc chắn đã commit → GROUP BY không sót; sau cutoff đọc lại từng dòng
+            Instant cutoff = Instant.now().minusMillis(settleLagMs);
+            redis.opsForValue().set(SEEDED_KEY, String.valueOf(cutoff.toEpochMilli()));
+
+            Map<String, Long> boardTtl = new HashMap<>();
+            load(ALL, Instant.EPOCH, cutoff, 0, boardTtl);
+            load("w:" + LeaderboardPeriod.weekId(cutoff), LeaderboardPeriod.weekStart(cutoff), cutoff, WEEK_TTL_MS, boardTtl);
+            load("m:" + LeaderboardPeriod.monthId(cutoff), LeaderboardPeriod.monthStart(cutoff), cutoff, MONTH_TTL_MS, boardTtl);
+            loadProfiles();
+            int tail = loadTail(cutoff);
+
+            redis.opsForValue().set(READY_KEY, "1");
+            log.info("✅ Đã nạp leaderboard Redis: {} bảng, {} kết quả sau cutoff", boardTtl.size(), tail);
+        } finally {
+            if (token.equals(redis.opsForValue().get(SEED_LOCK_KEY))) redis.delete(SEED_LOCK_KEY);
+        }
+    }
+
+    private void clearAll() {
+        redis.delete(List.of(READY_KEY, SEEDED_KEY));
+        Set<String> keys = redis.opsForSet().members(REGISTRY_KEY);
+        if (keys != null && !keys.isEmpty()) {
+            List<String> list = new ArrayList<>(keys);
+            for (int i = 0; i < list.size(); i += PIPELINE_CHUNK) {
+                redis.delete(list.subList(i, Math.min(list.size(), i + PIPELINE_CHUNK)));
             }
-        } catch (Exception e) {
-            log.warn("⚠️ Redis clear error for leaderboard: {}", e.getMessage());
         }
+        redis.delete(REGISTRY_KEY);
     }
 
-    @Override
-    public void clearLeaderboardCache(String timeRange, Long chuDeId, Long boCauHoiId) {
-        if (!useRedisCache) {
-            return;
+    private void load(String period, Instant from, Instant to, long ttlMs, Map<String, Long> boardTtl) {
+        // scope -> userId -> [điểm, số trận, số thắng]
+        Map<String, Map<String, long[]>> totals = new HashMap<>();
+        jdbcTemplate.query(AGGREGATE_SQL, rs -> {
+            String userId = String.valueOf(rs.getLong(1));
+            long[] row = {rs.getLong(4), rs.getLong(5), rs.getLong(6)};
+            List<String> scopes = new ArrayList<>(3);
+            scopes.add("bo:" + rs.getLong(2));
+            long chuDeId = rs.getLong(3);
+            if (!rs.wasNull()) scopes.add("cd:" + chuDeId);
+            if (!ALL.equals(period)) scopes.add(ALL);
+            for (String scope : scopes) {
+                long[] acc = totals.computeIfAbsent(scope, k -> new HashMap<>())
+                        .computeIfAbsent(userId, k -> new long[3]);
+                acc[0] += row[0];
+                acc[1] += row[1];
+                acc[2] += row[2];
+            }
+        }, Timestamp.from(from), Timestamp.from(to));
+
+        List<Runnable> ops = new ArrayList<>();
+        for (Map.Entry<String, Map<String, long[]>> board : totals.entrySet()) {
+            String zKey = zKey(period, board.getKey());
+            String sKey = sKey(period, board.getKey());
+            boardTtl.put(zKey, ttlMs);
+            List<Map.Entry<String, long[]>> users = new ArrayList<>(board.getValue().entrySet());
+            for (int i = 0; i < users.size(); i += PIPELINE_CHUNK) {
+                List<Map.Entry<String, long[]>> chunk = users.subList(i, Math.min(users.size(), i + PIPELINE_CHUNK));
+                redis.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    // Cộng dồn (không ghi đè) → không mất phần recordResult đã cộng song song từ cutoff
+                    for (Map.Entry<String, long[]> u : chunk) {
+                        conn.zIncrBy(zKey, u.getValue()[0], u.getKey());
+                        conn.hIncrBy(sKey, u.getKey() + ":t", u.getValue()[1]);
+                        if (u.getValue()[2] > 0) conn.hIncrBy(sKey, u.getKey() + ":w", u.getValue()[2]);
+                    }
+                    return null;
+                });
+            }
+            redis.opsForSet().add(REGISTRY_KEY, zKey, sKey);
+            if (ttlMs > 0) {
+                redis.expire(zKey, Duration.ofMillis(ttlMs));
+                redis.expire(sKey, Duration.ofMillis(ttlMs));
+            }
         }
+    }
 
-        try {
-            // Clear all pages for this specific leaderboard configuration
-            String pattern = String.format("%s%s:%s:%s:*",
-                    KEY_PREFIX,
-                    timeRange != null ? timeRange : "ALL",
-                    chuDeId != null ? chuDeId : "0",
-                    boCauHoiId != null ? boCauHoiId : "0"
-            );
-            
-            Set<String> keys = redisTemplate.keys(pattern);
-            if (keys != null && !keys.isEmpty()) {
-                redisTemplate.delete(keys);
-                log.info("🗑️ Redis cache CLEARED for leaderboard pattern: {} ({} keys)", pattern, keys.size());
+    /**
+     * Kết quả từ cutoff trở đi: cùng đường với recordResult → dòng settlement đã cộng thì bỏ qua (marker)
+     */
+    private int loadTail(Instant cutoff) {
+        int[] applied = {0};
+        jdbcTemplate.query(TAIL_SQL, rs -> {
+            long chuDeId = rs.getLong(5);
+            Long chuDe = rs.wasNull() ? null : chuDeId;
+            Timestamp at = rs.getTimestamp(9);
+            if (at == null) return;
+            if (apply(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getString(4),
+                    chuDe, rs.getLong(6), rs.getInt(7), rs.getInt(8) == 1, at.toInstant())) {
+                applied[0]++;
+            }
+        }, Timestamp.from(cutoff));
+        return applied[0];
+    }
+
+    private void loadProfiles() {
+        List<String[]> profiles = jdbcTemplate.query(PROFILE_SQL, (rs, i) -> new String[]{
+                String.valueOf(rs.getLong(1)), rs.getString(2), rs.getString(3)});
+        for (int i = 0; i < profiles.size(); i += PIPELINE_CHUNK) {
+            List<String[]> chunk = profiles.subList(i, Math.min(profiles.size(), i + PIPELINE_CHUNK));
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String[] p : chunk) {
+                    conn.hMSet(profileKey(p[0]), Map.of(
+                            "ho_ten", p[1] != null ? p[1] : "",
+                            "avatar_url", p[2] != null ? p[2] : ""));
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Mọi bảng 1 kết quả trận góp vào: {toàn thời gian, tuần, tháng} × {toàn bộ, chủ đề, bộ câu hỏi},
+     * trừ (toàn thời gian, toàn bộ) – bảng đó là bang_xep_hang
+     */
+    private List<Board> boards(Long chuDeId, Long boCauHoiId, Instant at) {
+        List<Board> periods = List.of(
+                new Board(ALL, null, 0),
+                new Board("w:" + LeaderboardPeriod.weekId(at), null, WEEK_TTL_MS),
+                new Board("m:" + LeaderboardPeriod.monthId(at), null, MONTH_TTL_MS));
+        List<String> scopes = new ArrayList<>(3);
+        scopes.add(ALL);
+        if (chuDeId != null) scopes.add("cd:" + chuDeId);
+        if (boCauHoiId != null) scopes.add("bo:" + boCauHoiId);
+
+        List<Board> out = new ArrayList<>();
+        for (Board p : periods) {
+            for (String scope : scopes) {
+                if (ALL.equals(p.period()) && ALL.equals(scope)) continue;
+                out.add(new Board(p.period(), scope, p.ttlMs()));
             }
-        } catch (Exception e) {
-            log.warn("⚠️ Redis clear error for specific leaderboard: {}", e.getMessage());
         }
+        return out;
+    }
+
+    private static String period(String timeRange, Instant now) {
+        if ("WEEK".equalsIgnoreCase(timeRange)) return "w:" + LeaderboardPeriod.weekId(now);
+        if ("MONTH".equalsIgnoreCase(timeRange)) return "m:" + LeaderboardPeriod.monthId(now);
+        return ALL;
     }
 
     /**
-     * Helper class for caching Page data
+     * Lọc theo bộ câu hỏi đã ngầm định chủ đề → ưu tiên bộ câu hỏi
      */
-    private static class CachedLeaderboardPage {
-        public List<LeaderboardEntryResponse> content;
-        public long totalElements;
+    private static String scope(Long chuDeId, Long boCauHoiId) {
+        if (boCauHoiId != null) return "bo:" + boCauHoiId;
+        if (chuDeId != null) return "cd:" + chuDeId;
+        return ALL;
+    }
+
+    private static String zKey(String period, String scope) {
+        return PREFIX + "z:" + period + ":" + scope;
+    }
+
+    private static String sKey(String period, String scope) {
+        return PREFIX + "s:" + period + ":" + scope;
+    }
+
+    private static String profileKey(String userId) {
+        return PREFIX + "u:" + userId;
+    }
+
+    private static int parseInt(String value) {
+        return value != null ? Integer.parseInt(value) : 0;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
     }
 }
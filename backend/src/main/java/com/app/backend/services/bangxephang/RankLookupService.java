@@ -0,0 +1,101 @@
+package com.app.backend.services.bangxephang;
+
+import com.app.backend.components.GlobalRankIndex;
+import com.app.backend.repositories.IBangXepHangRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Hạng / phần trăm đọc từ chỉ mục Redis ZSET ({@link GlobalRankIndex}):
+ * - hạng = ZMSCORE + ZCOUNT(score+1, +inf), phần trăm theo điểm = ZCOUNT trên dải score của điểm đó → O(log n)
+ * - Cache cục bộ vài giây cho hạng từng người (trang profile / widget BXH gọi liên tục)
+ * - Settlement gọi {@link #onStatsChanged} → cập nhật chỉ mục + bỏ cache của người đó
+ * - Redis lỗi → phần trăm đếm từ DB, hạng dùng fallback của caller
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RankLookupService implements IRankLookupService {
+
+    private final GlobalRankIndex globalRankIndex;
+    private final IBangXepHangRepository bangXepHangRepository;
+
+    @Value("${ranking.lookup.cache-ttl-ms:2000}")
+    private long cacheTtlMs;
+
+    @Value("${ranking.lookup.cache-max-size:50000}")
+    private long cacheMaxSize;
+
+    private Cache<Long, Integer> rankCache;
+
+    @PostConstruct
+    public void init() {
+        rankCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofMillis(cacheTtlMs))
+                .build();
+    }
+
+    @Override
+    public int rankOf(Long userId, Integer fallback) {
+        return ranksOf(List.of(userId)).getOrDefault(userId, fallback != null ? fallback : Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Map<Long, Integer> ranksOf(Collection<Long> userIds) {
+        Map<Long, Integer> out = new HashMap<>(rankCache.getAllPresent(userIds));
+        List<Long> missing = userIds.stream().filter(id -> !out.containsKey(id)).distinct().toList();
+        if (missing.isEmpty()) {
+            return out;
+        }
+        try {
+            Map<Long, Integer> loaded = globalRankIndex.ranksOf(missing);
+            rankCache.putAll(loaded);
+            out.putAll(loaded);
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được chỉ mục xếp hạng, dùng xep_hang trong DB: {}", e.getMessage());
+        }
+        return out;
+    }
+
+    @Override
+    public double percentileOfScore(int tongDiem) {
+        long below;
+        long total;
+        try {
+            below = globalRankIndex.countBelowPoints(tongDiem);
+            total = globalRankIndex.size();
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được chỉ mục xếp hạng, đếm phần trăm từ DB: {}", e.getMessage());
+            below = bangXepHangRepository.countByTongDiemLessThan(tongDiem);
+            total = bangXepHangRepository.count();
+        }
+        if (total <= 0) {
+            return 0.0;
+        }
+        return Math.round(below * 1000.0 / total) / 10.0;
+    }
+
+    @Override
+    public long totalPlayers() {
+        try {
+            return globalRankIndex.size();
+        } catch (Exception e) {
+            return bangXepHangRepository.count();
+        }
+    }
+
+    @Override
+    public void onStatsChanged(Long userId, Integer tongDiem, Integer soTranThang, Integer tongTran) {
+        globalRankIndex.update(userId, tongDiem, soTranThang, tongTran);
+        rankCache.invalidate(userId);
+    }
+}
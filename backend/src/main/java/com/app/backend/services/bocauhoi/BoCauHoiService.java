@@ -471,7 +471,7 @@ public class BoCauHoiService implements IBoCauHoiService {
         }
 
         // Lấy BXH để kiểm tra vàng
-        BangXepHang bxh = bangXepHangRepository.findByNguoiDung_Id(userId)
+        BangXepHang bxh = bangXepHangRepository.lockByNguoiDungId(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy bảng xếp hạng của người dùng"));
 
         long currentGold = bxh.getTienVang() != null ? bxh.getTienVang() : 0L;
@@ -499,7 +499,7 @@ public class BoCauHoiService implements IBoCauHoiService {
             if ("user".equals(creatorRole) && !creator.getId().equals(userId)) {
                 Long creatorId = creator.getId();
 
-                bangXepHangRepository.findByNguoiDung_Id(creatorId).ifPresent(creatorBx -> {
+                bangXepHangRepository.lockByNguoiDungId(creatorId).ifPresent(creatorBx -> {
                     long reward = Math.round(price * 0.7);
                     long creatorGold = creatorBx.getTienVang() != null ? creatorBx.getTienVang() : 0L;
                     creatorBx.setTienVang(creatorGold + reward);
@@ -684,7 +684,7 @@ public class BoCauHoiService implements IBoCauHoiService {
         // Nếu là RANKED: tặng gold/exp và achievement cho creator
         if (purpose.equals("RANKED")) {
             // Tặng gold và exp
-            bangXepHangRepository.findByNguoiDung_Id(originalCreator.getId()).ifPresent(bxh -> {
+            bangXepHangRepository.lockByNguoiDungId(originalCreator.getId()).ifPresent(bxh -> {
                 long currentGold = bxh.getTienVang() != null ? bxh.getTienVang() : 0L;
                 long currentExp = bxh.getTongXp() != null ? bxh.getTongXp() : 0;
 
@@ -1,5 +1,6 @@
 package com.app.backend.services.bocauhoi;
 
+import com.app.backend.components.CacheNamespaces;
 import com.app.backend.dtos.cache.BoCauHoiPageCacheDTO;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -12,7 +13,6 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.util.Set;
 
 /**
  * Redis Cache Service cho Bộ Câu Hỏi
@@ -27,11 +27,12 @@ import java.util.Set;
 public class QuestionSetRedisService implements IQuestionSetRedisService {
     
     private static final Logger logger = LoggerFactory.getLogger(QuestionSetRedisService.class);
-    private static final String CACHE_PREFIX = "question_set:";
+    private static final String LIST_NAMESPACE = "question_set:list";
     private static final Duration CACHE_TTL = Duration.ofMinutes(10); // TTL 10 phút
 
     private final RedisTemplate<String, Object> redisTemplate;
     private final ObjectMapper redisObjectMapper;
+    private final CacheNamespaces cacheNamespaces;
 
     @Value("${spring.data.redis.use-redis-cache:false}")
     private boolean useRedisCache;
@@ -48,8 +49,7 @@ public class QuestionSetRedisService implements IQuestionSetRedisService {
         int pageSize = pageRequest.getPageSize();
         String sortStr = pageRequest.getSort().toString().replace(": ", "_");
 
-        return String.format("%slist:%s:%d:%s:%s:%s:%s:%d:%s:%s:%d:%b:%d:%d:%s",
-                CACHE_PREFIX,
+        return cacheNamespaces.key(LIST_NAMESPACE, String.format("%s:%d:%s:%s:%s:%s:%d:%s:%s:%d:%b:%d:%d:%s",
                 keyword != null ? keyword : "",
                 chuDeId != null ? chuDeId : 0,
                 cheDoHienThi != null ? cheDoHienThi : "",
@@ -63,7 +63,7 @@ public class QuestionSetRedisService implements IQuestionSetRedisService {
                 isAdmin,
                 pageNumber,
                 pageSize,
-                sortStr);
+                sortStr));
     }
 
     @Override
@@ -128,11 +128,9 @@ public class QuestionSetRedisService implements IQuestionSetRedisService {
         }
         
         try {
-            Set<String> keys = redisTemplate.keys(CACHE_PREFIX + "list:*");
-            if (keys != null && !keys.isEmpty()) {
-                redisTemplate.delete(keys);
-                logger.info("🗑️ Invalidated {} question list cache entries", keys.size());
-            }
+            // Sang thế hệ mới: key cũ không còn được đọc, tự hết hạn theo CACHE_TTL
+            cacheNamespaces.invalidate(LIST_NAMESPACE);
+            logger.info("🗑️ Invalidated question list cache");
         } catch (Exception e) {
             logger.warn("⚠️ Redis cache invalidate error: {}", e.getMessage());
         }
@@ -145,11 +143,8 @@ public class QuestionSetRedisService implements IQuestionSetRedisService {
         }
         
         try {
-            Set<String> keys = redisTemplate.keys(CACHE_PREFIX + "*");
-            if (keys != null && !keys.isEmpty()) {
-                redisTemplate.delete(keys);
-                logger.info("🗑️ Redis cache CLEARED: {} keys deleted", keys.size());
-            }
+            cacheNamespaces.invalidate(LIST_NAMESPACE);
+            logger.info("🗑️ Redis cache CLEARED for question sets");
         } catch (Exception e) {
             logger.warn("⚠️ Redis clear error: {}", e.getMessage());
         }
@@ -1,48 +1,139 @@
 package com.app.backend.services.cauhoi;
 
+import com.app.backend.components.CacheNamespaces;
+import com.app.backend.components.SingleFlight;
 import com.app.backend.dtos.cache.CauHoiCacheDTO;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Redis Cache Service cho Câu Hỏi
- * 
+ *
  * Cache DTO thay vì Entity để:
  * - Tránh vấn đề lazy loading khi deserialize
  * - Dễ serialize/deserialize
  * - Code chuyên nghiệp hơn
+ * <p>
+ * 2 tầng: L1 Caffeine trong JVM (giới hạn số bộ, W-TinyLFU) → L2 Redis → DB.
+ * - L1 giữ danh sách bất biến, dùng chung giữa các phòng / phiên luyện tập (caller tự copy trước khi trộn).
+ * - Sửa / xoá câu hỏi → xoá L2 + PUBLISH id bộ câu hỏi; mọi node nhận và bỏ entry L1 tương ứng.
+ * - Số liệu hit / miss / eviction: cache.* với tag cache=question_sets.
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
-public class CauHoiRedisService implements ICauHoiRedisService {
+public class CauHoiRedisService implements ICauHoiRedisService, MessageListener {
 
     private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
     private final ObjectMapper objectMapper;
+    private final CacheNamespaces cacheNamespaces;
+    private final SingleFlight singleFlight;
+    private final MeterRegistry meterRegistry;
 
     @Value("${spring.data.redis.use-redis-cache:false}")
     private boolean useRedisCache;
 
-    private static final String KEY_PREFIX = "cau_hoi:bo_cau_hoi:";
+    @Value("${cache.question-set.l1.enabled:true}")
+    private boolean l1Enabled;
+
+    @Value("${cache.question-set.l1.max-size:500}")
+    private long l1MaxSize;
+
+    @Value("${cache.question-set.l1.expire-after-write-ms:600000}")
+    private long l1ExpireAfterWriteMs;
+
+    @Value("${cache.question-set.invalidation-channel:cache:cau_hoi:invalidate}")
+    private String invalidationChannel;
+
+    private static final String NAMESPACE = "cau_hoi:bo_cau_hoi";
     private static final Duration TTL = Duration.ofHours(1); // 1 giờ
+    private static final String ALL = "*";
+
+    private Cache<Long, List<CauHoiCacheDTO>> nearCache;
+
+    @PostConstruct
+    public void init() {
+        if (!l1Enabled) return;
+        nearCache = Caffeine.newBuilder()
+                .maximumSize(l1MaxSize)
+                .expireAfterWrite(Duration.ofMillis(l1ExpireAfterWriteMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, nearCache, "question_sets");
+        listenerContainer.addMessageListener(this, new ChannelTopic(invalidationChannel));
+        log.info("✅ Near cache câu hỏi: max-size={}, ttl={}ms, kênh '{}'", l1MaxSize, l1ExpireAfterWriteMs, invalidationChannel);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (nearCache != null) {
+            listenerContainer.removeMessageListener(this);
+        }
+    }
 
     private String generateKey(Long boCauHoiId) {
-        return KEY_PREFIX + boCauHoiId;
+        return cacheNamespaces.key(NAMESPACE, String.valueOf(boCauHoiId));
     }
 
     @Override
     public List<CauHoiCacheDTO> getQuestionsByBoCauHoiId(Long boCauHoiId) {
-        if (!useRedisCache || boCauHoiId == null) {
+        if (boCauHoiId == null) {
+            return null;
+        }
+        List<CauHoiCacheDTO> local = fromNearCache(boCauHoiId);
+        return local != null ? local : fromRedis(boCauHoiId, null);
+    }
+
+    @Override
+    public List<CauHoiCacheDTO> getOrLoadQuestions(Long boCauHoiId, Supplier<List<CauHoiCacheDTO>> dbLoader) {
+        List<CauHoiCacheDTO> local = fromNearCache(boCauHoiId);
+        if (local != null) {
+            return local;
+        }
+        Supplier<List<CauHoiCacheDTO>> reload = () -> {
+            List<CauHoiCacheDTO> fresh = List.copyOf(dbLoader.get());
+            saveQuestionsByBoCauHoiId(boCauHoiId, fresh);
+            return fresh;
+        };
+        return singleFlight.load(NAMESPACE + ":" + boCauHoiId, () -> fromRedis(boCauHoiId, reload), reload);
+    }
+
+    private List<CauHoiCacheDTO> fromNearCache(Long boCauHoiId) {
+        return nearCache != null ? nearCache.getIfPresent(boCauHoiId) : null;
+    }
+
+    /**
+     * @param reload khác null → hit gần hết TTL có thể kích hoạt làm mới sớm
+     */
+    private List<CauHoiCacheDTO> fromRedis(Long boCauHoiId, Supplier<List<CauHoiCacheDTO>> reload) {
+        if (!useRedisCache) {
             return null;
         }
 
@@ -55,10 +146,18 @@ public class CauHoiRedisService implements ICauHoiRedisService {
                 return null;
             }
 
-            List<CauHoiCacheDTO> questions = objectMapper.readValue(json, new TypeReference<List<CauHoiCacheDTO>>() {});
+            List<CauHoiCacheDTO> questions = List.copyOf(
+                    objectMapper.readValue(json, new TypeReference<List<CauHoiCacheDTO>>() {}));
+            if (nearCache != null) {
+                nearCache.put(boCauHoiId, questions);
+            }
+            if (reload != null) {
+                Long ttlMs = redisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+                singleFlight.refreshEarlyIfDue(NAMESPACE + ":" + boCauHoiId, ttlMs != null ? ttlMs : -1, reload);
+            }
             log.debug("✅ Redis cache HIT for questions of boCauHoiId={}: {} questions", boCauHoiId, questions.size());
             return questions;
-            
+
         } catch (Exception e) {
             log.warn("⚠️ Redis read error for questions: {}", e.getMessage());
             return null;
@@ -67,7 +166,13 @@ public class CauHoiRedisService implements ICauHoiRedisService {
 
     @Override
     public void saveQuestionsByBoCauHoiId(Long boCauHoiId, List<CauHoiCacheDTO> questions) {
-        if (!useRedisCache || boCauHoiId == null || questions == null) {
+        if (boCauHoiId == null || questions == null) {
+            return;
+        }
+        if (nearCache != null) {
+            nearCache.put(boCauHoiId, List.copyOf(questions));
+        }
+        if (!useRedisCache) {
             return;
         }
 
@@ -75,10 +180,10 @@ public class CauHoiRedisService implements ICauHoiRedisService {
             String key = generateKey(boCauHoiId);
             String json = objectMapper.writeValueAsString(questions);
             redisTemplate.opsForValue().set(key, json, TTL);
-            
-            log.info("✅ Redis cache SAVED for questions of boCauHoiId={}: {} questions, TTL={}", 
+
+            log.info("✅ Redis cache SAVED for questions of boCauHoiId={}: {} questions, TTL={}",
                     boCauHoiId, questions.size(), TTL);
-                    
+
         } catch (JsonProcessingException e) {
             log.warn("⚠️ Redis save error for questions: {}", e.getMessage());
         }
@@ -86,33 +191,78 @@ public class CauHoiRedisService implements ICauHoiRedisService {
 
     @Override
     public void clearCacheForBoCauHoi(Long boCauHoiId) {
-        if (!useRedisCache || boCauHoiId == null) {
+        if (boCauHoiId == null) {
             return;
         }
+        evict(boCauHoiId);
+        // Gọi trong transaction của CauHoiService → xoá lại sau commit, tránh request chen giữa nạp lại dữ liệu cũ
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(boCauHoiId);
+                }
+            });
+        }
+    }
 
-        try {
-            String key = generateKey(boCauHoiId);
-            redisTemplate.delete(key);
-            log.info("🗑️ Redis cache CLEARED for questions of boCauHoiId={}", boCauHoiId);
-        } catch (Exception e) {
-            log.warn("⚠️ Redis clear error for questions: {}", e.getMessage());
+    private void evict(Long boCauHoiId) {
+        if (nearCache != null) {
+            nearCache.invalidate(boCauHoiId);
+        }
+        if (useRedisCache) {
+            try {
+                String key = generateKey(boCauHoiId);
+                redisTemplate.delete(key);
+                log.info("🗑️ Redis cache CLEARED for questions of boCauHoiId={}", boCauHoiId);
+            } catch (Exception e) {
+                log.warn("⚠️ Redis clear error for questions: {}", e.getMessage());
+            }
         }
+        publishInvalidation(boCauHoiId.toString());
     }
 
     @Override
     public void clearAllCache() {
-        if (!useRedisCache) {
-            return;
+        if (nearCache != null) {
+            nearCache.invalidateAll();
         }
+        if (useRedisCache) {
+            try {
+                cacheNamespaces.invalidate(NAMESPACE);
+                log.info("🗑️ Redis cache CLEARED for ALL questions");
+            } catch (Exception e) {
+                log.warn("⚠️ Redis clear error for all questions: {}", e.getMessage());
+            }
+        }
+        publishInvalidation(ALL);
+    }
 
+    /**
+     * Báo các node khác bỏ entry L1 (node gửi cũng nhận lại – vô hại)
+     */
+    private void publishInvalidation(String payload) {
+        if (nearCache == null) {
+            return;
+        }
         try {
-            Set<String> keys = redisTemplate.keys(KEY_PREFIX + "*");
-            if (keys != null && !keys.isEmpty()) {
-                redisTemplate.delete(keys);
-                log.info("🗑️ Redis cache CLEARED for ALL questions ({} keys)", keys.size());
-            }
+            stringRedisTemplate.convertAndSend(invalidationChannel, payload);
         } catch (Exception e) {
-            log.warn("⚠️ Redis clear error for all questions: {}", e.getMessage());
+            log.warn("⚠️ Không thể phát invalidation near cache câu hỏi: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (ALL.equals(payload)) {
+            nearCache.invalidateAll();
+            return;
+        }
+        try {
+            nearCache.invalidate(Long.valueOf(payload));
+        } catch (NumberFormatException e) {
+            log.warn("⚠️ Invalidation near cache không hợp lệ: {}", payload);
         }
     }
 }
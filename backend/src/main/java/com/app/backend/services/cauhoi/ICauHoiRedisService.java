@@ -2,6 +2,7 @@ package com.app.backend.services.cauhoi;
 
 import com.app.backend.dtos.cache.CauHoiCacheDTO;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Redis Cache Service cho Câu Hỏi
@@ -19,6 +20,14 @@ public interface ICauHoiRedisService {
      */
     List<CauHoiCacheDTO> getQuestionsByBoCauHoiId(Long boCauHoiId);
 
+    /**
+     * Lấy danh sách câu hỏi, cache miss thì nạp bằng dbLoader – mỗi bộ chỉ 1 lần nạp dù nhiều request / node cùng miss
+     * @param boCauHoiId ID bộ câu hỏi
+     * @param dbLoader truy vấn DB (chỉ chạy ở luồng dẫn đầu)
+     * @return danh sách bất biến
+     */
+    List<CauHoiCacheDTO> getOrLoadQuestions(Long boCauHoiId, Supplier<List<CauHoiCacheDTO>> dbLoader);
+
     /**
      * Lưu danh sách câu hỏi vào cache
      * @param boCauHoiId ID bộ câu hỏi
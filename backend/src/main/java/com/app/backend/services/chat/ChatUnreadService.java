@@ -0,0 +1,261 @@
+package com.app.backend.services.chat;
+
+import com.app.backend.components.ChatRoomMembers;
+import com.app.backend.components.TransactionCallbacks;
+import com.app.backend.repositories.IPhongChatRepository;
+import com.app.backend.repositories.IThanhVienPhongChatRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Bộ đếm tin chưa đọc theo (phòng, thành viên) trên Redis, thay cho COUNT(*) trên tin_nhan_phong_chat mỗi phòng.
+ * <p>
+ * - Mỗi người dùng 1 hash chat:unread:{userId}: field = phongChatId → số tin chưa đọc, field total → badge,
+ * field ready → đã nạp. Danh sách phòng đọc bằng 1 HMGET, badge đọc 1 field.
+ * - Gửi tin → HINCRBY cho các thành viên khác; đọc → HDEL phòng và trừ total; xoá tin → -1 cho ai chưa đọc tới.
+ * Mọi thay đổi chạy sau commit, bằng script Lua (cập nhật phòng + total nguyên tử).
+ * - Hash chưa có (lần đầu / hết TTL / reset) → nạp từ DB bằng 1 truy vấn GROUP BY, chỉ đếm tin có id ≤ mốc
+ * (field wm = MAX(id) đọc trước truy vấn). Tin mới (+1) mang theo id: hash đã ready → chỉ cộng nếu id > wm
+ * (tin ≤ wm đã nằm trong số đếm); hash chưa ready → ghi tạm field m:{id} = phòng, SEED cộng các tin tạm có id > wm.
+ * Nhờ vậy tin đến trong lúc nạp không bị mất cũng không bị đếm 2 lần. TTL cố định từ lúc nạp → lệch nhỏ
+ * còn lại (tin id ≤ wm commit sau lúc đếm, xoá tin chen giữa lúc nạp) tự sửa khi nạp lại.
+ * - Redis lỗi → đếm trực tiếp từ DB như trước.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatUnreadService implements IChatUnreadService {
+
+    private static final String KEY_PREFIX = "chat:unread:";
+    private static final String TOTAL = "total";
+    private static final String READY = "ready";
+
+    /**
+     * Hash chỉ có tin tạm (chưa nạp) sống tối đa chừng này nếu không ai đọc
+     */
+    private static final long PENDING_TTL_MS = 60_000L;
+
+    /**
+     * KEYS = hash của từng người nhận; ARGV[1] = phongChatId, ARGV[2] = delta (±), ARGV[3] = id tin (0 = không rõ),
+     * ARGV[4] = TTL hash tạm. Không xuống dưới 0.
+     */
+    private static final RedisScript<Long> ADD = new DefaultRedisScript<>("""
+            local delta = tonumber(ARGV[2])
+            local id = tonumber(ARGV[3])
+            for _, key in ipairs(KEYS) do
+              if redis.call('HEXISTS', key, 'ready') == 0 then
+                if delta > 0 and id > 0 then
+                  redis.call('HSET', key, 'm:' .. ARGV[3], ARGV[1])
+                  if redis.call('PTTL', key) < 0 then redis.call('PEXPIRE', key, ARGV[4]) end
+                end
+              elseif delta < 0 or id > tonumber(redis.call('HGET', key, 'wm') or '0') then
+                local d = delta
+                local c = redis.call('HINCRBY', key, ARGV[1], d)
+                if c <= 0 then
+                  redis.call('HDEL', key, ARGV[1])
+                  if c < 0 then d = d - c end
+                end
+                if redis.call('HINCRBY', key, 'total', d) < 0 then
+                  redis.call('HSET', key, 'total', 0)
+                end
+              end
+            end
+            return #KEYS
+            """, Long.class);
+
+    /**
+     * KEYS[1] = hash người đọc; ARGV[1] = phongChatId
+     */
+    private static final RedisScript<Long> READ = new DefaultRedisScript<>("""
+            if redis.call('HEXISTS', KEYS[1], 'ready') == 0 then return 0 end
+            local c = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0')
+            if c == 0 then return 0 end
+            redis.call('HDEL', KEYS[1], ARGV[1])
+            if redis.call('HINCRBY', KEYS[1], 'total', -c) < 0 then
+              redis.call('HSET', KEYS[1], 'total', 0)
+            end
+            return c
+            """, Long.class);
+
+    /**
+     * KEYS[1] = hash; ARGV[1] = TTL ms, ARGV[2] = wm, ARGV[3..] = cặp phongChatId, count.
+     * Đã ready (luồng khác nạp trước) → giữ nguyên. Tin tạm m:{id} có id > wm được cộng thêm.
+     */
+    private static final RedisScript<Long> SEED = new DefaultRedisScript<>("""
+            if redis.call('HEXISTS', KEYS[1], 'ready') == 1 then return 0 end
+            local wm = tonumber(ARGV[2])
+            local late = {}
+            local fields = redis.call('HGETALL', KEYS[1])
+            for i = 1, #fields, 2 do
+              if string.sub(fields[i], 1, 2) == 'm:' and tonumber(string.sub(fields[i], 3)) > wm then
+                late[#late + 1] = fields[i + 1]
+              end
+            end
+            redis.call('DEL', KEYS[1])
+            local total = 0
+            for i = 3, #ARGV, 2 do
+              redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+              total = total + tonumber(ARGV[i + 1])
+            end
+            for _, room in ipairs(late) do
+              redis.call('HINCRBY', KEYS[1], room, 1)
+              total = total + 1
+            end
+            redis.call('HSET', KEYS[1], 'total', total, 'ready', 1, 'wm', ARGV[2])
+            redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final IPhongChatRepository phongChatRepository;
+    private final IThanhVienPhongChatRepository thanhVienRepository;
+    private final ChatRoomMembers chatRoomMembers;
+
+    @Value("${chat.unread.ttl-ms:86400000}")
+    private long ttlMs;
+
+    @Override
+    public Map<Long, Long> unreadByRoom(Long userId, Collection<Long> phongChatIds) {
+        Map<Long, Long> result = new HashMap<>();
+        if (phongChatIds.isEmpty()) {
+            return result;
+        }
+        List<Long> ids = new ArrayList<>(phongChatIds);
+        try {
+            List<Object> fields = new ArrayList<>(ids.size() + 1);
+            fields.add(READY);
+            ids.forEach(id -> fields.add(id.toString()));
+            List<Object> values = hash().multiGet(key(userId), fields);
+
+            if (values.get(0) == null) {
+                Map<Long, Long> seeded = seed(userId);
+                ids.forEach(id -> result.put(id, seeded.getOrDefault(id, 0L)));
+                return result;
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                result.put(ids.get(i), toLong(values.get(i + 1)));
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được bộ đếm unread của user {}, đếm từ DB: {}", userId, e.getMessage());
+            ids.forEach(id -> result.put(id, phongChatRepository.countUnreadMessages(id, userId)));
+        }
+        return result;
+    }
+
+    @Override
+    public long unread(Long userId, Long phongChatId) {
+        return unreadByRoom(userId, List.of(phongChatId)).getOrDefault(phongChatId, 0L);
+    }
+
+    @Override
+    public long totalUnread(Long userId) {
+        try {
+            List<Object> values = hash().multiGet(key(userId), List.of(READY, TOTAL));
+            if (values.get(0) == null) {
+                return seed(userId).values().stream().mapToLong(Long::longValue).sum();
+            }
+            return toLong(values.get(1));
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được badge unread của user {}, đếm từ DB: {}", userId, e.getMessage());
+            return phongChatRepository.countTotalUnreadMessages(userId);
+        }
+    }
+
+    @Override
+    public void onMessageSent(Long phongChatId, Long senderId, Long messageId) {
+        List<Long> recipients = chatRoomMembers.of(phongChatId).stream()
+                .filter(id -> !id.equals(senderId))
+                .toList();
+        TransactionCallbacks.afterCommit(() -> add(recipients, phongChatId, 1, messageId));
+    }
+
+    @Override
+    public void onMessageDeleted(Long phongChatId, Long senderId, Instant guiLuc) {
+        if (guiLuc == null) return;
+        List<Long> recipients = thanhVienRepository.findUserIdsUnreadSince(phongChatId, senderId, guiLuc);
+        TransactionCallbacks.afterCommit(() -> add(recipients, phongChatId, -1, null));
+    }
+
+    @Override
+    public void onRead(Long userId, Long phongChatId) {
+        TransactionCallbacks.afterCommit(() -> {
+            try {
+                redis.execute(READ, List.of(key(userId)), phongChatId.toString());
+            } catch (Exception e) {
+                log.warn("⚠️ Không thể reset unread phòng {} của user {}: {}", phongChatId, userId, e.getMessage());
+                delete(userId);
+            }
+        });
+    }
+
+    @Override
+    public void reset(Long userId) {
+        TransactionCallbacks.afterCommit(() -> delete(userId));
+    }
+
+    private void delete(Long userId) {
+        try {
+            redis.delete(key(userId));
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể xoá bộ đếm unread của user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private void add(List<Long> userIds, Long phongChatId, int delta, Long messageId) {
+        if (userIds.isEmpty()) return;
+        List<String> keys = userIds.stream().map(ChatUnreadService::key).toList();
+        try {
+            redis.execute(ADD, keys, phongChatId.toString(), String.valueOf(delta),
+                    String.valueOf(messageId != null ? messageId : 0L), String.valueOf(PENDING_TTL_MS));
+        } catch (Exception e) {
+            // Không cập nhật được → bỏ hẳn để lần đọc sau nạp lại đúng từ DB
+            log.warn("⚠️ Không thể cập nhật unread phòng {}: {}", phongChatId, e.getMessage());
+            try {
+                redis.delete(keys);
+            } catch (Exception ignored) {
+                // Redis không truy cập được: key tự hết hạn theo TTL
+            }
+        }
+    }
+
+    /**
+     * Nạp hash từ DB (1 truy vấn GROUP BY, mốc wm đọc trước) và trả về số đếm vừa đọc
+     */
+    private Map<Long, Long> seed(Long userId) {
+        Map<Long, Long> counts = new HashMap<>();
+        Long watermark = phongChatRepository.findMaxMessageId();
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(ttlMs));
+        args.add(String.valueOf(watermark));
+        for (Object[] row : phongChatRepository.countUnreadGroupByPhongChat(userId, watermark)) {
+            Long phongChatId = ((Number) row[0]).longValue();
+            long count = ((Number) row[1]).longValue();
+            counts.put(phongChatId, count);
+            args.add(phongChatId.toString());
+            args.add(String.valueOf(count));
+        }
+        redis.execute(SEED, List.of(key(userId)), args.toArray());
+        return counts;
+    }
+
+    private HashOperations<String, Object, Object> hash() {
+        return redis.opsForHash();
+    }
+
+    private static String key(Long userId) {
+        return KEY_PREFIX + userId;
+    }
+
+    private static long toLong(Object value) {
+        return value != null ? Long.parseLong(value.toString()) : 0L;
+    }
+}
@@ -0,0 +1,43 @@
+package com.app.backend.services.chat;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+public interface IChatUnreadService {
+
+    /**
+     * Số tin chưa đọc của người dùng cho nhiều phòng (1 lần đọc)
+     * @return phongChatId → số tin chưa đọc (đủ mọi phòng được hỏi)
+     */
+    Map<Long, Long> unreadByRoom(Long userId, Collection<Long> phongChatIds);
+
+    long unread(Long userId, Long phongChatId);
+
+    /**
+     * Tổng tin chưa đọc (badge)
+     */
+    long totalUnread(Long userId);
+
+    /**
+     * Gọi trong transaction gửi tin: +1 cho các thành viên khác, áp dụng sau commit
+     *
+     * @param messageId id tin vừa lưu – bộ đếm nạp sau tin này đã tính nó thì bỏ qua
+     */
+    void onMessageSent(Long phongChatId, Long senderId, Long messageId);
+
+    /**
+     * Gọi trong transaction xoá tin: -1 cho thành viên chưa đọc tới tin đó, áp dụng sau commit
+     */
+    void onMessageDeleted(Long phongChatId, Long senderId, Instant guiLuc);
+
+    /**
+     * Đánh dấu đã đọc: về 0, áp dụng sau commit
+     */
+    void onRead(Long userId, Long phongChatId);
+
+    /**
+     * Bỏ bộ đếm của người dùng (rời / bị xoá khỏi phòng) → lần đọc sau nạp lại từ DB
+     */
+    void reset(Long userId);
+}
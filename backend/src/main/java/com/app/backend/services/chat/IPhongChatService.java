@@ -4,6 +4,7 @@ import com.app.backend.dtos.chat.CapNhatPhongChatDTO;
 import com.app.backend.dtos.chat.GuiTinNhanDTO;
 import com.app.backend.dtos.chat.TaoPhongChatDTO;
 import com.app.backend.responses.chat.PhongChatResponse;
+import com.app.backend.responses.chat.TinNhanCursorResponse;
 import com.app.backend.responses.chat.TinNhanResponse;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -91,6 +92,12 @@ public interface IPhongChatService {
      */
     Page<TinNhanResponse> getMessagesBefore(Long userId, Long phongChatId, Long beforeMessageId, Pageable pageable) throws Exception;
 
+    /**
+     * Lịch sử tin nhắn phân trang bằng con trỏ (mới nhất trước, không đếm tổng)
+     * @param before nextCursor của lần trước, null = đoạn mới nhất
+     */
+    TinNhanCursorResponse getMessagesByCursor(Long userId, Long phongChatId, String before, int limit) throws Exception;
+
     /**
      * Tìm kiếm tin nhắn
      */
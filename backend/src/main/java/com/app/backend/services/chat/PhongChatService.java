@@ -1,5 +1,7 @@
 package com.app.backend.services.chat;
 
+import com.app.backend.components.ChatRecentMessages;
+import com.app.backend.components.ChatRoomMembers;
 import com.app.backend.dtos.chat.CapNhatPhongChatDTO;
 import com.app.backend.dtos.chat.GuiTinNhanDTO;
 import com.app.backend.dtos.chat.TaoPhongChatDTO;
@@ -10,7 +12,11 @@ import com.app.backend.models.enums.LoaiTinNhan;
 import com.app.backend.models.enums.VaiTroPhongChat;
 import com.app.backend.repositories.*;
 import com.app.backend.responses.chat.PhongChatResponse;
+import com.app.backend.responses.chat.TinNhanCursorResponse;
 import com.app.backend.responses.chat.TinNhanResponse;
+import com.app.backend.services.search.ISearchIndexService;
+import com.app.backend.services.search.SearchDocument;
+import com.app.backend.services.search.SearchType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -18,10 +24,14 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -34,6 +44,12 @@ public class PhongChatService implements IPhongChatService {
     private final ITinNhanPhongChatRepository tinNhanRepository;
     private final INguoiDungRepository nguoiDungRepository;
     private final IKetBanRepository ketBanRepository;
+    private final IChatUnreadService chatUnreadService;
+    private final ChatRoomMembers chatRoomMembers;
+    private final ChatRecentMessages chatRecentMessages;
+    private final ISearchIndexService searchIndexService;
+
+    private static final int MAX_CURSOR_LIMIT = 100;
 
     // ============== PHÒNG CHAT ==============
 
@@ -94,6 +110,7 @@ public class PhongChatService implements IPhongChatService {
                 .noiDung(user.getHoTen() + " đã tạo nhóm")
                 .build();
         tinNhanRepository.save(systemMessage);
+        onNewMessage(systemMessage);
 
         updateLastMessage(phongChat, systemMessage);
 
@@ -115,7 +132,7 @@ public class PhongChatService implements IPhongChatService {
         // Tìm phòng chat 1-1 đã có
         return phongChatRepository.findPrivateChat(userId, otherUserId)
                 .map(pc -> {
-                    long unread = phongChatRepository.countUnreadMessages(pc.getId(), userId);
+                    long unread = chatUnreadService.unread(userId, pc.getId());
                     return PhongChatResponse.fromEntity(pc, userId, unread);
                 })
                 .orElseGet(() -> {
@@ -151,20 +168,17 @@ public class PhongChatService implements IPhongChatService {
 
     @Override
     public Page<PhongChatResponse> getPhongChats(Long userId, Pageable pageable) {
-        return phongChatRepository.findByNguoiDungId(userId, pageable)
-                .map(pc -> {
-                    long unread = phongChatRepository.countUnreadMessages(pc.getId(), userId);
-                    return PhongChatResponse.fromEntity(pc, userId, unread);
-                });
+        Page<PhongChat> page = phongChatRepository.findByNguoiDungId(userId, pageable);
+        Map<Long, Long> unread = unreadOf(userId, page.getContent());
+        return page.map(pc -> PhongChatResponse.fromEntity(pc, userId, unread.getOrDefault(pc.getId(), 0L)));
     }
 
     @Override
     public List<PhongChatResponse> getPinnedPhongChats(Long userId) {
-        return phongChatRepository.findPinnedByNguoiDungId(userId).stream()
-                .map(pc -> {
-                    long unread = phongChatRepository.countUnreadMessages(pc.getId(), userId);
-                    return PhongChatResponse.fromEntity(pc, userId, unread);
-                })
+        List<PhongChat> rooms = phongChatRepository.findPinnedByNguoiDungId(userId);
+        Map<Long, Long> unread = unreadOf(userId, rooms);
+        return rooms.stream()
+                .map(pc -> PhongChatResponse.fromEntity(pc, userId, unread.getOrDefault(pc.getId(), 0L)))
                 .collect(Collectors.toList());
     }
 
@@ -174,11 +188,11 @@ public class PhongChatService implements IPhongChatService {
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy phòng chat"));
 
         // Kiểm tra quyền truy cập
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(phongChatId, userId)) {
+        if (!chatRoomMembers.isMember(phongChatId, userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
-        long unread = phongChatRepository.countUnreadMessages(phongChatId, userId);
+        long unread = chatUnreadService.unread(userId, phongChatId);
         return PhongChatResponse.fromEntity(phongChat, userId, unread);
     }
 
@@ -227,6 +241,7 @@ public class PhongChatService implements IPhongChatService {
                             .vaiTro(VaiTroPhongChat.THANH_VIEN)
                             .build();
                     thanhVienRepository.save(thanhVien);
+                    chatRoomMembers.invalidate(phongChatId);
 
                     createSystemMessage(phongChat, admin, admin.getHoTen() + " đã thêm " + member.getHoTen() + " vào nhóm");
                 }
@@ -242,6 +257,8 @@ public class PhongChatService implements IPhongChatService {
                                 tv.setDaRoi(true);
                                 tv.setRoiLuc(Instant.now());
                                 thanhVienRepository.save(tv);
+                                chatUnreadService.reset(memberId);
+                                chatRoomMembers.invalidate(phongChatId);
                                 createSystemMessage(phongChat, admin, admin.getHoTen() + " đã xóa " + tv.getNguoiDung().getHoTen() + " khỏi nhóm");
                             });
                 }
@@ -250,7 +267,7 @@ public class PhongChatService implements IPhongChatService {
 
         phongChatRepository.save(phongChat);
 
-        long unread = phongChatRepository.countUnreadMessages(phongChatId, userId);
+        long unread = chatUnreadService.unread(userId, phongChatId);
         return PhongChatResponse.fromEntity(phongChat, userId, unread);
     }
 
@@ -273,6 +290,8 @@ public class PhongChatService implements IPhongChatService {
         member.setDaRoi(true);
         member.setRoiLuc(Instant.now());
         thanhVienRepository.save(member);
+        chatUnreadService.reset(userId);
+        chatRoomMembers.invalidate(phongChatId);
 
         createSystemMessage(phongChat, user, user.getHoTen() + " đã rời khỏi nhóm");
 
@@ -307,6 +326,7 @@ public class PhongChatService implements IPhongChatService {
 
         phongChat.setDaXoa(true);
         phongChatRepository.save(phongChat);
+        chatRoomMembers.invalidate(phongChatId);
     }
 
     @Override
@@ -337,16 +357,34 @@ public class PhongChatService implements IPhongChatService {
 
     @Override
     public Page<PhongChatResponse> searchPhongChats(Long userId, String keyword, Pageable pageable) {
-        return phongChatRepository.searchByKeyword(userId, keyword, pageable)
-                .map(pc -> {
-                    long unread = phongChatRepository.countUnreadMessages(pc.getId(), userId);
-                    return PhongChatResponse.fromEntity(pc, userId, unread);
-                });
+        Page<PhongChat> page = searchPhongChatPage(userId, keyword, pageable);
+        Map<Long, Long> unread = unreadOf(userId, page.getContent());
+        return page.map(pc -> PhongChatResponse.fromEntity(pc, userId, unread.getOrDefault(pc.getId(), 0L)));
+    }
+
+    /**
+     * Tên phòng / tên thành viên khớp trên chỉ mục tìm kiếm, chỉ trong phòng của mình và người cùng phòng
+     * (lọc trên chỉ mục, không để người dùng / phòng ngoài phạm vi chiếm hết max-hits); chỉ mục chưa sẵn sàng → LIKE trên DB
+     */
+    private Page<PhongChat> searchPhongChatPage(Long userId, String keyword, Pageable pageable) {
+        if (keyword == null || keyword.isBlank()) {
+            return phongChatRepository.searchByKeyword(userId, keyword, pageable);
+        }
+        Optional<List<Long>> phongChatIds = searchIndexService.search(SearchType.PHONG_CHAT, keyword, null,
+                thanhVienRepository.findActivePhongChatIdsByNguoiDungId(userId));
+        Optional<List<Long>> thanhVienIds = searchIndexService.search(SearchType.NGUOI_DUNG, keyword, null,
+                thanhVienRepository.findCoMemberIds(userId));
+        if (phongChatIds.isEmpty() || thanhVienIds.isEmpty()) {
+            return phongChatRepository.searchByKeyword(userId, keyword, pageable);
+        }
+        return phongChatRepository.findSearchHits(userId,
+                ISearchIndexService.orNone(phongChatIds.get()),
+                ISearchIndexService.orNone(thanhVienIds.get()), pageable);
     }
 
     @Override
     public long countTotalUnread(Long userId) {
-        return phongChatRepository.countTotalUnreadMessages(userId);
+        return chatUnreadService.totalUnread(userId);
     }
 
     // ============== TIN NHẮN ==============
@@ -360,7 +398,7 @@ public class PhongChatService implements IPhongChatService {
         PhongChat phongChat = phongChatRepository.findById(dto.getPhongChatId())
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy phòng chat"));
 
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(dto.getPhongChatId(), userId)) {
+        if (!chatRoomMembers.isMember(dto.getPhongChatId(), userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
@@ -382,6 +420,7 @@ public class PhongChatService implements IPhongChatService {
 
         TinNhanPhongChat message = builder.build();
         message = tinNhanRepository.save(message);
+        onNewMessage(message);
 
         updateLastMessage(phongChat, message);
 
@@ -390,7 +429,7 @@ public class PhongChatService implements IPhongChatService {
 
     @Override
     public Page<TinNhanResponse> getMessages(Long userId, Long phongChatId, Pageable pageable) throws Exception {
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(phongChatId, userId)) {
+        if (!chatRoomMembers.isMember(phongChatId, userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
@@ -400,7 +439,7 @@ public class PhongChatService implements IPhongChatService {
 
     @Override
     public Page<TinNhanResponse> getMessagesBefore(Long userId, Long phongChatId, Long beforeMessageId, Pageable pageable) throws Exception {
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(phongChatId, userId)) {
+        if (!chatRoomMembers.isMember(phongChatId, userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
@@ -411,14 +450,52 @@ public class PhongChatService implements IPhongChatService {
                 .map(m -> TinNhanResponse.fromEntity(m, userId));
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public TinNhanCursorResponse getMessagesByCursor(Long userId, Long phongChatId, String before, int limit) throws Exception {
+        if (!chatRoomMembers.isMember(phongChatId, userId)) {
+            throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
+        }
+        int size = Math.max(1, Math.min(limit, MAX_CURSOR_LIMIT));
+        MessageCursor cursor = before != null && !before.isBlank() ? decodeCursor(before) : null;
+
+        // Đoạn gần đây → bộ đệm vòng của phòng
+        ChatRecentMessages.Window window = cursor == null
+                ? chatRecentMessages.latest(phongChatId, size, () -> loadRecent(phongChatId))
+                : chatRecentMessages.before(phongChatId, cursor.guiLuc(), cursor.id(), size);
+        if (window != null) {
+            return cursorPage(window.items(), window.hasMore(), userId);
+        }
+
+        // Ngoài bộ đệm → seek (gui_luc, id), lấy dư 1 dòng để biết còn nữa không
+        PageRequest first = PageRequest.of(0, size + 1);
+        List<TinNhanPhongChat> rows;
+        if (cursor == null) {
+            rows = tinNhanRepository.findLatest(phongChatId, first);
+        } else if (cursor.guiLuc() != null) {
+            rows = tinNhanRepository.findOlderThan(phongChatId, cursor.guiLuc(), cursor.id(), first);
+        } else {
+            rows = tinNhanRepository.findOlderThanNullTime(phongChatId, cursor.id(), first);
+        }
+        List<TinNhanResponse> items = rows.stream()
+                .limit(size)
+                .map(m -> TinNhanResponse.fromEntity(m, userId))
+                .toList();
+        return cursorPage(items, rows.size() > size, userId);
+    }
+
     @Override
     public Page<TinNhanResponse> searchMessages(Long userId, Long phongChatId, String keyword, Pageable pageable) throws Exception {
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(phongChatId, userId)) {
+        if (!chatRoomMembers.isMember(phongChatId, userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
-        return tinNhanRepository.searchByKeyword(phongChatId, keyword, pageable)
-                .map(m -> TinNhanResponse.fromEntity(m, userId));
+        Page<TinNhanPhongChat> page = keyword == null || keyword.isBlank()
+                ? tinNhanRepository.searchByKeyword(phongChatId, keyword, pageable)
+                : searchIndexService.search(SearchType.TIN_NHAN, keyword, phongChatId)
+                        .map(ids -> tinNhanRepository.findSearchHits(phongChatId, ISearchIndexService.orNone(ids), pageable))
+                        .orElseGet(() -> tinNhanRepository.searchByKeyword(phongChatId, keyword, pageable));
+        return page.map(m -> TinNhanResponse.fromEntity(m, userId));
     }
 
     @Override
@@ -438,6 +515,7 @@ public class PhongChatService implements IPhongChatService {
         message.setNoiDung(noiDung);
         message.setChinhSuaLuc(Instant.now());
         message = tinNhanRepository.save(message);
+        chatRecentMessages.invalidate(message.getPhongChat().getId());
 
         return TinNhanResponse.fromEntity(message, userId);
     }
@@ -459,7 +537,13 @@ public class PhongChatService implements IPhongChatService {
             throw new IllegalStateException("Bạn không có quyền xóa tin nhắn này");
         }
 
+        if (!Boolean.TRUE.equals(message.getDaXoa())) {
+            chatUnreadService.onMessageDeleted(message.getPhongChat().getId(), message.getGuiBoi().getId(), message.getGuiLuc());
+        }
         tinNhanRepository.softDelete(messageId, Instant.now());
+        // UPDATE hàng loạt không qua SearchIndexListener → tự gỡ khỏi chỉ mục, tin đã xoá không chiếm max-hits
+        searchIndexService.apply(SearchDocument.of(message, true));
+        chatRecentMessages.invalidate(message.getPhongChat().getId());
     }
 
     @Override
@@ -468,19 +552,20 @@ public class PhongChatService implements IPhongChatService {
         TinNhanPhongChat message = tinNhanRepository.findById(messageId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy tin nhắn"));
 
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(message.getPhongChat().getId(), userId)) {
+        if (!chatRoomMembers.isMember(message.getPhongChat().getId(), userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
         message.setDaGhim(!message.getDaGhim());
         message = tinNhanRepository.save(message);
+        chatRecentMessages.invalidate(message.getPhongChat().getId());
 
         return TinNhanResponse.fromEntity(message, userId);
     }
 
     @Override
     public List<TinNhanResponse> getPinnedMessages(Long userId, Long phongChatId) throws Exception {
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(phongChatId, userId)) {
+        if (!chatRoomMembers.isMember(phongChatId, userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
@@ -492,15 +577,76 @@ public class PhongChatService implements IPhongChatService {
     @Override
     @Transactional
     public void markAsRead(Long userId, Long phongChatId) throws Exception {
-        if (!thanhVienRepository.existsActiveByPhongChatIdAndNguoiDungId(phongChatId, userId)) {
+        if (!chatRoomMembers.isMember(phongChatId, userId)) {
             throw new IllegalStateException("Bạn không phải thành viên của phòng chat này");
         }
 
         thanhVienRepository.updateDocCuoiLuc(phongChatId, userId, Instant.now());
+        chatUnreadService.onRead(userId, phongChatId);
     }
 
     // ============== HELPER METHODS ==============
 
+    /**
+     * Tin mới đã lưu: cộng unread cho thành viên khác + chèn vào bộ đệm tin gần đây (sau commit)
+     */
+    private void onNewMessage(TinNhanPhongChat message) {
+        Long phongChatId = message.getPhongChat().getId();
+        chatUnreadService.onMessageSent(phongChatId, message.getGuiBoi().getId(), message.getId());
+        chatRecentMessages.append(TinNhanResponse.fromEntity(message, null).toBuilder().laToi(null).build());
+    }
+
+    private List<TinNhanResponse> loadRecent(Long phongChatId) {
+        return tinNhanRepository.findLatest(phongChatId, PageRequest.of(0, chatRecentMessages.capacity())).stream()
+                .map(m -> TinNhanResponse.fromEntity(m, null).toBuilder().laToi(null).build())
+                .toList();
+    }
+
+    private TinNhanCursorResponse cursorPage(List<TinNhanResponse> items, boolean hasMore, Long userId) {
+        List<TinNhanResponse> viewed = items.stream()
+                .map(m -> m.toBuilder()
+                        .laToi(m.getNguoiGui() != null && m.getNguoiGui().getId().equals(userId))
+                        .build())
+                .toList();
+        TinNhanResponse last = viewed.isEmpty() ? null : viewed.get(viewed.size() - 1);
+        return TinNhanCursorResponse.builder()
+                .items(viewed)
+                .nextCursor(hasMore && last != null ? encodeCursor(new MessageCursor(last.getGuiLuc(), last.getId())) : null)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    /**
+     * Vị trí trong thứ tự (gui_luc DESC, id DESC); giữ nguyên độ chính xác của gui_luc.
+     * gui_luc có thể NULL (dữ liệu cũ) → "-", xếp sau mọi tin có thời gian (MySQL: NULL cuối khi DESC).
+     */
+    record MessageCursor(Instant guiLuc, Long id) {
+    }
+
+    static String encodeCursor(MessageCursor c) {
+        String t = c.guiLuc() != null ? c.guiLuc().getEpochSecond() + "." + c.guiLuc().getNano() : "-";
+        String raw = t + ":" + c.id();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static MessageCursor decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            Instant t = null;
+            if (!"-".equals(parts[0])) {
+                String[] secNano = parts[0].split("\\.");
+                t = Instant.ofEpochSecond(Long.parseLong(secNano[0]), Long.parseLong(secNano[1]));
+            }
+            return new MessageCursor(t, Long.valueOf(parts[1]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Con trỏ phân trang không hợp lệ");
+        }
+    }
+
+    private Map<Long, Long> unreadOf(Long userId, List<PhongChat> rooms) {
+        return chatUnreadService.unreadByRoom(userId, rooms.stream().map(PhongChat::getId).toList());
+    }
+
     private void updateLastMessage(PhongChat phongChat, TinNhanPhongChat message) {
         String preview = message.getNoiDung();
         if (message.getLoai() == LoaiTinNhan.HINH_ANH) {
@@ -526,6 +672,7 @@ public class PhongChatService implements IPhongChatService {
                 .noiDung(content)
                 .build();
         tinNhanRepository.save(systemMessage);
+        onNewMessage(systemMessage);
         updateLastMessage(phongChat, systemMessage);
     }
 }
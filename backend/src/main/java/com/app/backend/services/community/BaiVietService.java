@@ -7,6 +7,8 @@ import com.app.backend.models.enums.LoaiBaiViet;
 import com.app.backend.models.enums.TrangThaiBaiViet;
 import com.app.backend.repositories.*;
 import com.app.backend.responses.community.BaiVietResponse;
+import com.app.backend.services.search.ISearchIndexService;
+import com.app.backend.services.search.SearchType;
 import com.app.backend.utils.FileUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
@@ -29,6 +31,7 @@ public class BaiVietService implements IBaiVietService {
     private final IBaiVietLuuRepository baiVietLuuRepository;
     private final IHinhAnhBaiVietRepository hinhAnhBaiVietRepository;
     private final IBangXepHangRepository bangXepHangRepository;
+    private final ISearchIndexService searchIndexService;
 
     // Ngưỡng level để đăng bài không cần duyệt (Hybrid moderation)
     private static final int AUTO_APPROVE_LEVEL = 5;
@@ -274,8 +277,14 @@ public class BaiVietService implements IBaiVietService {
     @Override
     @Transactional(readOnly = true)
     public Page<BaiVietResponse> searchPosts(String keyword, Long currentUserId, Pageable pageable) {
-        Page<BaiViet> posts = baiVietRepository.searchByKeyword(
-                keyword, TrangThaiBaiViet.DA_DUYET, pageable);
+        // Chỉ mục tìm kiếm (bỏ dấu) → ID; chưa sẵn sàng → LIKE trên DB
+        Page<BaiViet> posts = keyword == null || keyword.isBlank()
+                ? baiVietRepository.searchByKeyword(keyword, TrangThaiBaiViet.DA_DUYET, pageable)
+                : searchIndexService.search(SearchType.BAI_VIET, keyword, null)
+                        .map(ids -> baiVietRepository.findSearchHits(
+                                ISearchIndexService.orNone(ids), TrangThaiBaiViet.DA_DUYET, pageable))
+                        .orElseGet(() -> baiVietRepository.searchByKeyword(
+                                keyword, TrangThaiBaiViet.DA_DUYET, pageable));
 
         return posts.map(baiViet -> {
             boolean daThich = currentUserId != null && 
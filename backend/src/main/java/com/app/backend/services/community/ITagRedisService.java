@@ -2,6 +2,7 @@ package com.app.backend.services.community;
 
 import com.app.backend.responses.community.TagResponse;
 import java.util.List;
+import java.util.function.Supplier;
 
 public interface ITagRedisService {
     /**
@@ -10,6 +11,11 @@ public interface ITagRedisService {
      */
     List<TagResponse> getAllTags();
 
+    /**
+     * Get all public tags, loading through dbLoader on cache miss (one load per miss across requests / nodes)
+     */
+    List<TagResponse> getOrLoadAllTags(Supplier<List<TagResponse>> dbLoader);
+
     /**
      * Save all public tags to cache
      */
@@ -1,5 +1,6 @@
 package com.app.backend.services.community;
 
+import com.app.backend.components.SingleFlight;
 import com.app.backend.responses.community.TagResponse;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -12,6 +13,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
@@ -20,6 +22,7 @@ public class TagRedisService implements ITagRedisService {
 
     private final RedisTemplate<String, Object> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final SingleFlight singleFlight;
 
     @Value("${spring.data.redis.use-redis-cache:false}")
     private boolean useRedisCache;
@@ -29,6 +32,20 @@ public class TagRedisService implements ITagRedisService {
 
     @Override
     public List<TagResponse> getAllTags() {
+        return readAllTags(null);
+    }
+
+    @Override
+    public List<TagResponse> getOrLoadAllTags(Supplier<List<TagResponse>> dbLoader) {
+        Supplier<List<TagResponse>> reload = () -> {
+            List<TagResponse> fresh = dbLoader.get();
+            saveAllTags(fresh);
+            return fresh;
+        };
+        return singleFlight.load(ALL_TAGS_KEY, () -> readAllTags(reload), reload);
+    }
+
+    private List<TagResponse> readAllTags(Supplier<List<TagResponse>> reload) {
         if (!useRedisCache) {
             return null;
         }
@@ -42,6 +59,10 @@ public class TagRedisService implements ITagRedisService {
             }
 
             List<TagResponse> tags = objectMapper.readValue(json, new TypeReference<List<TagResponse>>() {});
+            if (reload != null) {
+                Long ttlMs = redisTemplate.getExpire(ALL_TAGS_KEY, TimeUnit.MILLISECONDS);
+                singleFlight.refreshEarlyIfDue(ALL_TAGS_KEY, ttlMs != null ? ttlMs : -1, reload);
+            }
             log.debug("🟢 Redis cache HIT for tags: {} items", tags.size());
             return tags;
         } catch (Exception e) {
@@ -1,5 +1,6 @@
 package com.app.backend.services.khoahoc;
 
+import com.app.backend.components.CacheNamespaces;
 import com.app.backend.models.KhoaHoc;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -14,7 +15,6 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -24,11 +24,12 @@ public class KhoaHocRedisService implements IKhoaHocRedisService {
 
     private final RedisTemplate<String, Object> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final CacheNamespaces cacheNamespaces;
 
     @Value("${spring.data.redis.use-redis-cache:false}")
     private boolean useRedisCache;
 
-    private static final String KEY_PREFIX = "khoa_hoc:list:";
+    private static final String LIST_NAMESPACE = "khoa_hoc:list";
     private static final long TTL_MINUTES = 15; // 15 phút cho danh sách khóa học
 
     /**
@@ -37,8 +38,7 @@ public class KhoaHocRedisService implements IKhoaHocRedisService {
     private String generateKey(String keyword, Long chuDeId, String trangThai,
                                Double minRating, Double maxRating,
                                int page, int limit, String sortOrder) {
-        return String.format("%s%s:%s:%s:%s:%s:%d:%d:%s",
-                KEY_PREFIX,
+        return cacheNamespaces.key(LIST_NAMESPACE, String.format("%s:%s:%s:%s:%s:%d:%d:%s",
                 keyword != null ? keyword.hashCode() : "0",
                 chuDeId != null && chuDeId > 0 ? chuDeId : "0",
                 trangThai != null && !trangThai.isEmpty() ? trangThai : "ALL",
@@ -47,7 +47,7 @@ public class KhoaHocRedisService implements IKhoaHocRedisService {
                 page,
                 limit,
                 sortOrder != null ? sortOrder : "NEWEST"
-        );
+        ));
     }
 
     @Override
@@ -114,11 +114,8 @@ public class KhoaHocRedisService implements IKhoaHocRedisService {
         }
 
         try {
-            Set<String> keys = redisTemplate.keys(KEY_PREFIX + "*");
-            if (keys != null && !keys.isEmpty()) {
-                redisTemplate.delete(keys);
-                log.info("🗑️ Redis cache CLEARED for khoa_hoc ({} keys)", keys.size());
-            }
+            cacheNamespaces.invalidate(LIST_NAMESPACE);
+            log.info("🗑️ Redis cache CLEARED for khoa_hoc");
         } catch (Exception e) {
             log.warn("⚠️ Redis clear error for khoa_hoc: {}", e.getMessage());
         }
@@ -408,7 +408,7 @@ public class KhoaHoiService implements IKhoaHoiService {
         }
 
         // Lấy BXH để kiểm tra vàng
-        BangXepHang bxh = bangXepHangRepository.findByNguoiDung_Id(userId)
+        BangXepHang bxh = bangXepHangRepository.lockByNguoiDungId(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy bảng xếp hạng của người dùng"));
 
         long currentGold = bxh.getTienVang() != null ? bxh.getTienVang() : 0L;
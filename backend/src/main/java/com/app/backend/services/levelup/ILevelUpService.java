@@ -1,8 +1,12 @@
 package com.app.backend.services.levelup;
 
 import com.app.backend.exceptions.DataNotFoundException;
+import com.app.backend.models.BangXepHang;
 import com.app.backend.responses.LevelUpResponse;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface ILevelUpService {
 
     /**
@@ -13,6 +17,19 @@ public interface ILevelUpService {
      */
     LevelUpResponse addXpAndProcessLevelUp(Long userId, long xpAmount) throws DataNotFoundException;
 
+    /**
+     * Cộng XP cho nhiều người cùng lúc: 1 truy vấn IN nạp BXH, 1 lần ghi batch
+     * @param xpByUser userId → số XP cộng thêm (người chưa có BXH bị bỏ qua)
+     * @return userId → kết quả lên cấp
+     */
+    Map<Long, LevelUpResponse> addXpBatch(Map<Long, Long> xpByUser) throws DataNotFoundException;
+
+    /**
+     * Như {@link #addXpBatch} nhưng trên các dòng BXH caller đã nạp sẵn; không tự lưu (caller ghi batch)
+     */
+    Map<Long, LevelUpResponse> applyXpBatch(Collection<BangXepHang> rows, Map<Long, Long> xpByUser)
+            throws DataNotFoundException;
+
     /**
      * Tính cấp độ từ tổng XP
      */
@@ -1,11 +1,11 @@
 package com.app.backend.services.levelup;
 
+import com.app.backend.components.VatPhamCatalog;
 import com.app.backend.exceptions.DataNotFoundException;
 import com.app.backend.models.BangXepHang;
 import com.app.backend.models.VatPham;
 import com.app.backend.models.enums.PhanThuongCapDo;
 import com.app.backend.repositories.IBangXepHangRepository;
-import com.app.backend.repositories.IVatPhamRepository;
 import com.app.backend.responses.LevelUpResponse;
 import com.app.backend.services.vatpham.IVatPhamService;
 import com.app.backend.utils.XpCalculator;
@@ -15,7 +15,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -23,15 +26,55 @@ import java.util.List;
 public class LevelUpService implements ILevelUpService {
 
     private final IBangXepHangRepository bangXepHangRepository;
-    private final IVatPhamRepository vatPhamRepository;
+    private final VatPhamCatalog vatPhamCatalog;
     private final IVatPhamService vatPhamService;
 
     @Override
     @Transactional
     public LevelUpResponse addXpAndProcessLevelUp(Long userId, long xpAmount) throws DataNotFoundException {
-        BangXepHang bxh = bangXepHangRepository.findByNguoiDungId(userId)
+        BangXepHang bxh = bangXepHangRepository.lockByNguoiDungId(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy thông tin xếp hạng"));
 
+        LevelUpResponse response = applyXp(userId, bxh, xpAmount);
+
+        // Lưu thay đổi
+        bangXepHangRepository.save(bxh);
+        return response;
+    }
+
+    @Override
+    @Transactional
+    public Map<Long, LevelUpResponse> addXpBatch(Map<Long, Long> xpByUser) throws DataNotFoundException {
+        if (xpByUser.isEmpty()) {
+            return Map.of();
+        }
+        List<BangXepHang> rows = bangXepHangRepository.lockByNguoiDungIdIn(xpByUser.keySet());
+        Map<Long, LevelUpResponse> result = applyXpBatch(rows, xpByUser);
+        bangXepHangRepository.saveAll(rows);
+        return result;
+    }
+
+    @Override
+    public Map<Long, LevelUpResponse> applyXpBatch(Collection<BangXepHang> rows, Map<Long, Long> xpByUser)
+            throws DataNotFoundException {
+        Map<Long, LevelUpResponse> result = new HashMap<>();
+        for (BangXepHang bxh : rows) {
+            Long userId = bxh.getNguoiDung().getId();
+            Long xpAmount = xpByUser.get(userId);
+            if (xpAmount != null) {
+                result.put(userId, applyXp(userId, bxh, xpAmount));
+            }
+        }
+        if (result.size() < xpByUser.size()) {
+            log.warn("⚠️ addXpBatch: {} người chơi chưa có BXH, bỏ qua", xpByUser.size() - result.size());
+        }
+        return result;
+    }
+
+    /**
+     * Cộng XP + trao thưởng các cấp vừa lên trên entity đã nạp (không lưu)
+     */
+    private LevelUpResponse applyXp(Long userId, BangXepHang bxh, long xpAmount) throws DataNotFoundException {
         // Lưu cấp độ cũ
         int oldLevel = bxh.getLevel() != null ? bxh.getLevel() : 1;
         long oldXp = bxh.getTongXp() != null ? bxh.getTongXp() : 0;
@@ -58,9 +101,6 @@ public class LevelUpService implements ILevelUpService {
             }
         }
 
-        // Lưu thay đổi
-        bangXepHangRepository.save(bxh);
-
         // Tính thông tin XP hiện tại - dùng XpCalculator
         XpCalculator.LevelInfo levelInfo = XpCalculator.computeLevelInfo(newXp);
 
@@ -108,7 +148,7 @@ public class LevelUpService implements ILevelUpService {
 
             // 2. Thưởng vật phẩm
             if (milestone.getVatPhamLoai() != null && milestone.getSoLuongVatPham() > 0) {
-                VatPham vatPham = vatPhamRepository.findByLoai(milestone.getVatPhamLoai()).orElse(null);
+                VatPham vatPham = vatPhamCatalog.findByLoai(milestone.getVatPhamLoai()).orElse(null);
                 if (vatPham != null) {
                     vatPhamService.grantItemToUser(userId, vatPham.getId(), milestone.getSoLuongVatPham());
                     rewards.add(LevelUpResponse.RewardItem.builder()
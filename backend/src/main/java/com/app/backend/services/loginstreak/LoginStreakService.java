@@ -39,7 +39,7 @@ public class LoginStreakService implements ILoginStreakService {
     @Override
     @Transactional
     public LoginStreakResponse claimDailyReward(Long userId) throws DataNotFoundException {
-        BangXepHang bxh = bangXepHangRepository.findByNguoiDungId(userId)
+        BangXepHang bxh = bangXepHangRepository.lockByNguoiDungId(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy thông tin xếp hạng"));
 
         LocalDate today = LocalDate.now();
@@ -180,7 +180,7 @@ public class NhiemVuService implements INhiemVuService {
             throws DataNotFoundException {
         List<NhanThuongNhiemVuResponse.RewardItem> rewards = new ArrayList<>();
 
-        BangXepHang bxh = bangXepHangRepository.findByNguoiDungId(userId)
+        BangXepHang bxh = bangXepHangRepository.lockByNguoiDungId(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy bảng xếp hạng"));
 
         // Gold
@@ -81,15 +81,11 @@ public class LuyenTapService implements ILuyenTapService {
 
         // Lấy câu hỏi từ Redis cache (hoặc DB nếu cache miss) - dạng DTO
         Long boCauHoiId = boCauHoi.getId();
-        List<CauHoiCacheDTO> allQuestions = cauHoiRedisService.getQuestionsByBoCauHoiId(boCauHoiId);
-        if (allQuestions == null) {
-            // Cache miss -> query DB và convert sang DTO
-            List<CauHoi> entities = cauHoiRepository.findByBoCauHoiId(boCauHoiId);
-            allQuestions = entities.stream()
-                    .map(CauHoiCacheDTO::fromEntity)
-                    .collect(Collectors.toList());
-            cauHoiRedisService.saveQuestionsByBoCauHoiId(boCauHoiId, allQuestions);
-        }
+        // Cache miss -> query DB và convert sang DTO (nhiều request cùng miss chỉ query 1 lần)
+        List<CauHoiCacheDTO> allQuestions = cauHoiRedisService.getOrLoadQuestions(boCauHoiId,
+                () -> cauHoiRepository.findByBoCauHoiId(boCauHoiId).stream()
+                        .map(CauHoiCacheDTO::fromEntity)
+                        .collect(Collectors.toList()));
         if (allQuestions.isEmpty())
             throw new DataNotFoundException("Bộ câu hỏi chưa có câu hỏi nào");
 
@@ -0,0 +1,46 @@
+package com.app.backend.services.presence;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+
+public interface IPresenceService {
+
+    /**
+     * Phiên STOMP vừa đóng: người dùng đã xác thực, phòng đấu và người chơi (nếu có) của phiên
+     */
+    record SessionInfo(String sessionId, Long userId, Long tranDauId, Long playerId) {
+    }
+
+    /**
+     * Phiên STOMP mới. Phiên đầu tiên của người dùng → trực tuyến.
+     *
+     * @param userId   principal đã xác thực; null = ẩn danh, không tính trực tuyến
+     * @param playerId người chơi phòng đấu khai báo qua x-user-id – chỉ dùng cho join/leave phòng, không tính trực tuyến
+     */
+    void connect(String sessionId, Long userId, Long tranDauId, Long playerId);
+
+    /**
+     * Phiên STOMP đóng; phiên cuối cùng của người dùng → ngoại tuyến
+     */
+    Optional<SessionInfo> disconnect(String sessionId);
+
+    /**
+     * Phiên subscribe /topic/chat/{phongChatId}
+     */
+    void subscribeChat(String sessionId, String subscriptionId, Long phongChatId);
+
+    void unsubscribe(String sessionId, String subscriptionId);
+
+    boolean isOnline(Long userId);
+
+    /**
+     * Những người đang trực tuyến trong danh sách (1 lượt đọc)
+     */
+    Set<Long> onlineOf(Collection<Long> userIds);
+
+    /**
+     * Người dùng đang mở phòng chat (trên node này) → đã nhận tin qua topic của phòng
+     */
+    boolean isViewingChat(Long phongChatId, Long userId);
+}
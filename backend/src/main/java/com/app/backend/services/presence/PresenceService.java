@@ -0,0 +1,326 @@
+package com.app.backend.services.presence;
+
+import com.app.backend.components.WsBroadcaster;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Trạng thái trực tuyến dùng chung cho danh sách bạn bè, fan-out chat và phòng đấu, thay cho map onlineUsers
+ * tĩnh (1 phiên / người) và các map phiên riêng của từng listener.
+ * <p>
+ * - Nhiều phiên / người (nhiều tab, chat + phòng đấu): đếm phiên theo userId; phiên đầu → trực tuyến, phiên cuối → ngoại tuyến,
+ * phát USER_STATUS lên /topic/user-status khi đổi trạng thái.
+ * - Trạng thái trong ConcurrentHashMap, cập nhật từng khoá bằng merge / compute (khoá theo bin) → không có khoá chung;
+ * mọi lần đọc O(1), không truy vấn DB khi connect / disconnect.
+ * - presence.mode=redis (nhiều node): mỗi người 1 hash presence:u:{userId}, field = nodeId → hạn (ms). Heartbeat định kỳ
+ * gia hạn cho mọi người đang có phiên trên node; node chết → field quá hạn, tự coi là ngoại tuyến sau ttl.
+ * Đọc nhiều người bằng 1 script. Redis lỗi → trả lời theo phiên trên node hiện tại.
+ * - Ai đang mở phòng chat nào chỉ tính trên node hiện tại (dùng để bỏ thông báo trùng với tin qua topic).
+ * - Chỉ principal đã xác thực mới được tính trực tuyến; x-user-id của phòng đấu chỉ được giữ lại cho join/leave.
+ * - Heartbeat: timer chỉ kích hoạt, script Lua chạy trên taskExecutor (không chiếm luồng timer của trận đấu).
+ */
+@Slf4j
+@Service
+public class PresenceService implements IPresenceService {
+
+    public static final String MODE_REDIS = "redis";
+
+    private static final String KEY_PREFIX = "presence:u:";
+    private static final int HEARTBEAT_CHUNK = 500;
+
+    /**
+     * KEYS[1] = hash người dùng; ARGV = nodeId, hạn, now, ttl. Trả 1 nếu trước đó không có node nào còn hạn.
+     */
+    private static final RedisScript<Long> ONLINE = new DefaultRedisScript<>("""
+            local live = 0
+            for _, v in ipairs(redis.call('HVALS', KEYS[1])) do
+              if tonumber(v) > tonumber(ARGV[3]) then live = 1 break end
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('PEXPIRE', KEYS[1], ARGV[4])
+            if live == 1 then return 0 end
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS[1] = hash người dùng; ARGV = nodeId, now. Trả 1 nếu không còn node nào còn hạn (đã ngoại tuyến).
+     */
+    private static final RedisScript<Long> OFFLINE = new DefaultRedisScript<>("""
+            redis.call('HDEL', KEYS[1], ARGV[1])
+            for _, v in ipairs(redis.call('HVALS', KEYS[1])) do
+              if tonumber(v) > tonumber(ARGV[2]) then return 0 end
+            end
+            redis.call('DEL', KEYS[1])
+            return 1
+            """, Long.class);
+
+    /**
+     * KEYS = hash các người dùng có phiên trên node; ARGV = nodeId, hạn, now, ttl.
+     * Trả vị trí (1-based) các khoá trước đó không còn hạn (vd. bị node khác đánh ngoại tuyến nhầm) → phát lại trực tuyến.
+     */
+    private static final RedisScript<List> HEARTBEAT = new DefaultRedisScript<>("""
+            local revived = {}
+            for i, key in ipairs(KEYS) do
+              local live = false
+              for _, v in ipairs(redis.call('HVALS', key)) do
+                if tonumber(v) > tonumber(ARGV[3]) then live = true break end
+              end
+              redis.call('HSET', key, ARGV[1], ARGV[2])
+              redis.call('PEXPIRE', key, ARGV[4])
+              if not live then revived[#revived + 1] = i end
+            end
+            return revived
+            """, List.class);
+
+    /**
+     * KEYS = hash các người dùng; ARGV[1] = now. Trả 1/0 theo thứ tự khoá.
+     */
+    private static final RedisScript<List> LIVE = new DefaultRedisScript<>("""
+            local result = {}
+            for i, key in ipairs(KEYS) do
+              result[i] = 0
+              for _, v in ipairs(redis.call('HVALS', key)) do
+                if tonumber(v) > tonumber(ARGV[1]) then result[i] = 1 break end
+              end
+            end
+            return result
+            """, List.class);
+
+    private static final class Session {
+        private final Long userId;
+        private final Long tranDauId;
+        private final Long playerId;
+        // subscriptionId → phongChatId
+        private final Map<String, Long> chatSubscriptions = new ConcurrentHashMap<>();
+
+        private Session(Long userId, Long tranDauId, Long playerId) {
+            this.userId = userId;
+            this.tranDauId = tranDauId;
+            this.playerId = playerId;
+        }
+    }
+
+    private final StringRedisTemplate redis;
+    private final WsBroadcaster wsBroadcaster;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor taskExecutor;
+
+    @Value("${presence.mode:local}")
+    private String mode;
+
+    @Value("${presence.ttl-ms:45000}")
+    private long ttlMs;
+
+    @Value("${presence.heartbeat-interval-ms:15000}")
+    private long heartbeatIntervalMs;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // sessionId → phiên
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    // userId → số phiên trên node này
+    private final Map<Long, Integer> userSessions = new ConcurrentHashMap<>();
+
+    // phongChatId → (userId → số subscription đang mở)
+    private final Map<Long, Map<Long, Integer>> chatViewers = new ConcurrentHashMap<>();
+
+    public PresenceService(StringRedisTemplate redis,
+                           WsBroadcaster wsBroadcaster,
+                           @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                           @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.redis = redis;
+        this.wsBroadcaster = wsBroadcaster;
+        this.scheduler = scheduler;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (isDistributed()) {
+            scheduler.scheduleWithFixedDelay(() -> taskExecutor.execute(this::heartbeat),
+                    Duration.ofMillis(heartbeatIntervalMs));
+            log.info("✅ Presence: Redis, heartbeat {} ms, ttl {} ms", heartbeatIntervalMs, ttlMs);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!isDistributed()) return;
+        // Tắt có kiểm soát: bỏ field của node ngay, không chờ hết hạn
+        for (Long userId : userSessions.keySet()) {
+            try {
+                redis.execute(OFFLINE, List.of(key(userId)), nodeId, String.valueOf(System.currentTimeMillis()));
+            } catch (Exception e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void connect(String sessionId, Long userId, Long tranDauId, Long playerId) {
+        if (sessions.putIfAbsent(sessionId, new Session(userId, tranDauId, playerId)) != null || userId == null) return;
+        if (userSessions.merge(userId, 1, Integer::sum) == 1) {
+            goOnline(userId);
+        }
+    }
+
+    @Override
+    public Optional<SessionInfo> disconnect(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) return Optional.empty();
+
+        session.chatSubscriptions.values().forEach(roomId -> release(roomId, session.userId));
+        if (session.userId != null
+                && userSessions.computeIfPresent(session.userId, (id, n) -> n > 1 ? n - 1 : null) == null) {
+            goOffline(session.userId);
+        }
+        return Optional.of(new SessionInfo(sessionId, session.userId, session.tranDauId, session.playerId));
+    }
+
+    @Override
+    public void subscribeChat(String sessionId, String subscriptionId, Long phongChatId) {
+        Session session = sessions.get(sessionId);
+        if (session == null || session.userId == null) return;
+        if (session.chatSubscriptions.put(subscriptionId, phongChatId) != null) return;
+        chatViewers.compute(phongChatId, (id, viewers) -> {
+            Map<Long, Integer> v = viewers != null ? viewers : new ConcurrentHashMap<>();
+            v.merge(session.userId, 1, Integer::sum);
+            return v;
+        });
+    }
+
+    @Override
+    public void unsubscribe(String sessionId, String subscriptionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) return;
+        Long phongChatId = session.chatSubscriptions.remove(subscriptionId);
+        if (phongChatId != null) release(phongChatId, session.userId);
+    }
+
+    @Override
+    public boolean isOnline(Long userId) {
+        return userId != null && !onlineOf(List.of(userId)).isEmpty();
+    }
+
+    @Override
+    public Set<Long> onlineOf(Collection<Long> userIds) {
+        Set<Long> online = new HashSet<>();
+        List<Long> remote = new ArrayList<>();
+        for (Long id : userIds) {
+            if (userSessions.containsKey(id)) {
+                online.add(id);
+            } else if (id != null) {
+                remote.add(id);
+            }
+        }
+        if (remote.isEmpty() || !isDistributed()) return online;
+
+        try {
+            List<?> live = redis.execute(LIVE, remote.stream().map(PresenceService::key).toList(),
+                    String.valueOf(System.currentTimeMillis()));
+            for (int i = 0; i < remote.size() && live != null && i < live.size(); i++) {
+                if (((Number) live.get(i)).longValue() == 1L) online.add(remote.get(i));
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Không đọc được presence từ Redis, dùng phiên trên node: {}", e.getMessage());
+        }
+        return online;
+    }
+
+    @Override
+    public boolean isViewingChat(Long phongChatId, Long userId) {
+        Map<Long, Integer> viewers = chatViewers.get(phongChatId);
+        return viewers != null && viewers.containsKey(userId);
+    }
+
+    private void release(Long phongChatId, Long userId) {
+        chatViewers.computeIfPresent(phongChatId, (id, viewers) -> {
+            viewers.computeIfPresent(userId, (uid, n) -> n > 1 ? n - 1 : null);
+            return viewers.isEmpty() ? null : viewers;
+        });
+    }
+
+    private void goOnline(Long userId) {
+        boolean changed = true;
+        if (isDistributed()) {
+            long now = System.currentTimeMillis();
+            try {
+                changed = Long.valueOf(1L).equals(redis.execute(ONLINE, List.of(key(userId)),
+                        nodeId, String.valueOf(now + ttlMs), String.valueOf(now), String.valueOf(ttlMs)));
+            } catch (Exception e) {
+                log.warn("⚠️ Không ghi được presence của user {}: {}", userId, e.getMessage());
+            }
+        }
+        if (changed) broadcastStatus(userId, true);
+    }
+
+    private void goOffline(Long userId) {
+        boolean changed = true;
+        if (isDistributed()) {
+            try {
+                changed = Long.valueOf(1L).equals(redis.execute(OFFLINE, List.of(key(userId)),
+                        nodeId, String.valueOf(System.currentTimeMillis())));
+            } catch (Exception e) {
+                log.warn("⚠️ Không xoá được presence của user {}: {}", userId, e.getMessage());
+            }
+        }
+        if (changed) broadcastStatus(userId, false);
+    }
+
+    /**
+     * Gia hạn mọi người đang có phiên trên node (theo lô); ai vừa ngắt trong lúc gia hạn → bỏ lại field
+     */
+    private void heartbeat() {
+        List<Long> userIds = new ArrayList<>(userSessions.keySet());
+        long now = System.currentTimeMillis();
+        for (int from = 0; from < userIds.size(); from += HEARTBEAT_CHUNK) {
+            List<Long> chunk = userIds.subList(from, Math.min(from + HEARTBEAT_CHUNK, userIds.size()));
+            try {
+                List<?> revived = redis.execute(HEARTBEAT, chunk.stream().map(PresenceService::key).toList(),
+                        nodeId, String.valueOf(now + ttlMs), String.valueOf(now), String.valueOf(ttlMs));
+                if (revived != null) {
+                    revived.forEach(i -> broadcastStatus(chunk.get(((Number) i).intValue() - 1), true));
+                }
+            } catch (Exception e) {
+                log.warn("⚠️ Heartbeat presence lỗi: {}", e.getMessage());
+                return;
+            }
+        }
+        userIds.stream()
+                .filter(id -> !userSessions.containsKey(id))
+                .forEach(this::goOffline);
+    }
+
+    private void broadcastStatus(Long userId, boolean online) {
+        try {
+            wsBroadcaster.convertAndSend("/topic/user-status", Map.of(
+                    "type", "USER_STATUS",
+                    "data", Map.of("userId", userId, "online", online)
+            ));
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể phát trạng thái của user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private boolean isDistributed() {
+        return MODE_REDIS.equalsIgnoreCase(mode);
+    }
+
+    private static String key(Long userId) {
+        return KEY_PREFIX + userId;
+    }
+}
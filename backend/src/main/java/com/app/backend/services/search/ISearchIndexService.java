@@ -0,0 +1,41 @@
+package com.app.backend.services.search;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface ISearchIndexService {
+
+    /**
+     * Ghi / xoá tài liệu: áp dụng sau commit của transaction hiện tại (và trên các node khác)
+     */
+    void apply(SearchDocument document);
+
+    /**
+     * ID khớp từ khoá (mọi từ, khớp tiền tố, bỏ dấu), mới nhất trước, tối đa search.max-hits.
+     * @param scope phạm vi lọc (null = không lọc)
+     * @return rỗng nếu chỉ mục loại này chưa sẵn sàng (đang dựng lại / lỗi) → caller tìm bằng DB
+     */
+    default Optional<List<Long>> search(SearchType type, String keyword, Long scope) {
+        return search(type, keyword, scope, null);
+    }
+
+    /**
+     * Như {@link #search(SearchType, String, Long)} nhưng chỉ trong các ID của within (lọc trên chỉ mục,
+     * trước giới hạn max-hits) → tài liệu caller không được thấy không chiếm chỗ trong kết quả.
+     * @param within ID được phép (null = không lọc, rỗng = không khớp gì)
+     */
+    Optional<List<Long>> search(SearchType type, String keyword, Long scope, Collection<Long> within);
+
+    /**
+     * Dựng lại chỉ mục các loại từ DB (chạy nền); trong lúc dựng, tìm kiếm loại đó đi đường DB
+     */
+    void rebuild(List<SearchType> types);
+
+    /**
+     * Danh sách ID dùng cho "IN (:ids)": rỗng → [-1] (không khớp bản ghi nào)
+     */
+    static List<Long> orNone(List<Long> ids) {
+        return ids.isEmpty() ? List.of(-1L) : ids;
+    }
+}
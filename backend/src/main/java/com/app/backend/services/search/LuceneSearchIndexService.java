@@ -0,0 +1,382 @@
+package com.app.backend.services.search;
+
+import com.app.backend.components.TransactionCallbacks;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Chỉ mục tìm kiếm toàn văn (Lucene nhúng, file trên đĩa local) thay cho LOWER(x) LIKE '%kw%' quét toàn bảng.
+ * <p>
+ * - Phân tích: StandardTokenizer → lowercase → bỏ dấu (ASCIIFoldingFilter, gồm đ → d), văn bản chuẩn hoá NFC trước.
+ * "nguyen" khớp "Nguyễn"; mọi từ của từ khoá phải có, từ khoá khớp tiền tố từ ("ngu" khớp "nguyễn").
+ * - Chỉ trả về ID (mới nhất trước, tối đa max-hits); caller nạp bản ghi từ DB bằng id IN (...) kèm các điều kiện
+ * còn lại (trạng thái, đã xoá, thành viên...) → kết quả luôn đúng với DB kể cả khi chỉ mục trễ.
+ * Để max-hits không bị tài liệu sẽ bị DB loại chiếm hết, các điều kiện đó được lọc ngay trên chỉ mục:
+ * chỉ tài liệu đang hiển thị mới có trong chỉ mục (bài đã duyệt, tin / phòng chưa xoá), scope = phòng chat,
+ * within = ID caller được thấy (phòng của mình, người cùng phòng).
+ * - Ghi: entity lưu / xoá (SearchIndexListener) → áp dụng sau commit, bỏ qua nếu nội dung không đổi;
+ * PUBLISH để node khác ghi vào chỉ mục của mình (node gửi bỏ qua tin của chính mình).
+ * - Reader làm mới mỗi refresh-interval (NRT), commit xuống đĩa mỗi commit-interval và khi tắt.
+ * - Chỉ mục trống lúc khởi động (hoặc rebuild-on-startup) → dựng lại từ DB chạy nền; loại đang dựng
+ * (hoặc chỉ mục không mở được) → {@link #search} trả rỗng, caller tìm bằng DB như trước.
+ * Node tắt trong lúc node khác ghi sẽ thiếu các thay đổi đó → dựng lại qua API admin.
+ */
+@Slf4j
+@Service
+public class LuceneSearchIndexService implements ISearchIndexService, MessageListener {
+
+    private static final String KEY = "key";
+    private static final String TYPE = "type";
+    private static final String SCOPE = "scope";
+    private static final String TEXT = "text";
+    private static final String ID = "id";
+    private static final String HASH = "h";
+
+    private static final Sort NEWEST_FIRST = new Sort(new SortField(ID, SortField.Type.LONG, true));
+    private static final int MAX_TERMS = 8;
+    private static final int REBUILD_BATCH = 1000;
+
+    /**
+     * lowercase + bỏ dấu tiếng Việt (ệ → e, đ → d)
+     */
+    private static final class FoldingAnalyzer extends Analyzer {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            StandardTokenizer source = new StandardTokenizer();
+            TokenStream result = new ASCIIFoldingFilter(new LowerCaseFilter(source));
+            return new TokenStreamComponents(source, result);
+        }
+
+        @Override
+        protected TokenStream normalize(String fieldName, TokenStream in) {
+            return new ASCIIFoldingFilter(new LowerCaseFilter(in));
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StringRedisTemplate redis;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor taskExecutor;
+
+    @Value("${search.index.dir:./data/search-index}")
+    private String indexDir;
+
+    @Value("${search.max-hits:1000}")
+    private int maxHits;
+
+    @Value("${search.refresh-interval-ms:1000}")
+    private long refreshIntervalMs;
+
+    @Value("${search.commit-interval-ms:30000}")
+    private long commitIntervalMs;
+
+    @Value("${search.rebuild-on-startup:false}")
+    private boolean rebuildOnStartup;
+
+    @Value("${search.channel:search:index}")
+    private String channel;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Analyzer analyzer = new FoldingAnalyzer();
+    private final Set<SearchType> ready = ConcurrentHashMap.newKeySet();
+    private final Object rebuildLock = new Object();
+
+    private volatile IndexWriter writer;
+    private volatile SearcherManager searcherManager;
+
+    public LuceneSearchIndexService(JdbcTemplate jdbcTemplate,
+                                    StringRedisTemplate redis,
+                                    RedisMessageListenerContainer listenerContainer,
+                                    @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                                    @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.redis = redis;
+        this.listenerContainer = listenerContainer;
+        this.scheduler = scheduler;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            writer = new IndexWriter(FSDirectory.open(Path.of(indexDir)), config);
+            searcherManager = new SearcherManager(writer, null);
+        } catch (IOException e) {
+            log.error("❌ Không thể mở chỉ mục tìm kiếm tại {}, tìm kiếm dùng DB: {}", indexDir, e.getMessage());
+            return;
+        }
+        listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+        // Timer chỉ kích hoạt; I/O của Lucene chạy trên taskExecutor, không chiếm luồng timer của trận đấu
+        scheduler.scheduleWithFixedDelay(() -> taskExecutor.execute(this::refresh), Duration.ofMillis(refreshIntervalMs));
+        scheduler.scheduleWithFixedDelay(() -> taskExecutor.execute(this::commit), Duration.ofMillis(commitIntervalMs));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (writer == null) return;
+        if (rebuildOnStartup || writer.getDocStats().numDocs == 0) {
+            rebuild(List.of(SearchType.values()));
+        } else {
+            ready.addAll(List.of(SearchType.values()));
+            log.info("🔎 Chỉ mục tìm kiếm sẵn sàng: {} tài liệu", writer.getDocStats().numDocs);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writer == null) return;
+        listenerContainer.removeMessageListener(this);
+        try {
+            searcherManager.close();
+            writer.close(); // commit thay đổi còn lại
+        } catch (IOException e) {
+            log.warn("⚠️ Đóng chỉ mục tìm kiếm lỗi: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void apply(SearchDocument document) {
+        if (document.id() == null) return;
+        TransactionCallbacks.afterCommit(() -> {
+            if (writer == null || unchanged(document)) return;
+            write(document);
+            publish(document);
+        });
+    }
+
+    @Override
+    public Optional<List<Long>> search(SearchType type, String keyword, Long scope, Collection<Long> within) {
+        if (!ready.contains(type)) return Optional.empty();
+        try {
+            List<String> terms = terms(keyword);
+            if (terms.isEmpty() || (within != null && within.isEmpty())) return Optional.of(List.of());
+
+            BooleanQuery.Builder query = new BooleanQuery.Builder()
+                    .add(new TermQuery(new Term(TYPE, type.name())), BooleanClause.Occur.FILTER);
+            if (scope != null) {
+                query.add(new TermQuery(new Term(SCOPE, scope.toString())), BooleanClause.Occur.FILTER);
+            }
+            if (within != null) {
+                long[] ids = within.stream().mapToLong(Long::longValue).toArray();
+                query.add(NumericDocValuesField.newSlowSetQuery(ID, ids), BooleanClause.Occur.FILTER);
+            }
+            terms.forEach(t -> query.add(new PrefixQuery(new Term(TEXT, t)), BooleanClause.Occur.MUST));
+
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopDocs top = searcher.search(query.build(), maxHits, NEWEST_FIRST);
+                List<Long> ids = new ArrayList<>(top.scoreDocs.length);
+                for (ScoreDoc hit : top.scoreDocs) {
+                    ids.add((Long) ((FieldDoc) hit).fields[0]);
+                }
+                return Optional.of(ids);
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Tìm kiếm {} trên chỉ mục lỗi, dùng DB: {}", type, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void rebuild(List<SearchType> types) {
+        if (writer == null) return;
+        taskExecutor.execute(() -> {
+            synchronized (rebuildLock) {
+                types.forEach(this::rebuildType);
+            }
+        });
+    }
+
+    private void rebuildType(SearchType type) {
+        ready.remove(type);
+        long started = System.currentTimeMillis();
+        try {
+            writer.deleteDocuments(new Term(TYPE, type.name()));
+            long lastId = 0;
+            long count = 0;
+            List<SearchDocument> batch;
+            do {
+                batch = jdbcTemplate.query(type.rebuildSql(), type.rowMapper(), lastId, REBUILD_BATCH);
+                for (SearchDocument doc : batch) {
+                    write(doc);
+                }
+                if (!batch.isEmpty()) lastId = batch.get(batch.size() - 1).id();
+                count += batch.size();
+            } while (batch.size() == REBUILD_BATCH);
+
+            writer.commit();
+            searcherManager.maybeRefresh();
+            ready.add(type);
+            log.info("🔎 Đã dựng lại chỉ mục {}: {} tài liệu trong {} ms",
+                    type, count, System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            log.error("❌ Không thể dựng lại chỉ mục {}, tìm kiếm loại này dùng DB: {}", type, e.getMessage());
+        }
+    }
+
+    private void write(SearchDocument document) {
+        Term key = new Term(KEY, key(document.type(), document.id()));
+        try {
+            if (document.removed()) {
+                writer.deleteDocuments(key);
+                return;
+            }
+            String text = nfc(document.text());
+            Document doc = new Document();
+            doc.add(new StringField(KEY, key.text(), Field.Store.NO));
+            doc.add(new StringField(TYPE, document.type().name(), Field.Store.NO));
+            if (document.scope() != null) {
+                doc.add(new StringField(SCOPE, document.scope().toString(), Field.Store.NO));
+            }
+            doc.add(new TextField(TEXT, text, Field.Store.NO));
+            doc.add(new NumericDocValuesField(ID, document.id()));
+            doc.add(new StoredField(HASH, hash(document.scope(), text)));
+            writer.updateDocument(key, doc);
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể ghi chỉ mục {} #{}: {}", document.type(), document.id(), e.getMessage());
+        }
+    }
+
+    /**
+     * Entity được lưu lại mà nội dung tìm kiếm không đổi (đổi trạng thái, bộ đếm...) → không ghi, không PUBLISH
+     */
+    private boolean unchanged(SearchDocument document) {
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopDocs top = searcher.search(
+                        new TermQuery(new Term(KEY, key(document.type(), document.id()))), 1);
+                if (top.scoreDocs.length == 0) return document.removed();
+                if (document.removed()) return false;
+                Number stored = searcher.storedFields().document(top.scoreDocs[0].doc)
+                        .getField(HASH).numericValue();
+                return stored.longValue() == hash(document.scope(), nfc(document.text()));
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private List<String> terms(String keyword) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream(TEXT, nfc(keyword))) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken() && terms.size() < MAX_TERMS) {
+                terms.add(term.toString());
+            }
+            ts.end();
+        }
+        return terms;
+    }
+
+    private void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (Exception e) {
+            log.warn("⚠️ Làm mới chỉ mục tìm kiếm lỗi: {}", e.getMessage());
+        }
+    }
+
+    private void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) writer.commit();
+        } catch (Exception e) {
+            log.warn("⚠️ Commit chỉ mục tìm kiếm lỗi: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * node|type|id|scope|text (text cuối cùng, có thể chứa '|'; rỗng = xoá)
+     */
+    private void publish(SearchDocument document) {
+        String payload = String.join("|", nodeId, document.type().name(), document.id().toString(),
+                document.scope() != null ? document.scope().toString() : "",
+                document.removed() ? "" : document.text());
+        try {
+            redis.convertAndSend(channel, payload);
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể phát cập nhật chỉ mục {} #{}: {}", document.type(), document.id(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 5);
+        if (parts.length < 5 || parts[0].equals(nodeId)) return;
+        try {
+            write(new SearchDocument(SearchType.valueOf(parts[1]), Long.valueOf(parts[2]),
+                    parts[3].isEmpty() ? null : Long.valueOf(parts[3]), parts[4]));
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ Cập nhật chỉ mục không hợp lệ: {}", parts[1] + "|" + parts[2]);
+        }
+    }
+
+    private static String key(SearchType type, Long id) {
+        return type.name() + ":" + id;
+    }
+
+    private static long hash(Long scope, String text) {
+        return 31L * Objects.hashCode(scope) + text.hashCode();
+    }
+
+    private static String nfc(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFC);
+    }
+}
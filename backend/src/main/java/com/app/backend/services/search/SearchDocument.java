@@ -0,0 +1,63 @@
+package com.app.backend.services.search;
+
+import com.app.backend.models.BaiViet;
+import com.app.backend.models.BoCauHoi;
+import com.app.backend.models.NguoiDung;
+import com.app.backend.models.PhongChat;
+import com.app.backend.models.TinNhanPhongChat;
+import com.app.backend.models.TranDau;
+import com.app.backend.models.enums.LoaiTinNhan;
+import com.app.backend.models.enums.TrangThaiBaiViet;
+
+/**
+ * 1 tài liệu trong chỉ mục: (type, id) là khoá; scope = phạm vi lọc (phòng chat của tin nhắn), text = nội dung tìm.
+ * text rỗng → tài liệu không (còn) được tìm, bị xoá khỏi chỉ mục.
+ */
+public record SearchDocument(SearchType type, Long id, Long scope, String text) {
+
+    public boolean removed() {
+        return text == null || text.isBlank();
+    }
+
+    /**
+     * Tài liệu tương ứng với entity vừa lưu / xoá, null nếu entity không thuộc chỉ mục
+     */
+    public static SearchDocument of(Object entity, boolean removed) {
+        SearchDocument doc = of(entity);
+        if (doc == null || !removed) return doc;
+        return new SearchDocument(doc.type(), doc.id(), doc.scope(), null);
+    }
+
+    private static SearchDocument of(Object entity) {
+        if (entity instanceof TinNhanPhongChat m) {
+            boolean visible = LoaiTinNhan.VAN_BAN.equals(m.getLoai()) && !Boolean.TRUE.equals(m.getDaXoa());
+            Long phongChatId = m.getPhongChat() != null ? m.getPhongChat().getId() : null;
+            return new SearchDocument(SearchType.TIN_NHAN, m.getId(), phongChatId, visible ? m.getNoiDung() : null);
+        }
+        if (entity instanceof BaiViet b) {
+            boolean visible = TrangThaiBaiViet.DA_DUYET.equals(b.getTrangThai());
+            return new SearchDocument(SearchType.BAI_VIET, b.getId(), null,
+                    visible ? join(b.getTieuDe(), b.getNoiDung()) : null);
+        }
+        if (entity instanceof PhongChat pc) {
+            return new SearchDocument(SearchType.PHONG_CHAT, pc.getId(), null,
+                    Boolean.TRUE.equals(pc.getDaXoa()) ? null : pc.getTen());
+        }
+        if (entity instanceof NguoiDung nd) {
+            return new SearchDocument(SearchType.NGUOI_DUNG, nd.getId(), null, join(nd.getHoTen(), nd.getTenDangNhap()));
+        }
+        if (entity instanceof TranDau td) {
+            return new SearchDocument(SearchType.TRAN_DAU, td.getId(), null, td.getTenPhong());
+        }
+        if (entity instanceof BoCauHoi bo) {
+            return new SearchDocument(SearchType.BO_CAU_HOI, bo.getId(), null, bo.getTieuDe());
+        }
+        return null;
+    }
+
+    static String join(String a, String b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a + "\n" + b;
+    }
+}
@@ -0,0 +1,77 @@
+package com.app.backend.services.search;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Các loại tài liệu trong chỉ mục tìm kiếm, kèm câu SQL dựng lại từ DB (keyset theo id, tham số: id cuối, limit).
+ */
+public enum SearchType {
+
+    TIN_NHAN("""
+            SELECT id, phong_chat_id, noi_dung FROM tin_nhan_phong_chat
+            WHERE id > ? AND loai = 'VAN_BAN' AND (da_xoa IS NULL OR da_xoa = 0)
+            ORDER BY id LIMIT ?
+            """,
+            (type, rs) -> new SearchDocument(type, rs.getLong("id"),
+                    rs.getLong("phong_chat_id"), rs.getString("noi_dung"))),
+
+    BAI_VIET("""
+            SELECT id, tieu_de, noi_dung FROM bai_viet
+            WHERE id > ? AND trang_thai = 'DA_DUYET'
+            ORDER BY id LIMIT ?
+            """,
+            (type, rs) -> new SearchDocument(type, rs.getLong("id"), null,
+                    SearchDocument.join(rs.getString("tieu_de"), rs.getString("noi_dung")))),
+
+    PHONG_CHAT("""
+            SELECT id, ten FROM phong_chat
+            WHERE id > ? AND (da_xoa IS NULL OR da_xoa = 0)
+            ORDER BY id LIMIT ?
+            """,
+            (type, rs) -> new SearchDocument(type, rs.getLong("id"), null, rs.getString("ten"))),
+
+    NGUOI_DUNG("""
+            SELECT id, ho_ten, ten_dang_nhap FROM nguoi_dung
+            WHERE id > ?
+            ORDER BY id LIMIT ?
+            """,
+            (type, rs) -> new SearchDocument(type, rs.getLong("id"), null,
+                    SearchDocument.join(rs.getString("ho_ten"), rs.getString("ten_dang_nhap")))),
+
+    TRAN_DAU("""
+            SELECT id, ten_phong FROM tran_dau
+            WHERE id > ?
+            ORDER BY id LIMIT ?
+            """,
+            (type, rs) -> new SearchDocument(type, rs.getLong("id"), null, rs.getString("ten_phong"))),
+
+    BO_CAU_HOI("""
+            SELECT id, tieu_de FROM bo_cau_hoi
+            WHERE id > ?
+            ORDER BY id LIMIT ?
+            """,
+            (type, rs) -> new SearchDocument(type, rs.getLong("id"), null, rs.getString("tieu_de")));
+
+    private interface RowReader {
+        SearchDocument read(SearchType type, ResultSet rs) throws SQLException;
+    }
+
+    private final String rebuildSql;
+    private final RowReader rowReader;
+
+    SearchType(String rebuildSql, RowReader rowReader) {
+        this.rebuildSql = rebuildSql;
+        this.rowReader = rowReader;
+    }
+
+    public String rebuildSql() {
+        return rebuildSql;
+    }
+
+    public RowMapper<SearchDocument> rowMapper() {
+        return (rs, i) -> rowReader.read(this, rs);
+    }
+}
@@ -0,0 +1,575 @@
+package com.app.backend.services.trandau;
+
+import com.app.backend.components.BattleWsPublisher;
+import com.app.backend.components.TransactionCallbacks;
+import com.app.backend.exceptions.DataNotFoundException;
+import com.app.backend.models.*;
+import com.app.backend.models.constant.LoaiTranDau;
+import com.app.backend.models.constant.LuatTinhDiem;
+import com.app.backend.models.constant.TrangThaiTranDau;
+import com.app.backend.models.enums.RankTier;
+import com.app.backend.repositories.*;
+import com.app.backend.responses.LevelUpResponse;
+import com.app.backend.responses.achievement.AchievementResponse;
+import com.app.backend.responses.trandau.MatchRewardResponse;
+import com.app.backend.services.bangxephang.IBangXepHangService;
+import com.app.backend.services.bangxephang.ILeaderboardRedisService;
+import com.app.backend.services.bangxephang.IRankLookupService;
+import com.app.backend.services.levelup.ILevelUpService;
+import com.app.backend.services.nhiemvu.INhiemVuService;
+import com.app.backend.services.thanhtich.IThanhTichService;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+/**
+ * Bước settlement hậu trận, tách khỏi finishBattle.
+ * <p>
+ * finishBattle chỉ chốt điểm / xếp hạng trong trận / lịch sử rồi phát FINISHED ngay;
+ * XP, vàng, rank tier, thành tích, nhiệm vụ và xếp hạng toàn cục ({@link IRankLookupService}) chạy ở đây, sau khi commit.
+ * <p>
+ * - Dữ liệu đầu vào đọc lại từ lich_su_tran_dau → chạy lại được bất cứ lúc nào, trên node bất kỳ.
+ * - Chống cộng thưởng 2 lần nằm trong DB: transaction settle khoá (FOR UPDATE) dòng lich_su_tran_dau còn
+ * quyet_toan_luc = null rồi ghi quyet_toan_luc cùng lúc cộng thưởng → retry / nhiều node / transaction quá lâu
+ * đều chỉ 1 lượt thấy dòng chưa settle; rollback thì cờ cũng rollback.
+ * - Cả đội hình settle chung 1 transaction (nạp / ghi theo lô); lô lỗi → settle lại từng người.
+ * - Hàng đợi là ZSET battle:settle:pending (score = hạn chạy lại); sweeper định kỳ nhặt trận quá hạn
+ * (retry có backoff, hoặc node trước chết giữa chừng). Mất hàng đợi (Redis lỗi lúc ghi) → đối soát định kỳ
+ * tìm trận gần đây còn dòng chưa settle trong DB và đưa lại vào hàng đợi.
+ * - Người chơi settle xong → PLAYER_SETTLED gửi riêng người đó qua /user/queue/battle.
+ */
+@Slf4j
+@Service
+public class BattleSettlementService implements IBattleSettlementService {
+
+    private static final String PENDING_KEY = "battle:settle:pending";
+    private static final String FAILED_KEY = "battle:settle:failed";
+
+    /**
+     * Kết quả trong trận của 1 người chơi (đọc từ lich_su_tran_dau)
+     */
+    private record PlayerResult(Long userId,
+                                String username,
+                                String hoTen,
+                                String avatarUrl,
+                                int diem,
+                                int soCauDung,
+                                int xepHang,
+                                int maxCombo,
+                                Instant hoanThanhLuc,
+                                boolean settled) {
+    }
+
+    private record Match(Long tranDauId,
+                         boolean ranked,
+                         Long chuDeId,
+                         Long boCauHoiId,
+                         int totalQuestions,
+                         boolean speedMode,
+                         List<PlayerResult> players,
+                         Set<Long> winnerIds) {
+    }
+
+    /**
+     * @param bxh thống kê BXH sau khi cộng (null nếu trận thường) → cập nhật chỉ mục hạng sau commit
+     */
+    private record Outcome(MatchRewardResponse reward, List<AchievementResponse> newAchievements, BangXepHang bxh) {
+    }
+
+    private final ITranDauRepository tranDauRepository;
+    private final ILichSuTranDauRepository lichSuTranDauRepository;
+    private final IThanhTichBoCauHoiRepository thanhTichBoCauHoiRepository;
+    private final IBangXepHangRepository bangXepHangRepository;
+    private final INguoiDungRepository nguoiDungRepository;
+    private final IBoCauHoiRepository boCauHoiRepository;
+    private final IBangXepHangService bangXepHangService;
+    private final ILeaderboardRedisService leaderboardRedisService;
+    private final ILevelUpService levelUpService;
+    private final IThanhTichService thanhTichService;
+    private final INhiemVuService nhiemVuService;
+    private final BattleWsPublisher wsPublisher;
+    private final IRankLookupService rankLookupService;
+    private final StringRedisTemplate redis;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final Executor taskExecutor;
+
+    @Value("${battle.settlement.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${battle.settlement.retry-base-ms:2000}")
+    private long retryBaseMs;
+
+    @Value("${battle.settlement.claim-ttl-ms:120000}")
+    private long claimTtlMs;
+
+    @Value("${battle.settlement.done-ttl-ms:604800000}")
+    private long doneTtlMs;
+
+    @Value("${battle.settlement.sweep-interval-ms:5000}")
+    private long sweepIntervalMs;
+
+    @Value("${battle.settlement.reconcile-interval-ms:60000}")
+    private long reconcileIntervalMs;
+
+    @Value("${battle.settlement.reconcile-lookback-ms:86400000}")
+    private long reconcileLookbackMs;
+
+    public BattleSettlementService(ITranDauRepository tranDauRepository,
+                                   ILichSuTranDauRepository lichSuTranDauRepository,
+                                   IThanhTichBoCauHoiRepository thanhTichBoCauHoiRepository,
+                                   IBangXepHangRepository bangXepHangRepository,
+                                   INguoiDungRepository nguoiDungRepository,
+                                   IBoCauHoiRepository boCauHoiRepository,
+                                   IBangXepHangService bangXepHangService,
+                                   ILeaderboardRedisService leaderboardRedisService,
+                                   ILevelUpService levelUpService,
+                                   IThanhTichService thanhTichService,
+                                   INhiemVuService nhiemVuService,
+                                   BattleWsPublisher wsPublisher,
+                                   IRankLookupService rankLookupService,
+                                   StringRedisTemplate redis,
+                                   TransactionTemplate transactionTemplate,
+                                   @Qualifier("battleTaskScheduler") ThreadPoolTaskScheduler scheduler,
+                                   @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.tranDauRepository = tranDauRepository;
+        this.lichSuTranDauRepository = lichSuTranDauRepository;
+        this.thanhTichBoCauHoiRepository = thanhTichBoCauHoiRepository;
+        this.bangXepHangRepository = bangXepHangRepository;
+        this.nguoiDungRepository = nguoiDungRepository;
+        this.boCauHoiRepository = boCauHoiRepository;
+        this.bangXepHangService = bangXepHangService;
+        this.leaderboardRedisService = leaderboardRedisService;
+        this.levelUpService = levelUpService;
+        this.thanhTichService = thanhTichService;
+        this.nhiemVuService = nhiemVuService;
+        this.wsPublisher = wsPublisher;
+        this.rankLookupService = rankLookupService;
+        this.redis = redis;
+        this.transactionTemplate = transactionTemplate;
+        this.scheduler = scheduler;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Timer chỉ nhặt trận đến hạn; việc settle / đối soát DB chạy trên taskExecutor
+     */
+    @PostConstruct
+    public void startSweeper() {
+        scheduler.scheduleWithFixedDelay(this::sweep, Duration.ofMillis(sweepIntervalMs));
+        scheduler.scheduleWithFixedDelay(() -> taskExecutor.execute(this::reconcile),
+                Duration.ofMillis(reconcileIntervalMs));
+    }
+
+    @Override
+    public void enqueue(Long tranDauId) {
+        TransactionCallbacks.afterCommit(() -> {
+            // Ghi hàng đợi bền trước: node chết giữa chừng thì sweeper (node bất kỳ) chạy lại sau claim-ttl
+            try {
+                redis.opsForZSet().add(PENDING_KEY, tranDauId.toString(), System.currentTimeMillis() + claimTtlMs);
+            } catch (Exception e) {
+                log.warn("⚠️ Không thể ghi hàng đợi settlement cho trận {}: {}", tranDauId, e.getMessage());
+            }
+            taskExecutor.execute(() -> run(tranDauId));
+        });
+    }
+
+    @Override
+    public boolean settle(Long tranDauId) {
+        Match match = transactionTemplate.execute(status -> loadMatch(tranDauId));
+        if (match == null) {
+            return true; // trận không tồn tại / chưa kết thúc / không có người chơi → không có gì để settle
+        }
+        List<PlayerResult> pending = match.players().stream().filter(p -> !p.settled()).toList();
+        if (pending.isEmpty()) {
+            return true;
+        }
+
+        // Cả đội hình trong 1 transaction (1 truy vấn IN mỗi bảng, 1 lần ghi batch)
+        Map<Long, Outcome> outcomes = null;
+        try {
+            outcomes = settleInTransaction(match, pending);
+        } catch (RuntimeException e) {
+            log.warn("⚠️ Settlement cả đội hình trận {} lỗi, settle lại từng người: {}", tranDauId, e.getMessage());
+        }
+        if (outcomes != null) {
+            finishPlayers(match, pending, outcomes);
+            return true;
+        }
+
+        // Lô lỗi đã rollback toàn bộ (kể cả cờ quyet_toan_luc) → tách từng người để 1 người lỗi không chặn cả trận
+        boolean complete = true;
+        for (PlayerResult p : pending) {
+            Map<Long, Outcome> single;
+            try {
+                single = settleInTransaction(match, List.of(p));
+            } catch (RuntimeException e) {
+                complete = false;
+                log.warn("⚠️ Settlement user {} trận {} lỗi, sẽ thử lại: {}", p.userId(), tranDauId, e.getMessage());
+                continue;
+            }
+            finishPlayers(match, List.of(p), single);
+        }
+        return complete;
+    }
+
+    private Map<Long, Outcome> settleInTransaction(Match match, List<PlayerResult> players) {
+        return transactionTemplate.execute(status -> {
+            try {
+                return settlePlayers(match, players);
+            } catch (DataNotFoundException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Sau commit, cho những người vừa settle trong lượt này (outcomes chỉ chứa người thật sự được settle).
+     * Lỗi ở 1 người không dừng những người còn lại; thưởng đã commit nên không bao giờ chạy lại.
+     */
+    private void finishPlayers(Match match, List<PlayerResult> players, Map<Long, Outcome> outcomes) {
+        for (PlayerResult p : players) {
+            Outcome outcome = outcomes.get(p.userId());
+            if (outcome == null) continue; // lượt khác đã settle người này
+            try {
+                finishPlayer(match, p, outcome);
+            } catch (Exception e) {
+                log.warn("⚠️ Hậu xử lý settlement user {} trận {} lỗi: {}", p.userId(), match.tranDauId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Chỉ mục hạng, leaderboard Redis, PLAYER_SETTLED
+     */
+    private void finishPlayer(Match match, PlayerResult p, Outcome outcome) {
+        if (outcome.bxh() != null) {
+            BangXepHang bxh = outcome.bxh();
+            rankLookupService.onStatsChanged(p.userId(), bxh.getTongDiem(), bxh.getSoTranThang(), bxh.getTongTran());
+        }
+        recordLeaderboard(match, p);
+        wsPublisher.publishPlayerSettled(match.tranDauId(), p.userId(), p.username(),
+                outcome.reward(), outcome.newAchievements());
+    }
+
+    /**
+     * Cộng kết quả vào các bảng xếp hạng tuần / tháng / chủ đề / bộ câu hỏi.
+     * Chạy sau commit settlement → lỗi ở đây không làm phát thưởng lại; script tự chống cộng trùng.
+     */
+    private void recordLeaderboard(Match match, PlayerResult p) {
+        try {
+            leaderboardRedisService.recordResult(
+                    match.tranDauId(), p.userId(), p.hoTen(), p.avatarUrl(),
+                    match.chuDeId(), match.boCauHoiId(),
+                    p.diem(), p.xepHang() == 1, p.hoanThanhLuc());
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể cập nhật leaderboard Redis cho user {} trận {}: {}",
+                    p.userId(), match.tranDauId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 1 lượt settle + lên lịch retry (backoff luỹ thừa) nếu còn người chơi chưa xong
+     */
+    private void run(Long tranDauId) {
+        boolean complete;
+        try {
+            complete = settle(tranDauId);
+        } catch (Exception e) {
+            log.warn("⚠️ Settlement trận {} lỗi: {}", tranDauId, e.getMessage());
+            complete = false;
+        }
+
+        String member = tranDauId.toString();
+        try {
+            if (complete) {
+                redis.opsForZSet().remove(PENDING_KEY, member);
+                redis.delete(attemptsKey(tranDauId));
+                return;
+            }
+            Long attempt = redis.opsForValue().increment(attemptsKey(tranDauId));
+            redis.expire(attemptsKey(tranDauId), Duration.ofMillis(doneTtlMs));
+            int n = attempt != null ? attempt.intValue() : 1;
+            if (n >= maxAttempts) {
+                redis.opsForZSet().remove(PENDING_KEY, member);
+                redis.opsForSet().add(FAILED_KEY, member);
+                log.error("❌ Settlement trận {} thất bại sau {} lần, chuyển sang {}", tranDauId, n, FAILED_KEY);
+                return;
+            }
+            long delay = retryBaseMs << Math.min(n - 1, 10);
+            redis.opsForZSet().add(PENDING_KEY, member, System.currentTimeMillis() + delay);
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể cập nhật hàng đợi settlement trận {}: {}", tranDauId, e.getMessage());
+        }
+    }
+
+    /**
+     * Lưới an toàn khi ZADD hàng đợi thất bại: trận đã xong đủ lâu mà còn dòng chưa settle → đưa lại vào hàng đợi.
+     * Bỏ qua trận đã chuyển sang FAILED_KEY (chờ xử lý tay).
+     */
+    private void reconcile() {
+        try {
+            Instant to = Instant.now().minusMillis(claimTtlMs);
+            Instant from = to.minusMillis(reconcileLookbackMs);
+            List<Long> ids = lichSuTranDauRepository.findUnsettledTranDauIds(from, to, PageRequest.of(0, 100));
+            long now = System.currentTimeMillis();
+            for (Long id : ids) {
+                String member = id.toString();
+                if (Boolean.TRUE.equals(redis.opsForSet().isMember(FAILED_KEY, member))) continue;
+                // NX: trận đang chờ retry giữ nguyên hạn của nó
+                redis.opsForZSet().addIfAbsent(PENDING_KEY, member, now);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Đối soát settlement lỗi: {}", e.getMessage());
+        }
+    }
+
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            Set<String> due = redis.opsForZSet().rangeByScore(PENDING_KEY, 0, now, 0, 50);
+            if (due == null || due.isEmpty()) return;
+            for (String member : due) {
+                // Dời hạn trước khi chạy → lượt sweep sau không nhặt lại khi đang chạy
+                redis.opsForZSet().add(PENDING_KEY, member, now + claimTtlMs);
+                Long tranDauId = Long.valueOf(member);
+                taskExecutor.execute(() -> run(tranDauId));
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Sweeper settlement lỗi: {}", e.getMessage());
+        }
+    }
+
+    private Match loadMatch(Long tranDauId) {
+        TranDau td = tranDauRepository.findById(tranDauId).orElse(null);
+        if (td == null || !TrangThaiTranDau.HOAN_THANH.equals(td.getTrangThai())) return null;
+
+        List<PlayerResult> players = lichSuTranDauRepository.findByTranDau_IdOrderByXepHangAsc(tranDauId).stream()
+                .map(ls -> new PlayerResult(
+                        ls.getNguoiDung().getId(),
+                        ls.getNguoiDung().getUsername(),
+                        ls.getNguoiDung().getHoTen(),
+                        ls.getNguoiDung().getAvatarUrl(),
+                        ls.getTongDiem() != null ? ls.getTongDiem() : 0,
+                        ls.getSoCauDung() != null ? ls.getSoCauDung() : 0,
+                        ls.getXepHang() != null ? ls.getXepHang() : 0,
+                        ls.getMaxCombo() != null ? ls.getMaxCombo() : 0,
+                        ls.getHoanThanhLuc() != null ? ls.getHoanThanhLuc() : Instant.now(),
+                        ls.getQuyetToanLuc() != null))
+                .toList();
+        if (players.isEmpty()) return null;
+
+        // Tập user thắng (có thể >1 nếu hòa điểm)
+        int maxScore = players.stream().mapToInt(PlayerResult::diem).max().orElse(0);
+        Set<Long> winnerIds = players.stream()
+                .filter(p -> p.diem() == maxScore)
+                .map(PlayerResult::userId)
+                .collect(Collectors.toSet());
+
+        BoCauHoi bo = td.getBoCauHoi();
+        return new Match(
+                tranDauId,
+                LoaiTranDau.XEP_HANG.equals(td.getLoaiTranDau()),
+                bo.getChuDe() != null ? bo.getChuDe().getId() : null,
+                bo.getId(),
+                bo.getSoCauHoi(),
+                LuatTinhDiem.THUONG_TOC_DO.equalsIgnoreCase(td.getLuatTinhDiem()),
+                players,
+                winnerIds);
+    }
+
+    /**
+     * Toàn bộ thay đổi hậu trận của các người chơi – chạy trong 1 transaction.
+     * Khoá dòng lich_su_tran_dau trước; chỉ người còn quyet_toan_luc = null được settle và đánh dấu ngay (commit cùng thưởng).
+     *
+     * @return kết quả của những người thật sự được settle ở lượt này
+     */
+    private Map<Long, Outcome> settlePlayers(Match match, List<PlayerResult> candidates) throws DataNotFoundException {
+        List<Long> candidateIds = candidates.stream().map(PlayerResult::userId).toList();
+        List<LichSuTranDau> unsettled = lichSuTranDauRepository.lockUnsettled(match.tranDauId(), candidateIds);
+        if (unsettled.isEmpty()) return Map.of();
+
+        Instant now = Instant.now();
+        Set<Long> lockedIds = new HashSet<>();
+        for (LichSuTranDau ls : unsettled) {
+            ls.setQuyetToanLuc(now);
+            lockedIds.add(ls.getNguoiDung().getId());
+        }
+        List<PlayerResult> players = candidates.stream().filter(p -> lockedIds.contains(p.userId())).toList();
+
+        Map<Long, MatchRewardResponse> rewards = Map.of();
+        Map<Long, BangXepHang> bxhByUser = Map.of();
+
+        // Chỉ RANKED mới cộng rank/xp/gold (trận casual không có thưởng)
+        if (match.ranked()) {
+            bxhByUser = new HashMap<>();
+            rewards = applyRankedRewards(match, players, bxhByUser);
+        }
+
+        Map<Long, Outcome> outcomes = new HashMap<>();
+        for (PlayerResult p : players) {
+            Long uid = p.userId();
+            List<AchievementResponse> newAchievements = match.ranked()
+                    ? thanhTichService.processAfterBattle(uid)
+                    : List.of();
+
+            // 📋 Cập nhật tiến độ nhiệm vụ
+            nhiemVuService.onMatchPlayed(uid, match.ranked());
+            if (p.soCauDung() > 0) {
+                nhiemVuService.onCorrectAnswer(uid, p.soCauDung());
+            }
+            if (match.winnerIds().contains(uid)) {
+                nhiemVuService.onMatchWon(uid, match.ranked());
+            }
+            if (p.maxCombo() >= 5) {
+                nhiemVuService.onComboAchieved(uid, p.maxCombo());
+            }
+            if (p.xepHang() <= 3 && match.players().size() >= 3) {
+                nhiemVuService.onTop3Achieved(uid);
+            }
+
+            outcomes.put(uid, new Outcome(rewards.get(uid), newAchievements, bxhByUser.get(uid)));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Cập nhật bảng xếp hạng của cả đội hình và trả về phần thưởng từng người.
+     * 1 truy vấn IN cho thanh_tich_bo_cau_hoi, 1 cho bang_xep_hang (FOR UPDATE), XP / lên cấp qua
+     * {@link ILevelUpService#applyXpBatch} trên chính các entity đó, rồi saveAll (JDBC batch).
+     * <p>
+     * XP/Gold được tính dựa trên SỐ CÂU ĐÚNG thay vì điểm raw để cân bằng
+     * giữa chế độ THUONG và THUONG_TOC_DO.
+     *
+     * @param bxhByUser nhận BXH sau khi cộng của từng người (cho chỉ mục hạng)
+     */
+    private Map<Long, MatchRewardResponse> applyRankedRewards(Match match,
+                                                              List<PlayerResult> players,
+                                                              Map<Long, BangXepHang> bxhByUser)
+            throws DataNotFoundException {
+        List<Long> userIds = players.stream().map(PlayerResult::userId).toList();
+
+        Map<Long, ThanhTichBoCauHoi> thanhTichByUser = new HashMap<>();
+        for (ThanhTichBoCauHoi tt : thanhTichBoCauHoiRepository.findByBoCauHoi_IdAndNguoiDung_IdIn(match.boCauHoiId(), userIds)) {
+            thanhTichByUser.put(tt.getNguoiDung().getId(), tt);
+        }
+        // Khoá BXH (thứ tự id cố định) → retry / node khác / shop đổi tien_vang không ghi đè lẫn nhau
+        for (BangXepHang b : bangXepHangRepository.lockByNguoiDungIdIn(userIds)) {
+            bxhByUser.put(b.getNguoiDung().getId(), b);
+        }
+
+        Map<Long, Integer> levelBefore = new HashMap<>();
+        Map<Long, RankTier> tierBefore = new HashMap<>();
+        Map<Long, Long> xpByUser = new HashMap<>();
+        List<ThanhTichBoCauHoi> thanhTichToSave = new ArrayList<>();
+
+        for (PlayerResult p : players) {
+            Long userId = p.userId();
+            int diemTranNay = Math.max(0, p.diem());
+            boolean isWinner = match.winnerIds().contains(userId);
+
+            // --- 1) Thành tích theo bộ câu hỏi (delta điểm rank) ---
+            ThanhTichBoCauHoi thanhTich = thanhTichByUser.get(userId);
+            int delta = 0;
+            if (thanhTich == null) {
+                delta = diemTranNay;
+                thanhTich = ThanhTichBoCauHoi.builder()
+                        .nguoiDung(nguoiDungRepository.getReferenceById(userId))
+                        .boCauHoi(boCauHoiRepository.getReferenceById(match.boCauHoiId()))
+                        .diemCaoNhat(diemTranNay)
+                        .build();
+            } else if (diemTranNay > thanhTich.getDiemCaoNhat()) {
+                delta = diemTranNay - thanhTich.getDiemCaoNhat();
+                thanhTich.setDiemCaoNhat(diemTranNay);
+            }
+            thanhTichToSave.add(thanhTich);
+
+            // --- 2) Lấy hoặc tạo BXH ---
+            BangXepHang bxh = bxhByUser.computeIfAbsent(userId, id -> BangXepHang.builder()
+                    .nguoiDung(nguoiDungRepository.getReferenceById(id))
+                    .tongDiem(0)
+                    .tongTran(0)
+                    .soTranThang(0)
+                    .soTranThua(0)
+                    .level(1)
+                    .tongXp(0L)
+                    .tienVang(0L)
+                    .rankTier(RankTier.DONG)
+                    .build());
+
+            // Snapshot BEFORE
+            levelBefore.put(userId, bxh.getLevel() != null ? bxh.getLevel() : 1);
+            tierBefore.put(userId, bxh.getRankTier() != null ? bxh.getRankTier() : RankTier.DONG);
+
+            // --- 3) Cập nhật thống kê rank ---
+            bxh.setTongTran(bxh.getTongTran() + 1);
+            if (delta > 0) {
+                bxh.setTongDiem(bxh.getTongDiem() + delta);
+            }
+            if (isWinner) {
+                bxh.setSoTranThang(bxh.getSoTranThang() + 1);
+            } else if (diemTranNay > 0) {
+                bxh.setSoTranThua(bxh.getSoTranThua() + 1);
+            }
+
+            // --- 4) Tính XP dựa trên SỐ CÂU ĐÚNG (cân bằng 2 chế độ) ---
+            xpByUser.put(userId, bangXepHangService.calculateXpFromMatch(
+                    p.soCauDung(), match.totalQuestions(), isWinner, match.speedMode()));
+        }
+
+        // XP, lên cấp và phần thưởng cấp độ cho cả đội hình trên các entity vừa nạp
+        Map<Long, LevelUpResponse> levelUps = levelUpService.applyXpBatch(bxhByUser.values(), xpByUser);
+
+        Map<Long, MatchRewardResponse> rewards = new HashMap<>();
+        for (PlayerResult p : players) {
+            Long userId = p.userId();
+            BangXepHang bxh = bxhByUser.get(userId);
+            boolean isWinner = match.winnerIds().contains(userId);
+            LevelUpResponse levelUpResult = levelUps.get(userId);
+
+            // --- 5) Tính RankTier & Gold dựa trên SỐ CÂU ĐÚNG ---
+            RankTier tierAfter = bangXepHangService.getRankTier(bxh);
+            bxh.setRankTier(tierAfter);
+
+            long gainedGold = bangXepHangService.calculateGoldFromMatch(p.soCauDung(), isWinner, true, tierAfter, match.speedMode());
+            bxh.setTienVang((bxh.getTienVang() != null ? bxh.getTienVang() : 0L) + gainedGold);
+
+            boolean leveledUp = levelUpResult != null && levelUpResult.isDaLenCap();
+            rewards.put(userId, MatchRewardResponse.builder()
+                    .xpGained(xpByUser.get(userId))
+                    .goldGained(gainedGold)
+                    .levelBefore(levelBefore.get(userId))
+                    .levelAfter(bxh.getLevel() != null ? bxh.getLevel() : 1)
+                    .rankTierBefore(tierBefore.get(userId))
+                    .rankTierAfter(tierAfter)
+                    .leveledUp(leveledUp)
+                    .levelUpRewards(leveledUp ? levelUpResult.getPhanThuong() : null)
+                    .build());
+        }
+
+        thanhTichBoCauHoiRepository.saveAll(thanhTichToSave);
+        bangXepHangRepository.saveAll(bxhByUser.values());
+        return rewards;
+    }
+
+    private static String attemptsKey(Long tranDauId) {
+        return "battle:settle:" + tranDauId + ":attempts";
+    }
+}
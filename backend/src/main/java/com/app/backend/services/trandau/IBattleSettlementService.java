@@ -0,0 +1,17 @@
+package com.app.backend.services.trandau;
+
+public interface IBattleSettlementService {
+
+    /**
+     * Đưa trận vừa kết thúc vào hàng đợi settlement (XP, vàng, thành tích, nhiệm vụ, xếp hạng).
+     * Chạy sau khi transaction finishBattle commit; kết quả từng người được đẩy qua WS PLAYER_SETTLED.
+     */
+    void enqueue(Long tranDauId);
+
+    /**
+     * Settle các người chơi chưa được settle của trận. Idempotent – gọi lại nhiều lần không cộng thưởng 2 lần.
+     *
+     * @return true nếu toàn bộ người chơi đã settle xong
+     */
+    boolean settle(Long tranDauId);
+}
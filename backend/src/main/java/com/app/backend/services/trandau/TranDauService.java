@@ -1,31 +1,32 @@
 package com.app.backend.services.trandau;
 
+import com.app.backend.components.BattleAnswerJournal;
 import com.app.backend.components.BattleLoopTask;
+import com.app.backend.components.BattleRosterManager;
+import com.app.backend.components.ScoreBatchAggregator;
+import com.app.backend.components.BattleScheduler;
 import com.app.backend.components.BattleStateManager;
 import com.app.backend.components.BattleWsPublisher;
+import com.app.backend.components.LeaderboardRollup;
 import com.app.backend.dtos.*;
 import com.app.backend.dtos.cache.CauHoiCacheDTO;
 import com.app.backend.exceptions.DataNotFoundException;
 import com.app.backend.exceptions.PermissionDenyException;
 import com.app.backend.models.*;
 import com.app.backend.models.constant.*;
-import com.app.backend.models.enums.RankTier;
 import com.app.backend.repositories.*;
-import com.app.backend.responses.achievement.AchievementResponse;
 import com.app.backend.responses.admin.QuestionAnswersAdminResponse;
 import com.app.backend.responses.lichsutrandau.LichSuTranDauResponse;
 import com.app.backend.responses.trandau.*;
 import com.app.backend.responses.websocket.FinishedEvent;
 import com.app.backend.responses.websocket.LeaderboardUpdateEvent;
-import com.app.backend.responses.LevelUpResponse;
-import com.app.backend.services.bangxephang.IBangXepHangService;
-import com.app.backend.services.bangxephang.ILeaderboardRedisService;
 import com.app.backend.services.cauhoi.ICauHoiRedisService;
-import com.app.backend.services.levelup.ILevelUpService;
-import com.app.backend.services.nhiemvu.INhiemVuService;
 import com.app.backend.services.notification.IThongBaoService;
-import com.app.backend.services.thanhtich.IThanhTichService;
+import com.app.backend.services.presence.IPresenceService;
+import com.app.backend.services.search.ISearchIndexService;
+import com.app.backend.services.search.SearchType;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
@@ -47,21 +48,35 @@ public class TranDauService implements ITranDauService {
     private final ICauHoiRepository cauHoiRepository;
     private final INguoiDungRepository nguoiDungRepository;
     private final BattleStateManager battleStateManager;
+    private final BattleRosterManager battleRosterManager;
+    private final ScoreBatchAggregator scoreBatchAggregator;
     private final BattleLoopTask battleLoopTask;
+    private final BattleScheduler battleScheduler;
+    private final BattleAnswerJournal answerJournal;
     private final BattleWsPublisher wsPublisher;
     private final ITraLoiTranDauRepository traLoiTranDauRepository;
     private final ILichSuTranDauRepository lichSuTranDauRepository;
-    private final IBangXepHangRepository bangXepHangRepository;
-    private final IThanhTichBoCauHoiRepository thanhTichBoCauHoiRepository;
     private final IKetBanRepository ketBanRepository;
     private final IThongBaoService thongBaoService;
-    private final IBangXepHangService bangXepHangService;
-    private final ILeaderboardRedisService leaderboardRedisService;
     private final ICauHoiRedisService cauHoiRedisService;
-    private final IThanhTichService thanhTichService;
-    private final ILevelUpService levelUpService;
-    private final INhiemVuService nhiemVuService;
+    private final IBattleSettlementService battleSettlementService;
+    private final LeaderboardRollup leaderboardRollup;
+    private final ISearchIndexService searchIndexService;
+    private final IPresenceService presenceService;
 
+    /**
+     * Cứ bao nhiêu lần broadcast bảng xếp hạng trong trận thì gửi lại toàn bộ (còn lại gửi delta)
+     */
+    @Value("${battle.leaderboard.full-snapshot-every:5}")
+    private int leaderboardFullEvery;
+
+    /**
+     * Cơ chế chạy vòng lặp trận:
+     * - scheduler (mặc định): BattleScheduler hẹn giờ theo deadline, dùng chung vài thread
+     * - loop: BattleLoopTask cũ (giữ 1 thread @Async suốt trận)
+     */
+    @Value("${battle.engine:scheduler}")
+    private String battleEngine;
 
     /**
      * Tạo mã phòng ngẫu nhiên
@@ -142,8 +157,8 @@ public class TranDauService implements ITranDauService {
             throw new IllegalStateException("Phòng không ở trạng thái chờ");
         }
 
-        long current = nguoiChoiTranDauRepository.countByTranDau_Id(tranDau.getId());
-        if (current >= tranDau.getGioiHanNguoiChoi()) {
+        BattleRoster roster = battleRosterManager.get(tranDau.getId());
+        if (roster.size() >= tranDau.getGioiHanNguoiChoi() && !roster.contains(currentUserId)) {
             throw new IllegalStateException("Phòng đã đủ người");
         }
 
@@ -155,27 +170,22 @@ public class TranDauService implements ITranDauService {
         }
 
         // đã tham gia chưa?
-        boolean existed = nguoiChoiTranDauRepository
-                .findByTranDau_IdAndNguoiDung_Id(tranDau.getId(), currentUserId)
-                .isPresent();
-        if (existed) return tranDau; // idempotent
+        if (roster.contains(currentUserId)) return tranDau; // idempotent
 
         NguoiDung user = nguoiDungRepository.findById(currentUserId)
                 .orElseThrow(() -> new DataNotFoundException("Người dùng không tồn tại"));
 
-        nguoiChoiTranDauRepository.save(
+        NguoiChoiTranDau joined = nguoiChoiTranDauRepository.save(
                 NguoiChoiTranDau.builder().tranDau(tranDau).nguoiDung(user).build()
         );
+        battleRosterManager.addPlayer(tranDau.getId(), user, joined.getThamGiaLuc());
 
         // Phát WS
-        int soNguoi = (int) nguoiChoiTranDauRepository.countByTranDau_Id(tranDau.getId());
-        if (soNguoi > tranDau.getGioiHanNguoiChoi()) {
-            throw new IllegalStateException("Phòng đã đủ số lượng người chơi.");
-        }
+        int soNguoi = roster.size() + 1;
         wsPublisher.publishPlayerJoined(tranDau.getId(), user.getId(), user.getHoTen(), soNguoi);
 
         // Phát bảng xếp hạng rỗng
-        updateAndBroadcastLeaderboard(tranDau.getId(), null);
+        updateAndBroadcastLeaderboard(tranDau.getId(), null, true);
 
         return tranDau;
     }
@@ -202,24 +212,28 @@ public class TranDauService implements ITranDauService {
         // Bước 1: đơn giản là xoá người chơi ra khỏi phòng.
 
         nguoiChoiTranDauRepository.delete(nctd);
+        battleRosterManager.removePlayer(tranDau.getId(), currentUserId);
 
-        int soNguoi = (int) nguoiChoiTranDauRepository.countByTranDau_Id(tranDau.getId());
-        wsPublisher.publishPlayerLeft(tranDau.getId(), nctd.getNguoiDung().getId(), nctd.getNguoiDung().getHoTen(), soNguoi);
-
-//        // Nếu không còn ai trong phòng → xoá phòng
-        long remain = nguoiChoiTranDauRepository.countByTranDau_Id(tranDau.getId());
+        BattleRoster remaining = battleRosterManager.get(tranDau.getId()).withoutPlayer(currentUserId);
+        int soNguoi = remaining.size();
+        wsPublisher.publishPlayerLeft(tranDau.getId(), user.getId(), user.getHoTen(), soNguoi);
 
+        // Host rời → chuyển chủ phòng cho người vào sớm nhất còn lại
         if (Objects.equals(tranDau.getChuPhong().getId(), currentUserId) && soNguoi > 0) {
-            nguoiChoiTranDauRepository.findFirstByTranDau_IdOrderByIdAsc(tranDau.getId())
-                    .ifPresent(next -> tranDau.setChuPhong(next.getNguoiDung()));
+            remaining.firstExcept(currentUserId).ifPresent(next -> {
+                tranDau.setChuPhong(nguoiDungRepository.getReferenceById(next.getUserId()));
+                battleRosterManager.changeChuPhong(tranDau.getId(), next.getUserId());
+            });
         }
 
         // Nếu phòng trống và chưa bắt đầu → xoá
 
-        if (soNguoi == 0 && TrangThaiTranDau.CHO.equals(tranDau.getTrangThai()))
+        if (soNguoi == 0 && TrangThaiTranDau.CHO.equals(tranDau.getTrangThai())) {
             tranDauRepository.delete(tranDau);
+            battleRosterManager.evict(tranDau.getId());
+        }
 
-        updateAndBroadcastLeaderboard(tranDau.getId(), null);
+        updateAndBroadcastLeaderboard(tranDau.getId(), null, true);
 
     }
 
@@ -237,8 +251,8 @@ public class TranDauService implements ITranDauService {
         TranDau td = tranDauRepository.findById(tranDauId)
                 .orElseThrow(() -> new DataNotFoundException("Trận đấu không tồn tại"));
 
-        // 2. 🔥 Tính số lượng người chơi hiện tại trong phòng
-        int soLuong = (int) nguoiChoiTranDauRepository.countByTranDau_Id(tranDauId);
+        // 2. 🔥 Tính số lượng người chơi hiện tại trong phòng (từ roster trong RAM)
+        int soLuong = battleRosterManager.get(tranDauId).size();
 
         // 3. Map sang DTO và trả về (truyền số lượng vào)
         return TranDauResponse.fromEntity(td, soLuong);
@@ -250,11 +264,11 @@ public class TranDauService implements ITranDauService {
         TranDau td = tranDauRepository.findById(tranDauId)
                 .orElseThrow(() -> new DataNotFoundException("Trận đấu không tồn tại"));
 
-        int soLuong = (int) nguoiChoiTranDauRepository.countByTranDau_Id(tranDauId);
+        BattleRoster roster = battleRosterManager.get(tranDauId);
+        int soLuong = roster.size();
 
-        // 👇 kiểm tra user hiện tại có đang ở bảng nguoi_choi_tran_dau không
-        boolean daThamGia = nguoiChoiTranDauRepository
-                .existsByTranDauIdAndNguoiDungId(tranDauId, currentUserId);
+        // 👇 kiểm tra user hiện tại có đang ở trong phòng không
+        boolean daThamGia = roster.contains(currentUserId);
 
         TranDauResponse res = TranDauResponse.fromEntity(td, soLuong);
         res.setDaThamGia(daThamGia);
@@ -306,16 +320,11 @@ public class TranDauService implements ITranDauService {
 
         // 📋 Lấy danh sách câu hỏi (ưu tiên từ Redis cache - dạng DTO)
         Long boCauHoiId = td.getBoCauHoi().getId();
-        List<CauHoiCacheDTO> danhSachCauHoi = cauHoiRedisService.getQuestionsByBoCauHoiId(boCauHoiId);
-        if (danhSachCauHoi == null) {
-            // Cache miss -> query DB và convert sang DTO
-            List<CauHoi> entities = cauHoiRepository.findByBoCauHoiId(boCauHoiId);
-            danhSachCauHoi = entities.stream()
-                    .map(CauHoiCacheDTO::fromEntity)
-                    .collect(Collectors.toList());
-            // Save to cache for next time
-            cauHoiRedisService.saveQuestionsByBoCauHoiId(boCauHoiId, danhSachCauHoi);
-        }
+        // Cache miss -> query DB và convert sang DTO (nhiều phòng cùng miss chỉ query 1 lần)
+        List<CauHoiCacheDTO> danhSachCauHoi = cauHoiRedisService.getOrLoadQuestions(boCauHoiId,
+                () -> cauHoiRepository.findByBoCauHoiId(boCauHoiId).stream()
+                        .map(CauHoiCacheDTO::fromEntity)
+                        .collect(Collectors.toList()));
         if (danhSachCauHoi.isEmpty()) {
             throw new IllegalStateException("Bộ câu hỏi này không có câu hỏi nào");
         }
@@ -341,12 +350,13 @@ public class TranDauService implements ITranDauService {
                 : 15;
         state.setSecondsPerQuestion(seconds);
 
-        // 🧍‍♂️ Khởi tạo điểm 0 cho toàn bộ người chơi
-        Set<Long> playerIds = nguoiChoiTranDauRepository
-                .findByTranDau_Id(td.getId(), null)
-                .stream()
-                .map(nctd -> nctd.getNguoiDung().getId())
-                .collect(Collectors.toSet());
+        // 📌 Snapshot cấu hình trận → submitAnswer chấm điểm hoàn toàn trên RAM
+        state.setLuatTinhDiem(td.getLuatTinhDiem());
+        state.setLoaiTranDau(td.getLoaiTranDau());
+
+        // 🧍‍♂️ Chốt roster (id, tên, avatar) 1 lần + khởi tạo điểm 0 cho toàn bộ người chơi
+        BattleRoster roster = battleRosterManager.reload(td.getId());
+        Set<Long> playerIds = new HashSet<>(roster.userIds());
         // cũng thêm cả host vào
         playerIds.add(td.getChuPhong().getId());
         state.initScoresForPlayers(playerIds);
@@ -354,35 +364,45 @@ public class TranDauService implements ITranDauService {
         // Lưu state vào manager
         battleStateManager.save(state);
 
-        wsPublisher.publishBattleStarted(td.getId(), td.getTenPhong(), td.getBatDauLuc(), danhSachCauHoi.size(), seconds, 10);
-        battleLoopTask.runAutoLoop(td.getId(), seconds);
+        wsPublisher.publishBattleStarted(td.getId(), td.getTenPhong(), td.getBatDauLuc(), danhSachCauHoi.size(),
+                seconds, BattleScheduler.PRE_COUNTDOWN_SECONDS);
+        if ("loop".equalsIgnoreCase(battleEngine)) {
+            battleLoopTask.runAutoLoop(td.getId(), seconds);
+        } else {
+            battleScheduler.start(td.getId(), seconds);
+        }
 
         // ✅ Trả kết quả khởi tạo
         return BattleStartResponse.fromCache(td, danhSachCauHoi);
     }
 
+    /**
+     * Nộp đáp án: validate + chấm điểm hoàn toàn trên BattleState (không chạm DB).
+     * Dòng tra_loi_tran_dau + delta điểm được đẩy vào BattleAnswerJournal để ghi batch sau.
+     */
     @Override
-    @Transactional
     public SubmitAnswerResponse submitAnswer(SubmitAnswerDTO dto, Long currentUserId) throws Exception {
-        // 1️⃣ Kiểm tra trận đấu hợp lệ
-        TranDau td = tranDauRepository.findById(dto.getTranDauId())
-                .orElseThrow(() -> new DataNotFoundException("Trận đấu không tồn tại"));
-
-        if (!TrangThaiTranDau.DANG_CHOI.equals(td.getTrangThai())) {
-            throw new IllegalStateException("Phòng không ở trạng thái đang diễn ra");
+        // 1️⃣ Lấy BattleState hiện tại (trận đang chạy ⇔ có state chưa kết thúc)
+        BattleState state = battleStateManager.get(dto.getTranDauId());
+        if (state == null || state.isMarkedFinished()) {
+            // Đường lạnh: chỉ đọc DB để trả lỗi chính xác
+            TranDau td = tranDauRepository.findById(dto.getTranDauId())
+                    .orElseThrow(() -> new DataNotFoundException("Trận đấu không tồn tại"));
+            if (!TrangThaiTranDau.DANG_CHOI.equals(td.getTrangThai())) {
+                throw new IllegalStateException("Phòng không ở trạng thái đang diễn ra");
+            }
+            throw new IllegalStateException("Chưa có câu hỏi nào đang bật");
         }
 
-        // 2️⃣ Xác nhận người chơi có trong phòng
-        boolean inRoom = nguoiChoiTranDauRepository
-                .findByTranDau_IdAndNguoiDung_Id(td.getId(), currentUserId)
-                .isPresent();
-        if (!inRoom && !Objects.equals(td.getChuPhong().getId(), currentUserId)) {
+        // 2️⃣ Xác nhận người chơi có trong phòng (roster trong RAM, O(1))
+        BattleRoster roster = battleRosterManager.get(state.getTranDauId());
+        if (roster == null
+                || (!roster.contains(currentUserId) && !Objects.equals(roster.getChuPhongId(), currentUserId))) {
             throw new SecurityException("Bạn không ở trong phòng này");
         }
 
-        // 3️⃣ Lấy BattleState hiện tại
-        BattleState state = battleStateManager.get(td.getId());
-        if (state == null || state.getCurrentQuestionIndex() < 0) {
+        // 3️⃣ Câu hỏi hiện tại
+        if (state.getCurrentQuestionIndex() < 0) {
             throw new IllegalStateException("Chưa có câu hỏi nào đang bật");
         }
 
@@ -408,7 +428,7 @@ public class TranDauService implements ITranDauService {
 
         // 4️⃣ Ghi nhận đáp án (atomic)
         String ans = dto.getAnswer().trim().toUpperCase();
-        boolean firstSubmit = state.recordAnswer(idx, currentUserId, ans);
+        boolean firstSubmit = battleStateManager.recordAnswer(state, idx, currentUserId, ans);
         if (!firstSubmit) {
             throw new IllegalStateException("Bạn đã nộp đáp án cho câu này rồi");
         }
@@ -436,7 +456,7 @@ public class TranDauService implements ITranDauService {
         }
 
         // 6.1) Cập nhật combo trong state (nếu có khiên thì coi như đúng để giữ combo)
-        int comboStreak = state.updateCombo(currentUserId, idx, correct || shieldUsed);
+        int comboStreak = battleStateManager.updateCombo(state, currentUserId, idx, correct || shieldUsed);
 
         int basePoints = 0;
         int comboBonus = 0;
@@ -445,7 +465,7 @@ public class TranDauService implements ITranDauService {
 
         if (correct) {
             // a) Điểm cơ bản / speed bonus
-            if (LuatTinhDiem.THUONG_TOC_DO.equalsIgnoreCase(td.getLuatTinhDiem())) {
+            if (LuatTinhDiem.THUONG_TOC_DO.equalsIgnoreCase(state.getLuatTinhDiem())) {
                 long remain = Math.max(0, totalMs - elapsedMs);
                 double ratio = (double) remain / (double) totalMs;
 
@@ -466,7 +486,7 @@ public class TranDauService implements ITranDauService {
 
             // b) Bonus theo combo
             // Bạn có thể chỉnh lại ngưỡng cho hợp game:
-            boolean isRanked = LoaiTranDau.XEP_HANG.equals(td.getLoaiTranDau());
+            boolean isRanked = LoaiTranDau.XEP_HANG.equals(state.getLoaiTranDau());
             if (comboStreak >= 3 && comboStreak <= 4) {
                 comboMultiplier = isRanked ? 1.10 : 1.05;
             } else if (comboStreak >= 5 && comboStreak <= 6) {
@@ -497,38 +517,27 @@ public class TranDauService implements ITranDauService {
         }
 
         // 7️⃣ Cập nhật điểm tổng (trong RAM)
-        int total = state.addScore(currentUserId, gained);
+        int total = battleStateManager.addScore(state, currentUserId, gained);
         battleStateManager.save(state);
 
 
-        // ⭐ 7.1) Cập nhật DB: diem & so_cau_dung của người nộp
-        NguoiDung user = nguoiDungRepository.findById(currentUserId)
-                .orElseThrow(() -> new DataNotFoundException("Người dùng không tồn tại"));
-
-        NguoiChoiTranDau player = nguoiChoiTranDauRepository
-                .findByTranDau_IdAndNguoiDung_Id(td.getId(), user.getId())
-                .orElseThrow(() -> new DataNotFoundException("Bạn chưa tham gia trận"));
+        // ⭐ 7.1) Ghi sau: tra_loi_tran_dau + diem/so_cau_dung được writer nền flush theo batch
+        answerJournal.append(new BattleAnswerJournal.Entry(
+                state.getTranDauId(),
+                currentUserId,
+                q.getId(),
+                ans.charAt(0),
+                correct,
+                (int) elapsedMs,
+                gained,
+                Instant.now()
+        ));
 
-        int cur = Optional.ofNullable(player.getDiem()).orElse(0);
-        player.setDiem(cur + gained);
-        if (correct) {
-            player.setSoCauDung(Optional.ofNullable(player.getSoCauDung()).orElse(0) + 1);
-        }
-        nguoiChoiTranDauRepository.save(player);
-        traLoiTranDauRepository.save(TraLoiTranDau.builder()
-                .tranDau(td)
-                .nguoiDung(user)
-                .cauHoi(cauHoiRepository.getReferenceById(q.getId()))
-                .luaChon(ans.charAt(0))
-                .dungHaySai(correct)
-                .thoiGianMs((int) elapsedMs)
-                .build());
-
-        // 9️⃣ Phát sự kiện WS cập nhật điểm cho người chơi này
-        wsPublisher.publishScoreUpdate(
-                td.getId(),
+        // 9️⃣ Phát sự kiện WS cập nhật điểm (gom theo phòng → SCORE_BATCH)
+        scoreBatchAggregator.offer(
+                state.getTranDauId(),
                 currentUserId,
-                user.getHoTen(),
+                roster.hoTen(currentUserId),
                 correct,
                 gained,
                 total,
@@ -567,6 +576,10 @@ public class TranDauService implements ITranDauService {
 //        System.out.println(">>> [SERVICE] finishBattle CALLED, tranDauId=" + tranDauId
 //                + ", currentUserId=" + currentUserId + ", autoMode=" + autoMode);
 
+        // Ghi nốt câu trả lời còn trong journal TRƯỚC lần đọc DB đầu tiên của transaction
+        // (snapshot REPEATABLE READ được tạo ở SELECT đầu tiên)
+        answerJournal.drain(tranDauId);
+
         TranDau td = tranDauRepository.findById(tranDauId)
                 .orElseThrow(() -> new DataNotFoundException("Trận đấu không tồn tại"));
 
@@ -586,7 +599,7 @@ public class TranDauService implements ITranDauService {
 
         // 2️⃣ Lấy state trong RAM (nếu còn)
         BattleState state = battleStateManager.get(tranDauId);
-        if (state != null && !state.markFinishedOnce()) {
+        if (state != null && !battleStateManager.markFinishedOnce(state)) {
             // Có người khác finish trước rồi
 //            System.out.println("⚠️ [SERVICE] markFinishedOnce = false, có luồng khác đã finish trước");
             return BattleFinishResponse.from(td, state.getDiemNguoiChoi(), null, null, null);
@@ -602,6 +615,7 @@ public class TranDauService implements ITranDauService {
             td.setTrangThai(TrangThaiTranDau.HOAN_THANH);
             td.setKetThucLuc(Instant.now());
             tranDauRepository.save(td);
+            battleScheduler.cancel(tranDauId);
             battleStateManager.remove(tranDauId);
             return BattleFinishResponse.from(td, null, null, null, null);
         }
@@ -687,73 +701,11 @@ public class TranDauService implements ITranDauService {
                 .toList();
 
         lichSuTranDauRepository.saveAll(lichSuList);
-        // Tìm điểm cao nhất
-        int maxScore = players.get(0).getDiem();
-
-        // Tập user thắng (có thể >1 nếu hòa điểm)
-        Set<Long> winnerIds = players.stream()
-                .filter(p -> p.getDiem() == maxScore)
-                .map(p -> p.getNguoiDung().getId())
-                .collect(Collectors.toSet());
-
-        // cập nhật BXH theo best-score + winners
-        // cập nhật BXH VÀ lấy thưởng từng người chơi
-        Map<Long, MatchRewardResponse> rewardMap = updateRankingAfterBattle(td, scoreMap, correctMap, winnerIds);
-
-
-        MatchRewardResponse myReward = rewardMap.get(currentUserId);
-
-        // 🔥 Sau khi cập nhật BXH và thưởng, xử lý thành tích
-        Map<Long, List<AchievementResponse>> achievementMap = new HashMap<>();
-        for (Long uid : rewardMap.keySet()) {
-            List<AchievementResponse> newly = thanhTichService.processAfterBattle(uid);
-            if (!newly.isEmpty()) {
-                achievementMap.put(uid, newly);
-            }
-        }
-
-        // Thành tích mới của user hiện tại (host)
-        List<AchievementResponse> myNewAchievements =
-                achievementMap.getOrDefault(currentUserId, List.of());
-
-        // 📋 Cập nhật tiến độ nhiệm vụ cho tất cả người chơi
-        boolean isRanked = LoaiTranDau.XEP_HANG.equals(td.getLoaiTranDau());
-        for (NguoiChoiTranDau p : players) {
-            Long uid = p.getNguoiDung().getId();
-            int soCauDung = correctMap.getOrDefault(uid, 0);
-            int xepHang = p.getXepHang();
-            boolean isWinner = winnerIds.contains(uid);
-            Integer maxCombo = (state != null) ? state.getMaxComboStreak(uid) : 0;
-
-            try {
-                // Tham gia trận
-                nhiemVuService.onMatchPlayed(uid, isRanked);
-
-                // Trả lời đúng
-                if (soCauDung > 0) {
-                    nhiemVuService.onCorrectAnswer(uid, soCauDung);
-                }
-
-                // Thắng trận
-                if (isWinner) {
-                    nhiemVuService.onMatchWon(uid, isRanked);
-                }
-
-                // Đạt combo
-                if (maxCombo >= 5) {
-                    nhiemVuService.onComboAchieved(uid, maxCombo);
-                }
-
-                // Đạt Top 3
-                if (xepHang <= 3 && players.size() >= 3) {
-                    nhiemVuService.onTop3Achieved(uid);
-                }
-            } catch (Exception e) {
-                System.err.println("⚠️ Lỗi cập nhật nhiệm vụ cho user " + uid + ": " + e.getMessage());
-            }
-        }
+        leaderboardRollup.onHistoryWritten();
 
-//        System.out.println(">>> [SERVICE] Đã lưu lich_su_tran_dau, size=" + lichSuList.size());
+        // XP / vàng / thành tích / nhiệm vụ / xếp hạng toàn cục → settlement chạy sau commit,
+        // kết quả từng người đẩy qua PLAYER_SETTLED (FINISHED không phải chờ)
+        battleSettlementService.enqueue(td.getId());
 
         // 9️⃣ Phát WS FINISHED event
         FinishedEvent.Winner winData = FinishedEvent.Winner.builder()
@@ -772,6 +724,8 @@ public class TranDauService implements ITranDauService {
                         LichSuTranDau::getMaxCombo
                 ));
 
+        // Điểm đang gom phải tới client trước FINISHED (kể cả khi chủ phòng kết thúc tay)
+        scoreBatchAggregator.flush(tranDauId);
         wsPublisher.publishFinished(
                 td.getId(),
                 td.getTenPhong(),
@@ -783,8 +737,6 @@ public class TranDauService implements ITranDauService {
                         .map(p -> {
                             Long uid = p.getNguoiDung().getId();
                             Integer maxCombo = maxComboMap.get(uid);
-                            MatchRewardResponse reward = rewardMap.get(uid);
-                            List<AchievementResponse> newAch = achievementMap.getOrDefault(uid, List.of());
                             return FinishedEvent.Player.builder()
                                     .userId(uid)
                                     .hoTen(p.getNguoiDung().getHoTen())
@@ -793,22 +745,15 @@ public class TranDauService implements ITranDauService {
                                     .soCauDung(p.getSoCauDung())
                                     .xepHang(p.getXepHang())
                                     .maxCombo(maxCombo)   // ⭐ set vào WS
-                                    .xpGained(reward != null ? reward.getXpGained() : 0L)
-                                    .goldGained(reward != null ? reward.getGoldGained() : 0L)
-                                    .levelBefore(reward != null ? reward.getLevelBefore() : null)
-                                    .levelAfter(reward != null ? reward.getLevelAfter() : null)
-                                    .rankTierBefore(reward != null ? reward.getRankTierBefore() : null)
-                                    .rankTierAfter(reward != null ? reward.getRankTierAfter() : null)
-                                    .leveledUp(reward != null ? reward.getLeveledUp() : false)
-                                    .levelUpRewards(reward != null ? reward.getLevelUpRewards() : null)
-                                    .newAchievements(newAch)
                                     .build();
                         })
                         .toList()
         );
 
-        // 🔟 Dọn state trong RAM
+        // 🔟 Dọn state trong RAM + hủy sự kiện hẹn giờ còn treo (nếu host kết thúc sớm)
+        battleScheduler.cancel(tranDauId);
         battleStateManager.remove(tranDauId);
+        battleRosterManager.evict(tranDauId);
 
         // 🔁 Build response REST
         Map<Long, Integer> finalScores = players.stream()
@@ -821,7 +766,8 @@ public class TranDauService implements ITranDauService {
                 .map(NguoiChoiTranDau::getNguoiDung)
                 .toList();
 
-        return BattleFinishResponse.from(td, finalScores, allUsers, myReward, myNewAchievements);
+        // Phần thưởng tới sau qua PLAYER_SETTLED
+        return BattleFinishResponse.from(td, finalScores, allUsers, null, List.of());
     }
 
 
@@ -870,136 +816,6 @@ public class TranDauService implements ITranDauService {
                 .build();
     }
 
-    /**
-     * Cập nhật bảng xếp hạng sau trận đấu và trả về phần thưởng từng người chơi.
-     * Chỉ áp dụng cho trận RANKED.
-     * 
-     * XP/Gold được tính dựa trên SỐ CÂU ĐÚNG thay vì điểm raw để cân bằng
-     * giữa chế độ THUONG và THUONG_TOC_DO.
-     *
-     * @param tranDau     Trận đấu vừa kết thúc
-     * @param scores      Bản đồ điểm số người chơi (userId -> điểm)
-     * @param correctMap  Bản đồ số câu đúng (userId -> số câu đúng)
-     * @param winnerIds   Tập userId của người thắng (có thể nhiều người nếu hòa điểm)
-     * @return Bản đồ userId -> MatchRewardResponse
-     * @throws DataNotFoundException nếu người dùng không tồn tại
-     */
-    private Map<Long, MatchRewardResponse> updateRankingAfterBattle(
-            TranDau tranDau,
-            Map<Long, Integer> scores,
-            Map<Long, Integer> correctMap,
-            Set<Long> winnerIds
-    ) throws DataNotFoundException {
-        Map<Long, MatchRewardResponse> rewardMap = new HashMap<>();
-
-        // Nếu bạn muốn chỉ RANKED mới cộng rank/xp/gold:
-        if (!LoaiTranDau.XEP_HANG.equals(tranDau.getLoaiTranDau())) {
-            return rewardMap; // trận casual không có thưởng (hoặc sau này muốn đổi thì đổi chỗ này)
-        }
-
-        Long boCauHoiId = tranDau.getBoCauHoi().getId();
-        int totalQuestions = tranDau.getBoCauHoi().getSoCauHoi();
-        boolean isSpeedMode = LuatTinhDiem.THUONG_TOC_DO.equalsIgnoreCase(tranDau.getLuatTinhDiem());
-
-        for (Map.Entry<Long, Integer> entry : scores.entrySet()) {
-            Long userId = entry.getKey();
-            int rawScore = entry.getValue() != null ? entry.getValue() : 0;
-            int diemTranNay = Math.max(0, rawScore);
-            int soCauDung = correctMap.getOrDefault(userId, 0);
-            boolean isWinner = winnerIds.contains(userId);
-
-            // --- 1) Thành tích theo bộ câu hỏi (delta điểm rank) ---
-            ThanhTichBoCauHoi thanhTich = thanhTichBoCauHoiRepository
-                    .findByNguoiDung_IdAndBoCauHoi_Id(userId, boCauHoiId)
-                    .orElse(null);
-
-            int delta = 0;
-            if (thanhTich == null) {
-                delta = diemTranNay;
-                thanhTich = ThanhTichBoCauHoi.builder()
-                        .nguoiDung(nguoiDungRepository.getReferenceById(userId))
-                        .boCauHoi(tranDau.getBoCauHoi())
-                        .diemCaoNhat(diemTranNay)
-                        .build();
-            } else if (diemTranNay > thanhTich.getDiemCaoNhat()) {
-                delta = diemTranNay - thanhTich.getDiemCaoNhat();
-                thanhTich.setDiemCaoNhat(diemTranNay);
-            }
-            thanhTichBoCauHoiRepository.save(thanhTich);
-
-            // --- 2) Lấy hoặc tạo BXH ---
-            BangXepHang bxh = bangXepHangRepository.findByNguoiDung_Id(userId)
-                    .orElse(BangXepHang.builder()
-                            .nguoiDung(nguoiDungRepository.getReferenceById(userId))
-                            .tongDiem(0)
-                            .tongTran(0)
-                            .soTranThang(0)
-                            .soTranThua(0)
-                            .level(1)
-                            .tongXp(0L)
-                            .tienVang(0L)
-                            .rankTier(RankTier.DONG)
-                            .build());
-
-            // Snapshot BEFORE
-            int levelBefore = bxh.getLevel() != null ? bxh.getLevel() : 1;
-            RankTier tierBefore = bxh.getRankTier() != null ? bxh.getRankTier() : RankTier.DONG;
-
-            // --- 3) Cập nhật thống kê rank (chỉ RANKED) ---
-            bxh.setTongTran(bxh.getTongTran() + 1);
-
-            if (delta > 0) {
-                bxh.setTongDiem(bxh.getTongDiem() + delta);
-            }
-
-            if (isWinner) {
-                bxh.setSoTranThang(bxh.getSoTranThang() + 1);
-            } else if (diemTranNay > 0) {
-                bxh.setSoTranThua(bxh.getSoTranThua() + 1);
-            }
-
-            // --- 4) Tính XP dựa trên SỐ CÂU ĐÚNG (cân bằng 2 chế độ) ---
-            long gainedXp = bangXepHangService.calculateXpFromMatch(soCauDung, totalQuestions, isWinner, isSpeedMode);
-            
-            // Dùng LevelUpService để xử lý XP, lên cấp và trao phần thưởng
-            LevelUpResponse levelUpResult = levelUpService.addXpAndProcessLevelUp(userId, gainedXp);
-            
-            // Refresh bxh từ DB (vì levelUpService đã update)
-            bxh = bangXepHangRepository.findByNguoiDung_Id(userId).orElse(bxh);
-            int levelAfter = bxh.getLevel() != null ? bxh.getLevel() : 1;
-
-            // --- 5) Tính RankTier & Gold dựa trên SỐ CÂU ĐÚNG ---
-            RankTier tierAfter = bangXepHangService.getRankTier(bxh);
-            bxh.setRankTier(tierAfter);
-
-            long gainedGold = bangXepHangService.calculateGoldFromMatch(soCauDung, isWinner, true, tierAfter, isSpeedMode);
-            long newTotalGold = (bxh.getTienVang() != null ? bxh.getTienVang() : 0L) + gainedGold;
-            bxh.setTienVang(newTotalGold);
-
-            bangXepHangRepository.save(bxh);
-
-            // --- 6) Lưu reward cho user này (bao gồm phần thưởng lên cấp) ---
-            rewardMap.put(userId, MatchRewardResponse.builder()
-                    .xpGained(gainedXp)
-                    .goldGained(gainedGold)
-                    .levelBefore(levelBefore)
-                    .levelAfter(levelAfter)
-                    .rankTierBefore(tierBefore)
-                    .rankTierAfter(tierAfter)
-                    .leveledUp(levelUpResult.isDaLenCap())
-                    .levelUpRewards(levelUpResult.isDaLenCap() ? levelUpResult.getPhanThuong() : null)
-                    .build());
-        }
-
-        bangXepHangRepository.updateAllRankings();
-        
-        // Clear leaderboard cache sau khi cập nhật rankings
-        leaderboardRedisService.clearLeaderboardCache();
-        
-        return rewardMap;
-    }
-
-
     @Override
     public Page<LichSuTranDauResponse> getMyHistory(Long currentUserId, int page, int limit) {
         PageRequest pageable = PageRequest.of(page, limit);
@@ -1116,8 +932,8 @@ public class TranDauService implements ITranDauService {
         }
 
         // Bắt buộc phải là người trong phòng
-        boolean joined = nguoiChoiTranDauRepository
-                .existsByTranDauIdAndNguoiDungId(tranDau.getId(), nguoiDung.getId());
+        BattleRoster roster = battleRosterManager.get(tranDau.getId());
+        boolean joined = roster != null && roster.contains(nguoiDung.getId());
         if (!joined) {
             throw new PermissionDenyException("Bạn chưa tham gia trận đấu này");
         }
@@ -1132,29 +948,57 @@ public class TranDauService implements ITranDauService {
         );
     }
 
+    /**
+     * Broadcast bảng xếp hạng trong trận từ ranking duy trì sẵn trong BattleState (không sort lại).
+     * Mặc định chỉ gửi LEADERBOARD_DELTA; cứ leaderboardFullEvery lần (hoặc khi có người vào / rời)
+     * thì gửi lại toàn bộ LEADERBOARD_UPDATE để client mới / lệch nhịp đồng bộ lại.
+     */
     private void updateAndBroadcastLeaderboard(Long tranDauId, BattleState optionalState) {
+        updateAndBroadcastLeaderboard(tranDauId, optionalState, false);
+    }
+
+    private void updateAndBroadcastLeaderboard(Long tranDauId, BattleState optionalState, boolean forceFull) {
         BattleState state = (optionalState != null)
                 ? optionalState : battleStateManager.get(tranDauId);
         if (state == null) return;
 
-        Map<Long, Integer> scores = state.getDiemNguoiChoi();
-        if (scores.isEmpty()) return;
-
-        List<Long> ids = new ArrayList<>(scores.keySet());
-        Map<Long, String> nameMap = nguoiDungRepository.findAllById(ids).stream()
-                .collect(Collectors.toMap(NguoiDung::getId, NguoiDung::getHoTen));
-
-        AtomicInteger rank = new AtomicInteger(1);
-        List<LeaderboardUpdateEvent.Row> board = scores.entrySet().stream()
-                .sorted(Map.Entry.<Long, Integer>comparingByValue().reversed())
-                .map(e -> LeaderboardUpdateEvent.Row.builder()
-                        .userId(e.getKey())
-                        .hoTen(nameMap.getOrDefault(e.getKey(), "Người chơi"))
-                        .diem(e.getValue())
-                        .xepHang(rank.getAndIncrement()).build())
+        BattleRanking ranking = state.getRanking();
+        int total = ranking.size();
+        if (total == 0) return;
+
+        boolean full = forceFull || ranking.diffsSinceSnapshot() + 1 >= leaderboardFullEvery;
+        List<BattleRanking.Row> rows = full ? ranking.snapshot() : ranking.diff();
+        if (!full && rows.isEmpty()) return;
+
+        // Tên lấy từ roster trong RAM; chỉ hỏi DB cho người đã rời phòng giữa trận (hiếm)
+        BattleRoster roster = battleRosterManager.get(tranDauId);
+        Map<Long, String> nameMap = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (BattleRanking.Row row : rows) {
+            if (roster != null && roster.contains(row.userId())) {
+                nameMap.put(row.userId(), roster.hoTen(row.userId()));
+            } else {
+                missing.add(row.userId());
+            }
+        }
+        if (!missing.isEmpty()) {
+            nguoiDungRepository.findAllById(missing)
+                    .forEach(nd -> nameMap.put(nd.getId(), nd.getHoTen()));
+        }
+
+        List<LeaderboardUpdateEvent.Row> board = rows.stream()
+                .map(r -> LeaderboardUpdateEvent.Row.builder()
+                        .userId(r.userId())
+                        .hoTen(nameMap.getOrDefault(r.userId(), "Người chơi"))
+                        .diem(r.diem())
+                        .xepHang(r.xepHang()).build())
                 .toList();
 
-        wsPublisher.publishLeaderboard(tranDauId, board);
+        if (full) {
+            wsPublisher.publishLeaderboard(tranDauId, board);
+        } else {
+            wsPublisher.publishLeaderboardDelta(tranDauId, board, total);
+        }
     }
 
 
@@ -1347,9 +1191,13 @@ public class TranDauService implements ITranDauService {
             to = Instant.parse(toDate + "T23:59:59Z");
         }
 
-        Page<LichSuTranDau> result = lichSuTranDauRepository.findAllFiltered(
-                keyword, loaiTranDau, boCauHoiId, from, to, pageRequest
-        );
+        Optional<HistoryHits> hits = historyHits(keyword);
+        Page<LichSuTranDau> result = hits.isPresent()
+                ? lichSuTranDauRepository.findAllFilteredByHits(
+                        hits.get().tranDauIds(), hits.get().boCauHoiIds(), hits.get().nguoiDungIds(),
+                        loaiTranDau, boCauHoiId, from, to, pageRequest)
+                : lichSuTranDauRepository.findAllFiltered(
+                        keyword, loaiTranDau, boCauHoiId, from, to, pageRequest);
 
         return result.map(LichSuTranDauResponse::fromEntity);
     }
@@ -1372,7 +1220,13 @@ public class TranDauService implements ITranDauService {
         td.setTrangThai(TrangThaiTranDau.HUY);
         tranDauRepository.save(td);
 
-        // Notify via WebSocket
+        // Gỡ sự kiện hẹn giờ + state trong RAM (nếu còn sót)
+        battleScheduler.cancel(tranDauId);
+        battleStateManager.remove(tranDauId);
+        battleRosterManager.evict(tranDauId);
+
+        // Notify via WebSocket (điểm còn gom gửi trước ROOM_CLOSED)
+        scoreBatchAggregator.flush(tranDauId);
         wsPublisher.sendRoomClosed(tranDauId, "Phòng đã bị đóng bởi Admin");
     }
 
@@ -1396,6 +1250,7 @@ public class TranDauService implements ITranDauService {
                 .orElseThrow(() -> new DataNotFoundException("Người chơi không có trong phòng"));
 
         nguoiChoiTranDauRepository.delete(player);
+        battleRosterManager.removePlayer(tranDauId, userId);
 
         // Notify via WebSocket
         wsPublisher.sendPlayerKicked(tranDauId, userId, "Bạn đã bị kick bởi Admin");
@@ -1467,6 +1322,27 @@ public class TranDauService implements ITranDauService {
         return result;
     }
 
+    /**
+     * ID trận (tên phòng) / bộ câu hỏi (tiêu đề) / người chơi (họ tên, tên đăng nhập) khớp từ khoá
+     */
+    private record HistoryHits(List<Long> tranDauIds, List<Long> boCauHoiIds, List<Long> nguoiDungIds) {
+    }
+
+    /**
+     * Từ khoá lịch sử qua chỉ mục tìm kiếm; không có từ khoá / chỉ mục chưa sẵn sàng → rỗng (lọc LIKE trên DB)
+     */
+    private Optional<HistoryHits> historyHits(String keyword) {
+        if (keyword == null || keyword.isBlank()) return Optional.empty();
+        Optional<List<Long>> tranDauIds = searchIndexService.search(SearchType.TRAN_DAU, keyword, null);
+        Optional<List<Long>> boCauHoiIds = searchIndexService.search(SearchType.BO_CAU_HOI, keyword, null);
+        Optional<List<Long>> nguoiDungIds = searchIndexService.search(SearchType.NGUOI_DUNG, keyword, null);
+        if (tranDauIds.isEmpty() || boCauHoiIds.isEmpty() || nguoiDungIds.isEmpty()) return Optional.empty();
+        return Optional.of(new HistoryHits(
+                ISearchIndexService.orNone(tranDauIds.get()),
+                ISearchIndexService.orNone(boCauHoiIds.get()),
+                ISearchIndexService.orNone(nguoiDungIds.get())));
+    }
+
     @Override
     public byte[] exportHistoryCsv(String keyword, String loaiTranDau, Long boCauHoiId,
                                    String fromDate, String toDate) {
@@ -1481,9 +1357,13 @@ public class TranDauService implements ITranDauService {
         }
 
         // Lấy tất cả dữ liệu (không phân trang)
-        List<LichSuTranDau> allHistories = lichSuTranDauRepository.findAllFilteredList(
-                keyword, loaiTranDau, boCauHoiId, from, to
-        );
+        Optional<HistoryHits> hits = historyHits(keyword);
+        List<LichSuTranDau> allHistories = hits.isPresent()
+                ? lichSuTranDauRepository.findAllFilteredByHitsList(
+                        hits.get().tranDauIds(), hits.get().boCauHoiIds(), hits.get().nguoiDungIds(),
+                        loaiTranDau, boCauHoiId, from, to)
+                : lichSuTranDauRepository.findAllFilteredList(
+                        keyword, loaiTranDau, boCauHoiId, from, to);
 
         StringBuilder csv = new StringBuilder();
         // BOM for UTF-8
@@ -1534,8 +1414,8 @@ public class TranDauService implements ITranDauService {
      */
     public void broadcastItemUsed(Long tranDauId, Long userId,
                                   com.app.backend.responses.SuDungVatPhamResponse response) {
-        NguoiDung user = nguoiDungRepository.findById(userId).orElse(null);
-        String hoTen = user != null ? user.getHoTen() : "Người chơi";
+        BattleRoster roster = battleRosterManager.get(tranDauId);
+        String hoTen = roster != null ? roster.hoTen(userId) : "Người chơi";
 
         Map<String, Object> payload = new HashMap<>();
         payload.put("type", "ITEM_USED");
@@ -1555,26 +1435,26 @@ public class TranDauService implements ITranDauService {
      */
     @Override
     public List<NguoiChoiTrongPhongResponse> getPlayersInRoom(Long tranDauId) throws Exception {
-        TranDau td = tranDauRepository.findById(tranDauId)
-                .orElseThrow(() -> new DataNotFoundException("Trận đấu không tồn tại"));
-
-        List<NguoiChoiTranDau> players = nguoiChoiTranDauRepository.findAllByTranDau_Id(tranDauId);
+        BattleRoster roster = battleRosterManager.get(tranDauId);
+        if (roster == null) {
+            throw new DataNotFoundException("Trận đấu không tồn tại");
+        }
 
         // Lấy ID chủ phòng
-        Long chuPhongId = td.getChuPhong() != null ? td.getChuPhong().getId() : null;
-
-        return players.stream()
-                .map(p -> {
-                    NguoiDung nd = p.getNguoiDung();
-                    return NguoiChoiTrongPhongResponse.builder()
-                            .userId(nd.getId())
-                            .hoTen(nd.getHoTen())
-                            .avatarUrl(nd.getAvatarUrl())
-                            .laChuPhong(nd.getId().equals(chuPhongId))
-                            .daSanSang(true) // có thể thêm logic ready nếu cần
-                            .thamGiaLuc(p.getThamGiaLuc() != null ? p.getThamGiaLuc().toString() : null)
-                            .build();
-                })
+        Long chuPhongId = roster.getChuPhongId();
+        Set<Long> online = presenceService.onlineOf(
+                roster.list().stream().map(BattleRoster.Player::getUserId).toList());
+
+        return roster.list().stream()
+                .map(p -> NguoiChoiTrongPhongResponse.builder()
+                        .userId(p.getUserId())
+                        .hoTen(p.getHoTen())
+                        .avatarUrl(p.getAvatarUrl())
+                        .laChuPhong(p.getUserId().equals(chuPhongId))
+                        .daSanSang(true) // có thể thêm logic ready nếu cần
+                        .thamGiaLuc(p.getThamGiaLuc() != null ? p.getThamGiaLuc().toString() : null)
+                        .trucTuyen(online.contains(p.getUserId()))
+                        .build())
                 .collect(Collectors.toList());
     }
 
@@ -1584,6 +1464,9 @@ public class TranDauService implements ITranDauService {
             BattleState state = battleStateManager.get(tranDauId);
             if (state == null) return;
 
+            // Điểm đang gom phải tới client trước đáp án đúng
+            scoreBatchAggregator.flush(tranDauId);
+
             int idx = state.getCurrentQuestionIndex();
             if (idx >= 0 && idx < state.getDanhSachCauHoi().size()) {
                 CauHoiCacheDTO q = state.getDanhSachCauHoi().get(idx);
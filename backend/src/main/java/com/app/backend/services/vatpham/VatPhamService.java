@@ -1,5 +1,6 @@
 package com.app.backend.services.vatpham;
 
+import com.app.backend.components.VatPhamCatalog;
 import com.app.backend.dtos.MuaVatPhamDTO;
 import com.app.backend.dtos.SuDungVatPhamDTO;
 import com.app.backend.dtos.cache.CauHoiCacheDTO;
@@ -34,6 +35,7 @@ public class VatPhamService implements IVatPhamService {
     private final ITranDauRepository tranDauRepository;
     private final IBangXepHangRepository bangXepHangRepository;
     private final ILichSuMuaVatPhamRepository lichSuMuaVatPhamRepository;
+    private final VatPhamCatalog vatPhamCatalog;
 
     // Giới hạn mua vật phẩm Epic/Legendary mỗi tuần
     private static final int MAX_EPIC_PER_WEEK = 2;
@@ -180,22 +182,20 @@ public class VatPhamService implements IVatPhamService {
         inventory.setSuDungLuc(LocalDateTime.now());
         IVatPhamNguoiDungRepository.save(inventory);
 
-        // Ghi lịch sử
-        TranDau tranDau = tranDauRepository.findById(dto.getTranDauId()).orElse(null);
-        NguoiDung user = nguoiDungRepository.findById(userId).orElse(null);
+        // Ghi lịch sử (trận + người chơi đã được xác thực qua BattleState → chỉ cần tham chiếu, không SELECT lại)
+        TranDau tranDau = tranDauRepository.getReferenceById(dto.getTranDauId());
+        NguoiDung user = nguoiDungRepository.getReferenceById(userId);
 
-        if (tranDau != null && user != null) {
-            SuDungVatPhamTranDau lichSu = SuDungVatPhamTranDau.builder()
-                    .tranDau(tranDau)
-                    .nguoiDung(user)
-                    .vatPham(vatPham)
-                    .loaiVatPham(vatPham.getLoai())
-                    .cauHoiIndex(dto.getCauHoiIndex())
-                    .suDungLuc(LocalDateTime.now())
-                    .ketQua(hieuUng.toString())
-                    .build();
-            suDungVatPhamTranDauRepository.save(lichSu);
-        }
+        SuDungVatPhamTranDau lichSu = SuDungVatPhamTranDau.builder()
+                .tranDau(tranDau)
+                .nguoiDung(user)
+                .vatPham(vatPham)
+                .loaiVatPham(vatPham.getLoai())
+                .cauHoiIndex(dto.getCauHoiIndex())
+                .suDungLuc(LocalDateTime.now())
+                .ketQua(hieuUng.toString())
+                .build();
+        suDungVatPhamTranDauRepository.save(lichSu);
 
         log.info("User {} used item {} in battle {}", userId, vatPham.getTen(), dto.getTranDauId());
 
@@ -434,6 +434,7 @@ public class VatPhamService implements IVatPhamService {
         );
 
         vatPhamRepository.saveAll(defaults);
+        vatPhamCatalog.invalidate();
     }
 
     private VatPhamInventoryResponse toInventoryResponse(VatPhamNguoiDung inv) {
@@ -532,7 +533,7 @@ public class VatPhamService implements IVatPhamService {
         NguoiDung user = nguoiDungRepository.findById(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy người dùng"));
 
-        BangXepHang bxh = bangXepHangRepository.findByNguoiDungId(userId)
+        BangXepHang bxh = bangXepHangRepository.lockByNguoiDungId(userId)
                 .orElseThrow(() -> new DataNotFoundException("Không tìm thấy thông tin xếp hạng"));
 
         Long userGold = bxh.getTienVang() != null ? bxh.getTienVang() : 0L;
@@ -0,0 +1,55 @@
+package com.app.backend.utils;
+
+import java.time.*;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Khung thời gian của bảng xếp hạng WEEK / MONTH: tuần ISO (thứ Hai → Chủ nhật) và tháng dương lịch,
+ * tính theo giờ Việt Nam. Dùng chung cho ZSET leaderboard (tên bucket) và truy vấn DB dự phòng (mốc bắt đầu).
+ */
+public final class LeaderboardPeriod {
+
+    public static final ZoneId ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+
+    private LeaderboardPeriod() {
+        // Utility class - không cho khởi tạo
+    }
+
+    /**
+     * Ví dụ: 2026-W42
+     */
+    public static String weekId(Instant at) {
+        ZonedDateTime t = at.atZone(ZONE);
+        return String.format("%d-W%02d", t.get(IsoFields.WEEK_BASED_YEAR), t.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+    }
+
+    /**
+     * Ví dụ: 2026-10
+     */
+    public static String monthId(Instant at) {
+        ZonedDateTime t = at.atZone(ZONE);
+        return String.format("%d-%02d", t.getYear(), t.getMonthValue());
+    }
+
+    /**
+     * Ngày (giờ Việt Nam) của 1 thời điểm – khoá bucket rollup theo ngày
+     */
+    public static LocalDate localDate(Instant at) {
+        return at.atZone(ZONE).toLocalDate();
+    }
+
+    public static Instant weekStart(Instant at) {
+        return at.atZone(ZONE).toLocalDate()
+                .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                .atStartOfDay(ZONE)
+                .toInstant();
+    }
+
+    public static Instant monthStart(Instant at) {
+        return at.atZone(ZONE).toLocalDate()
+                .withDayOfMonth(1)
+                .atStartOfDay(ZONE)
+                .toInstant();
+    }
+}
@@ -5,6 +5,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Arrays;
+
 /**
  * Utility class thống nhất tính toán XP và Level
  * 
@@ -15,6 +17,9 @@ import lombok.NoArgsConstructor;
  * - Level 25: 45,000 XP
  * - Level 50: 183,750 XP
  * - Level 100: 742,500 XP
+ * <p>
+ * Bảng XP tích lũy theo level được dựng 1 lần khi nạp class (bất biến, dùng chung mọi luồng):
+ * tra level = tìm nhị phân trên bảng (không sqrt / floating point), XP theo level = đọc mảng.
  */
 public final class XpCalculator {
 
@@ -24,6 +29,25 @@ public final class XpCalculator {
     // Level tối đa
     public static final int MAX_LEVEL = 100;
 
+    /**
+     * CUMULATIVE_XP[level] = tổng XP để đạt level, với level 1..MAX_LEVEL + 1
+     * (level MAX_LEVEL + 1 để computeLevelInfo tính được tiến độ ở level cuối).
+     * Phần tử 0 trùng level 1 (0 XP) cho binarySearch.
+     */
+    private static final long[] CUMULATIVE_XP = buildCumulativeXp();
+
+    private static long[] buildCumulativeXp() {
+        long[] table = new long[MAX_LEVEL + 2];
+        for (int level = 1; level < table.length; level++) {
+            table[level] = formulaXp(level);
+        }
+        return table;
+    }
+
+    private static long formulaXp(int level) {
+        return (long) level * (level - 1) * DIFFICULTY_MULTIPLIER;
+    }
+
     private XpCalculator() {
         // Utility class - không cho khởi tạo
     }
@@ -35,7 +59,8 @@ public final class XpCalculator {
      */
     public static long xpRequiredForLevel(int level) {
         if (level <= 1) return 0;
-        return (long) level * (level - 1) * DIFFICULTY_MULTIPLIER;
+        if (level < CUMULATIVE_XP.length) return CUMULATIVE_XP[level];
+        return formulaXp(level);
     }
 
     /**
@@ -57,12 +82,10 @@ public final class XpCalculator {
      */
     public static int calculateLevel(long totalXp) {
         if (totalXp <= 0) return 1;
-        // Từ công thức: XP = level * (level - 1) * 75
-        // level^2 - level - XP/75 = 0
-        // level = (1 + sqrt(1 + 4*XP/75)) / 2
-        double level = (1 + Math.sqrt(1 + (4.0 * totalXp) / DIFFICULTY_MULTIPLIER)) / 2.0;
-        int calculatedLevel = Math.max(1, (int) Math.floor(level));
-        return Math.min(calculatedLevel, MAX_LEVEL);
+        if (totalXp >= CUMULATIVE_XP[MAX_LEVEL]) return MAX_LEVEL;
+        // Level cao nhất có CUMULATIVE_XP[level] <= totalXp
+        int idx = Arrays.binarySearch(CUMULATIVE_XP, 1, MAX_LEVEL + 1, totalXp);
+        return idx >= 0 ? idx : -idx - 2;
     }
 
     /**
@@ -0,0 +1,76 @@
+package com.app.backend.components;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class BattleAnswerJournalTest {
+
+    private static final Instant T0 = Instant.parse("2025-01-01T00:00:00Z");
+
+    private static BattleAnswerJournal.Entry entry(long userId, long cauHoiId, boolean correct, int gained) {
+        return new BattleAnswerJournal.Entry(9L, userId, cauHoiId, 'A', correct, 1200, gained, T0);
+    }
+
+    @Test
+    void duplicateRowsFromRetryAddNoPoints() {
+        List<BattleAnswerJournal.Entry> batch = List.of(
+                entry(1L, 100L, true, 50),
+                entry(1L, 101L, true, 70),   // đã ghi ở lần commit mơ hồ trước
+                entry(2L, 100L, false, 0));
+
+        Map<List<Long>, int[]> deltas = BattleAnswerJournal.insertedDeltas(batch, new int[][]{{1, 0, 1}});
+
+        assertThat(deltas).containsOnlyKeys(List.of(9L, 1L), List.of(9L, 2L));
+        assertThat(deltas.get(List.of(9L, 1L))).containsExactly(50, 1);
+        assertThat(deltas.get(List.of(9L, 2L))).containsExactly(0, 0);
+    }
+
+    @Test
+    void allDuplicatesProduceNoUpdate() {
+        List<BattleAnswerJournal.Entry> batch = List.of(entry(1L, 100L, true, 50), entry(1L, 101L, true, 70));
+
+        assertThat(BattleAnswerJournal.insertedDeltas(batch, new int[][]{{0}, {0}})).isEmpty();
+    }
+
+    @Test
+    void unknownCountIsTreatedAsInsertedAcrossChunks() {
+        List<BattleAnswerJournal.Entry> batch = List.of(entry(1L, 100L, true, 50), entry(1L, 101L, true, 70));
+
+        Map<List<Long>, int[]> deltas =
+                BattleAnswerJournal.insertedDeltas(batch, new int[][]{{1}, {Statement.SUCCESS_NO_INFO}});
+
+        assertThat(deltas.get(List.of(9L, 1L))).containsExactly(120, 2);
+    }
+
+    @Test
+    void failedWriteLeavesRowsInBufferUntilCommitted() {
+        InMemoryBattleJournalBuffer buffer = new InMemoryBattleJournalBuffer();
+        TransactionTemplate tx = mock(TransactionTemplate.class);
+        BattleAnswerJournal journal = new BattleAnswerJournal(buffer, mock(JdbcTemplate.class), tx,
+                mock(ThreadPoolTaskScheduler.class), Runnable::run);
+        journal.append(entry(1L, 100L, true, 50));
+        journal.append(entry(2L, 100L, false, 0));
+
+        doThrow(new IllegalStateException("db down")).when(tx).executeWithoutResult(any());
+        journal.flushAll();
+        assertThat(journal.pendingCount()).isEqualTo(2);
+        assertThatThrownBy(() -> journal.drain(9L)).isInstanceOf(IllegalStateException.class);
+        assertThat(journal.pendingCount()).isEqualTo(2);
+
+        doNothing().when(tx).executeWithoutResult(any());
+        journal.drain(9L);
+        assertThat(journal.pendingCount()).isZero();
+    }
+}
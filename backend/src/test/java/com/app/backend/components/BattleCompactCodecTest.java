@@ -0,0 +1,194 @@
+package com.app.backend.components;
+
+import com.app.backend.responses.websocket.LeaderboardUpdateEvent;
+import com.app.backend.responses.websocket.NewQuestionEvent;
+import com.app.backend.responses.websocket.ScoreBatchEvent;
+import com.app.backend.responses.websocket.ScoreUpdateEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Mã hoá → JSON trên dây → giải mã lại theo schema vị trí, so với sự kiện gốc
+ */
+class BattleCompactCodecTest {
+
+    private static final Instant AT = Instant.parse("2025-03-01T10:15:30.123Z");
+
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final BattleCompactCodec codec = new BattleCompactCodec(mapper);
+
+    @Test
+    void scoreUpdateRoundTrip() throws Exception {
+        ScoreUpdateEvent event = score(7L, "Lan", true, 120);
+        event.setTranDauId(42L);
+
+        JsonNode wire = wire(codec.encode(event));
+        assertThat(wire.get("t").asText()).isEqualTo("SU");
+
+        JsonNode d = wire.get("d");
+        assertThat(d.get(0).asLong()).isEqualTo(42L);
+        assertThat(decodeScore(d, 1)).isEqualTo(withoutRoom(event));
+    }
+
+    @Test
+    void scoreBatchRoundTrip() throws Exception {
+        List<ScoreUpdateEvent> updates = List.of(score(1L, "An", true, 90), score(2L, null, false, 0));
+        ScoreBatchEvent batch = ScoreBatchEvent.builder().type("SCORE_BATCH").tranDauId(42L).updates(updates).build();
+
+        JsonNode wire = wire(codec.encode(batch));
+        assertThat(wire.get("t").asText()).isEqualTo("SB");
+        assertThat(wire.get("d").get(0).asLong()).isEqualTo(42L);
+
+        List<ScoreUpdateEvent> decoded = new ArrayList<>();
+        wire.get("r").forEach(row -> decoded.add(decodeScore(row, 0)));
+        assertThat(decoded).containsExactlyElementsOf(updates.stream().map(this::withoutRoom).toList());
+    }
+
+    @Test
+    void newQuestionRoundTrip() throws Exception {
+        NewQuestionEvent.QuestionView q = NewQuestionEvent.QuestionView.builder()
+                .id(99L).noiDung("2 + 2 = ?").loaiNoiDung("VAN_BAN").duongDanTep(null)
+                .luaChonA("3").luaChonB("4").luaChonC("5").luaChonD("22").build();
+        NewQuestionEvent event = NewQuestionEvent.builder()
+                .type("NEW_QUESTION").tranDauId(42L).questionIndex(3).question(q)
+                .timestamp(AT).thoiGianCauGiay(15).build();
+
+        JsonNode wire = wire(codec.encode(event));
+        assertThat(wire.get("t").asText()).isEqualTo("NQ");
+
+        JsonNode d = wire.get("d");
+        JsonNode qd = d.get(4);
+        NewQuestionEvent decoded = NewQuestionEvent.builder()
+                .type("NEW_QUESTION")
+                .tranDauId(d.get(0).asLong())
+                .questionIndex(d.get(1).asInt())
+                .thoiGianCauGiay(d.get(2).asInt())
+                .timestamp(Instant.ofEpochMilli(d.get(3).asLong()))
+                .question(NewQuestionEvent.QuestionView.builder()
+                        .id(qd.get(0).asLong())
+                        .noiDung(text(qd.get(1)))
+                        .loaiNoiDung(text(qd.get(2)))
+                        .duongDanTep(text(qd.get(3)))
+                        .luaChonA(text(qd.get(4)))
+                        .luaChonB(text(qd.get(5)))
+                        .luaChonC(text(qd.get(6)))
+                        .luaChonD(text(qd.get(7)))
+                        .build())
+                .build();
+        assertThat(decoded).isEqualTo(event);
+    }
+
+    @Test
+    void leaderboardAndDeltaRoundTrip() throws Exception {
+        List<LeaderboardUpdateEvent.Row> rows = List.of(
+                LeaderboardUpdateEvent.Row.builder().userId(3L).hoTen("Bình").diem(300).xepHang(1).build(),
+                LeaderboardUpdateEvent.Row.builder().userId(8L).hoTen("Chi").diem(150).xepHang(2).build());
+
+        for (String type : List.of("LEADERBOARD_UPDATE", "LEADERBOARD_DELTA")) {
+            LeaderboardUpdateEvent event = LeaderboardUpdateEvent.builder()
+                    .type(type).tranDauId(42L).players(rows).tongNguoiChoi(5).build();
+
+            JsonNode wire = wire(codec.encode(event));
+            assertThat(wire.get("t").asText()).isEqualTo(type.endsWith("DELTA") ? "LD" : "LB");
+
+            List<LeaderboardUpdateEvent.Row> decoded = new ArrayList<>();
+            wire.get("r").forEach(r -> decoded.add(LeaderboardUpdateEvent.Row.builder()
+                    .userId(r.get(0).asLong()).hoTen(text(r.get(1))).diem(r.get(2).asInt()).xepHang(r.get(3).asInt())
+                    .build()));
+            LeaderboardUpdateEvent back = LeaderboardUpdateEvent.builder()
+                    .type(type)
+                    .tranDauId(wire.get("d").get(0).asLong())
+                    .tongNguoiChoi(wire.get("d").get(1).asInt())
+                    .players(decoded)
+                    .build();
+            assertThat(back).isEqualTo(event);
+        }
+    }
+
+    @Test
+    void otherEventsDropNullsAndBecomeColumnar() throws Exception {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("user_id", 1);
+        first.put("diem", 500);
+        first.put("max_combo", null);
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("user_id", 2);
+        second.put("diem", 200);
+        second.put("max_combo", 3);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("type", "FINISHED");
+        payload.put("winner", null);
+        payload.put("leaderboard", List.of(first, second));
+
+        JsonNode wire = wire(codec.encode(payload));
+        assertThat(wire.has("winner")).isFalse();
+
+        JsonNode table = wire.get("leaderboard");
+        List<String> cols = new ArrayList<>();
+        table.get("c").forEach(c -> cols.add(c.asText()));
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (JsonNode r : table.get("r")) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 0; i < cols.size(); i++) {
+                if (!r.get(i).isNull()) row.put(cols.get(i), r.get(i).asInt());
+            }
+            rows.add(row);
+        }
+        assertThat(rows).containsExactly(
+                Map.of("user_id", 1, "diem", 500),
+                Map.of("user_id", 2, "diem", 200, "max_combo", 3));
+    }
+
+    private JsonNode wire(Object encoded) throws Exception {
+        return mapper.readTree(mapper.writeValueAsString(encoded));
+    }
+
+    private ScoreUpdateEvent score(Long userId, String hoTen, boolean correct, int gained) {
+        return ScoreUpdateEvent.builder()
+                .type("SCORE_UPDATE").userId(userId).hoTen(hoTen).correct(correct)
+                .gainedPoints(gained).totalPoints(gained + 400).questionIndex(4)
+                .comboStreak(correct ? 3 : 0).comboBonus(correct ? 20 : 0).comboMultiplier(correct ? 1.5 : 1.0)
+                .timestamp(AT).build();
+    }
+
+    private ScoreUpdateEvent withoutRoom(ScoreUpdateEvent e) {
+        return ScoreUpdateEvent.builder()
+                .type(e.getType()).userId(e.getUserId()).hoTen(e.getHoTen()).correct(e.isCorrect())
+                .gainedPoints(e.getGainedPoints()).totalPoints(e.getTotalPoints()).questionIndex(e.getQuestionIndex())
+                .comboStreak(e.getComboStreak()).comboBonus(e.getComboBonus()).comboMultiplier(e.getComboMultiplier())
+                .timestamp(e.getTimestamp()).build();
+    }
+
+    /**
+     * [userId,hoTen,correct,gained,total,questionIndex,comboStreak,comboBonus,comboMultiplier,timestampMs] từ vị trí start
+     */
+    private ScoreUpdateEvent decodeScore(JsonNode d, int start) {
+        return ScoreUpdateEvent.builder()
+                .type("SCORE_UPDATE")
+                .userId(d.get(start).asLong())
+                .hoTen(text(d.get(start + 1)))
+                .correct(d.get(start + 2).asInt() == 1)
+                .gainedPoints(d.get(start + 3).asInt())
+                .totalPoints(d.get(start + 4).asInt())
+                .questionIndex(d.get(start + 5).asInt())
+                .comboStreak(d.get(start + 6).asInt())
+                .comboBonus(d.get(start + 7).asInt())
+                .comboMultiplier(d.get(start + 8).asDouble())
+                .timestamp(Instant.ofEpochMilli(d.get(start + 9).asLong()))
+                .build();
+    }
+
+    private static String text(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
+}
@@ -0,0 +1,80 @@
+package com.app.backend.components;
+
+import com.app.backend.models.BattleRoster;
+import com.app.backend.models.NguoiDung;
+import com.app.backend.models.constant.TrangThaiTranDau;
+import com.app.backend.repositories.IBattleRosterHeaderProjection;
+import com.app.backend.repositories.INguoiChoiTranDauRepository;
+import com.app.backend.repositories.ITranDauRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class BattleRosterManagerTest {
+
+    private static final long TRAN_DAU = 9L;
+    private static final String CHANNEL = "cache:battle_roster:invalidate";
+
+    private final INguoiChoiTranDauRepository nguoiChoiRepository = mock(INguoiChoiTranDauRepository.class);
+    private final ITranDauRepository tranDauRepository = mock(ITranDauRepository.class);
+    private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+    private final BattleRosterManager manager = new BattleRosterManager(nguoiChoiRepository, tranDauRepository,
+            redis, mock(RedisMessageListenerContainer.class));
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(manager, "maxSize", 100L);
+        ReflectionTestUtils.setField(manager, "expireAfterAccessMs", 60000L);
+        ReflectionTestUtils.setField(manager, "invalidationChannel", CHANNEL);
+        manager.init();
+
+        IBattleRosterHeaderProjection header = mock(IBattleRosterHeaderProjection.class);
+        when(header.getChuPhongId()).thenReturn(1L);
+        when(header.getTrangThai()).thenReturn(TrangThaiTranDau.CHO);
+        when(tranDauRepository.findRosterHeaderById(TRAN_DAU)).thenReturn(Optional.of(header));
+        when(nguoiChoiRepository.findAllWithNguoiDungByTranDauId(TRAN_DAU)).thenReturn(List.of());
+    }
+
+    private static DefaultMessage message(String payload) {
+        return new DefaultMessage(CHANNEL.getBytes(StandardCharsets.UTF_8), payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void changePublishesAndOwnEchoKeepsLocalCopy() {
+        manager.get(TRAN_DAU);
+        manager.addPlayer(TRAN_DAU, NguoiDung.builder().id(2L).hoTen("Binh").build(), Instant.now());
+
+        ArgumentCaptor<String> payload = ArgumentCaptor.forClass(String.class);
+        verify(redis).convertAndSend(eq(CHANNEL), payload.capture());
+        assertThat(payload.getValue()).endsWith("|" + TRAN_DAU);
+
+        // Tin của chính node này quay về: không bỏ bản đã cập nhật, không đọc lại DB
+        manager.onMessage(message(payload.getValue()), null);
+        BattleRoster roster = manager.get(TRAN_DAU);
+        assertThat(roster.getPlayers()).containsOnlyKeys(2L);
+        verify(tranDauRepository, times(1)).findRosterHeaderById(TRAN_DAU);
+    }
+
+    @Test
+    void changeOnAnotherNodeEvictsLocalCopy() {
+        manager.get(TRAN_DAU);
+
+        manager.onMessage(message("other-node|" + TRAN_DAU), null);
+        manager.get(TRAN_DAU);
+
+        verify(tranDauRepository, times(2)).findRosterHeaderById(TRAN_DAU);
+    }
+}
@@ -0,0 +1,177 @@
+package com.app.backend.components;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GlobalRankIndexTest {
+
+    private record Row(int id, Integer tongDiem, Integer soTranThang, Integer tongTran) {
+        double score() {
+            return GlobalRankIndex.score(tongDiem, soTranThang, tongTran);
+        }
+    }
+
+    /**
+     * Thứ tự của câu cũ: RANK() OVER (ORDER BY tong_diem DESC, so_tran_thang DESC, tong_tran ASC)
+     */
+    private static final Comparator<Row> SQL_ORDER = Comparator
+            .comparing(Row::tongDiem, Comparator.reverseOrder())
+            .thenComparing(Row::soTranThang, Comparator.reverseOrder())
+            .thenComparing(Row::tongTran);
+
+    /**
+     * RANK() như SQL: hoà (cả 3 tiêu chí) → cùng hạng, hạng kế tiếp nhảy cóc
+     */
+    private static Map<Integer, Integer> sqlRanks(List<Row> rows) {
+        List<Row> sorted = new ArrayList<>(rows);
+        sorted.sort(SQL_ORDER);
+        Map<Integer, Integer> ranks = new HashMap<>();
+        int rank = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i == 0 || SQL_ORDER.compare(sorted.get(i - 1), sorted.get(i)) != 0) rank = i + 1;
+            ranks.put(sorted.get(i).id(), rank);
+        }
+        return ranks;
+    }
+
+    /**
+     * Hạng theo chỉ mục: số người có score lớn hơn + 1 (như ranksOf)
+     */
+    private static Map<Integer, Integer> indexRanks(List<Row> rows) {
+        Map<Integer, Integer> ranks = new HashMap<>();
+        for (Row r : rows) {
+            double s = r.score();
+            int greater = (int) rows.stream().filter(o -> o.score() > s).count();
+            ranks.put(r.id(), greater + 1);
+        }
+        return ranks;
+    }
+
+    @Test
+    void ranksMatchSqlRankOnRandomRows() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<Row> rows = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                // Miền giá trị hẹp để có nhiều dòng hoà từng phần / hoà hoàn toàn
+                int tongTran = random.nextInt(20);
+                int thang = random.nextInt(tongTran + 1);
+                rows.add(new Row(i, random.nextInt(10) * 100, thang, tongTran));
+            }
+            assertThat(indexRanks(rows)).isEqualTo(sqlRanks(rows));
+        }
+    }
+
+    @Test
+    void ranksMatchSqlRankAtBitLimits() {
+        int diemMax = (1 << 25) - 1;
+        int countMax = (1 << 14) - 1;
+        List<Row> rows = List.of(
+                new Row(1, diemMax, countMax, 0),
+                new Row(2, diemMax, countMax, countMax),
+                new Row(3, diemMax, 0, 0),
+                new Row(4, diemMax - 1, countMax, 0),
+                new Row(5, 0, countMax, 0),
+                new Row(6, 0, 0, 0),
+                new Row(7, 0, 0, countMax),
+                new Row(8, 1, 0, countMax));
+        assertThat(indexRanks(rows)).isEqualTo(sqlRanks(rows));
+    }
+
+    @Test
+    void eachCriterionDominatesTheNext() {
+        // 1 điểm hơn thắng mọi chênh lệch số trận thắng / tổng trận
+        assertThat(GlobalRankIndex.score(1, 0, (1 << 14) - 1))
+                .isGreaterThan(GlobalRankIndex.score(0, (1 << 14) - 1, 0));
+        // 1 trận thắng hơn thắng mọi chênh lệch tổng trận
+        assertThat(GlobalRankIndex.score(5, 1, (1 << 14) - 1))
+                .isGreaterThan(GlobalRankIndex.score(5, 0, 0));
+        // Ít trận hơn → xếp trên
+        assertThat(GlobalRankIndex.score(5, 1, 2)).isGreaterThan(GlobalRankIndex.score(5, 1, 3));
+    }
+
+    @Test
+    void scoreIsExactInDoubleAndDistinctForDistinctTuples() {
+        double top = GlobalRankIndex.score((1 << 25) - 1, (1 << 14) - 1, 0);
+        assertThat(top).isLessThan(Math.pow(2, 53));
+        assertThat((long) top).isEqualTo((1L << 53) - 1);
+
+        assertThat(GlobalRankIndex.score(7, 3, 4)).isEqualTo(GlobalRankIndex.score(7, 3, 4));
+        assertThat(GlobalRankIndex.score(7, 3, 4)).isNotEqualTo(GlobalRankIndex.score(7, 3, 5));
+        assertThat(GlobalRankIndex.score(7, 3, 4)).isNotEqualTo(GlobalRankIndex.score(7, 4, 4));
+    }
+
+    @Test
+    void nullAndNegativeCountAsZeroAndOverflowIsClamped() {
+        assertThat(GlobalRankIndex.score(null, null, null)).isEqualTo(GlobalRankIndex.score(0, 0, 0));
+        assertThat(GlobalRankIndex.score(-5, -1, -1)).isEqualTo(GlobalRankIndex.score(0, 0, 0));
+
+        // Vượt giới hạn bit → kẹp về giá trị tối đa, không tràn sang tiêu chí khác
+        assertThat(GlobalRankIndex.score(Integer.MAX_VALUE, 0, 0))
+                .isEqualTo(GlobalRankIndex.score((1 << 25) - 1, 0, 0));
+        assertThat(GlobalRankIndex.score(3, 1 << 20, 0))
+                .isEqualTo(GlobalRankIndex.score(3, (1 << 14) - 1, 0));
+        assertThat(GlobalRankIndex.score(3, 0, 1 << 20))
+                .isEqualTo(GlobalRankIndex.score(3, 0, (1 << 14) - 1))
+                .isLessThan(GlobalRankIndex.score(3, 0, 0))
+                .isGreaterThan(GlobalRankIndex.score(2, (1 << 14) - 1, 0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushOnlyRewritesTheMovedScoreRange() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        ZSetOperations<String, String> zset = mock(ZSetOperations.class);
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        when(redis.opsForValue()).thenReturn(values);
+        when(redis.opsForZSet()).thenReturn(zset);
+        when(redis.execute(any(), eq(List.of("rank:global:dirty")))).thenReturn(List.of("10", "20"));
+        when(values.setIfAbsent(eq("rank:global:flush-lock"), anyString(), any(Duration.class))).thenReturn(true);
+        // 2 người trên khoảng [10, 20]
+        when(zset.count("rank:global", 21, Double.POSITIVE_INFINITY)).thenReturn(2L);
+        Set<ZSetOperations.TypedTuple<String>> page = new LinkedHashSet<>(List.of(
+                new DefaultTypedTuple<>("5", 20.0),
+                new DefaultTypedTuple<>("6", 15.0),
+                new DefaultTypedTuple<>("7", 15.0)));
+        when(zset.reverseRangeByScoreWithScores("rank:global", 10, 20, 0, 1000)).thenReturn(page);
+        when(zset.reverseRangeByScoreWithScores("rank:global", 10, 20, 1000, 1000)).thenReturn(Set.of());
+        when(jdbc.batchUpdate(anyString(), anyCollection(), anyInt(), any())).thenReturn(new int[][]{{1, 1, 0}});
+
+        new GlobalRankIndex(redis, jdbc, mock(ThreadPoolTaskScheduler.class), Runnable::run).flushIfDirty();
+
+        ArgumentCaptor<Collection<long[]>> rows = ArgumentCaptor.forClass(Collection.class);
+        verify(jdbc).batchUpdate(anyString(), rows.capture(), anyInt(), any());
+        assertThat(rows.getValue()).containsExactly(new long[]{5, 3}, new long[]{6, 4}, new long[]{7, 4});
+        verify(zset, never()).reverseRangeWithScores(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    void busyFlushLockPutsTheRangeBack() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(values);
+        when(redis.execute(any(), eq(List.of("rank:global:dirty")))).thenReturn(List.of("10", "20"));
+        when(values.setIfAbsent(eq("rank:global:flush-lock"), anyString(), any(Duration.class))).thenReturn(false);
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+
+        new GlobalRankIndex(redis, jdbc, mock(ThreadPoolTaskScheduler.class), Runnable::run).flushIfDirty();
+
+        verify(redis).execute(any(), eq(List.of("rank:global:dirty")), eq("10"), eq("20"));
+        verifyNoInteractions(jdbc);
+    }
+}
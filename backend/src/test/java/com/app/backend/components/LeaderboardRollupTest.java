@@ -0,0 +1,179 @@
+package com.app.backend.components;
+
+import com.app.backend.repositories.ILeaderboardAggregateProjection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LeaderboardRollupTest {
+
+    /**
+     * 1 dòng lich_su_tran_dau đã commit
+     */
+    private record HistoryRow(long id, long userId, long diem, int xepHang, Instant at) {
+    }
+
+    /**
+     * Bảng lich_su_tran_dau giả: chỉ thấy các dòng đã "commit", đọc theo id > cursor như TAIL_SQL
+     */
+    private static class FakeJdbc extends JdbcTemplate {
+        final TreeMap<Long, HistoryRow> committed = new TreeMap<>();
+
+        void commit(HistoryRow row) {
+            committed.put(row.id(), row);
+        }
+
+        @Override
+        public <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+            // FIRST_ID_SQL: bắt đầu từ đầu bảng
+            return requiredType.cast(0L);
+        }
+
+        @Override
+        public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            long cursor = ((Number) args[0]).longValue();
+            int limit = ((Number) args[1]).intValue();
+            List<T> out = new ArrayList<>();
+            try {
+                for (HistoryRow r : committed.tailMap(cursor, false).values()) {
+                    if (out.size() >= limit) break;
+                    out.add(rowMapper.mapRow(resultSet(r), out.size()));
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return out;
+        }
+
+        private static ResultSet resultSet(HistoryRow r) throws SQLException {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getLong(1)).thenReturn(r.id());
+            when(rs.getLong(2)).thenReturn(r.userId());
+            when(rs.getLong(3)).thenReturn(100L);
+            when(rs.getLong(4)).thenReturn(10L);
+            when(rs.wasNull()).thenReturn(false);
+            when(rs.getLong(5)).thenReturn(r.diem());
+            when(rs.getInt(6)).thenReturn(r.xepHang());
+            when(rs.getTimestamp(7)).thenReturn(Timestamp.from(r.at()));
+            return rs;
+        }
+    }
+
+    private FakeJdbc jdbc;
+    private LeaderboardRollup rollup;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new FakeJdbc();
+        rollup = new LeaderboardRollup(jdbc, null, Runnable::run);
+        ReflectionTestUtils.setField(rollup, "enabled", true);
+        ReflectionTestUtils.setField(rollup, "retentionDays", 40);
+        ReflectionTestUtils.setField(rollup, "settleLagMs", 60_000L);
+        now = Instant.now();
+    }
+
+    private void catchUp() {
+        ReflectionTestUtils.invokeMethod(rollup, "catchUp");
+    }
+
+    private long watermark() {
+        return (long) ReflectionTestUtils.getField(rollup, "watermark");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Long> appliedAbove() {
+        return (Set<Long>) ReflectionTestUtils.getField(rollup, "appliedAbove");
+    }
+
+    /**
+     * userId → [tổng điểm, số trận, số trận thắng] trên toàn khoảng đang giữ
+     */
+    private Map<Long, long[]> totals() {
+        Page<ILeaderboardAggregateProjection> page =
+                rollup.aggregate(now.minus(Duration.ofDays(7)), null, null, PageRequest.of(0, 100));
+        assertThat(page).isNotNull();
+        Map<Long, long[]> out = new HashMap<>();
+        for (ILeaderboardAggregateProjection p : page.getContent()) {
+            out.put(p.getUserId(), new long[]{p.getTongDiem(), p.getTongTran(), p.getSoTranThang()});
+        }
+        return out;
+    }
+
+    @Test
+    void lateCommitWithSmallerIdIsAppliedOnceAndNewerRowsAreNotRecounted() {
+        Instant old = now.minus(Duration.ofMinutes(10));
+        jdbc.commit(new HistoryRow(1, 1, 10, 1, old));
+        jdbc.commit(new HistoryRow(2, 2, 20, 2, old));
+        // id 3 chưa commit, id 4 đã commit trước
+        jdbc.commit(new HistoryRow(4, 1, 40, 1, now));
+        catchUp();
+
+        assertThat(watermark()).isEqualTo(2);
+        assertThat(appliedAbove()).containsExactly(4L);
+        assertThat(totals().get(1L)).containsExactly(50, 2, 2);
+
+        // id 3 commit muộn: đọc lại từ watermark → cộng 3, bỏ qua 4 đã cộng
+        jdbc.commit(new HistoryRow(3, 2, 30, 1, now));
+        catchUp();
+        catchUp();
+
+        Map<Long, long[]> totals = totals();
+        assertThat(totals.get(1L)).containsExactly(50, 2, 2);
+        assertThat(totals.get(2L)).containsExactly(50, 2, 1);
+        assertThat(watermark()).isEqualTo(2);
+        assertThat(appliedAbove()).containsExactlyInAnyOrder(3L, 4L);
+    }
+
+    @Test
+    void watermarkAdvancesOnceRowsSettleAndAppliedSetIsPruned() {
+        jdbc.commit(new HistoryRow(1, 1, 10, 1, now));
+        jdbc.commit(new HistoryRow(3, 1, 30, 2, now));
+        catchUp();
+        assertThat(watermark()).isZero();
+
+        jdbc.commit(new HistoryRow(2, 1, 20, 1, now));
+        // Hết settle-lag: mọi dòng đều đủ cũ → mốc tiến tới dòng cuối, tập đã cộng phía trên mốc rỗng
+        ReflectionTestUtils.setField(rollup, "settleLagMs", -60_000L);
+        catchUp();
+
+        assertThat(watermark()).isEqualTo(3);
+        assertThat(appliedAbove()).isEmpty();
+        assertThat(totals().get(1L)).containsExactly(60, 3, 2);
+
+        // Đọc lại sau khi mốc đã tiến: không còn dòng nào được cộng lần 2
+        catchUp();
+        assertThat(totals().get(1L)).containsExactly(60, 3, 2);
+    }
+
+    @Test
+    void watermarkStopsAtFirstUnsettledRowEvenIfLaterRowsAreOld() {
+        Instant old = now.minus(Duration.ofMinutes(10));
+        jdbc.commit(new HistoryRow(1, 1, 10, 1, old));
+        jdbc.commit(new HistoryRow(2, 1, 20, 1, now));
+        jdbc.commit(new HistoryRow(3, 1, 30, 1, old));
+        catchUp();
+
+        // Dòng 3 đủ cũ nhưng đứng sau dòng 2 chưa đủ cũ → mốc không vượt qua dòng 2
+        assertThat(watermark()).isEqualTo(1);
+        assertThat(appliedAbove()).containsExactlyInAnyOrder(2L, 3L);
+
+        catchUp();
+        assertThat(totals().get(1L)).containsExactly(60, 3, 3);
+    }
+}
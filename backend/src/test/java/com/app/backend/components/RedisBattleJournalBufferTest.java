@@ -0,0 +1,89 @@
+package com.app.backend.components;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class RedisBattleJournalBufferTest {
+
+    private static final String LIST = "battle:{9}:journal";
+    private static final String LOCK = "battle:{9}:journal:lock";
+
+    private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    private final ListOperations<String, String> lists = mock(ListOperations.class);
+    private final SetOperations<String, String> sets = mock(SetOperations.class);
+    private final RedisBattleJournalBuffer buffer = new RedisBattleJournalBuffer(redis);
+
+    private final BattleAnswerJournal.Entry entry = new BattleAnswerJournal.Entry(
+            9L, 2L, 100L, 'B', true, 1500, 80, Instant.ofEpochMilli(1_700_000_000_123L));
+
+    @BeforeEach
+    void setUp() {
+        when(redis.opsForValue()).thenReturn(values);
+        when(redis.opsForList()).thenReturn(lists);
+        when(redis.opsForSet()).thenReturn(sets);
+        ReflectionTestUtils.setField(buffer, "ttlMs", 60000L);
+        ReflectionTestUtils.setField(buffer, "lockMs", 30000L);
+    }
+
+    @Test
+    void entryRoundTripsThroughRedisLine() {
+        String line = RedisBattleJournalBuffer.encode(entry);
+
+        assertThat(RedisBattleJournalBuffer.decode(9L, line)).isEqualTo(entry);
+    }
+
+    @Test
+    void batchHeldByAnotherNodeIsSkipped() {
+        when(values.setIfAbsent(eq(LOCK), anyString(), any(Duration.class))).thenReturn(false);
+
+        BattleJournalBuffer.Batch batch = buffer.take(9L);
+
+        assertThat(batch.entries()).isEmpty();
+        batch.complete(true);
+        verifyNoInteractions(lists);
+        verify(redis, never()).execute(any(RedisScript.class), anyList(), any(Object[].class));
+    }
+
+    @Test
+    void completeTrimsOnlyTheRowsThatWereRead() {
+        when(values.setIfAbsent(eq(LOCK), anyString(), any(Duration.class))).thenReturn(true);
+        when(lists.range(LIST, 0, -1)).thenReturn(List.of(RedisBattleJournalBuffer.encode(entry), "hỏng"));
+        when(redis.execute(any(RedisScript.class), eq(List.of(LIST, LOCK)), any(Object[].class))).thenReturn(0L);
+
+        BattleJournalBuffer.Batch batch = buffer.take(9L);
+        assertThat(batch.entries()).containsExactly(entry);
+        batch.complete(true);
+
+        // Dòng hỏng vẫn tính vào số dòng cắt; dòng append sau khi đọc không bị cắt
+        verify(redis).execute(any(RedisScript.class), eq(List.of(LIST, LOCK)), anyString(), eq("2"));
+        verify(sets).remove("battle:journal:active", "9");
+    }
+
+    @Test
+    void failedWriteOnlyReleasesTheLock() {
+        when(values.setIfAbsent(eq(LOCK), anyString(), any(Duration.class))).thenReturn(true);
+        when(lists.range(LIST, 0, -1)).thenReturn(List.of(RedisBattleJournalBuffer.encode(entry)));
+
+        buffer.takeAll(9L).complete(false);
+
+        verify(redis).execute(any(RedisScript.class), eq(List.of(LOCK)), anyString());
+        verify(lists, never()).trim(anyString(), anyLong(), anyLong());
+        verifyNoInteractions(sets);
+    }
+}
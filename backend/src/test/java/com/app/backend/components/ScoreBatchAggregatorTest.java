@@ -0,0 +1,126 @@
+package com.app.backend.components;
+
+import com.app.backend.responses.websocket.ScoreUpdateEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ScoreBatchAggregatorTest {
+
+    private static final long ROOM = 9L;
+
+    private final BattleWsPublisher wsPublisher = mock(BattleWsPublisher.class);
+    private final ThreadPoolTaskScheduler scheduler = mock(ThreadPoolTaskScheduler.class);
+    private final List<Runnable> submitted = new ArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ScoreBatchAggregator aggregator =
+            new ScoreBatchAggregator(wsPublisher, scheduler, submitted::add, registry);
+
+    ScoreBatchAggregatorTest() {
+        ReflectionTestUtils.setField(aggregator, "windowMs", 150L);
+    }
+
+    private void offer(long userId, int total) {
+        aggregator.offer(ROOM, userId, "P" + userId, true, 10, total, 0, 0, 0, 1.0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<ScoreUpdateEvent>> sentBatches() {
+        ArgumentCaptor<List<ScoreUpdateEvent>> batches = ArgumentCaptor.forClass(List.class);
+        verify(wsPublisher, atLeast(0)).publishScoreBatch(eq(ROOM), batches.capture());
+        return batches.getAllValues();
+    }
+
+    @Test
+    void newerUpdateOfSamePlayerSupersedesOlder() {
+        offer(1L, 10);
+        offer(1L, 20);
+        offer(2L, 10);
+
+        aggregator.flush(ROOM);
+
+        List<List<ScoreUpdateEvent>> batches = sentBatches();
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).extracting(ScoreUpdateEvent::getUserId, ScoreUpdateEvent::getTotalPoints)
+                .containsExactlyInAnyOrder(tuple(1L, 20), tuple(2L, 10));
+        assertThat(registry.counter("battle.ws.score.superseded").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void oneTimerPerWindowAndTimerOnlyHandsSendToWsExecutor() {
+        offer(1L, 10);
+        offer(2L, 10);
+        ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(1)).schedule(timer.capture(), any(Instant.class));
+
+        timer.getValue().run();
+        verifyNoInteractions(wsPublisher);
+        assertThat(submitted).hasSize(1);
+
+        submitted.get(0).run();
+        assertThat(sentBatches()).hasSize(1);
+        assertThat(aggregator.pendingRooms()).isZero();
+
+        // Cửa sổ mới → hẹn giờ mới
+        offer(1L, 20);
+        verify(scheduler, times(2)).schedule(any(Runnable.class), any(Instant.class));
+    }
+
+    @Test
+    void zeroWindowSendsImmediately() {
+        ReflectionTestUtils.setField(aggregator, "windowMs", 0L);
+        offer(1L, 10);
+
+        verify(wsPublisher).publishScoreUpdate(ROOM, 1L, "P1", true, 10, 10, 0, 0, 0, 1.0);
+        verifyNoInteractions(scheduler);
+    }
+
+    @Test
+    void explicitFlushWaitsForInProgressTimerSend() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(inv -> {
+            List<ScoreUpdateEvent> batch = inv.getArgument(1);
+            if (order.isEmpty()) {
+                sending.countDown();
+                release.await(2, TimeUnit.SECONDS);
+            }
+            order.add("batch:" + batch.size());
+            return null;
+        }).when(wsPublisher).publishScoreBatch(eq(ROOM), anyList());
+
+        offer(1L, 10);
+        Thread timerSend = Thread.ofVirtual().start(() -> aggregator.flush(ROOM));
+        assertThat(sending.await(2, TimeUnit.SECONDS)).isTrue();
+
+        // Lượt gửi của timer đang dở; điểm mới tới rồi tới lúc ANSWER_REVEAL
+        offer(2L, 10);
+        offer(3L, 10);
+        Thread reveal = Thread.ofVirtual().start(() -> {
+            aggregator.flush(ROOM);
+            order.add("reveal");
+        });
+        Thread.sleep(50);
+        assertThat(order).isEmpty();
+
+        release.countDown();
+        timerSend.join(2000);
+        reveal.join(2000);
+        assertThat(order).containsExactly("batch:1", "batch:2", "reveal");
+    }
+}
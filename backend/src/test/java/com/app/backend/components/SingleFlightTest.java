@@ -0,0 +1,61 @@
+package com.app.backend.components;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SingleFlightTest {
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> ops = mock(ValueOperations.class);
+    private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+    private final List<Runnable> submitted = new ArrayList<>();
+    private final SingleFlight singleFlight = new SingleFlight(redis, submitted::add);
+
+    @BeforeEach
+    void setUp() {
+        when(redis.opsForValue()).thenReturn(ops);
+        ReflectionTestUtils.setField(singleFlight, "lockTtlMs", 10000L);
+        ReflectionTestUtils.setField(singleFlight, "waitMs", 20L);
+        ReflectionTestUtils.setField(singleFlight, "pollMs", 5L);
+        ReflectionTestUtils.setField(singleFlight, "beta", 1e9);
+    }
+
+    @Test
+    void loadDoesNotJoinPendingEarlyRefresh() {
+        // Node khác giữ khoá → lượt làm mới nền sẽ kết thúc bằng null
+        when(ops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        singleFlight.refreshEarlyIfDue("k", 1, () -> "refreshed");
+        assertThat(submitted).hasSize(1);
+
+        String value = assertTimeoutPreemptively(Duration.ofSeconds(2),
+                () -> singleFlight.load("k", () -> null, () -> "loaded"));
+
+        assertThat(value).isEqualTo("loaded");
+        submitted.get(0).run();
+    }
+
+    @Test
+    void onlyOneEarlyRefreshPerKey() {
+        when(ops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        singleFlight.refreshEarlyIfDue("k", 1, () -> "a");
+        singleFlight.refreshEarlyIfDue("k", 1, () -> "b");
+        assertThat(submitted).hasSize(1);
+
+        submitted.get(0).run();
+        singleFlight.refreshEarlyIfDue("k", 1, () -> "c");
+        assertThat(submitted).hasSize(2);
+    }
+}
@@ -0,0 +1,153 @@
+package com.app.backend.components;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Cầu Redis của WsBroadcaster chạy thật: 2 node (mỗi node 1 broker channel + 1 listener container riêng)
+ * nối qua 1 redis-server nhúng. Kiểm tra envelope tới được node kia và node gửi không phát lại bản của chính nó.
+ */
+class WsBroadcasterBridgeTest {
+
+    private static final String CHANNEL = "ws:broadcast";
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<RedisMessageListenerContainer> containers = new CopyOnWriteArrayList<>();
+
+    private Node nodeA;
+    private Node nodeB;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new RedisServer(port);
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        if (connectionFactory != null) connectionFactory.destroy();
+        if (server != null) server.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        nodeA = node();
+        nodeB = node();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        nodeA.broadcaster.shutdown();
+        nodeB.broadcaster.shutdown();
+        for (RedisMessageListenerContainer container : containers) container.destroy();
+    }
+
+    @Test
+    void topicEventReachesOtherNode() {
+        nodeA.broadcaster.convertAndSend("/topic/a", Map.of("x", 1));
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> nodeB.delivered("/topic/a").size() == 1);
+        assertThat(nodeB.delivered("/topic/a")).containsExactly("{\"x\":1}");
+    }
+
+    @Test
+    void userEventsReachOtherNode() {
+        nodeA.broadcaster.convertAndSendToUser("7", "/queue/b", "hi");
+        nodeA.broadcaster.convertAndSendToUsers(List.of("1", "2"), "/queue/c", Map.of("y", 2));
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> nodeB.delivered("/user/2/queue/c").size() == 1);
+        assertThat(nodeB.delivered("/user/7/queue/b")).containsExactly("\"hi\"");
+        assertThat(nodeB.delivered("/user/1/queue/c")).containsExactly("{\"y\":2}");
+        assertThat(nodeB.delivered("/user/2/queue/c")).containsExactly("{\"y\":2}");
+    }
+
+    @Test
+    void ownEchoIsNotDeliveredTwice() {
+        nodeA.broadcaster.convertAndSend("/topic/a", "once");
+        // Tin đánh dấu từ node B đi sau echo của A trên cùng kết nối subscribe; container của A phát đồng bộ
+        // theo thứ tự → A nhận được đánh dấu thì echo của chính nó đã được xử lý xong
+        nodeB.broadcaster.convertAndSend("/topic/marker", "done");
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> nodeA.delivered("/topic/marker").size() == 1);
+        assertThat(nodeA.delivered("/topic/a")).containsExactly("\"once\"");
+        assertThat(nodeB.delivered("/topic/a")).containsExactly("\"once\"");
+        assertThat(nodeB.delivered("/topic/marker")).containsExactly("\"done\"");
+    }
+
+    private Node node() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(new SyncTaskExecutor());
+        container.afterPropertiesSet();
+        containers.add(container);
+
+        Node node = new Node(container);
+        // Đăng ký listener trước khi start → start() chờ SUBSCRIBE xong mới trả về
+        container.start();
+        return node;
+    }
+
+    /**
+     * 1 node ứng dụng: SimpMessagingTemplate thật trên channel broker, subscriber ghi lại mọi tin được phát
+     */
+    private final class Node {
+
+        private final List<Message<?>> messages = new CopyOnWriteArrayList<>();
+        private final WsBroadcaster broadcaster;
+
+        Node(RedisMessageListenerContainer container) {
+            ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+            brokerChannel.subscribe(messages::add);
+            SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+            template.setMessageConverter(new MappingJackson2MessageConverter());
+
+            broadcaster = new WsBroadcaster(template, new StringRedisTemplate(connectionFactory), container,
+                    objectMapper);
+            ReflectionTestUtils.setField(broadcaster, "mode", WsBroadcaster.MODE_REDIS);
+            ReflectionTestUtils.setField(broadcaster, "channel", CHANNEL);
+            broadcaster.init();
+        }
+
+        List<String> delivered(String destination) {
+            return messages.stream()
+                    .filter(m -> destination.equals(SimpMessageHeaderAccessor.getDestination(m.getHeaders())))
+                    .map(m -> new String((byte[]) m.getPayload(), StandardCharsets.UTF_8))
+                    .toList();
+        }
+    }
+}
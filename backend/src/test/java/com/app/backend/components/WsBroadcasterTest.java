@@ -0,0 +1,151 @@
+package com.app.backend.components;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class WsBroadcasterTest {
+
+    private static final String CHANNEL = "ws:broadcast";
+
+    private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private final RedisMessageListenerContainer listenerContainer = mock(RedisMessageListenerContainer.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private WsBroadcaster broadcaster(String mode) {
+        WsBroadcaster broadcaster = new WsBroadcaster(messagingTemplate, redisTemplate, listenerContainer, objectMapper);
+        ReflectionTestUtils.setField(broadcaster, "mode", mode);
+        ReflectionTestUtils.setField(broadcaster, "channel", CHANNEL);
+        broadcaster.init();
+        return broadcaster;
+    }
+
+    @Test
+    void simpleModeSendsLocallyOnly() {
+        WsBroadcaster broadcaster = broadcaster("simple");
+
+        broadcaster.convertAndSend("/topic/a", Map.of("x", 1));
+        broadcaster.convertAndSendToUser("7", "/queue/b", "hi");
+
+        assertThat(broadcaster.isDistributed()).isFalse();
+        verify(messagingTemplate).convertAndSend("/topic/a", (Object) Map.of("x", 1));
+        verify(messagingTemplate).convertAndSendToUser("7", "/queue/b", "hi");
+        verifyNoInteractions(redisTemplate, listenerContainer);
+    }
+
+    @Test
+    void redisModeRegistersListenerOnChannel() {
+        WsBroadcaster broadcaster = broadcaster("redis");
+
+        assertThat(broadcaster.isDistributed()).isTrue();
+        verify(listenerContainer).addMessageListener(broadcaster, new ChannelTopic(CHANNEL));
+    }
+
+    @Test
+    void redisModeDeliversLocallyAndPublishesEnvelope() throws Exception {
+        WsBroadcaster broadcaster = broadcaster("redis");
+
+        broadcaster.convertAndSend("/topic/a", Map.of("x", 1));
+
+        verify(messagingTemplate).convertAndSend("/topic/a", (Object) Map.of("x", 1));
+        JsonNode envelope = published();
+        assertThat(envelope.get("d").asText()).isEqualTo("/topic/a");
+        assertThat(envelope.get("p").get("x").asInt()).isEqualTo(1);
+        assertThat(envelope.hasNonNull("n")).isTrue();
+        assertThat(envelope.has("u")).isFalse();
+        assertThat(envelope.has("us")).isFalse();
+    }
+
+    @Test
+    void envelopeCarriesUserOrUserList() throws Exception {
+        WsBroadcaster broadcaster = broadcaster("redis");
+
+        broadcaster.convertAndSendToUser("7", "/queue/b", "hi");
+        JsonNode single = published();
+        assertThat(single.get("u").asText()).isEqualTo("7");
+        assertThat(single.get("p").asText()).isEqualTo("hi");
+
+        reset(redisTemplate);
+        broadcaster.convertAndSendToUsers(List.of("1", "2"), "/queue/c", "yo");
+        JsonNode group = published();
+        assertThat(group.get("us")).extracting(JsonNode::asText).containsExactly("1", "2");
+        verify(messagingTemplate).convertAndSendToUser("1", "/queue/c", "yo");
+        verify(messagingTemplate).convertAndSendToUser("2", "/queue/c", "yo");
+    }
+
+    @Test
+    void onMessageFromOtherNodeIsDelivered() {
+        WsBroadcaster broadcaster = broadcaster("redis");
+
+        broadcaster.onMessage(message("{\"n\":\"other\",\"d\":\"/topic/a\",\"p\":{\"x\":1}}"), null);
+        broadcaster.onMessage(message("{\"n\":\"other\",\"d\":\"/queue/b\",\"u\":\"7\",\"p\":\"hi\"}"), null);
+        broadcaster.onMessage(message("{\"n\":\"other\",\"d\":\"/queue/c\",\"us\":[\"1\",\"2\"],\"p\":\"yo\"}"), null);
+
+        ArgumentCaptor<Object> payload = ArgumentCaptor.forClass(Object.class);
+        verify(messagingTemplate).convertAndSend(eq("/topic/a"), payload.capture());
+        assertThat(((JsonNode) payload.getValue()).get("x").asInt()).isEqualTo(1);
+        verify(messagingTemplate).convertAndSendToUser(eq("7"), eq("/queue/b"), any(Object.class));
+        verify(messagingTemplate).convertAndSendToUser(eq("1"), eq("/queue/c"), any(Object.class));
+        verify(messagingTemplate).convertAndSendToUser(eq("2"), eq("/queue/c"), any(Object.class));
+    }
+
+    @Test
+    void onMessageFromOwnNodeIsSuppressed() {
+        WsBroadcaster broadcaster = broadcaster("redis");
+        broadcaster.convertAndSend("/topic/a", "once");
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq(CHANNEL), body.capture());
+
+        broadcaster.onMessage(message(body.getValue()), null);
+
+        // Chỉ lần phát local lúc gửi, bản quay về từ Redis bị bỏ
+        verify(messagingTemplate, times(1)).convertAndSend(eq("/topic/a"), any(Object.class));
+    }
+
+    @Test
+    void publishFailureStillDeliversLocally() {
+        WsBroadcaster broadcaster = broadcaster("redis");
+        doThrow(new IllegalStateException("down")).when(redisTemplate).convertAndSend(anyString(), anyString());
+
+        broadcaster.convertAndSend("/topic/a", "x");
+
+        verify(messagingTemplate).convertAndSend("/topic/a", (Object) "x");
+    }
+
+    @Test
+    void malformedMessageIsIgnored() {
+        WsBroadcaster broadcaster = broadcaster("redis");
+
+        broadcaster.onMessage(message("not json"), null);
+
+        verifyNoInteractions(messagingTemplate);
+    }
+
+    private JsonNode published() throws Exception {
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq(CHANNEL), body.capture());
+        return objectMapper.readTree(body.getValue());
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(CHANNEL.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8));
+    }
+}
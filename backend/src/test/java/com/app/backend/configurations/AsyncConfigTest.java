@@ -0,0 +1,48 @@
+package com.app.backend.configurations;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AsyncConfigTest {
+
+    private final ThreadPoolTaskScheduler scheduler = mock(ThreadPoolTaskScheduler.class);
+    private final AsyncConfig.RequeueOnTimerHandler handler =
+            new AsyncConfig.RequeueOnTimerHandler("battleStepExecutor", scheduler, 200);
+
+    @Test
+    void rejectedTaskIsRequeuedOnTimerNotRunOnCaller() {
+        ThreadPoolExecutor executor = mock(ThreadPoolExecutor.class);
+        when(executor.getQueue()).thenReturn(new ArrayBlockingQueue<>(1));
+        Runnable task = mock(Runnable.class);
+
+        handler.rejectedExecution(task, executor);
+
+        verifyNoInteractions(task);
+        ArgumentCaptor<Runnable> requeue = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(requeue.capture(), any(Instant.class));
+
+        // Tick timer chỉ đưa task lại vào executor
+        requeue.getValue().run();
+        verify(executor).execute(task);
+        verifyNoInteractions(task);
+    }
+
+    @Test
+    void rejectedAfterShutdownIsDropped() {
+        ThreadPoolExecutor executor = mock(ThreadPoolExecutor.class);
+        when(executor.isShutdown()).thenReturn(true);
+        Runnable task = mock(Runnable.class);
+
+        handler.rejectedExecution(task, executor);
+
+        verifyNoInteractions(task, scheduler);
+    }
+}
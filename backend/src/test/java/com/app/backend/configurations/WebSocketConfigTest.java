@@ -0,0 +1,66 @@
+package com.app.backend.configurations;
+
+import com.app.backend.components.BattleWsEncodingInterceptor;
+import com.app.backend.components.StompAuthInterceptor;
+import com.app.backend.components.WsBroadcaster;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * websocket.broker.mode → broker nào được dựng và WsBroadcaster có bắc cầu Redis hay không
+ */
+class WebSocketConfigTest {
+
+    private final WebApplicationContextRunner runner = new WebApplicationContextRunner()
+            .withUserConfiguration(WebSocketConfig.class, WsBroadcaster.class)
+            .withBean(BattleWsEncodingInterceptor.class, () -> mock(BattleWsEncodingInterceptor.class))
+            .withBean(StompAuthInterceptor.class, () -> mock(StompAuthInterceptor.class))
+            .withBean(StringRedisTemplate.class, () -> mock(StringRedisTemplate.class))
+            .withBean(RedisMessageListenerContainer.class, () -> mock(RedisMessageListenerContainer.class))
+            .withBean(ObjectMapper.class, ObjectMapper::new)
+            .withPropertyValues("websocket.broker.relay.port=1");
+
+    @Test
+    void simpleModeUsesInMemoryBrokerWithoutRedis() {
+        runner.withPropertyValues("websocket.broker.mode=simple").run(context -> {
+            assertThat(context).hasNotFailed();
+            assertThat(context.getBeanProvider(SimpleBrokerMessageHandler.class).getIfAvailable()).isNotNull();
+            assertThat(context.getBeanProvider(StompBrokerRelayMessageHandler.class).getIfAvailable()).isNull();
+            assertThat(context.getBean(WsBroadcaster.class).isDistributed()).isFalse();
+            verify(context.getBean(RedisMessageListenerContainer.class), never()).addMessageListener(any(), any(Topic.class));
+        });
+    }
+
+    @Test
+    void redisModeUsesInMemoryBrokerBridgedThroughRedis() {
+        runner.withPropertyValues("websocket.broker.mode=redis").run(context -> {
+            assertThat(context).hasNotFailed();
+            assertThat(context.getBeanProvider(SimpleBrokerMessageHandler.class).getIfAvailable()).isNotNull();
+            assertThat(context.getBeanProvider(StompBrokerRelayMessageHandler.class).getIfAvailable()).isNull();
+            WsBroadcaster broadcaster = context.getBean(WsBroadcaster.class);
+            assertThat(broadcaster.isDistributed()).isTrue();
+            verify(context.getBean(RedisMessageListenerContainer.class)).addMessageListener(eq(broadcaster), any(Topic.class));
+        });
+    }
+
+    @Test
+    void relayModeUsesExternalBrokerWithoutRedisBridge() {
+        runner.withPropertyValues("websocket.broker.mode=relay").run(context -> {
+            assertThat(context).hasNotFailed();
+            assertThat(context.getBeanProvider(StompBrokerRelayMessageHandler.class).getIfAvailable()).isNotNull();
+            assertThat(context.getBeanProvider(SimpleBrokerMessageHandler.class).getIfAvailable()).isNull();
+            assertThat(context.getBean(WsBroadcaster.class).isDistributed()).isFalse();
+        });
+    }
+}
@@ -0,0 +1,108 @@
+package com.app.backend.configurations;
+
+import com.app.backend.components.BattleRosterManager;
+import com.app.backend.components.BattleWsPublisher;
+import com.app.backend.models.BattleRoster;
+import com.app.backend.models.NguoiDung;
+import com.app.backend.services.presence.IPresenceService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class WebSocketEventsListenerTest {
+
+    private static final long TRAN_DAU = 9L;
+
+    private final IPresenceService presenceService = mock(IPresenceService.class);
+    private final BattleRosterManager rosterManager = mock(BattleRosterManager.class);
+    private final BattleWsPublisher wsPublisher = mock(BattleWsPublisher.class);
+    private final WebSocketEventsListener listener =
+            new WebSocketEventsListener(presenceService, rosterManager, wsPublisher);
+
+    @BeforeEach
+    void setUp() {
+        when(rosterManager.get(TRAN_DAU)).thenReturn(new BattleRoster(TRAN_DAU, 1L, List.of(
+                BattleRoster.Player.builder().userId(1L).hoTen("An").build(),
+                BattleRoster.Player.builder().userId(2L).hoTen("Binh").build())));
+    }
+
+    private static Message<byte[]> connect(String sessionId, Map<String, String> headers) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+        accessor.setSessionId(sessionId);
+        headers.forEach(accessor::addNativeHeader);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Principal principal(long userId) {
+        return new UsernamePasswordAuthenticationToken(NguoiDung.builder().id(userId).build(), null, List.of());
+    }
+
+    @Test
+    void headerOnlySessionDoesNotCountAsOnlineButStillJoinsBattle() {
+        Message<byte[]> msg = connect("s1", Map.of("x-user-id", "2", "x-trandau-id", String.valueOf(TRAN_DAU)));
+
+        listener.onConnect(new SessionConnectEvent(this, msg, null));
+
+        verify(presenceService).connect("s1", null, TRAN_DAU, 2L);
+        verify(wsPublisher).publishPlayerJoined(TRAN_DAU, 2L, "Binh", 2);
+    }
+
+    @Test
+    void spoofedHeaderCannotMarkAnotherUserOnline() {
+        Message<byte[]> msg = connect("s1", Map.of("x-user-id", "1"));
+
+        listener.onConnect(new SessionConnectEvent(this, msg, null));
+
+        verify(presenceService).connect("s1", null, null, 1L);
+        verifyNoInteractions(wsPublisher);
+    }
+
+    @Test
+    void authenticatedPrincipalCountsAsOnlineAndWinsOverHeader() {
+        Message<byte[]> msg = connect("s1", Map.of("x-user-id", "2", "x-trandau-id", String.valueOf(TRAN_DAU)));
+
+        listener.onConnect(new SessionConnectEvent(this, msg, principal(1L)));
+
+        verify(presenceService).connect("s1", 1L, TRAN_DAU, 1L);
+        verify(wsPublisher).publishPlayerJoined(TRAN_DAU, 1L, "An", 2);
+    }
+
+    @Test
+    void playerNotInRosterIsNotAnnounced() {
+        Message<byte[]> msg = connect("s1", Map.of("x-user-id", "7", "x-trandau-id", String.valueOf(TRAN_DAU)));
+
+        listener.onConnect(new SessionConnectEvent(this, msg, null));
+
+        verify(wsPublisher, never()).publishPlayerJoined(anyLong(), anyLong(), any(), anyInt());
+    }
+
+    @Test
+    void disconnectAnnouncesLeaveForHeaderOnlyPlayer() {
+        when(presenceService.disconnect("s1"))
+                .thenReturn(Optional.of(new IPresenceService.SessionInfo("s1", null, TRAN_DAU, 2L)));
+        Message<byte[]> msg = MessageBuilder.createMessage(new byte[0],
+                StompHeaderAccessor.create(StompCommand.DISCONNECT).getMessageHeaders());
+
+        listener.onDisconnect(new SessionDisconnectEvent(this, msg, "s1", CloseStatus.NORMAL));
+
+        verify(wsPublisher).publishPlayerLeft(eq(TRAN_DAU), eq(2L), eq("Binh"), anyInt());
+    }
+}
@@ -0,0 +1,160 @@
+package com.app.backend.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BattleRankingTest {
+
+    private static final Instant T0 = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Test
+    void ordersByScoreThenFirstAnswerThenUserId() {
+        BattleRanking ranking = new BattleRanking();
+        ranking.add(3L, 0);
+        ranking.add(1L, 0);
+        ranking.add(2L, 0);
+        ranking.add(4L, 0);
+
+        ranking.update(2L, 100, T0.plusSeconds(2));
+        ranking.update(4L, 100, T0.plusSeconds(1)); // bằng điểm, trả lời sớm hơn → xếp trên
+        ranking.update(3L, 50, T0);
+
+        assertThat(ranking.snapshot()).containsExactly(
+                new BattleRanking.Row(4L, 100, 1),
+                new BattleRanking.Row(2L, 100, 2),
+                new BattleRanking.Row(3L, 50, 3),
+                new BattleRanking.Row(1L, 0, 4));
+    }
+
+    @Test
+    void tiesWithoutAnswerFallBackToUserId() {
+        BattleRanking ranking = new BattleRanking();
+        ranking.add(9L, 0);
+        ranking.add(5L, 0);
+        ranking.add(7L, 0);
+
+        assertThat(ranking.snapshot()).extracting(BattleRanking.Row::userId).containsExactly(5L, 7L, 9L);
+    }
+
+    @Test
+    void firstAnswerTimeIsKeptAcrossLaterUpdates() {
+        BattleRanking ranking = new BattleRanking();
+        ranking.update(1L, 10, T0);
+        ranking.update(2L, 10, T0.plusSeconds(5));
+        ranking.update(1L, 20, T0.plusSeconds(30));
+        ranking.update(2L, 20, T0.plusSeconds(31));
+
+        assertThat(ranking.snapshot()).extracting(BattleRanking.Row::userId).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void addDoesNotOverwriteExistingPlayer() {
+        BattleRanking ranking = new BattleRanking();
+        ranking.update(1L, 30, T0);
+        ranking.add(1L, 0);
+
+        assertThat(ranking.size()).isEqualTo(1);
+        assertThat(ranking.snapshot()).containsExactly(new BattleRanking.Row(1L, 30, 1));
+    }
+
+    @Test
+    void staleTotalArrivingLateIsIgnored() {
+        BattleRanking ranking = new BattleRanking();
+        ranking.add(1L, 0);
+        ranking.update(1L, 20, T0.plusSeconds(1), 2);
+        ranking.update(1L, 10, T0, 1);
+
+        assertThat(ranking.snapshot()).containsExactly(new BattleRanking.Row(1L, 20, 1));
+    }
+
+    @Test
+    void concurrentAddScoreEndsWithFinalTotal() throws Exception {
+        BattleState state = new BattleState();
+        state.initScoresForPlayers(Set.of(1L));
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 1000; i++) executor.submit(() -> state.addScore(1L, 1));
+        }
+
+        assertThat(state.getDiemNguoiChoi().get(1L)).isEqualTo(1000);
+        assertThat(state.getRanking().snapshot()).containsExactly(new BattleRanking.Row(1L, 1000, 1));
+    }
+
+    @Test
+    void diffReturnsOnlyChangedScoresAndRanks() {
+        BattleRanking ranking = new BattleRanking();
+        ranking.add(1L, 0);
+        ranking.add(2L, 0);
+        ranking.add(3L, 0);
+        ranking.snapshot();
+
+        assertThat(ranking.diff()).isEmpty();
+
+        // 3 vượt lên đầu: 3 đổi điểm + hạng, 1 và 2 tụt hạng
+        ranking.update(3L, 100, T0);
+        List<BattleRanking.Row> diff = ranking.diff();
+        assertThat(diff).containsExactly(
+                new BattleRanking.Row(3L, 100, 1),
+                new BattleRanking.Row(1L, 0, 2),
+                new BattleRanking.Row(2L, 0, 3));
+
+        // 2 có điểm nhưng vẫn dưới 3 → chỉ 1 và 2 đổi chỗ
+        ranking.update(2L, 40, T0.plusSeconds(1));
+        assertThat(ranking.diff()).containsExactly(
+                new BattleRanking.Row(2L, 40, 2),
+                new BattleRanking.Row(1L, 0, 3));
+        assertThat(ranking.diffsSinceSnapshot()).isEqualTo(3);
+    }
+
+    @Test
+    void snapshotResetsDiffBaseline() {
+        BattleRanking ranking = new BattleRanking();
+        ranking.add(1L, 0);
+        ranking.update(1L, 10, T0);
+        ranking.diff();
+        ranking.diff();
+
+        ranking.snapshot();
+        assertThat(ranking.diffsSinceSnapshot()).isZero();
+        assertThat(ranking.diff()).isEmpty();
+    }
+
+    @Test
+    void diffAppliedToLastSnapshotReproducesFullBoard() {
+        BattleRanking ranking = new BattleRanking();
+        for (long id = 1; id <= 6; id++) ranking.add(id, 0);
+        List<BattleRanking.Row> client = new ArrayList<>(ranking.snapshot());
+
+        ranking.update(4L, 80, T0);
+        ranking.update(6L, 80, T0.plusSeconds(1));
+        ranking.update(2L, 120, T0.plusSeconds(2));
+        for (BattleRanking.Row row : ranking.diff()) {
+            client.removeIf(r -> r.userId().equals(row.userId()));
+            client.add(row);
+        }
+        client.sort(Comparator.comparingInt(BattleRanking.Row::xepHang));
+
+        assertThat(client).isEqualTo(ranking.snapshot());
+    }
+
+    @Test
+    void syncedScoreKeepsStoredFirstAnswerTime() {
+        // Node dựng lại ranking từ Redis (thứ tự đọc ngược thời gian) vẫn xếp người trả lời trước lên trên
+        BattleState state = BattleState.builder().tranDauId(1L).build();
+        state.syncScore(2L, 100, T0.plusSeconds(5));
+        state.syncScore(1L, 100, T0);
+        state.syncScore(3L, 0, null);
+
+        assertThat(state.getRanking().snapshot()).containsExactly(
+                new BattleRanking.Row(1L, 100, 1),
+                new BattleRanking.Row(2L, 100, 2),
+                new BattleRanking.Row(3L, 0, 3));
+    }
+}
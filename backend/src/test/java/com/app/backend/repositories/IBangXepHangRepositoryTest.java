@@ -0,0 +1,127 @@
+package com.app.backend.repositories;
+
+import com.app.backend.models.BangXepHang;
+import com.app.backend.models.NguoiDung;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Các câu seek của bảng xếp hạng chạy thật trên DB (NULL cap_nhat_luc xếp trước khi ASC như MySQL)
+ */
+@DataJpaTest
+@ActiveProfiles("datajpa")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class IBangXepHangRepositoryTest {
+
+    private static final Instant T = Instant.parse("2026-10-01T10:00:00.123456Z");
+    private static final PageRequest ALL = PageRequest.of(0, 100);
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private IBangXepHangRepository repository;
+
+    /**
+     * Thứ tự mong đợi (theo id đã lưu): tong_diem DESC, cap_nhat_luc ASC (NULL trước), id ASC
+     */
+    private final List<BangXepHang> rows = new ArrayList<>();
+
+    private void row(int tongDiem, Instant capNhatLuc) {
+        NguoiDung user = NguoiDung.builder()
+                .tenDangNhap("u" + rows.size())
+                .email("u" + rows.size() + "@test.local")
+                .password("x")
+                .diaChi("x")
+                .hoTen("u" + rows.size())
+                .build();
+        em.persist(user);
+        BangXepHang bxh = BangXepHang.builder().nguoiDung(user).tongDiem(tongDiem).capNhatLuc(capNhatLuc).build();
+        rows.add(em.persist(bxh));
+    }
+
+    @BeforeEach
+    void setUp() {
+        row(500, T);
+        row(300, null);
+        row(300, T);
+        row(300, null);
+        row(300, T.plusNanos(1000));
+        row(300, T);
+        row(100, null);
+        row(500, null);
+        row(300, T.minusSeconds(5));
+        row(100, T);
+        row(0, null);
+        em.flush();
+        em.clear();
+    }
+
+    private List<Long> expected() {
+        return rows.stream()
+                .sorted(Comparator.comparing(BangXepHang::getTongDiem, Comparator.reverseOrder())
+                        .thenComparing(BangXepHang::getCapNhatLuc, Comparator.nullsFirst(Comparator.naturalOrder()))
+                        .thenComparing(BangXepHang::getId))
+                .map(BangXepHang::getId)
+                .toList();
+    }
+
+    private static List<Long> ids(List<BangXepHang> page) {
+        return page.stream().map(BangXepHang::getId).toList();
+    }
+
+    private List<BangXepHang> after(BangXepHang c) {
+        return c.getCapNhatLuc() != null
+                ? repository.findLeaderboardAfter(c.getTongDiem(), c.getCapNhatLuc(), c.getId(), ALL)
+                : repository.findLeaderboardAfterNullTime(c.getTongDiem(), c.getId(), ALL);
+    }
+
+    private List<BangXepHang> before(BangXepHang c) {
+        return c.getCapNhatLuc() != null
+                ? repository.findLeaderboardBefore(c.getTongDiem(), c.getCapNhatLuc(), c.getId(), ALL)
+                : repository.findLeaderboardBeforeNullTime(c.getTongDiem(), c.getId(), ALL);
+    }
+
+    @Test
+    void firstPageFollowsIndexOrder() {
+        assertThat(ids(repository.findLeaderboardFirst(ALL))).isEqualTo(expected());
+        assertThat(ids(repository.findLeaderboardFirst(PageRequest.of(0, 3)))).isEqualTo(expected().subList(0, 3));
+    }
+
+    @Test
+    void seekAfterEveryRowReturnsExactlyTheRowsBelow() {
+        List<Long> order = expected();
+        List<BangXepHang> firstPage = repository.findLeaderboardFirst(ALL);
+        for (int i = 0; i < firstPage.size(); i++) {
+            assertThat(ids(after(firstPage.get(i))))
+                    .as("sau #%d", firstPage.get(i).getId())
+                    .isEqualTo(order.subList(i + 1, order.size()));
+        }
+    }
+
+    @Test
+    void seekBeforeEveryRowReturnsTheRowsAboveNearestFirst() {
+        List<Long> order = expected();
+        List<BangXepHang> firstPage = repository.findLeaderboardFirst(ALL);
+        for (int i = 0; i < firstPage.size(); i++) {
+            List<Long> above = new ArrayList<>(order.subList(0, i));
+            java.util.Collections.reverse(above);
+            assertThat(ids(before(firstPage.get(i))))
+                    .as("trước #%d", firstPage.get(i).getId())
+                    .isEqualTo(above);
+        }
+    }
+}
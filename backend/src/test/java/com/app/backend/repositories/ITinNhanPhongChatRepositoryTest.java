@@ -0,0 +1,140 @@
+package com.app.backend.repositories;
+
+import com.app.backend.models.NguoiDung;
+import com.app.backend.models.PhongChat;
+import com.app.backend.models.TinNhanPhongChat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Các câu seek tin nhắn chạy thật trên DB: gui_luc NULL đứng sau khi DESC (như MySQL), bỏ tin đã xoá / phòng khác
+ */
+@DataJpaTest
+@ActiveProfiles("datajpa")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class ITinNhanPhongChatRepositoryTest {
+
+    private static final Instant T = Instant.parse("2026-10-01T10:00:00.000001Z");
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private ITinNhanPhongChatRepository repository;
+
+    private NguoiDung user;
+    private PhongChat room;
+    private PhongChat otherRoom;
+
+    /**
+     * Tin còn hiển thị của room (id đã lưu + gui_luc)
+     */
+    private final List<TinNhanPhongChat> visible = new ArrayList<>();
+
+    private NguoiDung user(String name) {
+        return em.persist(NguoiDung.builder()
+                .tenDangNhap(name).email(name + "@test.local").password("x").hoTen(name).diaChi("x")
+                .build());
+    }
+
+    /**
+     * @PrePersist luôn gán gui_luc = now → ghi đè giá trị mong muốn (kể cả NULL của dữ liệu cũ) bằng UPDATE
+     */
+    private TinNhanPhongChat message(PhongChat phongChat, Instant guiLuc, boolean daXoa) {
+        TinNhanPhongChat m = em.persist(TinNhanPhongChat.builder()
+                .phongChat(phongChat).guiBoi(user).noiDung("m").daXoa(daXoa)
+                .build());
+        em.flush();
+        em.getEntityManager().createQuery("UPDATE TinNhanPhongChat t SET t.guiLuc = :guiLuc WHERE t.id = :id")
+                .setParameter("guiLuc", guiLuc)
+                .setParameter("id", m.getId())
+                .executeUpdate();
+        m.setGuiLuc(guiLuc);
+        return m;
+    }
+
+    private void visible(Instant guiLuc) {
+        visible.add(message(room, guiLuc, false));
+    }
+
+    @BeforeEach
+    void setUp() {
+        user = user("a");
+        room = em.persist(PhongChat.builder().ten("room").taoBoi(user).build());
+        otherRoom = em.persist(PhongChat.builder().ten("other").taoBoi(user).build());
+
+        visible(null);
+        visible(T.minusSeconds(60));
+        visible(null);
+        visible(T);
+        visible(T);
+        visible(T.plusNanos(1000));
+        message(room, T.plusSeconds(5), true);
+        message(otherRoom, T.plusSeconds(6), false);
+        visible(T.minusSeconds(60));
+        visible(null);
+        visible(T.plusSeconds(1));
+        em.clear();
+    }
+
+    private List<Long> expected() {
+        return visible.stream()
+                .sorted(Comparator.comparing(TinNhanPhongChat::getGuiLuc,
+                                Comparator.nullsFirst(Comparator.<Instant>naturalOrder()).reversed())
+                        .thenComparing(TinNhanPhongChat::getId, Comparator.reverseOrder()))
+                .map(TinNhanPhongChat::getId)
+                .toList();
+    }
+
+    private static List<Long> ids(List<TinNhanPhongChat> rows) {
+        return rows.stream().map(TinNhanPhongChat::getId).toList();
+    }
+
+    private List<TinNhanPhongChat> olderThan(TinNhanPhongChat m, int n) {
+        PageRequest first = PageRequest.of(0, n);
+        return m.getGuiLuc() != null
+                ? repository.findOlderThan(room.getId(), m.getGuiLuc(), m.getId(), first)
+                : repository.findOlderThanNullTime(room.getId(), m.getId(), first);
+    }
+
+    @Test
+    void latestSkipsDeletedAndOtherRooms() {
+        assertThat(ids(repository.findLatest(room.getId(), PageRequest.of(0, 100)))).isEqualTo(expected());
+    }
+
+    @Test
+    void olderThanEveryMessageReturnsExactlyTheOlderOnes() {
+        List<Long> order = expected();
+        List<TinNhanPhongChat> all = repository.findLatest(room.getId(), PageRequest.of(0, 100));
+        for (int i = 0; i < all.size(); i++) {
+            assertThat(ids(olderThan(all.get(i), 100)))
+                    .as("sau #%d", all.get(i).getId())
+                    .isEqualTo(order.subList(i + 1, order.size()));
+        }
+    }
+
+    @Test
+    void pagingWithSmallPagesVisitsEveryMessageOnce() {
+        List<Long> seen = new ArrayList<>();
+        List<TinNhanPhongChat> page = repository.findLatest(room.getId(), PageRequest.of(0, 2));
+        while (!page.isEmpty()) {
+            seen.addAll(ids(page));
+            page = olderThan(page.get(page.size() - 1), 2);
+        }
+
+        assertThat(seen).isEqualTo(expected());
+    }
+}
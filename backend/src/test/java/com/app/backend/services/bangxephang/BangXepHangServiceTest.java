@@ -0,0 +1,168 @@
+package com.app.backend.services.bangxephang;
+
+import com.app.backend.components.GlobalRankIndex;
+import com.app.backend.components.LeaderboardRollup;
+import com.app.backend.components.SingleFlight;
+import com.app.backend.models.BangXepHang;
+import com.app.backend.models.NguoiDung;
+import com.app.backend.repositories.IBangXepHangRepository;
+import com.app.backend.repositories.ILichSuTranDauRepository;
+import com.app.backend.repositories.INguoiDungRepository;
+import com.app.backend.responses.bangxephang.LeaderboardCursorResponse;
+import com.app.backend.responses.bangxephang.LeaderboardEntryResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Mã hoá con trỏ + logic phân trang của service trên repository giả;
+ * điều kiện WHERE / ORDER BY của các câu seek được kiểm tra trên DB thật ở IBangXepHangRepositoryTest.
+ */
+class BangXepHangServiceTest {
+
+    private static final Instant T = Instant.parse("2026-10-01T10:00:00.123456Z");
+
+    private final IBangXepHangRepository repository = mock(IBangXepHangRepository.class);
+    private final SingleFlight singleFlight = mock(SingleFlight.class);
+    private BangXepHangService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new BangXepHangService(repository, mock(ILichSuTranDauRepository.class),
+                mock(INguoiDungRepository.class), mock(GlobalRankIndex.class), mock(IRankLookupService.class),
+                mock(LeaderboardRollup.class), singleFlight, mock(StringRedisTemplate.class));
+        when(singleFlight.load(anyString(), any(), any())).thenReturn(42L);
+    }
+
+    private static BangXepHang row(long id, int tongDiem, Instant capNhatLuc) {
+        return BangXepHang.builder()
+                .id(id)
+                .nguoiDung(NguoiDung.builder().id(id).hoTen("u" + id).build())
+                .tongDiem(tongDiem)
+                .capNhatLuc(capNhatLuc)
+                .build();
+    }
+
+    private static String cursor(int tongDiem, Instant capNhatLuc, long id) {
+        return BangXepHangService.encodeCursor(new BangXepHangService.Cursor(tongDiem, capNhatLuc, id));
+    }
+
+    private static List<Long> ids(LeaderboardCursorResponse page) {
+        return page.getItems().stream().map(LeaderboardEntryResponse::getUserId).toList();
+    }
+
+    @Test
+    void cursorRoundTripKeepsNanosecondPrecision() {
+        BangXepHangService.Cursor c = new BangXepHangService.Cursor(
+                1234, Instant.parse("2026-10-01T10:00:00.123456789Z"), 42L);
+
+        assertThat(BangXepHangService.decodeCursor(BangXepHangService.encodeCursor(c))).isEqualTo(c);
+    }
+
+    @Test
+    void cursorRoundTripWithNullTimestamp() {
+        BangXepHangService.Cursor c = new BangXepHangService.Cursor(0, null, 7L);
+
+        String encoded = BangXepHangService.encodeCursor(c);
+
+        assertThat(encoded).doesNotContain("=", "+", "/");
+        assertThat(BangXepHangService.decodeCursor(encoded)).isEqualTo(c);
+    }
+
+    @Test
+    void cursorRoundTripWithNegativeScoreAndPreEpochTime() {
+        BangXepHangService.Cursor c = new BangXepHangService.Cursor(
+                -15, Instant.parse("1969-12-31T23:59:59.5Z"), 3L);
+
+        assertThat(BangXepHangService.decodeCursor(BangXepHangService.encodeCursor(c))).isEqualTo(c);
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        String missingPart = Base64.getUrlEncoder().encodeToString("10:-".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> BangXepHangService.decodeCursor("%%%"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BangXepHangService.decodeCursor(missingPart))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void firstPageFetchesOneExtraRowToDetectNextPage() {
+        when(repository.findLeaderboardFirst(PageRequest.of(0, 3))).thenReturn(List.of(
+                row(1, 500, T), row(2, 300, null), row(3, 300, T)));
+
+        LeaderboardCursorResponse page = service.getGlobalLeaderboardByCursor(null, null, 2);
+
+        assertThat(ids(page)).containsExactly(1L, 2L);
+        assertThat(page.getPrevCursor()).isNull();
+        assertThat(page.getNextCursor()).isEqualTo(cursor(300, null, 2));
+        assertThat(page.getTotalItems()).isEqualTo(42L);
+    }
+
+    @Test
+    void lastPageHasNoNextCursor() {
+        when(repository.findLeaderboardAfter(300, T, 3L, PageRequest.of(0, 3))).thenReturn(List.of(row(4, 100, null)));
+
+        LeaderboardCursorResponse page = service.getGlobalLeaderboardByCursor(cursor(300, T, 3), null, 2);
+
+        assertThat(ids(page)).containsExactly(4L);
+        assertThat(page.getNextCursor()).isNull();
+        assertThat(page.getPrevCursor()).isEqualTo(cursor(100, null, 4));
+    }
+
+    @Test
+    void nullTimestampCursorUsesNullTimeQueries() {
+        when(repository.findLeaderboardAfterNullTime(anyInt(), anyLong(), any())).thenReturn(List.of());
+        when(repository.findLeaderboardBeforeNullTime(anyInt(), anyLong(), any())).thenReturn(List.of());
+
+        service.getGlobalLeaderboardByCursor(cursor(300, null, 2), null, 5);
+        service.getGlobalLeaderboardByCursor(null, cursor(300, null, 2), 5);
+
+        verify(repository).findLeaderboardAfterNullTime(300, 2L, PageRequest.of(0, 6));
+        verify(repository).findLeaderboardBeforeNullTime(300, 2L, PageRequest.of(0, 6));
+        verify(repository, never()).findLeaderboardAfter(anyInt(), any(), anyLong(), any());
+        verify(repository, never()).findLeaderboardBefore(anyInt(), any(), anyLong(), any());
+    }
+
+    @Test
+    void previousPageIsReversedBackIntoRankOrder() {
+        // Repository trả các dòng phía trên, gần con trỏ nhất trước
+        when(repository.findLeaderboardBefore(300, T, 5L, PageRequest.of(0, 3))).thenReturn(List.of(
+                row(3, 300, T), row(2, 300, null), row(1, 500, T)));
+
+        LeaderboardCursorResponse page = service.getGlobalLeaderboardByCursor(null, cursor(300, T, 5), 2);
+
+        assertThat(ids(page)).containsExactly(2L, 3L);
+        assertThat(page.getPrevCursor()).isEqualTo(cursor(300, null, 2));
+        assertThat(page.getNextCursor()).isEqualTo(cursor(300, T, 3));
+    }
+
+    @Test
+    void aroundUserSeeksBothWaysFromTheCallersRow() throws Exception {
+        BangXepHang me = row(4, 300, null);
+        when(repository.findByNguoiDung_Id(4L)).thenReturn(Optional.of(me));
+        when(repository.findLeaderboardBeforeNullTime(300, 4L, PageRequest.of(0, 3)))
+                .thenReturn(List.of(row(2, 300, null), row(8, 500, null)));
+        when(repository.findLeaderboardAfterNullTime(300, 4L, PageRequest.of(0, 3)))
+                .thenReturn(List.of(row(9, 300, T), row(3, 300, T), row(6, 300, T)));
+
+        LeaderboardCursorResponse res = service.getGlobalLeaderboardAroundUser(4L, 2);
+
+        assertThat(ids(res)).containsExactly(8L, 2L, 4L, 9L, 3L);
+        assertThat(res.getPrevCursor()).isNull();
+        assertThat(res.getNextCursor()).isEqualTo(cursor(300, T, 3));
+    }
+}
@@ -0,0 +1,68 @@
+package com.app.backend.services.chat;
+
+import com.app.backend.components.ChatRoomMembers;
+import com.app.backend.repositories.IPhongChatRepository;
+import com.app.backend.repositories.IThanhVienPhongChatRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChatUnreadServiceTest {
+
+    private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hash = mock(HashOperations.class);
+    private final IPhongChatRepository phongChatRepository = mock(IPhongChatRepository.class);
+    private final IThanhVienPhongChatRepository thanhVienRepository = mock(IThanhVienPhongChatRepository.class);
+    private final ChatRoomMembers chatRoomMembers = mock(ChatRoomMembers.class);
+    private final ChatUnreadService service =
+            new ChatUnreadService(redis, phongChatRepository, thanhVienRepository, chatRoomMembers);
+
+    ChatUnreadServiceTest() {
+        ReflectionTestUtils.setField(service, "ttlMs", 86400000L);
+        when(redis.opsForHash()).thenReturn(hash);
+    }
+
+    @Test
+    void seedCountsUpToWatermarkAndStoresIt() {
+        when(hash.multiGet(eq("chat:unread:1"), anyCollection())).thenReturn(Arrays.asList(null, null));
+        when(phongChatRepository.findMaxMessageId()).thenReturn(500L);
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{5L, 3L});
+        when(phongChatRepository.countUnreadGroupByPhongChat(1L, 500L)).thenReturn(rows);
+
+        assertThat(service.totalUnread(1L)).isEqualTo(3L);
+
+        verify(redis).execute(any(), eq(List.of("chat:unread:1")), eq("86400000"), eq("500"), eq("5"), eq("3"));
+    }
+
+    @Test
+    void newMessageCarriesItsIdSoSeededCountersSkipIt() {
+        when(chatRoomMembers.of(5L)).thenReturn(Set.of(1L, 2L));
+
+        service.onMessageSent(5L, 1L, 501L);
+
+        verify(redis).execute(any(), eq(List.of("chat:unread:2")), eq("5"), eq("1"), eq("501"), anyString());
+    }
+
+    @Test
+    void deleteIsNotGatedByWatermark() {
+        Instant guiLuc = Instant.parse("2025-01-01T00:00:00Z");
+        when(thanhVienRepository.findUserIdsUnreadSince(5L, 1L, guiLuc)).thenReturn(List.of(2L));
+
+        service.onMessageDeleted(5L, 1L, guiLuc);
+
+        verify(redis).execute(any(), eq(List.of("chat:unread:2")), eq("5"), eq("-1"), eq("0"), anyString());
+    }
+}
@@ -0,0 +1,188 @@
+package com.app.backend.services.chat;
+
+import com.app.backend.components.ChatRecentMessages;
+import com.app.backend.components.ChatRoomMembers;
+import com.app.backend.models.NguoiDung;
+import com.app.backend.models.PhongChat;
+import com.app.backend.models.TinNhanPhongChat;
+import com.app.backend.repositories.*;
+import com.app.backend.responses.chat.TinNhanCursorResponse;
+import com.app.backend.responses.chat.TinNhanResponse;
+import com.app.backend.services.search.ISearchIndexService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Mã hoá con trỏ + logic phân trang (bộ đệm → DB) của service trên repository giả;
+ * điều kiện WHERE / ORDER BY của các câu seek được kiểm tra trên DB thật ở ITinNhanPhongChatRepositoryTest.
+ */
+class PhongChatServiceTest {
+
+    private static final long ROOM = 1L;
+    private static final long USER = 100L;
+    private static final Instant T = Instant.parse("2026-10-01T10:00:00.000001Z");
+
+    private final ITinNhanPhongChatRepository tinNhanRepository = mock(ITinNhanPhongChatRepository.class);
+    private final ChatRoomMembers chatRoomMembers = mock(ChatRoomMembers.class);
+
+    @BeforeEach
+    void setUp() {
+        when(chatRoomMembers.isMember(ROOM, USER)).thenReturn(true);
+    }
+
+    private static TinNhanPhongChat message(long id, Instant guiLuc) {
+        return TinNhanPhongChat.builder()
+                .id(id)
+                .phongChat(PhongChat.builder().id(ROOM).build())
+                .guiBoi(NguoiDung.builder().id(id % 2 == 0 ? USER : 200L).build())
+                .noiDung("m" + id)
+                .guiLuc(guiLuc)
+                .build();
+    }
+
+    /**
+     * Các tin mới nhất trước, lần lượt id 9, 8, ..., 1 cách nhau 1 giây
+     */
+    private static List<TinNhanPhongChat> newestFirst(int count) {
+        List<TinNhanPhongChat> rows = new ArrayList<>();
+        for (int id = 9; id > 9 - count; id--) {
+            rows.add(message(id, T.plusSeconds(id)));
+        }
+        return rows;
+    }
+
+    private static String cursor(Instant guiLuc, long id) {
+        return PhongChatService.encodeCursor(new PhongChatService.MessageCursor(guiLuc, id));
+    }
+
+    private PhongChatService service(ChatRecentMessages recent) {
+        return new PhongChatService(mock(IPhongChatRepository.class), mock(IThanhVienPhongChatRepository.class),
+                tinNhanRepository, mock(INguoiDungRepository.class), mock(IKetBanRepository.class),
+                mock(IChatUnreadService.class), chatRoomMembers, recent, mock(ISearchIndexService.class));
+    }
+
+    private static ChatRecentMessages recentMessages(int capacity) {
+        ChatRecentMessages recent = new ChatRecentMessages(mock(StringRedisTemplate.class),
+                mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(recent, "capacity", capacity);
+        ReflectionTestUtils.setField(recent, "maxRooms", 10L);
+        ReflectionTestUtils.setField(recent, "expireAfterAccessMs", 60_000L);
+        ReflectionTestUtils.setField(recent, "invalidationChannel", "test");
+        recent.init();
+        return recent;
+    }
+
+    private static List<Long> ids(TinNhanCursorResponse page) {
+        return page.getItems().stream().map(TinNhanResponse::getId).toList();
+    }
+
+    @Test
+    void cursorRoundTripKeepsNanosecondPrecision() {
+        PhongChatService.MessageCursor c =
+                new PhongChatService.MessageCursor(Instant.parse("2026-10-01T10:00:00.123456789Z"), 42L);
+
+        assertThat(PhongChatService.decodeCursor(PhongChatService.encodeCursor(c))).isEqualTo(c);
+    }
+
+    @Test
+    void cursorRoundTripWithNullTimestamp() {
+        PhongChatService.MessageCursor c = new PhongChatService.MessageCursor(null, 7L);
+
+        assertThat(PhongChatService.decodeCursor(PhongChatService.encodeCursor(c))).isEqualTo(c);
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertThatThrownBy(() -> PhongChatService.decodeCursor("not a cursor"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void withoutBufferFirstPageFetchesOneExtraRow() throws Exception {
+        when(tinNhanRepository.findLatest(ROOM, PageRequest.of(0, 3))).thenReturn(newestFirst(3));
+
+        TinNhanCursorResponse page = service(mock(ChatRecentMessages.class)).getMessagesByCursor(USER, ROOM, null, 2);
+
+        assertThat(ids(page)).containsExactly(9L, 8L);
+        assertThat(page.isHasMore()).isTrue();
+        assertThat(page.getNextCursor()).isEqualTo(cursor(T.plusSeconds(8), 8));
+    }
+
+    @Test
+    void cursorPicksSeekQueryByTimestamp() throws Exception {
+        PhongChatService service = service(mock(ChatRecentMessages.class));
+        when(tinNhanRepository.findOlderThan(eq(ROOM), any(), anyLong(), any())).thenReturn(List.of(message(3, T)));
+        when(tinNhanRepository.findOlderThanNullTime(eq(ROOM), anyLong(), any())).thenReturn(List.of());
+
+        TinNhanCursorResponse timed = service.getMessagesByCursor(USER, ROOM, cursor(T.plusSeconds(4), 4), 2);
+        TinNhanCursorResponse nullTime = service.getMessagesByCursor(USER, ROOM, cursor(null, 5), 2);
+
+        verify(tinNhanRepository).findOlderThan(ROOM, T.plusSeconds(4), 4L, PageRequest.of(0, 3));
+        verify(tinNhanRepository).findOlderThanNullTime(ROOM, 5L, PageRequest.of(0, 3));
+        assertThat(ids(timed)).containsExactly(3L);
+        assertThat(timed.getNextCursor()).isNull();
+        assertThat(nullTime.getItems()).isEmpty();
+        assertThat(nullTime.isHasMore()).isFalse();
+    }
+
+    @Test
+    void completeBufferServesEveryPageWithoutDatabaseSeek() throws Exception {
+        // Phòng có 4 tin < capacity → bộ đệm là toàn bộ phòng
+        when(tinNhanRepository.findLatest(ROOM, PageRequest.of(0, 50))).thenReturn(newestFirst(4));
+        PhongChatService service = service(recentMessages(50));
+
+        List<Long> seen = new ArrayList<>();
+        String next = null;
+        do {
+            TinNhanCursorResponse page = service.getMessagesByCursor(USER, ROOM, next, 3);
+            seen.addAll(ids(page));
+            next = page.getNextCursor();
+        } while (next != null);
+
+        assertThat(seen).containsExactly(9L, 8L, 7L, 6L);
+        verify(tinNhanRepository, times(1)).findLatest(anyLong(), any());
+        verify(tinNhanRepository, never()).findOlderThan(anyLong(), any(), anyLong(), any());
+        verify(tinNhanRepository, never()).findOlderThanNullTime(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void pastTheBufferFallsBackToDatabaseSeekFromTheCursor() throws Exception {
+        // Bộ đệm đầy (5 tin = capacity) → có thể còn tin cũ hơn trong DB
+        when(tinNhanRepository.findLatest(ROOM, PageRequest.of(0, 5))).thenReturn(newestFirst(5));
+        when(tinNhanRepository.findOlderThan(eq(ROOM), any(), anyLong(), any())).thenReturn(newestFirst(9).subList(5, 8));
+        PhongChatService service = service(recentMessages(5));
+
+        TinNhanCursorResponse first = service.getMessagesByCursor(USER, ROOM, null, 5);
+        assertThat(ids(first)).containsExactly(9L, 8L, 7L, 6L, 5L);
+        assertThat(first.isHasMore()).isTrue();
+
+        TinNhanCursorResponse older = service.getMessagesByCursor(USER, ROOM, first.getNextCursor(), 2);
+        verify(tinNhanRepository).findOlderThan(ROOM, T.plusSeconds(5), 5L, PageRequest.of(0, 3));
+        assertThat(ids(older)).containsExactly(4L, 3L);
+        assertThat(older.isHasMore()).isTrue();
+    }
+
+    @Test
+    void viewerFlagIsFilledPerRequest() throws Exception {
+        when(tinNhanRepository.findLatest(ROOM, PageRequest.of(0, 50))).thenReturn(newestFirst(4));
+
+        TinNhanCursorResponse page = service(recentMessages(50)).getMessagesByCursor(USER, ROOM, null, 10);
+
+        assertThat(page.getItems()).allSatisfy(m ->
+                assertThat(m.getLaToi()).isEqualTo(m.getId() % 2 == 0));
+        assertThat(ids(page)).containsExactly(9L, 8L, 7L, 6L);
+    }
+}
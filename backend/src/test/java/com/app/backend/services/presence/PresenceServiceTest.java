@@ -0,0 +1,98 @@
+package com.app.backend.services.presence;
+
+import com.app.backend.components.WsBroadcaster;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PresenceServiceTest {
+
+    private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+    private final WsBroadcaster wsBroadcaster = mock(WsBroadcaster.class);
+    private final ThreadPoolTaskScheduler scheduler = mock(ThreadPoolTaskScheduler.class);
+    private final List<Runnable> submitted = new ArrayList<>();
+
+    private PresenceService service(String mode) {
+        PresenceService service = new PresenceService(redis, wsBroadcaster, scheduler, submitted::add);
+        ReflectionTestUtils.setField(service, "mode", mode);
+        ReflectionTestUtils.setField(service, "ttlMs", 45000L);
+        ReflectionTestUtils.setField(service, "heartbeatIntervalMs", 15000L);
+        service.init();
+        return service;
+    }
+
+    @Test
+    void heartbeatTimerOnlyHandsWorkToExecutor() {
+        PresenceService service = service(PresenceService.MODE_REDIS);
+        service.connect("s1", 1L, null, 1L);
+        clearInvocations(redis);
+
+        ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).scheduleWithFixedDelay(timer.capture(), any(Duration.class));
+
+        // Tick trên luồng timer: không chạm Redis
+        timer.getValue().run();
+        verifyNoInteractions(redis);
+        assertThat(submitted).hasSize(1);
+
+        // Heartbeat thật chạy trên executor
+        submitted.get(0).run();
+        verify(redis).execute(any(), eq(List.of("presence:u:1")), any(Object[].class));
+    }
+
+    @Test
+    void localModeSchedulesNothing() {
+        service("local");
+
+        verifyNoInteractions(scheduler);
+    }
+
+    @Test
+    void onlyAuthenticatedUserGoesOnline() {
+        PresenceService service = service("local");
+
+        service.connect("battle", null, 9L, 2L);
+        assertThat(service.isOnline(2L)).isFalse();
+        verifyNoInteractions(wsBroadcaster);
+
+        service.connect("chat", 1L, null, 1L);
+        assertThat(service.isOnline(1L)).isTrue();
+        verify(wsBroadcaster).convertAndSend(eq("/topic/user-status"), (Object) argThat(payload ->
+                ((Map<?, ?>) payload).get("data").equals(Map.of("userId", 1L, "online", true))));
+    }
+
+    @Test
+    void disconnectReturnsPlayerForBattleLeave() {
+        PresenceService service = service("local");
+        service.connect("battle", null, 9L, 2L);
+
+        assertThat(service.disconnect("battle"))
+                .contains(new IPresenceService.SessionInfo("battle", null, 9L, 2L));
+        assertThat(service.disconnect("battle")).isEmpty();
+        verifyNoInteractions(wsBroadcaster);
+    }
+
+    @Test
+    void anonymousSessionDoesNotTrackChatViewers() {
+        PresenceService service = service("local");
+        service.connect("battle", null, null, 2L);
+        service.connect("chat", 1L, null, 1L);
+
+        service.subscribeChat("battle", "sub-0", 5L);
+        service.subscribeChat("chat", "sub-0", 5L);
+
+        assertThat(service.isViewingChat(5L, 2L)).isFalse();
+        assertThat(service.isViewingChat(5L, 1L)).isTrue();
+    }
+}
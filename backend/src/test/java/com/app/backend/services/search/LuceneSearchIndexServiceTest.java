@@ -0,0 +1,107 @@
+package com.app.backend.services.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class LuceneSearchIndexServiceTest {
+
+    @TempDir
+    Path indexDir;
+
+    private final ThreadPoolTaskScheduler scheduler = mock(ThreadPoolTaskScheduler.class);
+    private final List<Runnable> submitted = new ArrayList<>();
+    private final Executor taskExecutor = submitted::add;
+    private LuceneSearchIndexService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) service.shutdown();
+    }
+
+    private LuceneSearchIndexService service(int maxHits) {
+        service = new LuceneSearchIndexService(mock(JdbcTemplate.class), mock(StringRedisTemplate.class),
+                mock(RedisMessageListenerContainer.class), scheduler, taskExecutor);
+        ReflectionTestUtils.setField(service, "indexDir", indexDir.toString());
+        ReflectionTestUtils.setField(service, "maxHits", maxHits);
+        ReflectionTestUtils.setField(service, "refreshIntervalMs", 1000L);
+        ReflectionTestUtils.setField(service, "commitIntervalMs", 30000L);
+        ReflectionTestUtils.setField(service, "channel", "search:index");
+        service.init();
+        return service;
+    }
+
+    /**
+     * Ghi tài liệu (ngoài transaction → ghi ngay), đánh dấu sẵn sàng và làm mới reader
+     */
+    private void index(SearchDocument... documents) {
+        for (SearchDocument document : documents) {
+            service.apply(document);
+        }
+        service.start();
+        ArgumentCaptor<Runnable> timers = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, atLeastOnce()).scheduleWithFixedDelay(timers.capture(), any(Duration.class));
+        timers.getAllValues().forEach(Runnable::run);
+        submitted.forEach(Runnable::run);
+        submitted.clear();
+    }
+
+    @Test
+    void withinFiltersBeforeTheHitCap() {
+        service(2);
+        index(new SearchDocument(SearchType.NGUOI_DUNG, 1L, null, "Nguyễn An"),
+                new SearchDocument(SearchType.NGUOI_DUNG, 2L, null, "Nguyễn Bình"),
+                new SearchDocument(SearchType.NGUOI_DUNG, 3L, null, "Nguyễn Chi"),
+                new SearchDocument(SearchType.NGUOI_DUNG, 4L, null, "Nguyễn Dũng"));
+
+        // Không lọc: 2 người mới nhất chiếm hết max-hits
+        assertThat(service.search(SearchType.NGUOI_DUNG, "nguyen", null)).contains(List.of(4L, 3L));
+        // Lọc trên chỉ mục: người ngoài phạm vi không chiếm chỗ
+        assertThat(service.search(SearchType.NGUOI_DUNG, "nguyen", null, List.of(1L, 2L))).contains(List.of(2L, 1L));
+        assertThat(service.search(SearchType.NGUOI_DUNG, "nguyen", null, List.of())).contains(List.of());
+    }
+
+    @Test
+    void removedMessageLeavesTheIndex() {
+        service(10);
+        index(new SearchDocument(SearchType.TIN_NHAN, 1L, 5L, "xin chào"),
+                new SearchDocument(SearchType.TIN_NHAN, 2L, 5L, "chào bạn"),
+                new SearchDocument(SearchType.TIN_NHAN, 3L, 6L, "chào"));
+
+        index(new SearchDocument(SearchType.TIN_NHAN, 2L, 5L, null));
+
+        assertThat(service.search(SearchType.TIN_NHAN, "chao", 5L)).contains(List.of(1L));
+    }
+
+    @Test
+    void timersOnlyHandRefreshAndCommitToTheExecutor() {
+        service(1000);
+
+        ArgumentCaptor<Runnable> timers = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(2)).scheduleWithFixedDelay(timers.capture(), any(Duration.class));
+
+        // Tick của timer chỉ đẩy việc sang executor, không tự làm I/O trên luồng timer
+        timers.getAllValues().forEach(Runnable::run);
+        assertThat(submitted).hasSize(2);
+        verifyNoMoreInteractions(scheduler);
+
+        // Việc thật chạy được trên executor
+        submitted.forEach(Runnable::run);
+    }
+}
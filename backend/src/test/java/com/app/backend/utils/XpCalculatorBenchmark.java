@@ -0,0 +1,88 @@
+package com.app.backend.utils;
+
+import com.app.backend.models.enums.PhanThuongCapDo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh bảng XP dựng sẵn với công thức sqrt cũ và tra milestone bằng mảng với quét values().
+ * Không chạy trong mvn test – chạy tay sau mvn test-compile: main() của class này (IDE hoặc java -cp ...).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XpCalculatorBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private final long[] xps = new long[SAMPLES];
+    private final int[] levels = new int[SAMPLES];
+    private int i;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        long maxXp = XpCalculator.xpRequiredForLevel(XpCalculator.MAX_LEVEL + 1);
+        for (int k = 0; k < SAMPLES; k++) {
+            xps[k] = random.nextLong(maxXp);
+            levels[k] = 1 + random.nextInt(XpCalculator.MAX_LEVEL + 1);
+        }
+    }
+
+    private int next() {
+        return i = (i + 1) & (SAMPLES - 1);
+    }
+
+    @Benchmark
+    public int calculateLevelTable() {
+        return XpCalculator.calculateLevel(xps[next()]);
+    }
+
+    @Benchmark
+    public int calculateLevelFormula() {
+        return XpCalculatorTest.formulaLevel(xps[next()]);
+    }
+
+    @Benchmark
+    public long xpRequiredTable() {
+        return XpCalculator.xpRequiredForLevel(levels[next()]);
+    }
+
+    @Benchmark
+    public long xpRequiredFormula() {
+        return XpCalculatorTest.formulaXp(levels[next()]);
+    }
+
+    @Benchmark
+    public XpCalculator.LevelInfo computeLevelInfo() {
+        return XpCalculator.computeLevelInfo(xps[next()]);
+    }
+
+    @Benchmark
+    public PhanThuongCapDo milestoneTable() {
+        return PhanThuongCapDo.findByLevel(levels[next()]);
+    }
+
+    @Benchmark
+    public PhanThuongCapDo milestoneScan() {
+        int level = levels[next()];
+        for (PhanThuongCapDo pt : PhanThuongCapDo.values()) {
+            if (pt.getCapDo() == level) return pt;
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(XpCalculatorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
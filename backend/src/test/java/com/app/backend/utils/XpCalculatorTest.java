@@ -0,0 +1,88 @@
+package com.app.backend.utils;
+
+import com.app.backend.models.enums.PhanThuongCapDo;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class XpCalculatorTest {
+
+    private static final int MAX = XpCalculator.MAX_LEVEL;
+
+    /**
+     * Công thức gốc: XP_total = level * (level - 1) * 75
+     */
+    static long formulaXp(int level) {
+        if (level <= 1) return 0;
+        return (long) level * (level - 1) * 75;
+    }
+
+    /**
+     * Cách tính level cũ (sqrt + floating point), trước khi dùng bảng
+     */
+    static int formulaLevel(long totalXp) {
+        if (totalXp <= 0) return 1;
+        double level = (1 + Math.sqrt(1 + (4.0 * totalXp) / 75)) / 2.0;
+        return Math.min(Math.max(1, (int) Math.floor(level)), MAX);
+    }
+
+    @Test
+    void tableMatchesFormulaForEveryLevel() {
+        for (int level = 1; level <= MAX + 1; level++) {
+            assertThat(XpCalculator.xpRequiredForLevel(level)).as("level %d", level).isEqualTo(formulaXp(level));
+        }
+        // Ngoài bảng vẫn theo công thức
+        assertThat(XpCalculator.xpRequiredForLevel(0)).isZero();
+        assertThat(XpCalculator.xpRequiredForLevel(-3)).isZero();
+        assertThat(XpCalculator.xpRequiredForLevel(MAX + 2)).isEqualTo(formulaXp(MAX + 2));
+    }
+
+    @Test
+    void levelAtBoundaryXpMatchesFormula() {
+        for (int level = 1; level <= MAX + 1; level++) {
+            long boundary = formulaXp(level);
+            for (long xp : new long[]{boundary - 1, boundary, boundary + 1}) {
+                assertThat(XpCalculator.calculateLevel(xp)).as("xp %d", xp).isEqualTo(formulaLevel(xp));
+            }
+            if (level <= MAX) {
+                assertThat(XpCalculator.calculateLevel(boundary)).isEqualTo(level);
+            }
+            if (level >= 2 && level <= MAX) {
+                assertThat(XpCalculator.calculateLevel(boundary - 1)).isEqualTo(level - 1);
+            }
+        }
+    }
+
+    @Test
+    void levelIsClampedOutsideTheTable() {
+        assertThat(XpCalculator.calculateLevel(Long.MIN_VALUE)).isEqualTo(1);
+        assertThat(XpCalculator.calculateLevel(-1)).isEqualTo(1);
+        assertThat(XpCalculator.calculateLevel(0)).isEqualTo(1);
+        assertThat(XpCalculator.calculateLevel(formulaXp(MAX + 5))).isEqualTo(MAX);
+        assertThat(XpCalculator.calculateLevel(Long.MAX_VALUE)).isEqualTo(MAX);
+    }
+
+    @Test
+    void levelInfoAtMaxLevelUsesNextTableEntry() {
+        XpCalculator.LevelInfo info = XpCalculator.computeLevelInfo(formulaXp(MAX));
+
+        assertThat(info.getLevel()).isEqualTo(MAX);
+        assertThat(info.getXpInCurrentLevel()).isZero();
+        assertThat(info.getXpNeededForNext()).isEqualTo(formulaXp(MAX + 1) - formulaXp(MAX));
+        assertThat(info.getXpNeededForNext()).isEqualTo(XpCalculator.xpNeededForNextLevel(MAX));
+    }
+
+    @Test
+    void milestoneTableMatchesScan() {
+        for (int level = -1; level <= MAX + 1; level++) {
+            PhanThuongCapDo expected = null;
+            for (PhanThuongCapDo pt : PhanThuongCapDo.values()) {
+                if (pt.getCapDo() == level) {
+                    expected = pt;
+                    break;
+                }
+            }
+            assertThat(PhanThuongCapDo.findByLevel(level)).as("level %d", level).isEqualTo(expected);
+        }
+    }
+}
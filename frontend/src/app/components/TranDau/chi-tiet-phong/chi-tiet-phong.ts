@@ -21,7 +21,7 @@ import { LichSuTranDauResponse } from '../../../responses/trandau/lichsutrandau'
 import { NguoiChoiTrongPhongResponse } from '../../../responses/trandau/nguoi-choi-trong-phong-response';
 import { SyncStateResponse } from '../../../responses/trandau/syncstate-response';
 import { TranDauResponse } from '../../../responses/trandau/trandau-response';
-import { BattleEvent } from '../../../services/ws-trandau.service';
+import { BattleEvent, ScoreUpdatePayload } from '../../../services/ws-trandau.service';
 import { Base } from '../../base/base';
 
 import { PickerComponent } from '@ctrl/ngx-emoji-mart';
@@ -622,6 +622,36 @@ export class ChiTietPhong extends Base implements OnInit, OnDestroy {
   // =====================================================
   // WEBSOCKET EVENT HANDLER
   // =====================================================
+  /** Kết quả nộp bài của chính mình (SCORE_UPDATE lẻ hoặc 1 dòng trong SCORE_BATCH) */
+  private handleMyScore(evt: ScoreUpdatePayload) {
+    const myId = this.userService.getUserId();
+    if (evt.user_id !== myId) return;
+
+    // 1. Lưu thông tin vào biến tạm để dành
+    this.pendingResult.set({
+      correct: evt.correct,
+      gainedPoints: evt.gained_points || 0,
+      combo: evt.combo_streak || 0,
+      totalPoints: evt.total_points,
+    });
+
+    // 2. Chỉ hiện thông báo chờ (Suspense)
+    Swal.fire({
+      icon: 'info',
+      title: 'Đã nộp đáp án!',
+      text: 'Đang chờ kết quả...',
+      toast: true,
+      position: 'top',
+      showConfirmButton: false,
+      timer: 3000, // Hiện lâu một chút cho đến khi hết giờ
+      background: '#f0f9ff',
+      color: '#0284c7',
+    });
+
+    // Đánh dấu đã nộp để disable nút
+    this.submittedCurrentAnswer.set(true);
+  }
+
   handleBattleEvent(evt: BattleEvent) {
     // console.log('📡 WS Event:', evt);
     switch (evt.type) {
@@ -802,33 +832,39 @@ export class ChiTietPhong extends Base implements OnInit, OnDestroy {
         break;
       }
       case 'SCORE_UPDATE':
+        this.handleMyScore(evt);
+        break;
+
+      case 'SCORE_BATCH': {
+        // Server gom SCORE_UPDATE của cả phòng theo cửa sổ ngắn → chỉ quan tâm dòng của mình
         const myId = this.userService.getUserId();
-        if (evt.user_id !== myId) return;
-
-        // 1. Lưu thông tin vào biến tạm để dành
-        this.pendingResult.set({
-          correct: evt.correct,
-          gainedPoints: evt.gained_points || 0,
-          combo: evt.combo_streak || 0,
-          totalPoints: evt.total_points,
-        });
+        const mine = evt.updates?.find((u) => u.user_id === myId);
+        if (mine) this.handleMyScore(mine);
+        break;
+      }
 
-        // 2. Chỉ hiện thông báo chờ (Suspense)
-        Swal.fire({
-          icon: 'info',
-          title: 'Đã nộp đáp án!',
-          text: 'Đang chờ kết quả...',
-          toast: true,
-          position: 'top',
-          showConfirmButton: false,
-          timer: 3000, // Hiện lâu một chút cho đến khi hết giờ
-          background: '#f0f9ff',
-          color: '#0284c7',
+      case 'LEADERBOARD_DELTA': {
+        // Chỉ các dòng đổi điểm / đổi hạng → vá vào bảng đang giữ (bản đầy đủ tới định kỳ qua LEADERBOARD_UPDATE)
+        const changed = new Map((evt.players || []).map((p) => [p.user_id, p]));
+        this.leaderboard.update((list) => {
+          const merged = list.map((p) => {
+            const row = changed.get(p.user_id);
+            if (!row) return p;
+            changed.delete(p.user_id);
+            return { ...p, ...row };
+          });
+          // @ts-ignore
+          changed.forEach((row) => merged.push(row));
+          return merged.sort((a, b) => a.xep_hang - b.xep_hang);
         });
-
-        // Đánh dấu đã nộp để disable nút
-        this.submittedCurrentAnswer.set(true);
+        if (evt.tong_nguoi_choi) {
+          this.onlineCount.set(evt.tong_nguoi_choi);
+        }
+        setTimeout(() => {
+          this.showRoundLeaderboard.set(true);
+        }, 2000); // Sau 2 giây mới hiện BXH
         break;
+      }
 
       case 'LEADERBOARD_UPDATE': {
         // @ts-ignore
@@ -860,6 +896,26 @@ export class ChiTietPhong extends Base implements OnInit, OnDestroy {
 
         this.showSummary.set(true);
         this.clearTimer();
+        // XP / vàng / thành tích tới sau qua PLAYER_SETTLED
+        break;
+      }
+
+      case 'PLAYER_SETTLED': {
+        // Chỉ gửi riêng cho chính mình qua /user/queue/battle
+        if (!this.finalResult) break;
+        const settled: Partial<FinishedPlayer> = {
+          ...(evt.reward ?? {}),
+          new_achievements: evt.new_achievements ?? [],
+        };
+        this.finalResult = {
+          ...this.finalResult,
+          leaderboard: this.finalResult.leaderboard.map((p) =>
+            p.user_id === evt.user_id ? { ...p, ...settled } : p
+          ),
+        };
+        if (evt.user_id !== this.finalResult.myId) break;
+
+        this.mySummaryRow = this.finalResult.leaderboard.find((p) => p.user_id === evt.user_id);
         if (this.user?.id) {
           this.loadUserSummary(this.user.id);
         }
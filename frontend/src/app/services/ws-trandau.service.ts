@@ -7,6 +7,10 @@ import { Injectable, NgZone } from '@angular/core';
 import { Client, IMessage, StompSubscription } from '@stomp/stompjs';
 import SockJS from 'sockjs-client';
 import { environment } from '../environments/environment';
+import { MatchRewardResponse } from '../responses/trandau/match-reward-response';
+import { AchievementResponse } from '../responses/thanhtich/achievement-response';
+
+const USER_BATTLE_QUEUE = '/user/queue/battle';
 
 // ---- Kiểu dữ liệu sự kiện trận đấu ----
 export type BattleEvent =
@@ -41,22 +45,15 @@ export type BattleEvent =
       giai_thich?: string; // Có thể null hoặc string
       timestamp?: string;
     }
+  | ScoreUpdatePayload
   | {
-      type: 'SCORE_UPDATE';
+      type: 'SCORE_BATCH';
       tran_dau_id: number;
-      user_id: number;
-      ho_ten: string;
-      correct: boolean;
-      gained_points: number;
-      total_points: number;
-      question_index: number;
-      timestamp: string;
-      combo_streak?: number;
-      combo_bonus?: number;
-      combo_multiplier?: number;
+      updates: ScoreUpdatePayload[]; // mỗi người chơi tối đa 1 dòng (bản mới nhất trong cửa sổ gom)
     }
   | {
-      type: 'LEADERBOARD_UPDATE';
+      // UPDATE: toàn bộ bảng; DELTA: chỉ các dòng đổi điểm / đổi hạng → vá vào bảng đang giữ
+      type: 'LEADERBOARD_UPDATE' | 'LEADERBOARD_DELTA';
       tran_dau_id: number;
       players: Array<{
         user_id: number;
@@ -65,6 +62,7 @@ export type BattleEvent =
         so_cau_dung: number;
         xep_hang: number;
       }>;
+      tong_nguoi_choi?: number;
     }
   | {
       type: 'FINISHED';
@@ -89,6 +87,13 @@ export type BattleEvent =
         max_combo?: number;
       }>;
     }
+  | {
+      type: 'PLAYER_SETTLED';
+      tran_dau_id: number;
+      user_id: number;
+      reward?: MatchRewardResponse | null; // null nếu trận thường
+      new_achievements?: AchievementResponse[];
+    }
   | {
       type: 'CHAT_MESSAGE';
       tran_dau_id: number;
@@ -124,6 +129,21 @@ export type BattleEvent =
       timestamp: string;
     };
 
+export interface ScoreUpdatePayload {
+  type: 'SCORE_UPDATE';
+  tran_dau_id: number;
+  user_id: number;
+  ho_ten: string;
+  correct: boolean;
+  gained_points: number;
+  total_points: number;
+  question_index: number;
+  timestamp: string;
+  combo_streak?: number;
+  combo_bonus?: number;
+  combo_multiplier?: number;
+}
+
 export interface QuestionPayload {
   id: number;
   noi_dung: string;
@@ -234,8 +254,16 @@ export class WsTrandauService {
 
   subscribeBattle(tranDauId: number, cb: (ev: any) => void) {
     const topic = `/topic/battle.${tranDauId}`;
-    this.unsubscribe(topic);
-    const sub = this.client!.subscribe(topic, (msg: IMessage) => {
+    this.listen(topic, cb);
+    // Sự kiện riêng của mình (PLAYER_SETTLED) – server gửi theo principal của phiên (Authorization lúc CONNECT)
+    this.listen(USER_BATTLE_QUEUE, (ev) => {
+      if (ev?.tran_dau_id === tranDauId) cb(ev);
+    });
+  }
+
+  private listen(destination: string, cb: (ev: any) => void) {
+    this.unsubscribe(destination);
+    const sub = this.client!.subscribe(destination, (msg: IMessage) => {
       try {
         const payload = JSON.parse(msg.body);
         this.zone.run(() => cb(payload));
@@ -243,7 +271,7 @@ export class WsTrandauService {
         console.error('❌ WS parse error:', err);
       }
     });
-    this.subs[topic] = sub;
+    this.subs[destination] = sub;
   }
 
   unsubscribe(topic: string) {